@@ -0,0 +1,398 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.annotation.UiThreadTest;
+import android.support.test.rule.UiThreadTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.widget.FrameLayout;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+import com.example.android.sunshine.utilities.SunshineWeatherUtils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests that the rows ForecastLoader formats show exactly what ForecastAdapter used to work out
+ * from the cursor on every bind, that swapping rows only rebinds the days that changed, and logs
+ * how much cheaper binding a precomputed row is.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastAdapter {
+
+    private static final String TAG = TestForecastAdapter.class.getSimpleName();
+
+    /* Far longer than a real forecast, so that every row is bound many times over */
+    private static final int BENCHMARK_DAYS = 1000;
+    private static final int BENCHMARK_ROUNDS = 5;
+
+    /* A real forecast */
+    private static final int FORECAST_DAYS = 14;
+
+    private static final long SWAP_TIMEOUT_SECONDS = 5;
+
+    private static final int[] WEATHER_IDS = {200, 301, 501, 511, 601, 741, 800, 801, 803, 905};
+
+    @Rule
+    public final UiThreadTestRule mUiThreadTestRule = new UiThreadTestRule();
+
+    private final Context mContext = new ContextThemeWrapper(
+            InstrumentationRegistry.getTargetContext(), R.style.AppTheme);
+
+    @Test
+    public void testRowsMatchCursorFormatting() {
+        Cursor cursor = createForecastCursor(60);
+        List<ForecastRow> rows = ForecastRow.fromCursor(mContext, cursor);
+        assertEquals(cursor.getCount(), rows.size());
+
+        for (int position = 0; position < rows.size(); position++) {
+            cursor.moveToPosition(position);
+            ForecastRow row = rows.get(position);
+            String message = "Row " + position;
+
+            int weatherId = cursor.getInt(MainActivity.INDEX_WEATHER_CONDITION_ID);
+            long date = cursor.getLong(MainActivity.INDEX_WEATHER_DATE);
+            String description =
+                    SunshineWeatherUtils.getStringForWeatherCondition(mContext, weatherId);
+            String high = SunshineWeatherUtils.formatTemperature(mContext,
+                    cursor.getDouble(MainActivity.INDEX_WEATHER_MAX_TEMP));
+            String low = SunshineWeatherUtils.formatTemperature(mContext,
+                    cursor.getDouble(MainActivity.INDEX_WEATHER_MIN_TEMP));
+
+            assertEquals(message, date, row.date);
+            assertEquals(message,
+                    SunshineWeatherUtils.getLargeArtResourceIdForWeatherCondition(weatherId),
+                    row.largeIconResourceId);
+            assertEquals(message,
+                    SunshineWeatherUtils.getSmallArtResourceIdForWeatherCondition(weatherId),
+                    row.smallIconResourceId);
+            assertEquals(message,
+                    SunshineDateUtils.getFriendlyDateString(mContext, date, false), row.dateText);
+            assertEquals(message, description, row.description);
+            assertEquals(message,
+                    mContext.getString(R.string.a11y_forecast, description), row.descriptionA11y);
+            assertEquals(message, high, row.highText);
+            assertEquals(message, mContext.getString(R.string.a11y_high_temp, high), row.highA11y);
+            assertEquals(message, low, row.lowText);
+            assertEquals(message, mContext.getString(R.string.a11y_low_temp, low), row.lowA11y);
+        }
+        cursor.close();
+    }
+
+    @Test
+    @UiThreadTest
+    public void testBindShowsRow() {
+        Cursor cursor = createForecastCursor(14);
+        List<ForecastRow> rows = ForecastRow.fromCursor(mContext, cursor);
+        cursor.close();
+
+        ForecastAdapter adapter = new ForecastAdapter(mContext, null);
+        adapter.swapRows(rows);
+        assertEquals(rows.size(), adapter.getItemCount());
+
+        FrameLayout parent = new FrameLayout(mContext);
+        for (int position = 0; position < rows.size(); position++) {
+            ForecastAdapter.ForecastAdapterViewHolder holder = adapter.onCreateViewHolder(
+                    parent, adapter.getItemViewType(position));
+            adapter.onBindViewHolder(holder, position);
+
+            ForecastRow row = rows.get(position);
+            assertEquals(row.dateText, holder.dateView.getText().toString());
+            assertEquals(row.description, holder.descriptionView.getText().toString());
+            assertEquals(row.descriptionA11y,
+                    holder.descriptionView.getContentDescription().toString());
+            assertEquals(row.highText, holder.highTempView.getText().toString());
+            assertEquals(row.highA11y,
+                    holder.highTempView.getContentDescription().toString());
+            assertEquals(row.lowText, holder.lowTempView.getText().toString());
+            assertEquals(row.lowA11y,
+                    holder.lowTempView.getContentDescription().toString());
+        }
+
+        adapter.swapRows(null);
+        assertEquals(0, adapter.getItemCount());
+    }
+
+    /**
+     * Checks how many rows are bound again for the kinds of change a sync typically brings, and
+     * logs it next to the FORECAST_DAYS rows notifyDataSetChanged would rebind every time.
+     */
+    @Test
+    public void testSyncsRebindOnlyChangedDays() throws InterruptedException {
+        ForecastAdapter adapter = new ForecastAdapter(mContext, null);
+        RebindCounter counter = new RebindCounter();
+        adapter.registerAdapterDataObserver(counter);
+
+        List<ForecastRow> forecast = createRows(0, FORECAST_DAYS, 0);
+        swapRows(adapter, forecast);
+        assertEquals(FORECAST_DAYS, counter.rebinds);
+
+        String[] patterns = {
+                "Nothing changed",
+                "Today's forecast changed",
+                "Every day changed",
+                "A day went by",
+        };
+        List<List<ForecastRow>> syncs = new ArrayList<>();
+        syncs.add(createRows(0, FORECAST_DAYS, 0));
+        syncs.add(createRows(0, FORECAST_DAYS, 1));
+        syncs.add(createRows(0, FORECAST_DAYS, FORECAST_DAYS));
+        syncs.add(createRows(1, FORECAST_DAYS, 0));
+        int[] expectedRebinds = {0, 1, FORECAST_DAYS, 1};
+        int[] expectedRemovals = {0, 0, 0, 1};
+
+        for (int i = 0; i < patterns.length; i++) {
+            swapRows(adapter, forecast);
+            counter.reset();
+
+            swapRows(adapter, syncs.get(i));
+            assertEquals(patterns[i], syncs.get(i).size(), adapter.getItemCount());
+            assertFalse(patterns[i], counter.dataSetChanged);
+            assertEquals(patterns[i], expectedRebinds[i], counter.rebinds);
+            assertEquals(patterns[i], expectedRemovals[i], counter.removals);
+
+            Log.i(TAG, patterns[i] + ": " + counter.rebinds + " rows rebound, instead of "
+                    + FORECAST_DAYS);
+        }
+    }
+
+    @Test
+    public void testOnlyTheLatestRowsAreShown() throws InterruptedException {
+        final ForecastAdapter adapter = new ForecastAdapter(mContext, null);
+        swapRows(adapter, createRows(0, FORECAST_DAYS, 0));
+
+        /* Swapped twice before either comparison can be done */
+        final List<ForecastRow> outdated = createRows(0, FORECAST_DAYS, 1);
+        final List<ForecastRow> latest = createRows(1, FORECAST_DAYS, 2);
+        final boolean[] outdatedShown = new boolean[1];
+        final CountDownLatch latestShown = new CountDownLatch(1);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                adapter.swapRows(outdated, new Runnable() {
+                    @Override
+                    public void run() {
+                        outdatedShown[0] = true;
+                    }
+                });
+                adapter.swapRows(latest, new Runnable() {
+                    @Override
+                    public void run() {
+                        latestShown.countDown();
+                    }
+                });
+            }
+        });
+        assertTrue(latestShown.await(SWAP_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        assertFalse("The outdated rows should have been dropped", outdatedShown[0]);
+        assertEquals(latest.size(), adapter.getItemCount());
+        for (int position = 0; position < latest.size(); position++) {
+            assertEquals(latest.get(position), adapter.getRow(position));
+        }
+    }
+
+    /**
+     * Not a correctness test. Logs the average time the UI thread spends binding a row, formatting
+     * it from the cursor as ForecastAdapter used to and binding a row formatted in advance.
+     */
+    @Test
+    @UiThreadTest
+    public void testBindCost() {
+        Cursor cursor = createForecastCursor(BENCHMARK_DAYS);
+        List<ForecastRow> rows = ForecastRow.fromCursor(mContext, cursor);
+
+        ForecastAdapter adapter = new ForecastAdapter(mContext, null);
+        adapter.swapRows(rows);
+        ForecastAdapter.ForecastAdapterViewHolder holder = adapter.onCreateViewHolder(
+                new FrameLayout(mContext), adapter.getItemViewType(1));
+
+        long formatNanos = 0;
+        long bindNanos = 0;
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int position = 0; position < BENCHMARK_DAYS; position++) {
+                bindFromCursor(holder, cursor, position);
+            }
+            formatNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int position = 0; position < BENCHMARK_DAYS; position++) {
+                adapter.onBindViewHolder(holder, position);
+            }
+            bindNanos += System.nanoTime() - start;
+        }
+
+        long binds = (long) BENCHMARK_ROUNDS * BENCHMARK_DAYS;
+        Log.i(TAG, "Bind: " + formatNanos / binds / 1000f
+                + "us formatting from the cursor, " + bindNanos / binds / 1000f
+                + "us from a precomputed row");
+        cursor.close();
+    }
+
+    /**
+     * What ForecastAdapter#onBindViewHolder did for a day after the today row before rows were
+     * precomputed.
+     */
+    private void bindFromCursor(ForecastAdapter.ForecastAdapterViewHolder holder, Cursor cursor,
+                                int position) {
+        cursor.moveToPosition(position);
+        int weatherId = cursor.getInt(MainActivity.INDEX_WEATHER_CONDITION_ID);
+        holder.iconView.setImageResource(
+                SunshineWeatherUtils.getSmallArtResourceIdForWeatherCondition(weatherId));
+
+        long date = cursor.getLong(MainActivity.INDEX_WEATHER_DATE);
+        holder.dateView.setText(SunshineDateUtils.getFriendlyDateString(mContext, date, false));
+
+        String description = SunshineWeatherUtils.getStringForWeatherCondition(mContext, weatherId);
+        holder.descriptionView.setText(description);
+        holder.descriptionView.setContentDescription(
+                mContext.getString(R.string.a11y_forecast, description));
+
+        String high = SunshineWeatherUtils.formatTemperature(mContext,
+                cursor.getDouble(MainActivity.INDEX_WEATHER_MAX_TEMP));
+        holder.highTempView.setText(high);
+        holder.highTempView.setContentDescription(
+                mContext.getString(R.string.a11y_high_temp, high));
+
+        String low = SunshineWeatherUtils.formatTemperature(mContext,
+                cursor.getDouble(MainActivity.INDEX_WEATHER_MIN_TEMP));
+        holder.lowTempView.setText(low);
+        holder.lowTempView.setContentDescription(
+                mContext.getString(R.string.a11y_low_temp, low));
+    }
+
+    /**
+     * @return A cursor over a synthetic forecast from today onwards, with the columns of
+     * MainActivity.MAIN_FORECAST_PROJECTION
+     */
+    private static Cursor createForecastCursor(int days) {
+        return createForecastCursor(0, days, 0);
+    }
+
+    /**
+     * @param firstDay   The first day of the forecast, counted from today
+     * @param days       The number of days in the forecast
+     * @param warmerDays How many days, from the first, to make 3 degrees warmer than usual
+     * @return A cursor over a synthetic forecast with the columns of
+     * MainActivity.MAIN_FORECAST_PROJECTION. The same day always has the same weather.
+     */
+    private static Cursor createForecastCursor(int firstDay, int days, int warmerDays) {
+        MatrixCursor cursor = new MatrixCursor(MainActivity.MAIN_FORECAST_PROJECTION, days);
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        for (int day = firstDay; day < firstDay + days; day++) {
+            double max = 10 + day % 25 + 0.5;
+            if (day - firstDay < warmerDays) {
+                max += 3;
+            }
+            cursor.addRow(new Object[]{
+                    today + day * SunshineDateUtils.DAY_IN_MILLIS,
+                    max,
+                    max - 8.25,
+                    WEATHER_IDS[day % WEATHER_IDS.length],
+            });
+        }
+        return cursor;
+    }
+
+    private List<ForecastRow> createRows(int firstDay, int days, int warmerDays) {
+        Cursor cursor = createForecastCursor(firstDay, days, warmerDays);
+        List<ForecastRow> rows = ForecastRow.fromCursor(mContext, cursor);
+        cursor.close();
+        return rows;
+    }
+
+    /**
+     * Swaps the adapter's rows on the main thread, and waits until the new rows are shown.
+     */
+    private static void swapRows(final ForecastAdapter adapter, final List<ForecastRow> rows)
+            throws InterruptedException {
+        final CountDownLatch swapped = new CountDownLatch(1);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                adapter.swapRows(rows, new Runnable() {
+                    @Override
+                    public void run() {
+                        swapped.countDown();
+                    }
+                });
+            }
+        });
+        assertTrue("Rows were never swapped",
+                swapped.await(SWAP_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Counts the rows RecyclerView would bind again for the changes an adapter notifies. Every
+     * row that is changed or inserted is bound, removed rows aren't.
+     */
+    private static class RebindCounter extends RecyclerView.AdapterDataObserver {
+
+        int rebinds;
+        int removals;
+        boolean dataSetChanged;
+
+        @Override
+        public void onChanged() {
+            dataSetChanged = true;
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount) {
+            rebinds += itemCount;
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount, Object payload) {
+            rebinds += itemCount;
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            rebinds += itemCount;
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            removals += itemCount;
+        }
+
+        void reset() {
+            rebinds = 0;
+            removals = 0;
+            dataSetChanged = false;
+        }
+    }
+}
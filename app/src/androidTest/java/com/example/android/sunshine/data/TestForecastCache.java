@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentProviderClient;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.DetailActivity;
+import com.example.android.sunshine.MainActivity;
+import com.example.android.sunshine.utilities.NotificationUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.example.android.sunshine.data.TestUtilities.DATE_NORMALIZED;
+import static com.example.android.sunshine.data.TestUtilities.createBulkInsertTestWeatherValues;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests that {@link ForecastCache} answers WeatherProvider's queries exactly as SQLite does, that
+ * writes invalidate it, and logs how much faster the three projections Sunshine uses are with it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastCache {
+
+    private static final String TAG = TestForecastCache.class.getSimpleName();
+
+    private static final int BENCHMARK_QUERIES = 1000;
+
+    /* The same selection WeatherEntry#getSqlSelectForTodayOnwards builds, for the test dates */
+    private static final String SELECT_FROM_FIRST_TEST_DAY =
+            WeatherEntry.COLUMN_DATE + " >= " + DATE_NORMALIZED;
+
+    private static final String SORT_BY_DATE = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final ContentResolver mContentResolver = mContext.getContentResolver();
+
+    private ContentProviderClient mProviderClient;
+    private ForecastCache mForecastCache;
+
+    /* A date in the middle of the bulk insert forecast */
+    private Uri mDayUri;
+
+    @Before
+    public void setUp() {
+        mProviderClient =
+                mContentResolver.acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        mForecastCache = ((WeatherProvider) mProviderClient.getLocalContentProvider())
+                .getForecastCache();
+        mForecastCache.setEnabled(true);
+
+        mContentResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        ContentValues[] forecast = createBulkInsertTestWeatherValues();
+        mContentResolver.bulkInsert(WeatherEntry.CONTENT_URI, forecast);
+        mDayUri = WeatherEntry.buildWeatherUriWithDate(
+                forecast[forecast.length / 2].getAsLong(WeatherEntry.COLUMN_DATE));
+    }
+
+    @After
+    public void tearDown() {
+        mForecastCache.setEnabled(true);
+        mProviderClient.release();
+    }
+
+    @Test
+    public void testCachedQueriesMatchDatabase() {
+        assertSameAsDatabase(WeatherEntry.CONTENT_URI, MainActivity.MAIN_FORECAST_PROJECTION,
+                SELECT_FROM_FIRST_TEST_DAY, SORT_BY_DATE);
+        assertSameAsDatabase(WeatherEntry.CONTENT_URI, null, null, SORT_BY_DATE);
+        assertSameAsDatabase(WeatherEntry.CONTENT_URI, new String[]{WeatherEntry._ID},
+                SELECT_FROM_FIRST_TEST_DAY, null);
+        assertSameAsDatabase(mDayUri, DetailActivity.WEATHER_DETAIL_PROJECTION, null, null);
+        assertSameAsDatabase(mDayUri, NotificationUtils.WEATHER_NOTIFICATION_PROJECTION,
+                null, null);
+    }
+
+    @Test
+    public void testRepeatedQueriesHitTheCache() {
+        long hits = mForecastCache.getHitCount();
+        long misses = mForecastCache.getMissCount();
+
+        queryAndClose(WeatherEntry.CONTENT_URI, MainActivity.MAIN_FORECAST_PROJECTION,
+                SELECT_FROM_FIRST_TEST_DAY, SORT_BY_DATE);
+        queryAndClose(mDayUri, DetailActivity.WEATHER_DETAIL_PROJECTION, null, null);
+        queryAndClose(mDayUri, NotificationUtils.WEATHER_NOTIFICATION_PROJECTION, null, null);
+
+        assertEquals("Only the first query should load the snapshot",
+                1, mForecastCache.getMissCount() - misses);
+        assertEquals(2, mForecastCache.getHitCount() - hits);
+    }
+
+    @Test
+    public void testWritesInvalidateTheCache() {
+        queryAndClose(mDayUri, NotificationUtils.WEATHER_NOTIFICATION_PROJECTION, null, null);
+
+        /* Through the provider */
+        ContentValues[] forecast = createBulkInsertTestWeatherValues();
+        for (ContentValues day : forecast) {
+            day.put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+        }
+        mContentResolver.bulkInsert(WeatherEntry.RECONCILE_URI, forecast);
+        assertMaxTemp(99);
+
+        /*
+         * And around it, straight to the database. The provider can't see such a write, so it
+         * keeps answering from memory until it is told the table changed.
+         */
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        SQLiteDatabase database = helper.getWritableDatabase();
+        for (ContentValues day : forecast) {
+            day.put(WeatherEntry.COLUMN_MAX_TEMP, 42);
+            database.insert(WeatherEntry.TABLE_NAME, null, day);
+        }
+        database.close();
+        assertMaxTemp(99);
+        TestUtilities.invalidateForecastCache(mContext);
+        assertMaxTemp(42);
+    }
+
+    @Test
+    public void testUnknownQueriesBypassTheCache() {
+        long hits = mForecastCache.getHitCount();
+        long misses = mForecastCache.getMissCount();
+
+        queryAndClose(WeatherEntry.CONTENT_URI, null,
+                WeatherEntry.COLUMN_MAX_TEMP + " > ?", null, new String[]{"80"});
+        queryAndClose(WeatherEntry.CONTENT_URI, null, null,
+                WeatherEntry.COLUMN_DATE + " DESC", null);
+
+        assertEquals(hits, mForecastCache.getHitCount());
+        assertEquals(misses, mForecastCache.getMissCount());
+    }
+
+    /**
+     * Not a correctness test beyond the hit count. Logs the average latency of each of the three
+     * projections with and without the cache.
+     */
+    @Test
+    public void testQueryLatencyWithAndWithoutCache() {
+        String[] names = {"Forecast list", "Detail", "Notification"};
+        Uri[] uris = {WeatherEntry.CONTENT_URI, mDayUri, mDayUri};
+        String[][] projections = {
+                MainActivity.MAIN_FORECAST_PROJECTION,
+                DetailActivity.WEATHER_DETAIL_PROJECTION,
+                NotificationUtils.WEATHER_NOTIFICATION_PROJECTION,
+        };
+        String[] selections = {SELECT_FROM_FIRST_TEST_DAY, null, null};
+        String[] sortOrders = {SORT_BY_DATE, null, null};
+
+        for (int i = 0; i < names.length; i++) {
+            mForecastCache.setEnabled(false);
+            long uncachedNanos = timeQueries(uris[i], projections[i], selections[i],
+                    sortOrders[i]);
+
+            mForecastCache.setEnabled(true);
+            long hits = mForecastCache.getHitCount();
+            long cachedNanos = timeQueries(uris[i], projections[i], selections[i],
+                    sortOrders[i]);
+            assertTrue("Queries should be answered by the cache",
+                    mForecastCache.getHitCount() - hits >= BENCHMARK_QUERIES - 1);
+
+            Log.i(TAG, names[i] + ": " + uncachedNanos / BENCHMARK_QUERIES / 1000
+                    + "us without cache, " + cachedNanos / BENCHMARK_QUERIES / 1000
+                    + "us with cache");
+        }
+    }
+
+    private long timeQueries(Uri uri, String[] projection, String selection, String sortOrder) {
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_QUERIES; i++) {
+            Cursor cursor = mContentResolver.query(uri, projection, selection, null, sortOrder);
+            /* Read every value, as an adapter would */
+            while (cursor.moveToNext()) {
+                for (int column = 0; column < cursor.getColumnCount(); column++) {
+                    cursor.getDouble(column);
+                }
+            }
+            cursor.close();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private void assertSameAsDatabase(Uri uri, String[] projection, String selection,
+                                      String sortOrder) {
+        mForecastCache.setEnabled(false);
+        Cursor expected = mContentResolver.query(uri, projection, selection, null, sortOrder);
+        mForecastCache.setEnabled(true);
+        Cursor actual = mContentResolver.query(uri, projection, selection, null, sortOrder);
+
+        String query = uri + " " + selection;
+        assertTrue("Query should return rows: " + query, expected.getCount() > 0);
+        assertEquals(query, expected.getCount(), actual.getCount());
+        assertEquals(query, expected.getColumnCount(), actual.getColumnCount());
+
+        while (expected.moveToNext()) {
+            assertTrue(actual.moveToNext());
+            for (int column = 0; column < expected.getColumnCount(); column++) {
+                String message = query + " " + expected.getColumnName(column);
+                assertEquals(message, expected.getColumnName(column), actual.getColumnName(column));
+                assertEquals(message, expected.getType(column), actual.getType(column));
+                assertEquals(message, expected.getString(column), actual.getString(column));
+                assertEquals(message, expected.getLong(column), actual.getLong(column));
+                assertEquals(message, expected.getDouble(column), actual.getDouble(column));
+            }
+        }
+
+        expected.close();
+        actual.close();
+    }
+
+    private void assertMaxTemp(double maxTemp) {
+        Cursor cursor = mContentResolver.query(mDayUri,
+                NotificationUtils.WEATHER_NOTIFICATION_PROJECTION, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(maxTemp, cursor.getDouble(NotificationUtils.INDEX_MAX_TEMP));
+        cursor.close();
+    }
+
+    private void queryAndClose(Uri uri, String[] projection, String selection, String sortOrder) {
+        queryAndClose(uri, projection, selection, sortOrder, null);
+    }
+
+    private void queryAndClose(Uri uri, String[] projection, String selection, String sortOrder,
+                               String[] selectionArgs) {
+        mContentResolver.query(uri, projection, selection, selectionArgs, sortOrder).close();
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v4.os.OperationCanceledException;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.example.android.sunshine.data.TestUtilities.BULK_INSERT_RECORDS_TO_INSERT;
+import static com.example.android.sunshine.data.TestUtilities.createBulkInsertTestWeatherValues;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.fail;
+
+/**
+ * Tests the reconcile mode of {@link WeatherProvider#bulkInsert(Uri, ContentValues[])}, which
+ * should only write the days of a forecast that changed and notify observers once.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestReconcileWeather {
+
+    /* How long to wait for notifications that may still be on their way */
+    private static final long NOTIFICATION_SETTLE_MILLIS = 500;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final ContentResolver mContentResolver = mContext.getContentResolver();
+
+    private CountingContentObserver mObserver;
+
+    @Before
+    public void setUp() {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        SQLiteDatabase database = helper.getWritableDatabase();
+        database.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+        database.close();
+
+        /* Start from the bulk insert test forecast */
+        mContentResolver.bulkInsert(WeatherContract.WeatherEntry.RECONCILE_URI,
+                createBulkInsertTestWeatherValues());
+
+        mObserver = new CountingContentObserver();
+        mContentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI, true, mObserver);
+    }
+
+    @After
+    public void tearDown() {
+        mContentResolver.unregisterContentObserver(mObserver);
+        mObserver.quit();
+    }
+
+    @Test
+    public void testUnchangedForecastWritesNothing() throws Exception {
+        int rowsChanged = mContentResolver.bulkInsert(WeatherContract.WeatherEntry.RECONCILE_URI,
+                createBulkInsertTestWeatherValues());
+
+        assertEquals("An identical forecast should not write any rows", 0, rowsChanged);
+        assertEquals("An identical forecast should not notify observers",
+                0, mObserver.awaitChangeCount());
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, countRows());
+    }
+
+    @Test
+    public void testPartiallyChangedForecastWritesChangedDays() throws Exception {
+        ContentValues[] forecast = createBulkInsertTestWeatherValues();
+        forecast[2].put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 99);
+        forecast[7].put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 800);
+
+        int rowsChanged = mContentResolver.bulkInsert(
+                WeatherContract.WeatherEntry.RECONCILE_URI, forecast);
+
+        assertEquals("Only the two changed days should be written", 2, rowsChanged);
+        assertEquals("Observers should be notified exactly once", 1, mObserver.awaitChangeCount());
+        assertForecastStored(forecast);
+    }
+
+    @Test
+    public void testShiftedForecastDeletesStaleDays() throws Exception {
+        /* The same forecast a day later: one day drops off the front, one is added at the end */
+        ContentValues[] stored = createBulkInsertTestWeatherValues();
+        ContentValues[] forecast = new ContentValues[stored.length];
+        for (int i = 0; i < stored.length - 1; i++) {
+            forecast[i] = stored[i + 1];
+        }
+        forecast[stored.length - 1] = new ContentValues(stored[stored.length - 1]);
+        forecast[stored.length - 1].put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                stored[stored.length - 1].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE)
+                        + SunshineDateUtils.DAY_IN_MILLIS);
+
+        int rowsChanged = mContentResolver.bulkInsert(
+                WeatherContract.WeatherEntry.RECONCILE_URI, forecast);
+
+        assertEquals("One day should be inserted and one deleted", 2, rowsChanged);
+        assertEquals("Observers should be notified exactly once", 1, mObserver.awaitChangeCount());
+        assertForecastStored(forecast);
+    }
+
+    @Test
+    public void testFullyChangedForecastWritesEveryDay() throws Exception {
+        ContentValues[] forecast = createBulkInsertTestWeatherValues();
+        for (ContentValues day : forecast) {
+            day.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                    day.getAsInteger(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP) - 1);
+        }
+
+        int rowsChanged = mContentResolver.bulkInsert(
+                WeatherContract.WeatherEntry.RECONCILE_URI, forecast);
+
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, rowsChanged);
+        assertEquals("Observers should be notified exactly once", 1, mObserver.awaitChangeCount());
+        assertForecastStored(forecast);
+    }
+
+    @Test
+    public void testInterruptedReconcileRollsBack() throws Exception {
+        ContentValues[] forecast = createBulkInsertTestWeatherValues();
+        for (ContentValues day : forecast) {
+            day.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 99);
+        }
+
+        /* A sync that is canceled while storing its forecast is interrupted */
+        Thread.currentThread().interrupt();
+        try {
+            mContentResolver.bulkInsert(WeatherContract.WeatherEntry.RECONCILE_URI, forecast);
+            fail("An interrupted reconcile should be canceled");
+        } catch (OperationCanceledException expected) {
+        } finally {
+            Thread.interrupted();
+        }
+
+        assertEquals("A canceled reconcile should not notify observers",
+                0, mObserver.awaitChangeCount());
+        assertForecastStored(createBulkInsertTestWeatherValues());
+    }
+
+    private int countRows() {
+        Cursor cursor = mContentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI, null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private void assertForecastStored(ContentValues[] forecast) {
+        Cursor cursor = mContentResolver.query(WeatherContract.WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+
+        assertEquals(forecast.length, cursor.getCount());
+        cursor.moveToFirst();
+        for (int i = 0; i < forecast.length; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord("Error validating reconciled day " + i,
+                    cursor, forecast[i]);
+        }
+        cursor.close();
+    }
+
+    /**
+     * Counts onChange calls rather than just recording that one happened, so that we can tell
+     * one notification from several.
+     */
+    private static class CountingContentObserver extends ContentObserver {
+        private final HandlerThread mHandlerThread;
+        private final AtomicInteger mChangeCount = new AtomicInteger();
+
+        CountingContentObserver() {
+            this(startHandlerThread());
+        }
+
+        private CountingContentObserver(HandlerThread handlerThread) {
+            super(new Handler(handlerThread.getLooper()));
+            mHandlerThread = handlerThread;
+        }
+
+        private static HandlerThread startHandlerThread() {
+            HandlerThread handlerThread = new HandlerThread("CountingContentObserver");
+            handlerThread.start();
+            return handlerThread;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            mChangeCount.incrementAndGet();
+        }
+
+        /** Gives pending notifications time to arrive, then returns how many there were. */
+        int awaitChangeCount() throws InterruptedException {
+            Thread.sleep(NOTIFICATION_SETTLE_MILLIS);
+            return mChangeCount.get();
+        }
+
+        void quit() {
+            mHandlerThread.quit();
+        }
+    }
+}
@@ -193,7 +193,7 @@ public class TestSunshineDatabase {
 
     @Test
     public void testDatabaseVersionWasIncremented() {
-        int expectedDatabaseVersion = 3;
+        int expectedDatabaseVersion = 5;
         String databaseVersionShouldBe1 = "Database version should be "
                 + expectedDatabaseVersion + " but isn't."
                 + "\n Database version: ";
@@ -382,16 +382,18 @@ public class TestSunshineDatabase {
     }
 
     /**
-     * This method tests the {@link WeatherDbHelper#onUpgrade(SQLiteDatabase, int, int)}. The proper
-     * behavior for this method in our case is to simply DROP (or delete) the weather table from
-     * the database and then have the table recreated.
+     * This method tests the {@link WeatherDbHelper#onUpgrade(SQLiteDatabase, int, int)}. Upgrading
+     * from version 3 should keep the weather that is stored and add the covering index.
      */
     @Test
     public void testOnUpgradeBehavesCorrectly() {
 
         testInsertSingleRecordIntoWeatherTable();
 
-        dbHelper.onUpgrade(database, 13, 14);
+        /* Put the database back in its version 3 state, which had no covering index */
+        database.execSQL("DROP INDEX " + WeatherDbHelper.FORECAST_INDEX_NAME);
+
+        dbHelper.onUpgrade(database, 3, REFLECTED_DATABASE_VERSION);
 
         /*
          * This Cursor will contain the names of each table in our database and we will use it to
@@ -414,7 +416,17 @@ public class TestSunshineDatabase {
         /* We are done verifying our table names, so we can close this cursor */
         tableNameCursor.close();
 
-        Cursor shouldBeEmptyWeatherCursor = database.query(
+        Cursor indexNameCursor = database.rawQuery(
+                "SELECT name FROM sqlite_master WHERE type='index' AND name='"
+                        + WeatherDbHelper.FORECAST_INDEX_NAME + "'",
+                null);
+        String shouldHaveForecastIndex = "The covering index should be added by the upgrade.";
+        assertEquals(shouldHaveForecastIndex,
+                1,
+                indexNameCursor.getCount());
+        indexNameCursor.close();
+
+        Cursor weatherCursor = database.query(
                 REFLECTED_TABLE_NAME,
                 null,
                 null,
@@ -423,16 +435,18 @@ public class TestSunshineDatabase {
                 null,
                 null);
 
-        int expectedRecordCountAfterUpgrade = 0;
-        /* We will finally verify that our weather table is empty after */
-        String weatherTableShouldBeEmpty =
-                "Weather table should be empty after upgrade, but wasn't."
+        int expectedRecordCountAfterUpgrade = 1;
+        /* We will finally verify that our weather was kept by the upgrade */
+        String weatherShouldBeKept =
+                "Weather table should keep its records after upgrade, but didn't."
                         + "\nNumber of records: ";
-        assertEquals(weatherTableShouldBeEmpty,
+        assertEquals(weatherShouldBeKept,
                 expectedRecordCountAfterUpgrade,
-                shouldBeEmptyWeatherCursor.getCount());
+                weatherCursor.getCount());
+
+        weatherCursor.close();
 
-        /* Test is over, close the cursor */
+        /* Test is over, close the database */
         database.close();
     }
 
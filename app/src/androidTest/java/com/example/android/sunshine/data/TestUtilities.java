@@ -15,7 +15,9 @@
  */
 package com.example.android.sunshine.data;
 
+import android.content.ContentProviderClient;
 import android.content.ContentValues;
+import android.content.Context;
 import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
@@ -52,11 +54,14 @@ import static junit.framework.Assert.assertTrue;
  * NOTE: If your WeatherContract class doesn't exactly match ours, THIS WILL NOT WORK as we've
  * provided and you will need to make changes to this code to use it to pass your tests.
  */
-class TestUtilities {
+public class TestUtilities {
 
     /* October 1st, 2016 at midnight, GMT time */
     static final long DATE_NORMALIZED = 1475280000000L;
 
+    /* The same day, in days since the epoch */
+    static final long EPOCH_DAY_NORMALIZED = SunshineDateUtils.toEpochDay(DATE_NORMALIZED);
+
     static final int BULK_INSERT_RECORDS_TO_INSERT = 10;
 
     /**
@@ -172,6 +177,48 @@ class TestUtilities {
         return bulkTestWeatherValues;
     }
 
+    /**
+     * Creates a forecast of consecutive days, with every column a sync stores. Every day has the
+     * same weather, so tests put their own values in the columns they care about afterwards.
+     * Tests that want a forecast from today onwards start it at
+     * {@link SunshineDateUtils#getEpochDayForToday()}.
+     *
+     * @param firstEpochDay The first day of the forecast, in days since the epoch
+     * @param days          How many days the forecast covers
+     * @return One row of ContentValues per day, ordered by date
+     */
+    public static ContentValues[] createForecastValues(long firstEpochDay, int days) {
+        ContentValues[] forecast = new ContentValues[days];
+        for (int day = 0; day < days; day++) {
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(COLUMN_DATE, SunshineDateUtils.fromEpochDay(firstEpochDay + day));
+            weatherValues.put(COLUMN_WEATHER_ID, 800);
+            weatherValues.put(COLUMN_MIN_TEMP, 10.0);
+            weatherValues.put(COLUMN_MAX_TEMP, 20.0);
+            weatherValues.put(COLUMN_HUMIDITY, 50.0);
+            weatherValues.put(COLUMN_PRESSURE, 1013.0);
+            weatherValues.put(COLUMN_WIND_SPEED, 3.5);
+            weatherValues.put(COLUMN_DEGREES, 180.0);
+            forecast[day] = weatherValues;
+        }
+        return forecast;
+    }
+
+    /**
+     * Makes WeatherProvider forget the forecast it keeps in memory. Tests that write to the
+     * weather table straight through SQLite, rather than through the provider, call this before
+     * they query the provider again, see ForecastCache.
+     */
+    static void invalidateForecastCache(Context context) {
+        ContentProviderClient client = context.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        try {
+            ((WeatherProvider) client.getLocalContentProvider()).getForecastCache().invalidate();
+        } finally {
+            client.release();
+        }
+    }
+
 
     static TestContentObserver getTestContentObserver() {
         return TestContentObserver.getTestContentObserver();
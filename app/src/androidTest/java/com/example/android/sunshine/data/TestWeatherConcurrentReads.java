@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.MainActivity;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Runs the forecast list's query continuously on several threads while another thread keeps
+ * writing forecasts the way a sync does, and reports the read latency percentiles with and
+ * without write-ahead logging.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherConcurrentReads {
+
+    private static final String TAG = TestWeatherConcurrentReads.class.getSimpleName();
+
+    private static final int READER_THREADS = 3;
+
+    private static final long RUN_MILLIS = 3000;
+
+    /* Rows written by each simulated sync. Large enough that a sync takes a while. */
+    private static final int ROWS_PER_SYNC = 500;
+
+    private static final long MILLIS_BETWEEN_SYNCS = 20;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void testReadLatencyWithWriteAheadLogging() throws Exception {
+        long[] latencies = measureReadLatencies(true);
+        logPercentiles("With write-ahead logging", latencies);
+    }
+
+    @Test
+    public void testReadLatencyWithoutWriteAheadLogging() throws Exception {
+        long[] latencies = measureReadLatencies(false);
+        logPercentiles("Without write-ahead logging", latencies);
+    }
+
+    /**
+     * @return The latency of every read, in microseconds, sorted
+     */
+    private long[] measureReadLatencies(boolean writeAheadLogging) throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, writeAheadLogging);
+        final SQLiteDatabase database = helper.getWritableDatabase();
+        final boolean concurrentReads = helper.isConcurrentReadEnabled();
+
+        writeForecast(database, concurrentReads, 0);
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final CountDownLatch finished = new CountDownLatch(READER_THREADS + 1);
+        final List<List<Long>> readerLatencies = new ArrayList<>();
+
+        for (int i = 0; i < READER_THREADS; i++) {
+            final List<Long> latencies = new ArrayList<>();
+            readerLatencies.add(latencies);
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (running.get()) {
+                            long start = System.nanoTime();
+                            Cursor cursor = database.query(WeatherEntry.TABLE_NAME,
+                                    MainActivity.MAIN_FORECAST_PROJECTION,
+                                    WeatherEntry.COLUMN_DATE + " >= "
+                                            + TestUtilities.DATE_NORMALIZED,
+                                    null,
+                                    null,
+                                    null,
+                                    WeatherEntry.COLUMN_DATE + " ASC");
+                            /* getCount fills the cursor's window, which is when the query runs */
+                            cursor.getCount();
+                            cursor.close();
+                            latencies.add((System.nanoTime() - start) / 1000);
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    } finally {
+                        finished.countDown();
+                    }
+                }
+            }, "Reader-" + i).start();
+        }
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    int sync = 1;
+                    while (running.get()) {
+                        writeForecast(database, concurrentReads, sync++);
+                        Thread.sleep(MILLIS_BETWEEN_SYNCS);
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    finished.countDown();
+                }
+            }
+        }, "Writer").start();
+
+        Thread.sleep(RUN_MILLIS);
+        running.set(false);
+        finished.await();
+        helper.close();
+
+        assertNull("A reader or the writer failed: " + failure.get(), failure.get());
+
+        int readCount = 0;
+        for (List<Long> latencies : readerLatencies) {
+            readCount += latencies.size();
+        }
+        assertTrue("No reads completed", readCount > 0);
+
+        long[] allLatencies = new long[readCount];
+        int index = 0;
+        for (List<Long> latencies : readerLatencies) {
+            for (long latency : latencies) {
+                allLatencies[index++] = latency;
+            }
+        }
+        Arrays.sort(allLatencies);
+        return allLatencies;
+    }
+
+    /**
+     * Replaces the forecast in one transaction, as WeatherProvider#bulkInsert does during a sync.
+     */
+    private static void writeForecast(SQLiteDatabase database, boolean concurrentReads, int sync) {
+        if (concurrentReads) {
+            database.beginTransactionNonExclusive();
+        } else {
+            database.beginTransaction();
+        }
+        try {
+            database.delete(WeatherEntry.TABLE_NAME, null, null);
+            ContentValues[] forecast = TestUtilities.createForecastValues(
+                    TestUtilities.EPOCH_DAY_NORMALIZED, ROWS_PER_SYNC);
+            for (ContentValues values : forecast) {
+                values.put(WeatherEntry.COLUMN_MIN_TEMP, sync % 10);
+                values.put(WeatherEntry.COLUMN_MAX_TEMP, 10 + sync % 10);
+                database.insert(WeatherEntry.TABLE_NAME, null, values);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    private static void logPercentiles(String mode, long[] sortedLatencies) {
+        Log.i(TAG, mode + ": " + sortedLatencies.length + " reads"
+                + ", p50 " + percentile(sortedLatencies, 50) + "us"
+                + ", p90 " + percentile(sortedLatencies, 90) + "us"
+                + ", p99 " + percentile(sortedLatencies, 99) + "us"
+                + ", max " + sortedLatencies[sortedLatencies.length - 1] + "us");
+    }
+
+    private static long percentile(long[] sortedValues, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sortedValues.length) - 1;
+        return sortedValues[Math.max(0, index)];
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests the migrations run by {@link WeatherDbHelper#onUpgrade(SQLiteDatabase, int, int)} by
+ * creating a populated database of an older version and opening it with WeatherDbHelper.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherDbMigrations {
+
+    private static final String TAG = TestWeatherDbMigrations.class.getSimpleName();
+
+    /* Enough days to make a slow migration show up */
+    private static final int DAYS_TO_MIGRATE = 1000;
+
+    /* Upper bound on the time an upgrade of DAYS_TO_MIGRATE rows may take */
+    private static final long MAX_MIGRATION_MILLIS = 2000;
+
+    private static final String LEGACY_LOCATION_ID = "location_id";
+    private static final String LEGACY_SHORT_DESC = "short_desc";
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    public void setUp() {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void testMigrationsEndAtDatabaseVersion() {
+        int previousVersion = 1;
+        for (WeatherDbHelper.Migration migration : WeatherDbHelper.MIGRATIONS) {
+            assertTrue("Migrations must be ordered by version",
+                    migration.toVersion > previousVersion);
+            previousVersion = migration.toVersion;
+        }
+
+        assertEquals("The last migration must upgrade to DATABASE_VERSION",
+                WeatherDbHelper.DATABASE_VERSION, previousVersion);
+    }
+
+    @Test
+    public void testUpgradeFromVersion1KeepsForecast() {
+        SQLiteDatabase legacyDatabase = openDatabaseFile();
+        legacyDatabase.execSQL("CREATE TABLE location (_id INTEGER PRIMARY KEY,"
+                + " location_setting TEXT UNIQUE NOT NULL, city_name TEXT NOT NULL,"
+                + " coord_lat REAL NOT NULL, coord_long REAL NOT NULL);");
+        legacyDatabase.execSQL("CREATE TABLE " + WeatherEntry.TABLE_NAME + " ("
+                + WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + LEGACY_LOCATION_ID + " INTEGER NOT NULL, "
+                + WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, "
+                + LEGACY_SHORT_DESC + " TEXT NOT NULL, "
+                + WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, "
+                + WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, "
+                + WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, "
+                + WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, "
+                + WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, "
+                + WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, "
+                + WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, "
+                + "UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " + LEGACY_LOCATION_ID
+                + ") ON CONFLICT REPLACE);");
+
+        legacyDatabase.beginTransaction();
+        for (int day = 0; day < DAYS_TO_MIGRATE; day++) {
+            ContentValues values = createWeatherValues(day);
+            values.put(LEGACY_LOCATION_ID, 1);
+            values.put(LEGACY_SHORT_DESC, "Clear");
+            legacyDatabase.insert(WeatherEntry.TABLE_NAME, null, values);
+        }
+
+        /* A row whose date isn't normalized can't be carried over */
+        ContentValues unnormalized = createWeatherValues(DAYS_TO_MIGRATE);
+        unnormalized.put(WeatherEntry.COLUMN_DATE, TestUtilities.DATE_NORMALIZED + 1);
+        unnormalized.put(LEGACY_LOCATION_ID, 1);
+        unnormalized.put(LEGACY_SHORT_DESC, "Clear");
+        legacyDatabase.insert(WeatherEntry.TABLE_NAME, null, unnormalized);
+        legacyDatabase.setTransactionSuccessful();
+        legacyDatabase.endTransaction();
+
+        legacyDatabase.setVersion(1);
+        legacyDatabase.close();
+
+        SQLiteDatabase database = upgradeAndOpen();
+        try {
+            assertForecastKept(database);
+            assertEquals("The legacy location table should be dropped",
+                    0, countSchemaEntries(database, "table", "location"));
+        } finally {
+            database.close();
+        }
+    }
+
+    @Test
+    public void testUpgradeFromVersion3KeepsForecast() {
+        SQLiteDatabase oldDatabase = openDatabaseFile();
+        new WeatherDbHelper(mContext).onCreate(oldDatabase);
+        /* Version 3 had no covering index, nor a sync metrics table */
+        oldDatabase.execSQL("DROP INDEX " + WeatherDbHelper.FORECAST_INDEX_NAME);
+        oldDatabase.execSQL("DROP TABLE " + WeatherContract.SyncMetricsEntry.TABLE_NAME);
+
+        oldDatabase.beginTransaction();
+        for (int day = 0; day < DAYS_TO_MIGRATE; day++) {
+            oldDatabase.insert(WeatherEntry.TABLE_NAME, null, createWeatherValues(day));
+        }
+        oldDatabase.setTransactionSuccessful();
+        oldDatabase.endTransaction();
+
+        oldDatabase.setVersion(3);
+        oldDatabase.close();
+
+        SQLiteDatabase database = upgradeAndOpen();
+        try {
+            assertForecastKept(database);
+        } finally {
+            database.close();
+        }
+    }
+
+    private SQLiteDatabase openDatabaseFile() {
+        File databaseFile = mContext.getDatabasePath(WeatherDbHelper.DATABASE_NAME);
+        databaseFile.getParentFile().mkdirs();
+        return SQLiteDatabase.openOrCreateDatabase(databaseFile, null);
+    }
+
+    /**
+     * Opens the database with WeatherDbHelper, which runs the migrations, and checks how long
+     * that took.
+     */
+    private SQLiteDatabase upgradeAndOpen() {
+        long start = System.nanoTime();
+        SQLiteDatabase database = new WeatherDbHelper(mContext).getWritableDatabase();
+        long migrationMillis = (System.nanoTime() - start) / 1000000;
+        Log.i(TAG, "Upgrading " + DAYS_TO_MIGRATE + " days took " + migrationMillis + "ms");
+
+        assertEquals(WeatherDbHelper.DATABASE_VERSION, database.getVersion());
+        assertTrue("Upgrade took " + migrationMillis + "ms",
+                migrationMillis < MAX_MIGRATION_MILLIS);
+        return database;
+    }
+
+    private static void assertForecastKept(SQLiteDatabase database) {
+        Cursor cursor = database.query(WeatherEntry.TABLE_NAME, null, null, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            assertEquals("Every forecast row should survive the upgrade",
+                    DAYS_TO_MIGRATE, cursor.getCount());
+            cursor.moveToFirst();
+            for (int day = 0; day < DAYS_TO_MIGRATE; day++, cursor.moveToNext()) {
+                TestUtilities.validateCurrentRecord("Error validating migrated day " + day,
+                        cursor, createWeatherValues(day));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        assertEquals("The covering index should exist after the upgrade", 1,
+                countSchemaEntries(database, "index", WeatherDbHelper.FORECAST_INDEX_NAME));
+        assertEquals("The sync metrics table should exist after the upgrade", 1,
+                countSchemaEntries(database, "table", WeatherContract.SyncMetricsEntry.TABLE_NAME));
+    }
+
+    private static int countSchemaEntries(SQLiteDatabase database, String type, String name) {
+        Cursor cursor = database.rawQuery(
+                "SELECT name FROM sqlite_master WHERE type = ? AND name = ?",
+                new String[]{type, name});
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    /**
+     * Values that survive the String comparison in TestUtilities.validateCurrentRecord, for a
+     * normalized date.
+     */
+    private static ContentValues createWeatherValues(int day) {
+        ContentValues values =
+                TestUtilities.createForecastValues(TestUtilities.EPOCH_DAY_NORMALIZED + day, 1)[0];
+        values.put(WeatherEntry.COLUMN_WEATHER_ID, 800 + day % 4);
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, 0.5 + day % 20);
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 10.5 + day % 20);
+        return values;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Compares the insert paths of {@link WeatherProvider}: one SQLiteDatabase#insert per
+ * ContentValues (how bulkInsert used to work), bulkInsert with its precompiled statement, and
+ * the columnar {@link WeatherBatch}. Rows are generated the same way FakeDataUtils does.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherInsertBenchmark {
+
+    private static final String TAG = TestWeatherInsertBenchmark.class.getSimpleName();
+
+    private static final int ROWS_TO_INSERT = 5000;
+
+    private static final int[] WEATHER_IDS = {200, 300, 500, 711, 900, 962};
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    public void setUp() {
+        deleteAllRows();
+    }
+
+    @Test
+    public void testBatchInsertMatchesBulkInsert() {
+        ContentValues[] values = createFakeWeatherValues(TestUtilities.BULK_INSERT_RECORDS_TO_INSERT,
+                new Random(11));
+
+        Bundle result = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_BULK_INSERT_BATCH,
+                null,
+                WeatherBatch.fromContentValues(values).toBundle());
+        assertEquals(values.length, result.getInt(WeatherContract.KEY_ROWS_INSERTED));
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(values.length, cursor.getCount());
+        cursor.moveToFirst();
+        for (int i = 0; i < values.length; i++, cursor.moveToNext()) {
+            /*
+             * The random doubles don't survive the String comparison in
+             * TestUtilities.validateCurrentRecord, so compare the stored values directly.
+             */
+            for (String column : values[i].keySet()) {
+                int index = cursor.getColumnIndex(column);
+                assertEquals("Error validating " + column + " of batch row " + i,
+                        values[i].getAsDouble(column), cursor.getDouble(index));
+            }
+        }
+        cursor.close();
+    }
+
+    /**
+     * Not a correctness test beyond the row counts. Logs the rows per second of each insert path.
+     */
+    @Test
+    public void testInsertThroughput() {
+        ContentValues[] values = createFakeWeatherValues(ROWS_TO_INSERT, new Random(12));
+        WeatherBatch batch = WeatherBatch.fromContentValues(values);
+
+        /* The way bulkInsert used to insert: SQLiteDatabase#insert for every row */
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        SQLiteDatabase database = helper.getWritableDatabase();
+        long start = System.nanoTime();
+        database.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                database.insert(WeatherEntry.TABLE_NAME, null, value);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        long insertNanos = System.nanoTime() - start;
+        database.close();
+        deleteAllRows();
+
+        start = System.nanoTime();
+        int bulkInserted = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                values);
+        long bulkInsertNanos = System.nanoTime() - start;
+        assertEquals(ROWS_TO_INSERT, bulkInserted);
+        deleteAllRows();
+
+        start = System.nanoTime();
+        Bundle result = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_BULK_INSERT_BATCH, null, batch.toBundle());
+        long batchNanos = System.nanoTime() - start;
+        assertEquals(ROWS_TO_INSERT, result.getInt(WeatherContract.KEY_ROWS_INSERTED));
+
+        Log.i(TAG, "SQLiteDatabase#insert: " + rowsPerSecond(insertNanos) + " rows/sec");
+        Log.i(TAG, "Precompiled bulkInsert: " + rowsPerSecond(bulkInsertNanos) + " rows/sec");
+        Log.i(TAG, "WeatherBatch: " + rowsPerSecond(batchNanos) + " rows/sec");
+    }
+
+    private static long rowsPerSecond(long nanos) {
+        return ROWS_TO_INSERT * 1000000000L / Math.max(1, nanos);
+    }
+
+    /**
+     * Generates random rows with consecutive normalized dates, like FakeDataUtils.
+     */
+    private static ContentValues[] createFakeWeatherValues(int count, Random random) {
+        ContentValues[] values =
+                TestUtilities.createForecastValues(TestUtilities.EPOCH_DAY_NORMALIZED, count);
+
+        for (ContentValues weatherValues : values) {
+            weatherValues.put(WeatherEntry.COLUMN_DEGREES, random.nextDouble() * 2);
+            weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, random.nextDouble() * 100);
+            weatherValues.put(WeatherEntry.COLUMN_PRESSURE, 870 + random.nextDouble() * 100);
+            int maxTemp = random.nextInt(100);
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, maxTemp);
+            weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, maxTemp - random.nextInt(10));
+            weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, random.nextDouble() * 10);
+            weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID,
+                    WEATHER_IDS[random.nextInt(WEATHER_IDS.length)]);
+        }
+
+        return values;
+    }
+
+    private void deleteAllRows() {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        SQLiteDatabase database = helper.getWritableDatabase();
+        database.delete(WeatherEntry.TABLE_NAME, null, null);
+        database.close();
+        TestUtilities.invalidateForecastCache(mContext);
+    }
+}
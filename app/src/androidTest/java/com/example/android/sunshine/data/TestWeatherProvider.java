@@ -27,6 +27,8 @@ import android.net.Uri;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
 
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -34,6 +36,7 @@ import org.junit.runner.RunWith;
 import static com.example.android.sunshine.data.TestUtilities.BULK_INSERT_RECORDS_TO_INSERT;
 import static com.example.android.sunshine.data.TestUtilities.createBulkInsertTestWeatherValues;
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
@@ -185,6 +188,9 @@ public class TestWeatherProvider {
         /* We are done with the database, close it now. */
         database.close();
 
+        /* The row was inserted around the provider, so it can't know to reload its forecast */
+        TestUtilities.invalidateForecastCache(mContext);
+
         /*
          * Perform our ContentProvider query. We expect the cursor that is returned will contain
          * the exact same data that is in testWeatherValues and we will validate that in the next
@@ -423,6 +429,92 @@ public class TestWeatherProvider {
         shouldBeEmptyCursor.close();
     }
 
+    /**
+     * The sync metrics table is a ring of the most recent syncs: inserting more than
+     * MAX_SYNC_METRICS_ROWS drops the oldest.
+     */
+    @Test
+    public void testSyncMetricsKeepOnlyTheMostRecentSyncs() {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.delete(WeatherContract.SyncMetricsEntry.CONTENT_URI, null, null);
+
+        int syncs = WeatherProvider.MAX_SYNC_METRICS_ROWS + 5;
+        for (int sync = 0; sync < syncs; sync++) {
+            ContentValues values = new ContentValues();
+            values.put(WeatherContract.SyncMetricsEntry.COLUMN_STARTED_AT, sync);
+            values.put(WeatherContract.SyncMetricsEntry.COLUMN_OUTCOME,
+                    WeatherContract.SyncMetricsEntry.OUTCOME_NOT_MODIFIED);
+            values.put(WeatherContract.SyncMetricsEntry.COLUMN_FETCH_MICROS, 1000);
+            values.put(WeatherContract.SyncMetricsEntry.COLUMN_TOTAL_MICROS, 1000);
+            values.put(WeatherContract.SyncMetricsEntry.COLUMN_BYTES_FETCHED, 0);
+            values.put(WeatherContract.SyncMetricsEntry.COLUMN_DAYS_PARSED, 0);
+            assertNotNull(contentResolver.insert(
+                    WeatherContract.SyncMetricsEntry.CONTENT_URI, values));
+        }
+
+        Cursor cursor = contentResolver.query(WeatherContract.SyncMetricsEntry.CONTENT_URI,
+                new String[]{WeatherContract.SyncMetricsEntry.COLUMN_STARTED_AT},
+                null,
+                null,
+                WeatherContract.SyncMetricsEntry.COLUMN_STARTED_AT + " ASC");
+        assertNotNull("Cursor was null.", cursor);
+        try {
+            assertEquals(WeatherProvider.MAX_SYNC_METRICS_ROWS, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("The oldest syncs should have been dropped",
+                    syncs - WeatherProvider.MAX_SYNC_METRICS_ROWS, cursor.getLong(0));
+        } finally {
+            cursor.close();
+        }
+
+        contentResolver.delete(WeatherContract.SyncMetricsEntry.CONTENT_URI, null, null);
+    }
+
+    /**
+     * Tests that EXISTS_URI answers whether any weather matches a selection, with one row
+     * whether or not any does.
+     */
+    @Test
+    public void testWeatherExists() {
+        assertFalse("An empty table has no weather", queryWeatherExists(null, null));
+
+        ContentValues[] bulkInsertTestContentValues = createBulkInsertTestWeatherValues();
+        mContext.getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                bulkInsertTestContentValues);
+
+        assertTrue(queryWeatherExists(null, null));
+
+        /* The test weather is from 2016, so none of it is from today onwards */
+        assertFalse(queryWeatherExists(
+                WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards(), null));
+
+        String selectFromDate = WeatherContract.WeatherEntry.COLUMN_DATE + " >= ?";
+        long lastDate = TestUtilities.DATE_NORMALIZED
+                + (bulkInsertTestContentValues.length - 1) * SunshineDateUtils.DAY_IN_MILLIS;
+        assertTrue(queryWeatherExists(selectFromDate,
+                new String[]{Long.toString(lastDate)}));
+        assertFalse(queryWeatherExists(selectFromDate,
+                new String[]{Long.toString(lastDate + SunshineDateUtils.DAY_IN_MILLIS)}));
+    }
+
+    private boolean queryWeatherExists(String selection, String[] selectionArgs) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.EXISTS_URI,
+                null,
+                selection,
+                selectionArgs,
+                null);
+        assertNotNull("Cursor was null.", cursor);
+        try {
+            assertEquals("EXISTS_URI should always return exactly one row", 1, cursor.getCount());
+            cursor.moveToFirst();
+            return cursor.getInt(cursor.getColumnIndexOrThrow(
+                    WeatherContract.WeatherEntry.COLUMN_EXISTS)) == 1;
+        } finally {
+            cursor.close();
+        }
+    }
+
     /**
      * This method will clear all rows from the weather table in our database.
      * <p>
@@ -445,5 +537,8 @@ public class TestWeatherProvider {
 
         /* Always close the database when you're through with it */
         database.close();
+
+        /* The rows were deleted around the provider, so it can't know to reload its forecast */
+        TestUtilities.invalidateForecastCache(InstrumentationRegistry.getTargetContext());
     }
 }
\ No newline at end of file
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.DetailActivity;
+import com.example.android.sunshine.MainActivity;
+import com.example.android.sunshine.utilities.NotificationUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.fail;
+
+/**
+ * Runs EXPLAIN QUERY PLAN on each shape of query that Sunshine sends to {@link WeatherProvider}
+ * and checks that none of them scans the whole weather table.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherQueryPlans {
+
+    private static final String SELECT_BY_DATE = WeatherEntry.COLUMN_DATE + " = ? ";
+
+    private static final String SORT_BY_DATE = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDatabase = new WeatherDbHelper(mContext).getWritableDatabase();
+
+        for (ContentValues value : TestUtilities.createBulkInsertTestWeatherValues()) {
+            mDatabase.insert(WeatherEntry.TABLE_NAME, null, value);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.close();
+    }
+
+    /* MainActivity's forecast list */
+    @Test
+    public void testForecastListIsCovered() {
+        List<String> plan = explain(MainActivity.MAIN_FORECAST_PROJECTION,
+                WeatherEntry.getSqlSelectForTodayOnwards(), null, SORT_BY_DATE);
+
+        assertNoFullScan(plan);
+        assertCovered(plan);
+        assertUsesIndex(plan, WeatherDbHelper.FORECAST_INDEX_NAME);
+    }
+
+    /*
+     * The notification shown after a sync, which queries a single date. SQLite always looks up
+     * an equality on the UNIQUE date through its own index, so this isn't covered.
+     */
+    @Test
+    public void testNotificationUsesIndex() {
+        List<String> plan = explain(NotificationUtils.WEATHER_NOTIFICATION_PROJECTION,
+                SELECT_BY_DATE, new String[]{Long.toString(TestUtilities.DATE_NORMALIZED)}, null);
+
+        assertNoFullScan(plan);
+    }
+
+    /* DetailActivity, which projects every column of a single date */
+    @Test
+    public void testDetailUsesIndex() {
+        List<String> plan = explain(DetailActivity.WEATHER_DETAIL_PROJECTION,
+                SELECT_BY_DATE, new String[]{Long.toString(TestUtilities.DATE_NORMALIZED)}, null);
+
+        assertNoFullScan(plan);
+    }
+
+    /* SunshineSyncUtils' check for whether there is any weather from today onwards */
+    @Test
+    public void testEmptyCheckIsCovered() {
+        List<String> plan = explain(
+                WeatherProvider.buildExistsQuery(WeatherEntry.getSqlSelectForTodayOnwards()),
+                null);
+
+        assertNoFullScan(plan);
+        assertCovered(plan);
+    }
+
+    /**
+     * Builds the query the same way WeatherProvider#query does and returns the detail column of
+     * each row of its query plan.
+     */
+    private List<String> explain(String[] projection, String selection, String[] selectionArgs,
+                                 String sortOrder) {
+        String sql = SQLiteQueryBuilder.buildQueryString(false, WeatherEntry.TABLE_NAME,
+                projection, selection, null, null, sortOrder, null);
+        return explain(sql, selectionArgs);
+    }
+
+    /**
+     * @return The detail column of each row of the query plan of the given SQL
+     */
+    private List<String> explain(String sql, String[] selectionArgs) {
+        List<String> plan = new ArrayList<>();
+        Cursor cursor = mDatabase.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        int detailIndex = cursor.getColumnIndexOrThrow("detail");
+        while (cursor.moveToNext()) {
+            plan.add(cursor.getString(detailIndex));
+        }
+        cursor.close();
+        return plan;
+    }
+
+    private static void assertNoFullScan(List<String> plan) {
+        for (String step : plan) {
+            assertFalse("Query scans the whole table: " + plan, step.startsWith("SCAN"));
+            assertFalse("Query sorts its results: " + plan, step.contains("TEMP B-TREE"));
+        }
+    }
+
+    private static void assertCovered(List<String> plan) {
+        for (String step : plan) {
+            if (step.contains("COVERING INDEX")) {
+                return;
+            }
+        }
+        fail("Query is not answered by a covering index: " + plan);
+    }
+
+    private static void assertUsesIndex(List<String> plan, String indexName) {
+        for (String step : plan) {
+            if (step.contains(indexName)) {
+                return;
+            }
+        }
+        fail("Query does not use " + indexName + ": " + plan);
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.shared;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+import com.google.android.gms.wearable.DataMap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Tests that a {@link ForecastPayload} decodes to what was encoded, and compares its size with
+ * the DataMap forms the forecast used to be pushed in.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastPayload {
+
+    private static final String TAG = TestForecastPayload.class.getSimpleName();
+
+    private static final int FORECAST_DAYS = 14;
+
+    /* Temperatures are encoded in tenths of a degree */
+    private static final float TEMPERATURE_PRECISION = 0.05f;
+
+    private static final long TODAY =
+            SunshineDateUtils.normalizeDate(System.currentTimeMillis());
+
+    @Test
+    public void testRoundTrip() {
+        Random random = new Random(0);
+        long[] dates = new long[FORECAST_DAYS];
+        int[] weatherIds = new int[FORECAST_DAYS];
+        float[] maxTemps = new float[FORECAST_DAYS];
+        float[] minTemps = new float[FORECAST_DAYS];
+        for (int day = 0; day < FORECAST_DAYS; day++) {
+            dates[day] = TODAY + day * SunshineDateUtils.DAY_IN_MILLIS;
+            weatherIds[day] = WeatherConditions.idAt(random.nextInt(WeatherConditions.size()));
+            minTemps[day] = random.nextFloat() * 80 - 40;
+            maxTemps[day] = minTemps[day] + random.nextFloat() * 20;
+        }
+
+        ForecastPayload decoded = ForecastPayload.fromByteArray(
+                new ForecastPayload(dates, weatherIds, maxTemps, minTemps).toByteArray());
+
+        assertEquals(FORECAST_DAYS, decoded.getDayCount());
+        for (int day = 0; day < FORECAST_DAYS; day++) {
+            assertEquals(dates[day], decoded.getDate(day));
+            assertEquals(weatherIds[day], decoded.getWeatherId(day));
+            assertEquals(maxTemps[day], decoded.getMaxTemp(day), TEMPERATURE_PRECISION);
+            assertEquals(minTemps[day], decoded.getMinTemp(day), TEMPERATURE_PRECISION);
+        }
+    }
+
+    @Test
+    public void testEveryConditionRoundTrips() {
+        for (int index = 0; index < WeatherConditions.size(); index++) {
+            int weatherId = WeatherConditions.idAt(index);
+            assertEquals(index, WeatherConditions.indexOf(weatherId));
+            assertEquals(weatherId, ForecastPayload.fromByteArray(
+                    createForecast(weatherId, 0).toByteArray()).getWeatherId(0));
+        }
+
+        assertEquals(WeatherConditions.UNKNOWN, ForecastPayload.fromByteArray(
+                createForecast(999, 0).toByteArray()).getWeatherId(0));
+    }
+
+    @Test
+    public void testGapsInDatesRoundTrip() {
+        long[] dates = {TODAY, TODAY + 3 * SunshineDateUtils.DAY_IN_MILLIS};
+        ForecastPayload decoded = ForecastPayload.fromByteArray(new ForecastPayload(dates,
+                new int[]{800, 801}, new float[]{1, 2}, new float[]{0, 1}).toByteArray());
+        assertEquals(dates[1], decoded.getDate(1));
+    }
+
+    @Test
+    public void testSameForecastEncodesToSameBytes() {
+        assertTrue(Arrays.equals(createForecast(800, 21.5f).toByteArray(),
+                createForecast(800, 21.5f).toByteArray()));
+        assertTrue(!Arrays.equals(createForecast(800, 21.5f).toByteArray(),
+                createForecast(800, 21.6f).toByteArray()));
+    }
+
+    @Test
+    public void testInvalidForecastsAreRejected() {
+        assertRejected(new ForecastPayload(new long[]{TODAY + 1}, new int[]{800},
+                new float[]{0}, new float[]{0}), "a date that isn't midnight UTC");
+        assertRejected(new ForecastPayload(new long[]{TODAY, TODAY}, new int[]{800, 800},
+                new float[]{0, 0}, new float[]{0, 0}), "dates that aren't ascending");
+
+        byte[] data = createForecast(800, 0).toByteArray();
+
+        byte[] newerVersion = data.clone();
+        newerVersion[0] = ForecastPayload.VERSION + 1;
+        assertUndecodable(newerVersion, "a newer version");
+
+        assertUndecodable(Arrays.copyOf(data, data.length - 1), "a truncated forecast");
+        assertUndecodable(new byte[0], "no data");
+    }
+
+    /**
+     * Not a correctness test beyond the binary form being the smallest. Logs the size of a
+     * forecast in each form.
+     */
+    @Test
+    public void testSizeComparedToDataMaps() {
+        ForecastPayload forecast = createForecast(800, 21.5f);
+        int binaryBytes = forecast.toByteArray().length;
+
+        /* Today only, as the forecast was first pushed */
+        DataMap today = new DataMap();
+        today.putDouble("max_temp", forecast.getMaxTemp(0));
+        today.putDouble("min_temp", forecast.getMinTemp(0));
+        today.putInt("weather_id", forecast.getWeatherId(0));
+        today.putLong("time", System.currentTimeMillis());
+        int todayBytes = today.toByteArray().length;
+
+        /* Every day, one array per column */
+        long[] dates = new long[FORECAST_DAYS];
+        ArrayList<Integer> weatherIds = new ArrayList<>();
+        float[] maxTemps = new float[FORECAST_DAYS];
+        float[] minTemps = new float[FORECAST_DAYS];
+        for (int day = 0; day < FORECAST_DAYS; day++) {
+            dates[day] = forecast.getDate(day);
+            weatherIds.add(forecast.getWeatherId(day));
+            maxTemps[day] = forecast.getMaxTemp(day);
+            minTemps[day] = forecast.getMinTemp(day);
+        }
+        DataMap arrays = new DataMap();
+        arrays.putLongArray("dates", dates);
+        arrays.putIntegerArrayList("weather_ids", weatherIds);
+        arrays.putFloatArray("max_temps", maxTemps);
+        arrays.putFloatArray("min_temps", minTemps);
+        int arraysBytes = arrays.toByteArray().length;
+
+        Log.i(TAG, FORECAST_DAYS + " days: " + binaryBytes + " bytes binary, " + arraysBytes
+                + " bytes as a DataMap of arrays; today alone took " + todayBytes
+                + " bytes as a DataMap");
+        assertTrue(binaryBytes < arraysBytes);
+    }
+
+    /**
+     * @return A forecast of FORECAST_DAYS days starting today, all with the same weather
+     */
+    private static ForecastPayload createForecast(int weatherId, float maxTemp) {
+        long[] dates = new long[FORECAST_DAYS];
+        int[] weatherIds = new int[FORECAST_DAYS];
+        float[] maxTemps = new float[FORECAST_DAYS];
+        float[] minTemps = new float[FORECAST_DAYS];
+        for (int day = 0; day < FORECAST_DAYS; day++) {
+            dates[day] = TODAY + day * SunshineDateUtils.DAY_IN_MILLIS;
+            weatherIds[day] = weatherId;
+            maxTemps[day] = maxTemp;
+            minTemps[day] = maxTemp - 10;
+        }
+        return new ForecastPayload(dates, weatherIds, maxTemps, minTemps);
+    }
+
+    private static void assertRejected(ForecastPayload forecast, String description) {
+        try {
+            forecast.toByteArray();
+            fail("Encoded " + description);
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static void assertUndecodable(byte[] data, String description) {
+        try {
+            ForecastPayload.fromByteArray(data);
+            fail("Decoded " + description);
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
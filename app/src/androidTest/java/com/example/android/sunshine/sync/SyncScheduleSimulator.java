@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.ContentValues;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a recording of the forecasts a weather server served over time against a sync
+ * schedule, without waiting or downloading anything, and reports how many syncs the schedule
+ * made and how far behind the server its forecast fell.
+ * <p>
+ * Syncs are assumed to run at the start of their execution window, and to take no time. A sync
+ * gets whatever forecast the server serves at that moment, which may skip any that came and went
+ * in between. The forecast counts as stale from the moment the server started serving a newer
+ * one until a sync fetches it.
+ */
+final class SyncScheduleSimulator {
+
+    /**
+     * A forecast that the server started serving at some point.
+     */
+    static final class Response {
+
+        final long servedFromSeconds;
+        final ContentValues[] forecast;
+
+        /**
+         * @param servedFromSeconds When the server started serving the forecast, in seconds
+         *                          since the start of the recording
+         * @param forecast          The forecast, as parsed from the server's response
+         */
+        Response(long servedFromSeconds, ContentValues[] forecast) {
+            this.servedFromSeconds = servedFromSeconds;
+            this.forecast = forecast;
+        }
+    }
+
+    /**
+     * Decides when the next sync runs.
+     */
+    interface Schedule {
+        long getFirstIntervalSeconds();
+
+        long getNextIntervalSeconds(long currentSeconds, int change);
+    }
+
+    /* The schedule Sunshine used to have, every 3 hours whatever the weather */
+    static final Schedule FIXED = new Schedule() {
+        @Override
+        public long getFirstIntervalSeconds() {
+            return SyncIntervalPolicy.DEFAULT_INTERVAL_SECONDS;
+        }
+
+        @Override
+        public long getNextIntervalSeconds(long currentSeconds, int change) {
+            return SyncIntervalPolicy.DEFAULT_INTERVAL_SECONDS;
+        }
+
+        @Override
+        public String toString() {
+            return "fixed";
+        }
+    };
+
+    /* The schedule SunshineSyncUtils follows now */
+    static final Schedule ADAPTIVE = new Schedule() {
+        @Override
+        public long getFirstIntervalSeconds() {
+            return SyncIntervalPolicy.DEFAULT_INTERVAL_SECONDS;
+        }
+
+        @Override
+        public long getNextIntervalSeconds(long currentSeconds, int change) {
+            return SyncIntervalPolicy.getNextIntervalSeconds(currentSeconds, change);
+        }
+
+        @Override
+        public String toString() {
+            return "adaptive";
+        }
+    };
+
+    /**
+     * What a schedule did over a recording.
+     */
+    static final class Report {
+
+        final String schedule;
+
+        int fetchCount;
+        /* Fetches that brought in a forecast we didn't have yet */
+        int changedFetchCount;
+
+        long staleSeconds;
+        long maxStaleSeconds;
+
+        long minIntervalSeconds = Long.MAX_VALUE;
+        long maxIntervalSeconds;
+
+        Report(String schedule) {
+            this.schedule = schedule;
+        }
+
+        private void addStale(long seconds) {
+            staleSeconds += seconds;
+            maxStaleSeconds = Math.max(maxStaleSeconds, seconds);
+        }
+
+        private void addInterval(long seconds) {
+            minIntervalSeconds = Math.min(minIntervalSeconds, seconds);
+            maxIntervalSeconds = Math.max(maxIntervalSeconds, seconds);
+        }
+
+        @Override
+        public String toString() {
+            return schedule + ": fetches=" + fetchCount
+                    + " changed=" + changedFetchCount
+                    + " staleMinutes=" + TimeUnit.SECONDS.toMinutes(staleSeconds)
+                    + " maxStaleMinutes=" + TimeUnit.SECONDS.toMinutes(maxStaleSeconds)
+                    + " intervalMinutes=" + TimeUnit.SECONDS.toMinutes(minIntervalSeconds)
+                    + ".." + TimeUnit.SECONDS.toMinutes(maxIntervalSeconds);
+        }
+    }
+
+    private SyncScheduleSimulator() {
+    }
+
+    /**
+     * @param recording       The forecasts the server served, in order. The first one is served
+     *                        from the start, when it is synced.
+     * @param durationSeconds How long to replay the recording for
+     * @param schedule        When to sync
+     * @return What the schedule did
+     */
+    static Report replay(List<Response> recording, long durationSeconds, Schedule schedule) {
+        Report report = new Report(schedule.toString());
+
+        /* The index of the response whose forecast we have */
+        int stored = 0;
+        long intervalSeconds = schedule.getFirstIntervalSeconds();
+        long nowSeconds = intervalSeconds;
+        while (nowSeconds <= durationSeconds) {
+            report.fetchCount++;
+            report.addInterval(intervalSeconds);
+
+            int served = getServedAt(recording, nowSeconds);
+            int change;
+            if (served == stored) {
+                change = SyncIntervalPolicy.CHANGE_NONE;
+            } else {
+                change = SyncIntervalPolicy.classifyChange(recording.get(stored).forecast,
+                        recording.get(served).forecast);
+                report.changedFetchCount++;
+                report.addStale(nowSeconds - recording.get(stored + 1).servedFromSeconds);
+                stored = served;
+            }
+
+            intervalSeconds = schedule.getNextIntervalSeconds(intervalSeconds, change);
+            nowSeconds += intervalSeconds;
+        }
+
+        /* A forecast that was never fetched is stale up to the end */
+        if (getServedAt(recording, durationSeconds) != stored) {
+            report.addStale(durationSeconds - recording.get(stored + 1).servedFromSeconds);
+        }
+        return report;
+    }
+
+    /** @return The index of the response the server serves at the given time */
+    private static int getServedAt(List<Response> recording, long seconds) {
+        int served = 0;
+        while (served + 1 < recording.size()
+                && recording.get(served + 1).servedFromSeconds <= seconds) {
+            served++;
+        }
+        return served;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.test.runner.lifecycle.ActivityLifecycleCallback;
+import android.support.test.runner.lifecycle.ActivityLifecycleMonitorRegistry;
+import android.support.test.runner.lifecycle.Stage;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import com.example.android.sunshine.MainActivity;
+import com.example.android.sunshine.data.TestUtilities;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Measures what SunshineSyncUtils#initialize costs when the app starts, with an empty database
+ * and with a stored forecast. Not a correctness test beyond the answers of the check itself;
+ * the timings are logged.
+ * <p>
+ * Starting a new process can't be measured from within one, so each launch starts MainActivity
+ * from the test process after letting initialize run again, and ends at its first frame. With an
+ * empty database, initialize also starts a sync, as it does on a real first launch.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestStartupBenchmark {
+
+    private static final String TAG = TestStartupBenchmark.class.getSimpleName();
+
+    private static final int FORECAST_DAYS = 14;
+
+    private static final int PROBE_ITERATIONS = 200;
+    private static final int LAUNCH_ITERATIONS = 5;
+
+    private static final long FIRST_FRAME_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final Instrumentation mInstrumentation = InstrumentationRegistry.getInstrumentation();
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final ContentResolver mResolver = mContext.getContentResolver();
+
+    @After
+    public void tearDown() {
+        mResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    /**
+     * Compares the check initialize makes now, which asks whether any weather exists, with the
+     * query it used to make, which read the ID of every day and counted them.
+     */
+    @Test
+    public void testForecastCheck() {
+        mResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        assertFalse(SunshineSyncUtils.isForecastStored(mContext));
+        long emptyExistsNanos = timeExistsProbe();
+        long emptyCountNanos = timeCountQuery(0);
+
+        storeForecast();
+        assertTrue(SunshineSyncUtils.isForecastStored(mContext));
+        long storedExistsNanos = timeExistsProbe();
+        long storedCountNanos = timeCountQuery(FORECAST_DAYS);
+
+        Log.i(TAG, "Empty database: exists " + emptyExistsNanos / 1000 + "us, count "
+                + emptyCountNanos / 1000 + "us per check");
+        Log.i(TAG, "Stored forecast: exists " + storedExistsNanos / 1000 + "us, count "
+                + storedCountNanos / 1000 + "us per check");
+    }
+
+    @Test
+    public void testLaunchToFirstFrame() throws Exception {
+        storeForecast();
+        long[] storedNanos = new long[LAUNCH_ITERATIONS];
+        for (int i = 0; i < LAUNCH_ITERATIONS; i++) {
+            storedNanos[i] = launchToFirstFrame();
+        }
+
+        long[] emptyNanos = new long[LAUNCH_ITERATIONS];
+        for (int i = 0; i < LAUNCH_ITERATIONS; i++) {
+            mResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+            emptyNanos[i] = launchToFirstFrame();
+        }
+
+        Log.i(TAG, "Launch to first frame, median of " + LAUNCH_ITERATIONS + ": stored forecast "
+                + median(storedNanos) / 1000 + "us, empty database "
+                + median(emptyNanos) / 1000 + "us");
+    }
+
+    private long timeExistsProbe() {
+        long start = System.nanoTime();
+        for (int i = 0; i < PROBE_ITERATIONS; i++) {
+            SunshineSyncUtils.isForecastStored(mContext);
+        }
+        return (System.nanoTime() - start) / PROBE_ITERATIONS;
+    }
+
+    /* The check initialize used to make */
+    private long timeCountQuery(int expectedCount) {
+        long start = System.nanoTime();
+        for (int i = 0; i < PROBE_ITERATIONS; i++) {
+            Cursor cursor = mResolver.query(WeatherEntry.CONTENT_URI,
+                    new String[]{WeatherEntry._ID},
+                    WeatherEntry.getSqlSelectForTodayOnwards(),
+                    null,
+                    null);
+            assertEquals(expectedCount, cursor.getCount());
+            cursor.close();
+        }
+        return (System.nanoTime() - start) / PROBE_ITERATIONS;
+    }
+
+    /**
+     * Starts MainActivity, as if the app had just started, and waits for its first frame.
+     *
+     * @return How long it took from starting the activity to drawing the first frame
+     */
+    private long launchToFirstFrame() throws Exception {
+        final CountDownLatch firstFrame = new CountDownLatch(1);
+        final long[] firstFrameNanos = new long[1];
+
+        ActivityLifecycleCallback callback = new ActivityLifecycleCallback() {
+            @Override
+            public void onActivityLifecycleChanged(Activity activity, Stage stage) {
+                if (stage != Stage.CREATED || !(activity instanceof MainActivity)) return;
+
+                final View decorView = activity.getWindow().getDecorView();
+                decorView.getViewTreeObserver().addOnPreDrawListener(
+                        new ViewTreeObserver.OnPreDrawListener() {
+                            @Override
+                            public boolean onPreDraw() {
+                                firstFrameNanos[0] = System.nanoTime();
+                                decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                                firstFrame.countDown();
+                                return true;
+                            }
+                        });
+            }
+        };
+
+        SunshineSyncUtils.resetInitialized();
+        ActivityLifecycleMonitorRegistry.getInstance().addLifecycleCallback(callback);
+        Activity activity = null;
+        try {
+            Intent intent = new Intent(mContext, MainActivity.class)
+                    .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP);
+            long start = System.nanoTime();
+            activity = mInstrumentation.startActivitySync(intent);
+            assertTrue("MainActivity never drew its first frame",
+                    firstFrame.await(FIRST_FRAME_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            return firstFrameNanos[0] - start;
+        } finally {
+            ActivityLifecycleMonitorRegistry.getInstance().removeLifecycleCallback(callback);
+            if (activity != null) {
+                activity.finish();
+            }
+            mInstrumentation.waitForIdleSync();
+        }
+    }
+
+    /* A forecast from today onwards, like a sync stores */
+    private void storeForecast() {
+        ContentValues[] values = TestUtilities.createForecastValues(
+                SunshineDateUtils.getEpochDayForToday(), FORECAST_DAYS);
+        for (int day = 0; day < FORECAST_DAYS; day++) {
+            values[day].put(WeatherEntry.COLUMN_MIN_TEMP, 10.0 + day);
+            values[day].put(WeatherEntry.COLUMN_MAX_TEMP, 20.0 + day);
+        }
+        mResolver.bulkInsert(WeatherEntry.RECONCILE_URI, values);
+    }
+
+    private static long median(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.data.WeatherContract.SyncMetricsEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.RetryPolicy;
+import com.example.android.sunshine.utilities.TestOpenWeatherJsonUtils;
+import com.example.android.sunshine.utils.PollingCheck;
+import com.example.android.sunshine.utils.StubHttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Fires syncs at a {@link SyncCoordinator} from many threads at once, against a
+ * {@link StubHttpServer} that holds on to each request until the test lets it go, and counts how
+ * many times the forecast is actually downloaded.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSyncCoordinator {
+
+    private static final String TAG = TestSyncCoordinator.class.getSimpleName();
+
+    private static final int CONCURRENT_SYNCS = 16;
+
+    private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private static final long MIN_SYNC_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /* Never reached by the tests, so nothing is pushed to the Data Layer */
+    private static final long COALESCE_WINDOW_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final ContentResolver mResolver = mContext.getContentResolver();
+
+    /* Counted down by the test to let the server answer the requests it is holding */
+    private final CountDownLatch mReleaseResponses = new CountDownLatch(1);
+    private volatile int mResponseCode = HttpURLConnection.HTTP_OK;
+
+    private SyncWithWearableTask mWearableTask;
+    private StubHttpServer mServer;
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() throws Exception {
+        mResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        SunshinePreferences.resetForecastValidators(mContext);
+        SunshinePreferences.resetCircuitState(mContext);
+        /* The notification stage still runs, but doesn't show a notification */
+        SunshinePreferences.saveLastNotificationTime(mContext, System.currentTimeMillis());
+
+        mWearableTask = new SyncWithWearableTask(new WearableDataClient() {
+            @Override
+            public boolean connect(long timeoutMillis) {
+                return false;
+            }
+
+            @Override
+            public boolean putDataItem(String path, byte[] data) {
+                return false;
+            }
+        }, COALESCE_WINDOW_MILLIS);
+
+        final byte[] forecast = TestOpenWeatherJsonUtils
+                .createForecastJson(14, 200, new Random(11)).getBytes("UTF-8");
+        mServer = new StubHttpServer(new StubHttpServer.Dispatcher() {
+            @Override
+            public StubHttpServer.Response dispatch(StubHttpServer.Request request)
+                    throws InterruptedException {
+                mReleaseResponses.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                return new StubHttpServer.Response(mResponseCode).setBody(forecast);
+            }
+        });
+        mServer.start();
+
+        mExecutor = Executors.newFixedThreadPool(CONCURRENT_SYNCS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mReleaseResponses.countDown();
+        mExecutor.shutdownNow();
+        mWearableTask.quit();
+        mServer.shutdown();
+        mResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        mResolver.delete(SyncMetricsEntry.CONTENT_URI, null, null);
+        SunshinePreferences.resetForecastValidators(mContext);
+        SunshinePreferences.resetCircuitState(mContext);
+    }
+
+    @Test
+    public void testConcurrentSyncsShareOneFetch() throws Exception {
+        final SyncCoordinator coordinator = new SyncCoordinator(MIN_SYNC_INTERVAL_MILLIS);
+        final URL url = mServer.getUrl("/weather");
+
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<SyncRecord>> results = new ArrayList<>();
+        for (int i = 0; i < CONCURRENT_SYNCS; i++) {
+            results.add(mExecutor.submit(new Callable<SyncRecord>() {
+                @Override
+                public SyncRecord call() throws Exception {
+                    start.await();
+                    return coordinator.sync(mContext, url, mWearableTask, null);
+                }
+            }));
+        }
+        start.countDown();
+
+        /* Hold the response until every other sync has joined the one that is running */
+        PollingCheck.check("Every sync should join the running one", TIMEOUT_MILLIS,
+                new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return coordinator.getJoinedCount() == CONCURRENT_SYNCS - 1;
+                    }
+                });
+        mReleaseResponses.countDown();
+
+        SyncRecord first = results.get(0).get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        assertNotNull(first);
+        assertEquals(SyncMetricsEntry.OUTCOME_SUCCESS, first.getOutcome());
+        for (Future<SyncRecord> result : results) {
+            assertSame("Every sync should share the result of the one that ran",
+                    first, result.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        }
+
+        assertEquals("The forecast should be downloaded once", 1, mServer.getRequestCount());
+        assertEquals(1, coordinator.getStartedCount());
+
+        Log.i(TAG, CONCURRENT_SYNCS + " concurrent syncs made " + mServer.getRequestCount()
+                + " request: " + first);
+    }
+
+    @Test
+    public void testRecentlySyncedForecastIsSkipped() throws Exception {
+        mReleaseResponses.countDown();
+        SyncCoordinator coordinator = new SyncCoordinator(MIN_SYNC_INTERVAL_MILLIS);
+        URL url = mServer.getUrl("/weather");
+
+        assertNotNull(coordinator.sync(mContext, url, mWearableTask, null));
+        for (int i = 0; i < CONCURRENT_SYNCS; i++) {
+            assertNull("A fresh forecast shouldn't be synced",
+                    coordinator.sync(mContext, url, mWearableTask, null));
+        }
+
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals(CONCURRENT_SYNCS, coordinator.getSkippedCount());
+    }
+
+    @Test
+    public void testForecastIsSyncedAgainOnceTheIntervalPassed() throws Exception {
+        mReleaseResponses.countDown();
+        SyncCoordinator coordinator = new SyncCoordinator(0);
+        URL url = mServer.getUrl("/weather");
+
+        assertNotNull(coordinator.sync(mContext, url, mWearableTask, null));
+        assertNotNull(coordinator.sync(mContext, url, mWearableTask, null));
+
+        assertEquals(2, mServer.getRequestCount());
+        assertEquals(0, coordinator.getSkippedCount());
+    }
+
+    @Test
+    public void testFailedSyncIsNotFresh() throws Exception {
+        mReleaseResponses.countDown();
+        mResponseCode = HttpURLConnection.HTTP_INTERNAL_ERROR;
+        SyncCoordinator coordinator = new SyncCoordinator(MIN_SYNC_INTERVAL_MILLIS);
+        URL url = mServer.getUrl("/weather");
+
+        assertEquals(SyncMetricsEntry.OUTCOME_FAILED,
+                coordinator.sync(mContext, url, mWearableTask, null).getOutcome());
+
+        /* The failed sync retried its request before it gave up */
+        mResponseCode = HttpURLConnection.HTTP_OK;
+        assertEquals(SyncMetricsEntry.OUTCOME_SUCCESS,
+                coordinator.sync(mContext, url, mWearableTask, null).getOutcome());
+        assertEquals(RetryPolicy.DEFAULT.getMaxAttempts() + 1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void testOtherLocationWaitsAndSyncsItself() throws Exception {
+        final SyncCoordinator coordinator = new SyncCoordinator(MIN_SYNC_INTERVAL_MILLIS);
+        final URL firstUrl = mServer.getUrl("/weather?q=first");
+        final URL secondUrl = mServer.getUrl("/weather?q=second");
+
+        Future<SyncRecord> first = mExecutor.submit(new Callable<SyncRecord>() {
+            @Override
+            public SyncRecord call() {
+                return coordinator.sync(mContext, firstUrl, mWearableTask, null);
+            }
+        });
+        PollingCheck.check("The first sync should start", TIMEOUT_MILLIS,
+                new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return mServer.getRequestCount() == 1;
+                    }
+                });
+
+        Future<SyncRecord> second = mExecutor.submit(new Callable<SyncRecord>() {
+            @Override
+            public SyncRecord call() {
+                return coordinator.sync(mContext, secondUrl, mWearableTask, null);
+            }
+        });
+        mReleaseResponses.countDown();
+
+        SyncRecord firstRecord = first.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        SyncRecord secondRecord = second.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        assertNotNull(firstRecord);
+        assertNotNull("Another location's forecast isn't fresh", secondRecord);
+        assertNotSame(firstRecord, secondRecord);
+        assertEquals(2, mServer.getRequestCount());
+        assertEquals(0, coordinator.getJoinedCount());
+        assertTrue(mServer.getLastRequest().path.endsWith("second"));
+    }
+}
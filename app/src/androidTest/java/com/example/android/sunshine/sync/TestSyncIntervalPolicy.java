@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.data.TestUtilities;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests how {@link SyncIntervalPolicy} tells forecasts apart and moves the sync interval, and
+ * replays a recorded week of forecasts with {@link SyncScheduleSimulator} to compare it with the
+ * fixed schedule Sunshine used to have.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSyncIntervalPolicy {
+
+    private static final String TAG = TestSyncIntervalPolicy.class.getSimpleName();
+
+    private static final int FORECAST_DAYS = 14;
+
+    private static final long HOUR_IN_SECONDS = TimeUnit.HOURS.toSeconds(1);
+
+    /* The recording starts off the hour, as a real server wouldn't follow our schedule */
+    private static final long RECORDING_OFFSET_SECONDS = TimeUnit.MINUTES.toSeconds(78);
+    private static final long RECORDING_SECONDS = TimeUnit.DAYS.toSeconds(7);
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Test
+    public void testUnchangedForecastWidensIntervalUpToMax() {
+        long interval = SyncIntervalPolicy.DEFAULT_INTERVAL_SECONDS;
+        for (int i = 0; i < 10; i++) {
+            long next = SyncIntervalPolicy.getNextIntervalSeconds(interval,
+                    SyncIntervalPolicy.CHANGE_NONE);
+            assertTrue("The interval should never narrow", next >= interval);
+            assertTrue(next <= SyncIntervalPolicy.MAX_INTERVAL_SECONDS);
+            interval = next;
+        }
+        assertEquals(SyncIntervalPolicy.MAX_INTERVAL_SECONDS, interval);
+    }
+
+    @Test
+    public void testVolatileForecastNarrowsIntervalDownToMin() {
+        long interval = SyncIntervalPolicy.MAX_INTERVAL_SECONDS;
+        for (int i = 0; i < 10; i++) {
+            long next = SyncIntervalPolicy.getNextIntervalSeconds(interval,
+                    SyncIntervalPolicy.CHANGE_VOLATILE);
+            assertTrue("The interval should never widen", next <= interval);
+            assertTrue(next >= SyncIntervalPolicy.MIN_INTERVAL_SECONDS);
+            interval = next;
+        }
+        assertEquals(SyncIntervalPolicy.MIN_INTERVAL_SECONDS, interval);
+    }
+
+    @Test
+    public void testMinorOrUnknownChangeKeepsInterval() {
+        long interval = SyncIntervalPolicy.DEFAULT_INTERVAL_SECONDS * 2;
+        assertEquals(interval, SyncIntervalPolicy.getNextIntervalSeconds(interval,
+                SyncIntervalPolicy.CHANGE_MINOR));
+        assertEquals(interval, SyncIntervalPolicy.getNextIntervalSeconds(interval,
+                SyncIntervalPolicy.CHANGE_UNKNOWN));
+
+        /* An interval stored by an older policy is brought back within bounds */
+        assertEquals(SyncIntervalPolicy.MAX_INTERVAL_SECONDS,
+                SyncIntervalPolicy.getNextIntervalSeconds(TimeUnit.DAYS.toSeconds(2),
+                        SyncIntervalPolicy.CHANGE_MINOR));
+    }
+
+    @Test
+    public void testClassifyChange() {
+        ForecastBuilder base = new ForecastBuilder();
+        ContentValues[] forecast = base.build();
+
+        assertEquals(SyncIntervalPolicy.CHANGE_NONE,
+                SyncIntervalPolicy.classifyChange(forecast, base.build()));
+        assertEquals("With nothing to compare with, the change is minor",
+                SyncIntervalPolicy.CHANGE_MINOR,
+                SyncIntervalPolicy.classifyChange(null, forecast));
+
+        assertEquals("A change after the near term is minor",
+                SyncIntervalPolicy.CHANGE_MINOR,
+                SyncIntervalPolicy.classifyChange(forecast,
+                        base.copy().setWeather(SyncIntervalPolicy.NEAR_TERM_DAYS, 500).build()));
+        assertEquals("A small near-term temperature change is minor",
+                SyncIntervalPolicy.CHANGE_MINOR,
+                SyncIntervalPolicy.classifyChange(forecast,
+                        base.copy().shiftTemperatures(0, 1).build()));
+        assertEquals(SyncIntervalPolicy.CHANGE_VOLATILE,
+                SyncIntervalPolicy.classifyChange(forecast,
+                        base.copy().shiftTemperatures(1,
+                                SyncIntervalPolicy.VOLATILE_TEMPERATURE_DELTA).build()));
+        assertEquals(SyncIntervalPolicy.CHANGE_VOLATILE,
+                SyncIntervalPolicy.classifyChange(forecast,
+                        base.copy().setWeather(0, 500).build()));
+
+        /* A forecast read back from the database holds Strings, which compare the same */
+        ContentValues[] stored = new ContentValues[forecast.length];
+        for (int i = 0; i < forecast.length; i++) {
+            stored[i] = new ContentValues();
+            for (String column : forecast[i].keySet()) {
+                stored[i].put(column, forecast[i].getAsString(column));
+            }
+        }
+        assertEquals(SyncIntervalPolicy.CHANGE_NONE,
+                SyncIntervalPolicy.classifyChange(stored, forecast));
+    }
+
+    @Test
+    public void testReplayRecordedForecasts() throws Exception {
+        List<SyncScheduleSimulator.Response> recording = recordWeek();
+
+        SyncScheduleSimulator.Report fixed = SyncScheduleSimulator.replay(recording,
+                RECORDING_SECONDS, SyncScheduleSimulator.FIXED);
+        SyncScheduleSimulator.Report adaptive = SyncScheduleSimulator.replay(recording,
+                RECORDING_SECONDS, SyncScheduleSimulator.ADAPTIVE);
+        Log.i(TAG, "Replayed " + recording.size() + " forecasts. " + fixed + ", " + adaptive);
+
+        assertEquals(RECORDING_SECONDS / SyncIntervalPolicy.DEFAULT_INTERVAL_SECONDS,
+                fixed.fetchCount);
+        assertTrue("Syncing less often when nothing changes should save fetches: " + adaptive,
+                adaptive.fetchCount * 3 < fixed.fetchCount * 2);
+        assertTrue("The volatile day should bring the interval down to the minimum",
+                adaptive.minIntervalSeconds == SyncIntervalPolicy.MIN_INTERVAL_SECONDS);
+        assertTrue(adaptive.maxIntervalSeconds <= SyncIntervalPolicy.MAX_INTERVAL_SECONDS);
+
+        /* Neither schedule can leave a new forecast unfetched for longer than its interval */
+        assertTrue(fixed.maxStaleSeconds <= SyncIntervalPolicy.DEFAULT_INTERVAL_SECONDS);
+        assertTrue(adaptive.maxStaleSeconds <= SyncIntervalPolicy.MAX_INTERVAL_SECONDS);
+    }
+
+    /*
+     * A week of forecasts: on quiet days the server only revises days far ahead, once a day. On
+     * the fourth day a front comes through, and the next two days are revised every 3 hours.
+     */
+    private List<SyncScheduleSimulator.Response> recordWeek() throws Exception {
+        List<SyncScheduleSimulator.Response> recording = new ArrayList<>();
+        ForecastBuilder forecast = new ForecastBuilder();
+        recording.add(respond(0, forecast));
+
+        int[] quietHours = {12, 36, 60, 108, 132, 156};
+        int volatileFromHour = 72;
+        int volatileUntilHour = 96;
+        int nextQuiet = 0;
+        for (int hour = 1; hour < RECORDING_SECONDS / HOUR_IN_SECONDS; hour++) {
+            if (nextQuiet < quietHours.length && hour == quietHours[nextQuiet]) {
+                int day = FORECAST_DAYS - 1 - nextQuiet % 4;
+                forecast = forecast.copy().shiftTemperatures(day, 0.5);
+                recording.add(respond(hour, forecast));
+                nextQuiet++;
+            } else if (hour >= volatileFromHour && hour < volatileUntilHour
+                    && (hour - volatileFromHour) % 3 == 0) {
+                forecast = forecast.copy()
+                        .shiftTemperatures(0, -3)
+                        .setWeather(1, 500 + hour);
+                recording.add(respond(hour, forecast));
+            }
+        }
+        return recording;
+    }
+
+    /* The server's response is recorded as JSON, and parsed the way a sync would */
+    private SyncScheduleSimulator.Response respond(int hour, ForecastBuilder forecast)
+            throws Exception {
+        ContentValues[] values = OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext,
+                forecast.toJson());
+        return new SyncScheduleSimulator.Response(
+                RECORDING_OFFSET_SECONDS + hour * HOUR_IN_SECONDS, values);
+    }
+
+    /**
+     * Builds forecasts that differ from each other in chosen ways.
+     */
+    private static class ForecastBuilder {
+
+        private final double[] mLows = new double[FORECAST_DAYS];
+        private final double[] mHighs = new double[FORECAST_DAYS];
+        private final int[] mWeatherIds = new int[FORECAST_DAYS];
+
+        ForecastBuilder() {
+            for (int day = 0; day < FORECAST_DAYS; day++) {
+                mLows[day] = 10 + day % 3;
+                mHighs[day] = 20 + day % 5;
+                mWeatherIds[day] = 800;
+            }
+        }
+
+        ForecastBuilder copy() {
+            ForecastBuilder copy = new ForecastBuilder();
+            System.arraycopy(mLows, 0, copy.mLows, 0, FORECAST_DAYS);
+            System.arraycopy(mHighs, 0, copy.mHighs, 0, FORECAST_DAYS);
+            System.arraycopy(mWeatherIds, 0, copy.mWeatherIds, 0, FORECAST_DAYS);
+            return copy;
+        }
+
+        ForecastBuilder shiftTemperatures(int day, double delta) {
+            mLows[day] += delta;
+            mHighs[day] += delta;
+            return this;
+        }
+
+        ForecastBuilder setWeather(int day, int weatherId) {
+            mWeatherIds[day] = weatherId;
+            return this;
+        }
+
+        /* The days start today */
+        ContentValues[] build() {
+            ContentValues[] values = TestUtilities.createForecastValues(
+                    SunshineDateUtils.getEpochDayForToday(), FORECAST_DAYS);
+            for (int day = 0; day < FORECAST_DAYS; day++) {
+                values[day].put(WeatherEntry.COLUMN_WEATHER_ID, mWeatherIds[day]);
+                values[day].put(WeatherEntry.COLUMN_MIN_TEMP, mLows[day]);
+                values[day].put(WeatherEntry.COLUMN_MAX_TEMP, mHighs[day]);
+            }
+            return values;
+        }
+
+        /* In the same shape as the weather server's response */
+        String toJson() {
+            StringBuilder json = new StringBuilder(FORECAST_DAYS * 400);
+            json.append("{\"cod\":\"200\",\"message\":0.0123,\"cnt\":").append(FORECAST_DAYS)
+                    .append(",\"list\":[");
+            for (int day = 0; day < FORECAST_DAYS; day++) {
+                if (day > 0) json.append(',');
+                json.append("{\"dt\":").append(1475323200L + day * 86400L)
+                        .append(",\"temp\":{\"day\":").append(mHighs[day] - 1)
+                        .append(",\"min\":").append(mLows[day])
+                        .append(",\"max\":").append(mHighs[day])
+                        .append(",\"night\":").append(mLows[day] + 1)
+                        .append(",\"eve\":").append(mHighs[day] - 2)
+                        .append(",\"morn\":").append(mLows[day] + 2).append('}')
+                        .append(",\"pressure\":1013.0,\"humidity\":50")
+                        .append(",\"weather\":[{\"id\":").append(mWeatherIds[day])
+                        .append(",\"main\":\"Clear\",\"description\":\"sky is clear\",")
+                        .append("\"icon\":\"01d\"}]")
+                        .append(",\"speed\":3.5,\"deg\":180,\"clouds\":0}");
+            }
+            json.append("],\"city\":{\"id\":5375480,\"name\":\"Mountain View\",")
+                    .append("\"coord\":{\"lon\":-122.0838,\"lat\":37.3861},")
+                    .append("\"country\":\"US\",\"population\":0}}");
+            return json.toString();
+        }
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v4.os.CancellationSignal;
+import android.util.Log;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.data.WeatherContract.SyncMetricsEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.TestOpenWeatherJsonUtils;
+import com.example.android.sunshine.utils.PollingCheck;
+import com.example.android.sunshine.utils.StubHttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests that {@link SyncJobRunner} reports every job as finished exactly once, and that canceling
+ * a sync in the middle of a slow download from a {@link StubHttpServer} frees the worker right
+ * away and leaves the stored forecast alone.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSyncJobRunner {
+
+    private static final String TAG = TestSyncJobRunner.class.getSimpleName();
+
+    private static final int FORECAST_DAYS = 14;
+
+    /* The slow server takes several seconds to send a forecast */
+    private static final int SLOW_CHUNK_SIZE = 256;
+    private static final long SLOW_CHUNK_DELAY_MILLIS = 200;
+
+    /* How soon a canceled sync must give its worker back */
+    private static final long MAX_CANCEL_MILLIS = 1000;
+
+    private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    /* Never reached by the tests, so nothing is pushed to the Data Layer */
+    private static final long COALESCE_WINDOW_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final ContentResolver mResolver = mContext.getContentResolver();
+
+    private volatile boolean mServeSlowly;
+
+    private SyncWithWearableTask mWearableTask;
+    private StubHttpServer mServer;
+    private SyncJobRunner mRunner;
+
+    @Before
+    public void setUp() throws Exception {
+        mResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        SunshinePreferences.resetForecastValidators(mContext);
+        /* The notification stage still runs, but doesn't show a notification */
+        SunshinePreferences.saveLastNotificationTime(mContext, System.currentTimeMillis());
+
+        mWearableTask = new SyncWithWearableTask(new WearableDataClient() {
+            @Override
+            public boolean connect(long timeoutMillis) {
+                return false;
+            }
+
+            @Override
+            public boolean putDataItem(String path, byte[] data) {
+                return false;
+            }
+        }, COALESCE_WINDOW_MILLIS);
+
+        final byte[] fastForecast = createForecast(1);
+        final byte[] slowForecast = createForecast(2);
+        mServer = new StubHttpServer(new StubHttpServer.Dispatcher() {
+            @Override
+            public StubHttpServer.Response dispatch(StubHttpServer.Request request) {
+                if (!mServeSlowly) {
+                    return new StubHttpServer.Response(HttpURLConnection.HTTP_OK)
+                            .setBody(fastForecast);
+                }
+                return new StubHttpServer.Response(HttpURLConnection.HTTP_OK)
+                        .setBody(slowForecast)
+                        .throttleBody(SLOW_CHUNK_SIZE, SLOW_CHUNK_DELAY_MILLIS);
+            }
+        });
+        mServer.start();
+
+        mRunner = new SyncJobRunner(SyncMetrics.getInstance(mContext), 1, 1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mRunner.shutdownNow();
+        mWearableTask.quit();
+        mServer.shutdown();
+        mResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        mResolver.delete(SyncMetricsEntry.CONTENT_URI, null, null);
+        SunshinePreferences.resetForecastValidators(mContext);
+    }
+
+    @Test
+    public void testCancelMidDownloadLeavesForecastAlone() throws Exception {
+        final URL url = mServer.getUrl("/weather");
+
+        /* Store a forecast that the canceled sync would replace */
+        assertEquals(SyncMetricsEntry.OUTCOME_SUCCESS,
+                SunshineSyncTask.syncWeather(mContext, url, mWearableTask, null).getOutcome());
+        List<String> storedForecast = readStoredForecast();
+        assertEquals(FORECAST_DAYS, storedForecast.size());
+
+        SunshinePreferences.resetForecastValidators(mContext);
+        mServeSlowly = true;
+
+        final AtomicReference<SyncRecord> record = new AtomicReference<>();
+        final CountDownLatch workEnded = new CountDownLatch(1);
+        CountingCallback callback = new CountingCallback();
+        SyncJobRunner.Job job = mRunner.start("slow", new SyncJobRunner.Work() {
+            @Override
+            public boolean run(CancellationSignal signal) {
+                try {
+                    record.set(SunshineSyncTask.syncWeather(mContext, url, mWearableTask,
+                            signal));
+                } finally {
+                    workEnded.countDown();
+                }
+                return false;
+            }
+        }, callback);
+
+        PollingCheck.check("The slow download should start", TIMEOUT_MILLIS,
+                new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return mServer.getRequestCount() == 2 && mServer.getBytesSent() > 0;
+                    }
+                });
+
+        long cancelStart = System.nanoTime();
+        assertTrue("A running job should be canceled", job.cancel());
+        assertTrue("The canceled sync should end",
+                workEnded.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        long cancelMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - cancelStart);
+        Log.i(TAG, "Canceled sync ended " + cancelMillis + "ms after cancel: " + record.get());
+
+        assertTrue("Canceling took " + cancelMillis + "ms", cancelMillis < MAX_CANCEL_MILLIS);
+        assertNotNull(record.get());
+        assertEquals(SyncMetricsEntry.OUTCOME_CANCELED, record.get().getOutcome());
+        assertEquals(SyncMetrics.STAGE_FETCH, record.get().getFailedStage());
+        assertEquals(storedForecast, readStoredForecast());
+
+        /* The worker is free for the next job, and the canceled one never reports back */
+        CountingCallback nextCallback = new CountingCallback();
+        mRunner.start("next", new SyncJobRunner.Work() {
+            @Override
+            public boolean run(CancellationSignal signal) {
+                return false;
+            }
+        }, nextCallback);
+        nextCallback.awaitFinished();
+        assertEquals(0, callback.getCount());
+        assertFalse("A canceled job can't be canceled again", job.cancel());
+    }
+
+    @Test
+    public void testFinishedJobReportsOnce() throws Exception {
+        CountingCallback callback = new CountingCallback();
+        SyncJobRunner.Job job = mRunner.start("once", new SyncJobRunner.Work() {
+            @Override
+            public boolean run(CancellationSignal signal) {
+                return false;
+            }
+        }, callback);
+
+        callback.awaitFinished();
+        assertFalse("A finished job can't be canceled", job.cancel());
+        Thread.sleep(SLOW_CHUNK_DELAY_MILLIS);
+        assertEquals(1, callback.getCount());
+        assertFalse(callback.needsReschedule());
+        assertTrue(job.getRunNanos() >= 0);
+    }
+
+    @Test
+    public void testFailedWorkAsksToBeRescheduled() throws Exception {
+        CountingCallback callback = new CountingCallback();
+        mRunner.start("failing", new SyncJobRunner.Work() {
+            @Override
+            public boolean run(CancellationSignal signal) throws Exception {
+                throw new Exception("Failing on purpose");
+            }
+        }, callback);
+
+        callback.awaitFinished();
+        assertEquals(1, callback.getCount());
+        assertTrue(callback.needsReschedule());
+    }
+
+    @Test
+    public void testQueuedJobsWaitAndCanceledOnesNeverRun() throws Exception {
+        final CountDownLatch releaseFirst = new CountDownLatch(1);
+        final long firstRunMillis = 200;
+        CountingCallback firstCallback = new CountingCallback();
+        SyncJobRunner.Job first = mRunner.start("first", new SyncJobRunner.Work() {
+            @Override
+            public boolean run(CancellationSignal signal) throws Exception {
+                releaseFirst.await();
+                Thread.sleep(firstRunMillis);
+                return false;
+            }
+        }, firstCallback);
+        assertTrue(mRunner.hasPendingJobs());
+
+        /* The runner has one worker and room for one waiting job */
+        final AtomicBoolean canceledRan = new AtomicBoolean();
+        CountingCallback canceledCallback = new CountingCallback();
+        SyncJobRunner.Job canceled = mRunner.start("canceled", new SyncJobRunner.Work() {
+            @Override
+            public boolean run(CancellationSignal signal) {
+                canceledRan.set(true);
+                return false;
+            }
+        }, canceledCallback);
+
+        CountingCallback rejectedCallback = new CountingCallback();
+        mRunner.start("rejected", new SyncJobRunner.Work() {
+            @Override
+            public boolean run(CancellationSignal signal) {
+                return false;
+            }
+        }, rejectedCallback);
+        assertEquals("A job with no room should finish right away",
+                1, rejectedCallback.getCount());
+        assertTrue(rejectedCallback.needsReschedule());
+
+        assertTrue(canceled.cancel());
+        releaseFirst.countDown();
+        firstCallback.awaitFinished();
+
+        CountingCallback lastCallback = new CountingCallback();
+        SyncJobRunner.Job last = mRunner.start("last", new SyncJobRunner.Work() {
+            @Override
+            public boolean run(CancellationSignal signal) {
+                return false;
+            }
+        }, lastCallback);
+        lastCallback.awaitFinished();
+        assertFalse("Every job has finished, been canceled or been rejected",
+                mRunner.hasPendingJobs());
+
+        assertFalse("A canceled job should never run", canceledRan.get());
+        assertEquals(0, canceledCallback.getCount());
+        assertEquals(1, firstCallback.getCount());
+        assertTrue("The first job should run for as long as its work",
+                first.getRunNanos() >= TimeUnit.MILLISECONDS.toNanos(firstRunMillis));
+        assertTrue(last.getQueueWaitNanos() >= 0);
+
+        Log.i(TAG, "First job waited " + first.getQueueWaitNanos() / 1000 + "us and ran "
+                + first.getRunNanos() / 1000 + "us");
+    }
+
+    private static byte[] createForecast(int seed) throws Exception {
+        return TestOpenWeatherJsonUtils.createForecastJson(FORECAST_DAYS, 200, new Random(seed))
+                .getBytes("UTF-8");
+    }
+
+    /** @return Every stored day, each as a String of all its columns */
+    private List<String> readStoredForecast() {
+        Cursor cursor = mResolver.query(WeatherEntry.CONTENT_URI, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull(cursor);
+        List<String> rows = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                StringBuilder row = new StringBuilder();
+                for (int column = 0; column < cursor.getColumnCount(); column++) {
+                    row.append(cursor.getString(column)).append(',');
+                }
+                rows.add(row.toString());
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+    /**
+     * Counts how often a job reports that it finished.
+     */
+    private static class CountingCallback implements SyncJobRunner.Callback {
+
+        private final AtomicInteger mCount = new AtomicInteger();
+        private final CountDownLatch mFinished = new CountDownLatch(1);
+        private volatile boolean mNeedsReschedule;
+
+        @Override
+        public void onJobFinished(boolean needsReschedule) {
+            mNeedsReschedule = needsReschedule;
+            mCount.incrementAndGet();
+            mFinished.countDown();
+        }
+
+        void awaitFinished() throws InterruptedException {
+            assertTrue("Timed out waiting for the job to finish",
+                    mFinished.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        }
+
+        int getCount() {
+            return mCount.get();
+        }
+
+        boolean needsReschedule() {
+            return mNeedsReschedule;
+        }
+    }
+}
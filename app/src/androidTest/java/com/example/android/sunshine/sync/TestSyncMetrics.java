@@ -0,0 +1,460 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.data.WeatherContract.SyncMetricsEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
+import com.example.android.sunshine.utilities.RetryPolicy;
+import com.example.android.sunshine.utilities.TestOpenWeatherJsonUtils;
+import com.example.android.sunshine.utils.StubHttpServer;
+import com.firebase.jobdispatcher.DefaultJobValidator;
+import com.firebase.jobdispatcher.Driver;
+import com.firebase.jobdispatcher.FirebaseJobDispatcher;
+import com.firebase.jobdispatcher.Job;
+import com.firebase.jobdispatcher.JobTrigger;
+import com.firebase.jobdispatcher.JobValidator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Drives {@link SunshineSyncTask} against a {@link StubHttpServer} and checks what it records
+ * with {@link SyncMetrics}: which stages were timed, how long they took, and which one failed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSyncMetrics {
+
+    private static final String TAG = TestSyncMetrics.class.getSimpleName();
+
+    private static final int FORECAST_DAYS = 14;
+
+    /* The throttled server sends the body in this many chunks, waiting before each of them */
+    private static final int THROTTLED_CHUNKS = 4;
+    private static final long CHUNK_DELAY_MILLIS = 50;
+
+    private static final String ETAG = "\"forecast-v1\"";
+
+    /* Never reached by the tests, so nothing is pushed to the Data Layer */
+    private static final long COALESCE_WINDOW_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final ContentResolver mResolver = mContext.getContentResolver();
+
+    private SyncWithWearableTask mWearableTask;
+    private StubHttpServer mServer;
+
+    /* Takes the place of Google Play, so the tests never schedule a real job */
+    private RecordingDriver mDriver;
+
+    @Before
+    public void setUp() {
+        mResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        mResolver.delete(SyncMetricsEntry.CONTENT_URI, null, null);
+        SunshinePreferences.resetForecastValidators(mContext);
+        SunshinePreferences.resetCircuitState(mContext);
+        SunshinePreferences.resetSyncInterval(mContext);
+        mDriver = new RecordingDriver(mContext);
+        SunshineSyncUtils.setDriver(mDriver);
+        /* The notification stage still runs, but doesn't show a notification */
+        SunshinePreferences.saveLastNotificationTime(mContext, System.currentTimeMillis());
+
+        mWearableTask = new SyncWithWearableTask(new WearableDataClient() {
+            @Override
+            public boolean connect(long timeoutMillis) {
+                return false;
+            }
+
+            @Override
+            public boolean putDataItem(String path, byte[] data) {
+                return false;
+            }
+        }, COALESCE_WINDOW_MILLIS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mWearableTask.quit();
+        if (mServer != null) {
+            mServer.shutdown();
+        }
+        mResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        mResolver.delete(SyncMetricsEntry.CONTENT_URI, null, null);
+        SunshinePreferences.resetForecastValidators(mContext);
+        SunshinePreferences.resetCircuitState(mContext);
+        SunshinePreferences.resetSyncInterval(mContext);
+        SunshineSyncUtils.setDriver(null);
+    }
+
+    @Test
+    public void testSuccessfulSyncTimesEveryStage() throws Exception {
+        final byte[] forecast = createForecast();
+        mServer = new StubHttpServer(new StubHttpServer.Dispatcher() {
+            @Override
+            public StubHttpServer.Response dispatch(StubHttpServer.Request request) {
+                return new StubHttpServer.Response(HttpURLConnection.HTTP_OK)
+                        .setBody(forecast)
+                        .throttleBody(forecast.length / THROTTLED_CHUNKS + 1,
+                                CHUNK_DELAY_MILLIS);
+            }
+        });
+        mServer.start();
+
+        SyncMetrics metrics = SyncMetrics.getInstance(mContext);
+        long syncsBefore = metrics.getSyncCount();
+        long fetchesBefore = metrics.getStageHistogram(SyncMetrics.STAGE_FETCH).getCount();
+
+        SyncRecord record = sync();
+
+        assertEquals(SyncMetricsEntry.OUTCOME_SUCCESS, record.getOutcome());
+        assertEquals(SyncMetrics.NO_STAGE, record.getFailedStage());
+        assertEquals(forecast.length, record.bytesFetched);
+        assertEquals(FORECAST_DAYS, record.daysParsed);
+
+        long stagesNanos = 0;
+        for (int stage = 0; stage < SyncMetrics.STAGE_COUNT; stage++) {
+            long nanos = record.getStageNanos(stage);
+            assertTrue("Stage " + SyncMetrics.getStageName(stage) + " should be timed",
+                    nanos >= 0);
+            stagesNanos += nanos;
+        }
+        assertTrue("The fetch should include the server's delays",
+                record.getStageNanos(SyncMetrics.STAGE_FETCH)
+                        >= TimeUnit.MILLISECONDS.toNanos(THROTTLED_CHUNKS * CHUNK_DELAY_MILLIS));
+        assertTrue("The stages can't take longer than the whole sync",
+                stagesNanos <= record.getTotalNanos());
+
+        assertEquals(syncsBefore + 1, metrics.getSyncCount());
+        assertEquals(fetchesBefore + 1,
+                metrics.getStageHistogram(SyncMetrics.STAGE_FETCH).getCount());
+
+        Cursor cursor = queryLatestMetrics();
+        try {
+            assertEquals(SyncMetricsEntry.OUTCOME_SUCCESS, getString(cursor,
+                    SyncMetricsEntry.COLUMN_OUTCOME));
+            assertEquals(TimeUnit.NANOSECONDS.toMicros(
+                    record.getStageNanos(SyncMetrics.STAGE_FETCH)),
+                    getLong(cursor, SyncMetricsEntry.COLUMN_FETCH_MICROS));
+            assertEquals(TimeUnit.NANOSECONDS.toMicros(record.getTotalNanos()),
+                    getLong(cursor, SyncMetricsEntry.COLUMN_TOTAL_MICROS));
+            assertEquals(FORECAST_DAYS, getLong(cursor, SyncMetricsEntry.COLUMN_DAYS_PARSED));
+            assertTrue(isNull(cursor, SyncMetricsEntry.COLUMN_FAILED_STAGE));
+        } finally {
+            cursor.close();
+        }
+
+        Log.i(TAG, "Sync: " + record);
+        Log.i(TAG, "All syncs: " + metrics);
+    }
+
+    @Test
+    public void testNotModifiedSyncOnlyFetches() throws Exception {
+        final byte[] forecast = createForecast();
+        mServer = new StubHttpServer(new StubHttpServer.Dispatcher() {
+            @Override
+            public StubHttpServer.Response dispatch(StubHttpServer.Request request) {
+                if (ETAG.equals(request.getHeader("If-None-Match"))) {
+                    return new StubHttpServer.Response(HttpURLConnection.HTTP_NOT_MODIFIED);
+                }
+                return new StubHttpServer.Response(HttpURLConnection.HTTP_OK)
+                        .setHeader("ETag", ETAG)
+                        .setBody(forecast);
+            }
+        });
+        mServer.start();
+
+        SyncMetrics metrics = SyncMetrics.getInstance(mContext);
+        assertEquals(SyncMetricsEntry.OUTCOME_SUCCESS, sync().getOutcome());
+        long notModifiedBefore = metrics.getNotModifiedCount();
+
+        SyncRecord record = sync();
+
+        assertEquals(SyncMetricsEntry.OUTCOME_NOT_MODIFIED, record.getOutcome());
+        assertEquals(SyncIntervalPolicy.CHANGE_NONE, record.forecastChange);
+        assertTrue(record.getStageNanos(SyncMetrics.STAGE_FETCH) >= 0);
+        for (int stage = SyncMetrics.STAGE_PARSE; stage < SyncMetrics.STAGE_COUNT; stage++) {
+            assertEquals("Stage " + SyncMetrics.getStageName(stage) + " shouldn't run",
+                    SyncRecord.NOT_TIMED, record.getStageNanos(stage));
+        }
+        assertEquals(notModifiedBefore + 1, metrics.getNotModifiedCount());
+
+        Cursor cursor = queryLatestMetrics();
+        try {
+            assertEquals(SyncMetricsEntry.OUTCOME_NOT_MODIFIED,
+                    getString(cursor, SyncMetricsEntry.COLUMN_OUTCOME));
+            assertTrue(isNull(cursor, SyncMetricsEntry.COLUMN_PARSE_MICROS));
+            assertTrue(isNull(cursor, SyncMetricsEntry.COLUMN_STORE_MICROS));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testFreshForecastDoesNotMoveTheInterval() throws Exception {
+        final byte[] forecast = createForecast();
+        mServer = new StubHttpServer(new StubHttpServer.Dispatcher() {
+            @Override
+            public StubHttpServer.Response dispatch(StubHttpServer.Request request) {
+                return new StubHttpServer.Response(HttpURLConnection.HTTP_OK)
+                        .setHeader("ETag", ETAG)
+                        .setHeader("Cache-Control", "max-age=600")
+                        .setBody(forecast);
+            }
+        });
+        mServer.start();
+        assertEquals(SyncMetricsEntry.OUTCOME_SUCCESS, sync().getOutcome());
+        long interval = SyncIntervalPolicy.DEFAULT_INTERVAL_SECONDS;
+        SunshinePreferences.saveSyncIntervalSeconds(mContext, interval);
+
+        SyncRecord record = sync();
+
+        /* The server wasn't asked, so this is no sign that the forecast is stable */
+        assertEquals(SyncMetricsEntry.OUTCOME_NOT_MODIFIED, record.getOutcome());
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals(SyncIntervalPolicy.CHANGE_UNKNOWN, record.forecastChange);
+        assertEquals(record.previousSyncIntervalSeconds, record.syncIntervalSeconds);
+        assertEquals(interval, SunshinePreferences.getSyncIntervalSeconds(mContext));
+    }
+
+    @Test
+    public void testServerErrorIsCountedAsFetchFailure() throws Exception {
+        mServer = StubHttpServer.serving(HttpURLConnection.HTTP_INTERNAL_ERROR, new byte[0]);
+        mServer.start();
+
+        SyncMetrics metrics = SyncMetrics.getInstance(mContext);
+        long fetchFailuresBefore = metrics.getFailureCount(SyncMetrics.STAGE_FETCH);
+        long parseFailuresBefore = metrics.getFailureCount(SyncMetrics.STAGE_PARSE);
+
+        SyncRecord record = sync();
+
+        assertFailedIn(SyncMetrics.STAGE_FETCH, record);
+        assertEquals("The request should be retried before the fetch fails",
+                RetryPolicy.DEFAULT.getMaxAttempts(), mServer.getRequestCount());
+        assertEquals(fetchFailuresBefore + 1, metrics.getFailureCount(SyncMetrics.STAGE_FETCH));
+        assertEquals(parseFailuresBefore, metrics.getFailureCount(SyncMetrics.STAGE_PARSE));
+        assertWeatherTableEmpty();
+    }
+
+    @Test
+    public void testMalformedForecastIsCountedAsParseFailure() throws Exception {
+        mServer = StubHttpServer.serving(HttpURLConnection.HTTP_OK,
+                "{\"cod\":\"200\"}".getBytes("UTF-8"));
+        mServer.start();
+
+        SyncMetrics metrics = SyncMetrics.getInstance(mContext);
+        long fetchFailuresBefore = metrics.getFailureCount(SyncMetrics.STAGE_FETCH);
+        long parseFailuresBefore = metrics.getFailureCount(SyncMetrics.STAGE_PARSE);
+
+        SyncRecord record = sync();
+
+        assertFailedIn(SyncMetrics.STAGE_PARSE, record);
+        assertTrue("The fetch before the failure should be timed",
+                record.getStageNanos(SyncMetrics.STAGE_FETCH) >= 0);
+        assertEquals(fetchFailuresBefore, metrics.getFailureCount(SyncMetrics.STAGE_FETCH));
+        assertEquals(parseFailuresBefore + 1, metrics.getFailureCount(SyncMetrics.STAGE_PARSE));
+        assertWeatherTableEmpty();
+    }
+
+    @Test
+    public void testErrorCodeInForecastIsNoData() throws Exception {
+        String errorJson = TestOpenWeatherJsonUtils.createForecastJson(FORECAST_DAYS,
+                HttpURLConnection.HTTP_NOT_FOUND, new Random(2));
+        mServer = StubHttpServer.serving(HttpURLConnection.HTTP_OK, errorJson.getBytes("UTF-8"));
+        mServer.start();
+
+        SyncRecord record = sync();
+
+        assertEquals(SyncMetricsEntry.OUTCOME_NO_DATA, record.getOutcome());
+        assertEquals(SyncMetrics.NO_STAGE, record.getFailedStage());
+        assertEquals(SyncRecord.NOT_TIMED, record.getStageNanos(SyncMetrics.STAGE_STORE));
+        assertWeatherTableEmpty();
+    }
+
+    @Test
+    public void testIntervalChangeIsAppliedOnceTheSyncIsOver() throws Exception {
+        byte[] forecast = createForecast();
+        mServer = StubHttpServer.serving(HttpURLConnection.HTTP_OK, forecast);
+        mServer.start();
+
+        /* A stored forecast whose weather for today the server's forecast changes */
+        ContentValues[] stored = OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext,
+                new String(forecast, "UTF-8"));
+        stored[0].put(WeatherEntry.COLUMN_WEATHER_ID,
+                stored[0].getAsInteger(WeatherEntry.COLUMN_WEATHER_ID) + 1);
+        mResolver.bulkInsert(WeatherEntry.RECONCILE_URI, stored);
+
+        long interval = SyncIntervalPolicy.DEFAULT_INTERVAL_SECONDS;
+        SunshinePreferences.saveSyncIntervalSeconds(mContext, interval);
+        SunshinePreferences.saveScheduledSyncIntervalSeconds(mContext, interval);
+        SyncMetrics metrics = SyncMetrics.getInstance(mContext);
+        long narrowedBefore = metrics.getIntervalNarrowedCount();
+
+        SyncRecord record = sync();
+
+        long narrowed = SyncIntervalPolicy.getNextIntervalSeconds(interval,
+                SyncIntervalPolicy.CHANGE_VOLATILE);
+        assertEquals(SyncMetricsEntry.OUTCOME_SUCCESS, record.getOutcome());
+        assertEquals(SyncIntervalPolicy.CHANGE_VOLATILE, record.forecastChange);
+        assertEquals(interval, record.previousSyncIntervalSeconds);
+        assertEquals(narrowed, record.syncIntervalSeconds);
+        assertEquals(narrowedBefore + 1, metrics.getIntervalNarrowedCount());
+        assertEquals(narrowed, SunshinePreferences.getSyncIntervalSeconds(mContext));
+
+        /* Rescheduling from inside the sync would stop the job the sync runs in */
+        assertEquals("The sync shouldn't reschedule itself", 0, mDriver.mJobs.size());
+        assertEquals(interval, SunshinePreferences.getScheduledSyncIntervalSeconds(mContext));
+        assertTrue(SunshineSyncUtils.isSyncRescheduleNeeded(mContext));
+
+        /* What the sync services do once the sync is over */
+        SunshineSyncUtils.applySyncInterval(mContext);
+        assertEquals(1, mDriver.mJobs.size());
+        JobTrigger.ExecutionWindowTrigger trigger =
+                (JobTrigger.ExecutionWindowTrigger) mDriver.mJobs.get(0).getTrigger();
+        assertEquals(narrowed, trigger.getWindowStart());
+        assertEquals(narrowed, SunshinePreferences.getScheduledSyncIntervalSeconds(mContext));
+        assertFalse(SunshineSyncUtils.isSyncRescheduleNeeded(mContext));
+
+        /* Nothing changed since, so there is nothing to reschedule */
+        SunshineSyncUtils.applySyncInterval(mContext);
+        assertEquals(1, mDriver.mJobs.size());
+    }
+
+    private SyncRecord sync() throws Exception {
+        return SunshineSyncTask.syncWeather(mContext, mServer.getUrl("/weather"), mWearableTask,
+                null);
+    }
+
+    private static byte[] createForecast() throws Exception {
+        return TestOpenWeatherJsonUtils.createForecastJson(FORECAST_DAYS, 200, new Random(5))
+                .getBytes("UTF-8");
+    }
+
+    private void assertFailedIn(int stage, SyncRecord record) {
+        assertEquals(SyncMetricsEntry.OUTCOME_FAILED, record.getOutcome());
+        assertEquals(stage, record.getFailedStage());
+        assertNotNull(record.getError());
+        assertTrue("The failed stage should be timed", record.getStageNanos(stage) >= 0);
+        for (int later = stage + 1; later < SyncMetrics.STAGE_COUNT; later++) {
+            assertEquals("Stage " + SyncMetrics.getStageName(later) + " shouldn't run",
+                    SyncRecord.NOT_TIMED, record.getStageNanos(later));
+        }
+
+        Cursor cursor = queryLatestMetrics();
+        try {
+            assertEquals(SyncMetricsEntry.OUTCOME_FAILED,
+                    getString(cursor, SyncMetricsEntry.COLUMN_OUTCOME));
+            assertEquals(SyncMetrics.getStageName(stage),
+                    getString(cursor, SyncMetricsEntry.COLUMN_FAILED_STAGE));
+            assertEquals(record.getError(), getString(cursor, SyncMetricsEntry.COLUMN_ERROR));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void assertWeatherTableEmpty() {
+        Cursor cursor = mResolver.query(WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertNotNull(cursor);
+        try {
+            assertEquals("A failed sync shouldn't store anything", 0, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** @return A cursor positioned on the row of the most recent sync */
+    private Cursor queryLatestMetrics() {
+        Cursor cursor = mResolver.query(SyncMetricsEntry.CONTENT_URI, null, null, null,
+                SyncMetricsEntry._ID + " DESC");
+        assertNotNull(cursor);
+        assertTrue("The sync should be stored", cursor.moveToFirst());
+        return cursor;
+    }
+
+    private static String getString(Cursor cursor, String column) {
+        return cursor.getString(cursor.getColumnIndexOrThrow(column));
+    }
+
+    private static long getLong(Cursor cursor, String column) {
+        return cursor.getLong(cursor.getColumnIndexOrThrow(column));
+    }
+
+    private static boolean isNull(Cursor cursor, String column) {
+        return cursor.isNull(cursor.getColumnIndexOrThrow(column));
+    }
+
+    /**
+     * Accepts every job it is asked to schedule, and keeps it for the test to look at.
+     */
+    private static final class RecordingDriver implements Driver {
+
+        final List<Job> mJobs = new CopyOnWriteArrayList<>();
+
+        private final JobValidator mValidator;
+
+        RecordingDriver(Context context) {
+            mValidator = new DefaultJobValidator(context);
+        }
+
+        @Override
+        public int schedule(Job job) {
+            mJobs.add(job);
+            return FirebaseJobDispatcher.SCHEDULE_RESULT_SUCCESS;
+        }
+
+        @Override
+        public int cancel(String tag) {
+            return FirebaseJobDispatcher.CANCEL_RESULT_SUCCESS;
+        }
+
+        @Override
+        public int cancelAll() {
+            return FirebaseJobDispatcher.CANCEL_RESULT_SUCCESS;
+        }
+
+        @Override
+        public JobValidator getValidator() {
+            return mValidator;
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+    }
+}
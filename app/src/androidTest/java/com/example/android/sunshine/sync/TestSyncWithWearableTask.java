@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.ContentValues;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.data.TestUtilities;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.shared.ForecastPayload;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests how often, and how much, {@link SyncWithWearableTask} pushes to the Data Layer, against a
+ * fake {@link WearableDataClient} that records every put.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSyncWithWearableTask {
+
+    private static final String TAG = TestSyncWithWearableTask.class.getSimpleName();
+
+    private static final long COALESCE_WINDOW_MILLIS = 200;
+
+    /* Long enough for any push scheduled so far to have happened */
+    private static final long SETTLE_MILLIS = COALESCE_WINDOW_MILLIS * 5;
+
+    private static final int FORECAST_DAYS = 14;
+
+    private FakeDataClient mDataClient;
+    private SyncWithWearableTask mSyncTask;
+
+    @Before
+    public void setUp() {
+        mDataClient = new FakeDataClient();
+        mSyncTask = new SyncWithWearableTask(mDataClient, COALESCE_WINDOW_MILLIS);
+    }
+
+    @After
+    public void tearDown() {
+        mSyncTask.quit();
+    }
+
+    @Test
+    public void testRapidSyncsAreCoalescedIntoOnePut() throws Exception {
+        for (int sync = 0; sync < 5; sync++) {
+            mSyncTask.synchWithWearable(createForecast(sync));
+        }
+
+        mDataClient.awaitPut();
+        Thread.sleep(SETTLE_MILLIS);
+
+        assertEquals("Syncs within the window should be pushed once", 1, mDataClient.getPutCount());
+        assertEquals(ForecastPayload.PATH, mDataClient.getLastPath());
+        assertEquals("Only the last forecast should be pushed",
+                4f, ForecastPayload.fromByteArray(mDataClient.getLastData()).getMaxTemp(0));
+    }
+
+    @Test
+    public void testUnchangedForecastIsNotPushedAgain() throws Exception {
+        mSyncTask.synchWithWearable(createForecast(0));
+        mDataClient.awaitPut();
+
+        mSyncTask.synchWithWearable(createForecast(0));
+        Thread.sleep(SETTLE_MILLIS);
+        assertEquals("The same forecast should not be pushed twice", 1, mDataClient.getPutCount());
+
+        mSyncTask.synchWithWearable(createForecast(1));
+        mDataClient.awaitPut();
+        assertEquals("A changed forecast should be pushed", 2, mDataClient.getPutCount());
+    }
+
+    @Test
+    public void testWholeForecastIsPushedAsOneItem() throws Exception {
+        ContentValues[] forecast = createForecast(0);
+        mSyncTask.synchWithWearable(forecast);
+        mDataClient.awaitPut();
+
+        assertEquals(SyncWithWearableTask.createPayload(forecast).length,
+                mDataClient.getBytesSent());
+
+        ForecastPayload payload = ForecastPayload.fromByteArray(mDataClient.getLastData());
+        assertEquals(FORECAST_DAYS, payload.getDayCount());
+        for (int day = 0; day < FORECAST_DAYS; day++) {
+            assertEquals((long) forecast[day].getAsLong(WeatherEntry.COLUMN_DATE),
+                    payload.getDate(day));
+            assertEquals((int) forecast[day].getAsInteger(WeatherEntry.COLUMN_WEATHER_ID),
+                    payload.getWeatherId(day));
+            assertEquals((float) forecast[day].getAsFloat(WeatherEntry.COLUMN_MIN_TEMP),
+                    payload.getMinTemp(day));
+        }
+
+        Log.i(TAG, FORECAST_DAYS + " days pushed in " + mDataClient.getPutCount() + " put of "
+                + mDataClient.getBytesSent() + " bytes");
+    }
+
+    @Test
+    public void testForecastIsPushedAgainAfterAFailure() throws Exception {
+        mDataClient.setConnected(false);
+        mSyncTask.synchWithWearable(createForecast(0));
+        Thread.sleep(SETTLE_MILLIS);
+        assertEquals("Nothing should be put without a connection", 0, mDataClient.getPutCount());
+
+        mDataClient.setConnected(true);
+        mDataClient.setPutSucceeds(false);
+        mSyncTask.synchWithWearable(createForecast(0));
+        mDataClient.awaitPut();
+
+        mDataClient.setPutSucceeds(true);
+        mSyncTask.synchWithWearable(createForecast(0));
+        mDataClient.awaitPut();
+        assertEquals("A forecast that failed to push should be pushed by the next sync",
+                2, mDataClient.getPutCount());
+    }
+
+    @Test
+    public void testForecastThatCantBePackedIsLeftOut() throws Exception {
+        ContentValues[] forecast = createForecast(0);
+        forecast[1].put(WeatherEntry.COLUMN_DATE,
+                forecast[1].getAsLong(WeatherEntry.COLUMN_DATE) + 1);
+
+        mSyncTask.synchWithWearable(forecast);
+        Thread.sleep(SETTLE_MILLIS);
+        assertEquals("A date that isn't midnight UTC can't be pushed",
+                0, mDataClient.getPutCount());
+
+        mSyncTask.synchWithWearable(createForecast(0));
+        mDataClient.awaitPut();
+        assertEquals(1, mDataClient.getPutCount());
+    }
+
+    /**
+     * @param variant Added to every temperature, so that each variant is a different forecast
+     */
+    private static ContentValues[] createForecast(int variant) {
+        ContentValues[] forecast = TestUtilities.createForecastValues(
+                SunshineDateUtils.getEpochDayForToday(), FORECAST_DAYS);
+        for (int day = 0; day < FORECAST_DAYS; day++) {
+            forecast[day].put(WeatherEntry.COLUMN_WEATHER_ID, 800 + day % 5);
+            forecast[day].put(WeatherEntry.COLUMN_MIN_TEMP, variant - day * 0.5);
+            forecast[day].put(WeatherEntry.COLUMN_MAX_TEMP, variant + day * 0.5);
+        }
+        return forecast;
+    }
+
+    /**
+     * Records every put instead of going to the Data Layer.
+     */
+    private static class FakeDataClient implements WearableDataClient {
+
+        private final Semaphore mPuts = new Semaphore(0);
+        private final List<byte[]> mData = new ArrayList<>();
+        private String mLastPath;
+        private volatile boolean mConnected = true;
+        private volatile boolean mPutSucceeds = true;
+
+        @Override
+        public boolean connect(long timeoutMillis) {
+            return mConnected;
+        }
+
+        @Override
+        public boolean putDataItem(String path, byte[] data) {
+            synchronized (this) {
+                mLastPath = path;
+                mData.add(data);
+            }
+            mPuts.release();
+            return mPutSucceeds;
+        }
+
+        void setConnected(boolean connected) {
+            mConnected = connected;
+        }
+
+        void setPutSucceeds(boolean putSucceeds) {
+            mPutSucceeds = putSucceeds;
+        }
+
+        void awaitPut() throws InterruptedException {
+            assertTrue("Timed out waiting for a put",
+                    mPuts.tryAcquire(SETTLE_MILLIS * 5, TimeUnit.MILLISECONDS));
+        }
+
+        synchronized int getPutCount() {
+            return mData.size();
+        }
+
+        synchronized String getLastPath() {
+            return mLastPath;
+        }
+
+        synchronized byte[] getLastData() {
+            return mData.get(mData.size() - 1);
+        }
+
+        synchronized long getBytesSent() {
+            long bytes = 0;
+            for (byte[] data : mData) {
+                bytes += data.length;
+            }
+            return bytes;
+        }
+    }
+}
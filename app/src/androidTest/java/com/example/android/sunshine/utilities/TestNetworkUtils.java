@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.utils.StubHttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.net.HttpURLConnection;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Tests the byte oriented fetch in {@link NetworkUtils} against a {@link StubHttpServer}
+ * running on the device, and compares it to the original Scanner based fetch.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestNetworkUtils {
+
+    private static final String TAG = TestNetworkUtils.class.getSimpleName();
+
+    private static final int BENCHMARK_ITERATIONS = 10;
+
+    /* Validators sent by the validating server */
+    private static final String ETAG = "\"forecast-v1\"";
+    private static final String LAST_MODIFIED = "Sat, 01 Oct 2016 00:00:00 GMT";
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private StubHttpServer mServer;
+
+    /* Counts of full (200) and conditional (304) responses sent by the validating server */
+    private final AtomicInteger mFullResponses = new AtomicInteger();
+    private final AtomicInteger mNotModifiedResponses = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        SunshinePreferences.resetForecastValidators(mContext);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (mServer != null) {
+            mServer.shutdown();
+        }
+    }
+
+    @Test
+    public void testResponseBodyMatchesScannerResponse() throws Exception {
+        String forecastJson = TestOpenWeatherJsonUtils.createForecastJson(14, 200, new Random(3));
+        mServer = StubHttpServer.serving(HttpURLConnection.HTTP_OK,
+                forecastJson.getBytes("UTF-8"));
+        mServer.start();
+
+        String scannerResponse = NetworkUtils.getResponseFromHttpUrl(mServer.getUrl("/weather"));
+
+        NetworkUtils.ResponseBody body =
+                NetworkUtils.getResponseBodyFromHttpUrl(mServer.getUrl("/weather"));
+        try {
+            assertEquals(scannerResponse, body.asString());
+            assertEquals(forecastJson.getBytes("UTF-8").length, body.getLength());
+        } finally {
+            body.release();
+        }
+    }
+
+    @Test
+    public void testGzipResponseIsInflated() throws Exception {
+        final String forecastJson =
+                TestOpenWeatherJsonUtils.createForecastJson(14, 200, new Random(4));
+        mServer = new StubHttpServer(new StubHttpServer.Dispatcher() {
+            @Override
+            public StubHttpServer.Response dispatch(StubHttpServer.Request request) {
+                return new StubHttpServer.Response(HttpURLConnection.HTTP_OK)
+                        .setBody(forecastJson)
+                        .gzipBody();
+            }
+        });
+        mServer.start();
+
+        NetworkUtils.ResponseBody body =
+                NetworkUtils.getResponseBodyFromHttpUrl(mServer.getUrl("/weather"));
+        try {
+            assertEquals("gzip", mServer.getLastRequest().getHeader("Accept-Encoding"));
+            assertEquals(forecastJson, body.asString());
+        } finally {
+            body.release();
+        }
+    }
+
+    @Test
+    public void testBufferGrowsWhenLengthIsUnderestimated() throws Exception {
+        byte[] bytes = new byte[10000];
+        new Random(5).nextBytes(bytes);
+
+        NetworkUtils.ResponseBody body =
+                NetworkUtils.readFully(new ByteArrayInputStream(bytes), 100);
+        try {
+            assertEquals(bytes.length, body.getLength());
+        } finally {
+            body.release();
+        }
+    }
+
+    @Test
+    public void testBufferIsNotSizedByAnOverstatedLength() throws Exception {
+        byte[] bytes = new byte[10000];
+        new Random(6).nextBytes(bytes);
+
+        /* Allocating what was claimed up front would run out of memory */
+        NetworkUtils.ResponseBody body =
+                NetworkUtils.readFully(new ByteArrayInputStream(bytes), Integer.MAX_VALUE);
+        try {
+            assertEquals(bytes.length, body.getLength());
+        } finally {
+            body.release();
+        }
+    }
+
+    @Test
+    public void testReleasedBodyCannotBeRead() throws Exception {
+        NetworkUtils.ResponseBody body =
+                NetworkUtils.readFully(new ByteArrayInputStream(new byte[16]), 16);
+        body.release();
+        /* Releasing twice is allowed */
+        body.release();
+
+        try {
+            body.openStream();
+            fail("openStream should throw once the body has been released");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    /**
+     * Not a correctness test. Logs the bytes allocated and the time from request to parsed
+     * ContentValues for both the Scanner and the byte oriented fetch.
+     */
+    @Test
+    public void testFetchAndParseComparedToScanner() throws Exception {
+        byte[] forecastBytes = TestOpenWeatherJsonUtils
+                .createForecastJson(1000, 200, new Random(6)).getBytes("UTF-8");
+        mServer = StubHttpServer.serving(HttpURLConnection.HTTP_OK, forecastBytes);
+        mServer.start();
+
+        long scannerNanos = 0;
+        long scannerBytes = 0;
+        long bodyNanos = 0;
+        long bodyBytes = 0;
+
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            Debug.resetThreadAllocCount();
+            Debug.startAllocCounting();
+            long start = System.nanoTime();
+            String response = NetworkUtils.getResponseFromHttpUrl(mServer.getUrl("/weather"));
+            OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext, response);
+            scannerNanos += System.nanoTime() - start;
+            Debug.stopAllocCounting();
+            scannerBytes += Debug.getThreadAllocSize();
+
+            Debug.resetThreadAllocCount();
+            Debug.startAllocCounting();
+            start = System.nanoTime();
+            NetworkUtils.ResponseBody body =
+                    NetworkUtils.getResponseBodyFromHttpUrl(mServer.getUrl("/weather"));
+            OpenWeatherJsonUtils.getWeatherContentValuesFromStream(mContext, body.openStream());
+            body.release();
+            bodyNanos += System.nanoTime() - start;
+            Debug.stopAllocCounting();
+            bodyBytes += Debug.getThreadAllocSize();
+        }
+
+        Log.i(TAG, "Response size: " + forecastBytes.length + " bytes");
+        Log.i(TAG, "Scanner fetch + parse: " + scannerNanos / BENCHMARK_ITERATIONS / 1000
+                + "us, " + scannerBytes / BENCHMARK_ITERATIONS + " bytes allocated");
+        Log.i(TAG, "ResponseBody fetch + parse: " + bodyNanos / BENCHMARK_ITERATIONS / 1000
+                + "us, " + bodyBytes / BENCHMARK_ITERATIONS + " bytes allocated");
+    }
+
+    @Test
+    public void testMatchingETagReceivesNotModified() throws Exception {
+        startValidatingServer(null);
+
+        NetworkUtils.ResponseBody body =
+                NetworkUtils.getResponseBodyIfModified(mContext, mServer.getUrl("/weather"));
+        assertNotNull("The first request should download the forecast", body);
+        body.release();
+        NetworkUtils.saveResponseValidators(mContext, body);
+
+        assertNull("The forecast hasn't changed, so there should be no body",
+                NetworkUtils.getResponseBodyIfModified(mContext, mServer.getUrl("/weather")));
+        assertEquals(ETAG, mServer.getLastRequest().getHeader("If-None-Match"));
+        assertEquals(LAST_MODIFIED, mServer.getLastRequest().getHeader("If-Modified-Since"));
+
+        assertEquals(1, mFullResponses.get());
+        assertEquals(1, mNotModifiedResponses.get());
+    }
+
+    @Test
+    public void testValidatorsAreNotUsedUntilSaved() throws Exception {
+        startValidatingServer(null);
+
+        NetworkUtils.getResponseBodyIfModified(mContext, mServer.getUrl("/weather")).release();
+        NetworkUtils.getResponseBodyIfModified(mContext, mServer.getUrl("/weather")).release();
+
+        assertEquals(2, mFullResponses.get());
+        assertEquals(0, mNotModifiedResponses.get());
+    }
+
+    @Test
+    public void testValidatorsAreNotUsedForOtherUrls() throws Exception {
+        startValidatingServer(null);
+
+        NetworkUtils.ResponseBody body =
+                NetworkUtils.getResponseBodyIfModified(mContext, mServer.getUrl("/weather?q=a"));
+        body.release();
+        NetworkUtils.saveResponseValidators(mContext, body);
+
+        NetworkUtils.getResponseBodyIfModified(mContext, mServer.getUrl("/weather?q=b")).release();
+
+        assertEquals(2, mFullResponses.get());
+        assertNull(mServer.getLastRequest().getHeader("If-None-Match"));
+    }
+
+    @Test
+    public void testFreshForecastIsNotRequestedAgain() throws Exception {
+        startValidatingServer("public, max-age=3600");
+
+        NetworkUtils.ResponseBody body =
+                NetworkUtils.getResponseBodyIfModified(mContext, mServer.getUrl("/weather"));
+        body.release();
+        NetworkUtils.saveResponseValidators(mContext, body);
+
+        assertNull(NetworkUtils.getResponseBodyIfModified(mContext, mServer.getUrl("/weather")));
+        assertEquals("No request should be made within max-age", 1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void testMaxAgeIsClamped() throws Exception {
+        startValidatingServer("public, max-age=31536000");
+
+        long before = System.currentTimeMillis();
+        NetworkUtils.ResponseBody body =
+                NetworkUtils.getResponseBodyIfModified(mContext, mServer.getUrl("/weather"));
+        body.release();
+        NetworkUtils.saveResponseValidators(mContext, body);
+        long after = System.currentTimeMillis();
+
+        long expiresAt = SunshinePreferences.getForecastExpiresAt(mContext,
+                mServer.getUrl("/weather").toString());
+        assertTrue("A year long max-age should be cut down to the shortest sync interval",
+                expiresAt >= before + NetworkUtils.MAX_FRESH_MILLIS
+                        && expiresAt <= after + NetworkUtils.MAX_FRESH_MILLIS);
+    }
+
+    /**
+     * Starts a server that answers 304 to requests carrying its ETag, and the full forecast to
+     * every other request.
+     */
+    private void startValidatingServer(final String cacheControl) throws Exception {
+        final String forecastJson =
+                TestOpenWeatherJsonUtils.createForecastJson(14, 200, new Random(8));
+        mServer = new StubHttpServer(new StubHttpServer.Dispatcher() {
+            @Override
+            public StubHttpServer.Response dispatch(StubHttpServer.Request request) {
+                StubHttpServer.Response response;
+                if (ETAG.equals(request.getHeader("If-None-Match"))) {
+                    mNotModifiedResponses.incrementAndGet();
+                    response = new StubHttpServer.Response(HttpURLConnection.HTTP_NOT_MODIFIED);
+                } else {
+                    mFullResponses.incrementAndGet();
+                    response = new StubHttpServer.Response(HttpURLConnection.HTTP_OK)
+                            .setBody(forecastJson);
+                }
+                response.setHeader("ETag", ETAG).setHeader("Last-Modified", LAST_MODIFIED);
+                if (cacheControl != null) {
+                    response.setHeader("Cache-Control", cacheControl);
+                }
+                return response;
+            }
+        });
+        mServer.start();
+    }
+}
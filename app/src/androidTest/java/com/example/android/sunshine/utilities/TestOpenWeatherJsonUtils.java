@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+
+/**
+ * Compares the streaming JSON parser in {@link OpenWeatherJsonUtils} against the original
+ * JSONObject based parser. The responses are generated to look like what the weather server
+ * sends, including the fields that Sunshine doesn't store.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestOpenWeatherJsonUtils {
+
+    private static final String TAG = TestOpenWeatherJsonUtils.class.getSimpleName();
+
+    /* Enough days to make the difference between the two parsers measurable */
+    private static final int LARGE_RESPONSE_DAYS = 5000;
+
+    private static final int BENCHMARK_ITERATIONS = 5;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Test
+    public void testStreamingParserMatchesJsonObjectParser() throws Exception {
+        String forecastJson = createForecastJson(14, 200, new Random(42));
+        assertParsersAgree(forecastJson);
+    }
+
+    @Test
+    public void testStreamingParserMatchesOnLargeResponse() throws Exception {
+        String forecastJson = createForecastJson(LARGE_RESPONSE_DAYS, 200, new Random(7));
+        assertParsersAgree(forecastJson);
+    }
+
+    @Test
+    public void testStreamingParserReturnsNullOnErrorCode() throws Exception {
+        String forecastJson = "{\"cod\":\"404\",\"message\":\"city not found\"}";
+
+        assertNull(OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext, forecastJson));
+        assertNull(OpenWeatherJsonUtils.getWeatherContentValuesFromStream(mContext,
+                toStream(forecastJson)));
+    }
+
+    @Test(expected = IOException.class)
+    public void testStreamingParserRejectsIncompleteDay() throws Exception {
+        String forecastJson = "{\"city\":{\"coord\":{\"lat\":1.5,\"lon\":2.5}},"
+                + "\"list\":[{\"pressure\":1000.1,\"humidity\":50}]}";
+        OpenWeatherJsonUtils.getWeatherContentValuesFromStream(mContext, toStream(forecastJson));
+    }
+
+    /**
+     * Not a correctness test. Logs the time and the number of bytes allocated by each parser
+     * for a large response, so the two approaches can be compared on a real device.
+     */
+    @Test
+    public void testParserThroughputAndAllocations() throws Exception {
+        String forecastJson = createForecastJson(LARGE_RESPONSE_DAYS, 200, new Random(1));
+        byte[] forecastBytes = forecastJson.getBytes("UTF-8");
+
+        /* Warm up both code paths before measuring */
+        OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext, forecastJson);
+        OpenWeatherJsonUtils.getWeatherContentValuesFromStream(mContext,
+                new ByteArrayInputStream(forecastBytes));
+
+        long treeNanos = 0;
+        long treeBytes = 0;
+        long streamNanos = 0;
+        long streamBytes = 0;
+
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            Debug.resetThreadAllocCount();
+            Debug.startAllocCounting();
+            long start = System.nanoTime();
+            /* The tree parser needs the response decoded into a String first */
+            String response = new String(forecastBytes, "UTF-8");
+            OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext, response);
+            treeNanos += System.nanoTime() - start;
+            Debug.stopAllocCounting();
+            treeBytes += Debug.getThreadAllocSize();
+
+            Debug.resetThreadAllocCount();
+            Debug.startAllocCounting();
+            start = System.nanoTime();
+            OpenWeatherJsonUtils.getWeatherContentValuesFromStream(mContext,
+                    new ByteArrayInputStream(forecastBytes));
+            streamNanos += System.nanoTime() - start;
+            Debug.stopAllocCounting();
+            streamBytes += Debug.getThreadAllocSize();
+        }
+
+        Log.i(TAG, "JSONObject parser: " + treeNanos / BENCHMARK_ITERATIONS / 1000 + "us, "
+                + treeBytes / BENCHMARK_ITERATIONS + " bytes allocated per parse");
+        Log.i(TAG, "JsonReader parser: " + streamNanos / BENCHMARK_ITERATIONS / 1000 + "us, "
+                + streamBytes / BENCHMARK_ITERATIONS + " bytes allocated per parse");
+    }
+
+    private void assertParsersAgree(String forecastJson) throws Exception {
+        ContentValues[] expected =
+                OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext, forecastJson);
+        ContentValues[] actual = OpenWeatherJsonUtils.getWeatherContentValuesFromStream(
+                mContext, toStream(forecastJson));
+
+        assertNotNull(expected);
+        assertNotNull(actual);
+        assertEquals("Both parsers should produce the same number of days",
+                expected.length, actual.length);
+
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("Values for day " + i + " differ between the parsers",
+                    expected[i], actual[i]);
+        }
+    }
+
+    private static InputStream toStream(String json) throws IOException {
+        return new ByteArrayInputStream(json.getBytes("UTF-8"));
+    }
+
+    /**
+     * Builds a response in the same shape as the one returned by the weather server. The
+     * "city" object is placed after "list" on purpose, as the streaming parser must not rely on
+     * the order of the keys.
+     */
+    public static String createForecastJson(int days, int code, Random random) {
+        StringBuilder json = new StringBuilder(days * 400);
+        json.append("{\"cod\":\"").append(code).append("\",\"message\":0.0123,\"cnt\":")
+                .append(days).append(",\"list\":[");
+
+        for (int i = 0; i < days; i++) {
+            if (i > 0) json.append(',');
+            double min = -10 + random.nextInt(300) / 10.0;
+            double max = min + random.nextInt(150) / 10.0;
+            json.append("{\"dt\":").append(1475323200L + i * 86400L)
+                    .append(",\"temp\":{\"day\":").append(max - 1)
+                    .append(",\"min\":").append(min)
+                    .append(",\"max\":").append(max)
+                    .append(",\"night\":").append(min + 1)
+                    .append(",\"eve\":").append(max - 2)
+                    .append(",\"morn\":").append(min + 2).append('}')
+                    .append(",\"pressure\":").append(950 + random.nextInt(1000) / 10.0)
+                    .append(",\"humidity\":").append(random.nextInt(100))
+                    .append(",\"weather\":[{\"id\":").append(200 + random.nextInt(700))
+                    .append(",\"main\":\"Clear\",\"description\":\"sky is clear\",")
+                    .append("\"icon\":\"01d\"}]")
+                    .append(",\"speed\":").append(random.nextInt(200) / 10.0)
+                    .append(",\"deg\":").append(random.nextInt(360))
+                    .append(",\"clouds\":").append(random.nextInt(100)).append('}');
+        }
+
+        json.append("],\"city\":{\"id\":5375480,\"name\":\"Mountain View\",")
+                .append("\"coord\":{\"lon\":-122.0838,\"lat\":37.3861},")
+                .append("\"country\":\"US\",\"population\":0}}");
+
+        return json.toString();
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.utils.StubHttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Tests how {@link NetworkUtils} retries a forecast request with a {@link RetryPolicy}, and how
+ * a {@link CircuitBreaker} holds off requests to a server that keeps failing, against a
+ * {@link StubHttpServer} that answers each request as the test scripts it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestRetryAndCircuitBreaker {
+
+    private static final String FORECAST = "{\"cod\":\"200\"}";
+
+    /* Short waits and timeouts, so the tests don't take long */
+    private static final RetryPolicy POLICY = new RetryPolicy(3, 50, 200, 500);
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private StubHttpServer mServer;
+
+    @Before
+    public void setUp() {
+        SunshinePreferences.resetForecastValidators(mContext);
+        SunshinePreferences.resetCircuitState(mContext);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (mServer != null) {
+            mServer.shutdown();
+        }
+        SunshinePreferences.resetForecastValidators(mContext);
+        SunshinePreferences.resetCircuitState(mContext);
+    }
+
+    @Test
+    public void testServerErrorsAreRetried() throws Exception {
+        URL url = startServer(new int[] {
+                HttpURLConnection.HTTP_INTERNAL_ERROR,
+                HttpURLConnection.HTTP_UNAVAILABLE,
+                HttpURLConnection.HTTP_OK});
+        CircuitBreaker breaker = newBreaker();
+
+        NetworkUtils.ResponseBody body =
+                NetworkUtils.getResponseBodyIfModified(mContext, url, null, POLICY, breaker);
+
+        assertNotNull(body);
+        assertEquals(FORECAST, body.asString());
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals("A request that got through in the end isn't a failure",
+                0, breaker.getFailureCount(url));
+    }
+
+    @Test
+    public void testRetriesAreBounded() throws Exception {
+        URL url = startServer(new int[] {HttpURLConnection.HTTP_UNAVAILABLE});
+        CircuitBreaker breaker = newBreaker();
+
+        try {
+            NetworkUtils.getResponseBodyIfModified(mContext, url, null, POLICY, breaker);
+            fail("A server that keeps failing should fail the request");
+        } catch (NetworkUtils.HttpStatusException e) {
+            assertEquals(HttpURLConnection.HTTP_UNAVAILABLE, e.getStatusCode());
+        }
+
+        assertEquals(POLICY.getMaxAttempts(), mServer.getRequestCount());
+        assertEquals("The retries together count as one failure",
+                1, breaker.getFailureCount(url));
+    }
+
+    @Test
+    public void testTimeoutIsRetried() throws Exception {
+        mServer = new StubHttpServer(new StubHttpServer.Dispatcher() {
+            private final AtomicInteger mRequests = new AtomicInteger();
+
+            @Override
+            public StubHttpServer.Response dispatch(StubHttpServer.Request request) {
+                if (mRequests.getAndIncrement() == 0) {
+                    return new StubHttpServer.Response(HttpURLConnection.HTTP_OK).hang();
+                }
+                return new StubHttpServer.Response(HttpURLConnection.HTTP_OK).setBody(FORECAST);
+            }
+        });
+        mServer.start();
+        URL url = mServer.getUrl("/forecast");
+
+        long startMillis = SystemClock.elapsedRealtime();
+        NetworkUtils.ResponseBody body =
+                NetworkUtils.getResponseBodyIfModified(mContext, url, null, POLICY, newBreaker());
+        long elapsedMillis = SystemClock.elapsedRealtime() - startMillis;
+
+        assertEquals(FORECAST, body.asString());
+        assertEquals(2, mServer.getRequestCount());
+        assertTrue("The first request should have timed out, took " + elapsedMillis + "ms",
+                elapsedMillis >= POLICY.getTimeoutMillis());
+    }
+
+    @Test
+    public void testClientErrorIsNotRetried() throws Exception {
+        URL url = startServer(new int[] {HttpURLConnection.HTTP_NOT_FOUND});
+        CircuitBreaker breaker = newBreaker();
+
+        try {
+            NetworkUtils.getResponseBodyIfModified(mContext, url, null, POLICY, breaker);
+            fail("A 404 should fail the request");
+        } catch (NetworkUtils.HttpStatusException e) {
+            assertEquals(HttpURLConnection.HTTP_NOT_FOUND, e.getStatusCode());
+        }
+
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals("A server that answers isn't failing", 0, breaker.getFailureCount(url));
+    }
+
+    @Test
+    public void testRetryAfterIsHonored() throws Exception {
+        mServer = new StubHttpServer(new StubHttpServer.Dispatcher() {
+            private final AtomicInteger mRequests = new AtomicInteger();
+
+            @Override
+            public StubHttpServer.Response dispatch(StubHttpServer.Request request) {
+                if (mRequests.getAndIncrement() == 0) {
+                    return new StubHttpServer.Response(HttpURLConnection.HTTP_UNAVAILABLE)
+                            .setHeader("Retry-After", "1");
+                }
+                return new StubHttpServer.Response(HttpURLConnection.HTTP_OK).setBody(FORECAST);
+            }
+        });
+        mServer.start();
+        URL url = mServer.getUrl("/forecast");
+        RetryPolicy policy = new RetryPolicy(3, 50, 2000, 500);
+
+        long startMillis = SystemClock.elapsedRealtime();
+        NetworkUtils.ResponseBody body =
+                NetworkUtils.getResponseBodyIfModified(mContext, url, null, policy, newBreaker());
+        long elapsedMillis = SystemClock.elapsedRealtime() - startMillis;
+
+        assertEquals(FORECAST, body.asString());
+        assertEquals(2, mServer.getRequestCount());
+        assertTrue("The retry should wait as long as the server asked, waited "
+                + elapsedMillis + "ms", elapsedMillis >= 1000);
+    }
+
+    @Test
+    public void testLongRetryAfterOpensCircuit() throws Exception {
+        mServer = new StubHttpServer(new StubHttpServer.Dispatcher() {
+            @Override
+            public StubHttpServer.Response dispatch(StubHttpServer.Request request) {
+                return new StubHttpServer.Response(HttpURLConnection.HTTP_UNAVAILABLE)
+                        .setHeader("Retry-After", "60");
+            }
+        });
+        mServer.start();
+        URL url = mServer.getUrl("/forecast");
+        CircuitBreaker breaker = newBreaker();
+
+        try {
+            NetworkUtils.getResponseBodyIfModified(mContext, url, null, POLICY, breaker);
+            fail("The request should fail");
+        } catch (NetworkUtils.HttpStatusException e) {
+            assertEquals(60000, e.getRetryAfterMillis());
+        }
+        assertEquals("Waiting longer than the policy allows isn't worth a retry",
+                1, mServer.getRequestCount());
+
+        assertOpen(url, breaker);
+        assertTrue(breaker.getOpenUntilMillis(url) > System.currentTimeMillis() + 50000);
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void testCircuitOpensAndCloses() throws Exception {
+        final AtomicInteger responseCode = new AtomicInteger(HttpURLConnection.HTTP_UNAVAILABLE);
+        mServer = new StubHttpServer(new StubHttpServer.Dispatcher() {
+            @Override
+            public StubHttpServer.Response dispatch(StubHttpServer.Request request) {
+                return new StubHttpServer.Response(responseCode.get()).setBody(FORECAST);
+            }
+        });
+        mServer.start();
+        URL url = mServer.getUrl("/forecast");
+        RetryPolicy policy = new RetryPolicy(1, 50, 200, 500);
+        long cooldownMillis = 1000;
+        CircuitBreaker breaker = new CircuitBreaker(mContext, 2, cooldownMillis);
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                NetworkUtils.getResponseBodyIfModified(mContext, url, null, policy, breaker);
+                fail("The server is failing");
+            } catch (NetworkUtils.HttpStatusException expected) {
+            }
+        }
+        assertEquals(2, mServer.getRequestCount());
+
+        /* The state outlives the breaker, as it would a restart of the app */
+        assertOpen(url, breaker);
+        assertOpen(url, new CircuitBreaker(mContext, 2, cooldownMillis));
+        assertEquals(2, mServer.getRequestCount());
+
+        /* Once the cooldown has passed, a request goes through and closes the breaker */
+        responseCode.set(HttpURLConnection.HTTP_OK);
+        SystemClock.sleep(cooldownMillis + 100);
+        NetworkUtils.ResponseBody body =
+                NetworkUtils.getResponseBodyIfModified(mContext, url, null, policy, breaker);
+
+        assertEquals(FORECAST, body.asString());
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals(0, breaker.getFailureCount(url));
+        assertEquals(0, breaker.getOpenUntilMillis(url));
+    }
+
+    @Test
+    public void testJitteredDelaysStayInBounds() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 5000, 1000, new Random(7));
+
+        long delayMillis = policy.getBaseDelayMillis();
+        boolean reachedMax = false;
+        for (int i = 0; i < 1000; i++) {
+            long upperBoundMillis = Math.min(policy.getMaxDelayMillis(),
+                    Math.max(policy.getBaseDelayMillis(), delayMillis * 3));
+            long nextDelayMillis = policy.getNextDelayMillis(delayMillis);
+            assertTrue("Delay " + nextDelayMillis + "ms after " + delayMillis + "ms",
+                    nextDelayMillis >= policy.getBaseDelayMillis()
+                            && nextDelayMillis <= upperBoundMillis);
+            reachedMax |= nextDelayMillis > policy.getMaxDelayMillis() / 2;
+            delayMillis = nextDelayMillis;
+        }
+        assertTrue("The delays should grow towards the maximum", reachedMax);
+
+        /* Devices that failed at the same moment shouldn't retry at the same moments */
+        RetryPolicy other = new RetryPolicy(10, 100, 5000, 1000, new Random(8));
+        long delay = policy.getNextDelayMillis(1000);
+        long otherDelay = other.getNextDelayMillis(1000);
+        assertTrue("Both policies waited " + delay + "ms", delay != otherDelay);
+    }
+
+    /**
+     * Starts a server that answers each request with the next code in the script, and every
+     * request after the script runs out with its last code.
+     *
+     * @return The URL of the forecast on the server
+     */
+    private URL startServer(final int[] script) throws IOException {
+        final AtomicInteger requests = new AtomicInteger();
+        mServer = new StubHttpServer(new StubHttpServer.Dispatcher() {
+            @Override
+            public StubHttpServer.Response dispatch(StubHttpServer.Request request) {
+                int index = Math.min(requests.getAndIncrement(), script.length - 1);
+                return new StubHttpServer.Response(script[index]).setBody(FORECAST);
+            }
+        });
+        mServer.start();
+        return mServer.getUrl("/forecast");
+    }
+
+    private CircuitBreaker newBreaker() {
+        return new CircuitBreaker(mContext, CircuitBreaker.FAILURE_THRESHOLD,
+                CircuitBreaker.COOLDOWN_MILLIS);
+    }
+
+    private void assertOpen(URL url, CircuitBreaker breaker) throws IOException {
+        try {
+            NetworkUtils.getResponseBodyIfModified(mContext, url, null, POLICY, breaker);
+            fail("The breaker should be open");
+        } catch (CircuitBreaker.OpenException e) {
+            assertEquals(breaker.getOpenUntilMillis(url), e.getOpenUntilMillis());
+        }
+    }
+}
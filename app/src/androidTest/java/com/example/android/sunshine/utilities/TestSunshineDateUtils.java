@@ -0,0 +1,356 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.content.Intent;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests that getFriendlyDateString returns exactly what formatting the date every time does,
+ * including after the time zone or locale changes, and that epoch days and the cached time zone
+ * offsets agree with plain arithmetic and the time zone across daylight saving transitions. Logs
+ * what those cost with and without their caches.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSunshineDateUtils {
+
+    private static final String TAG = TestSunshineDateUtils.class.getSimpleName();
+
+    /* Dates from a month ago to years ahead, far more than the cache holds */
+    private static final int FIRST_DAY = -30;
+    private static final int BENCHMARK_DAYS = 3000;
+
+    /* Around a real forecast, so that every date stays in the cache */
+    private static final int FORECAST_DAYS = 14;
+    private static final int BENCHMARK_ROUNDS = 200;
+
+    private static final long SEED = 20161001;
+    private static final int PROPERTY_SAMPLES = 10000;
+
+    /* 2010 to 2030 */
+    private static final long FIRST_PROPERTY_MILLIS = 1262304000000L;
+    private static final long LAST_PROPERTY_MILLIS = 1893456000000L;
+
+    /* With and without daylight saving time, whole and fractional hours, either hemisphere */
+    private static final String[] TIME_ZONES = {"UTC", "America/Los_Angeles",
+            "America/New_York", "America/Sao_Paulo", "Europe/London", "Europe/Berlin",
+            "Asia/Kolkata", "Asia/Kathmandu", "Australia/Adelaide", "Australia/Lord_Howe",
+            "Pacific/Auckland", "Pacific/Chatham", "Pacific/Apia", "Pacific/Kiritimati"};
+
+    private static final int BENCHMARK_CONVERSIONS = 100000;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private TimeZone mTimeZone;
+    private Locale mLocale;
+
+    @Before
+    public void setUp() {
+        mTimeZone = TimeZone.getDefault();
+        mLocale = Locale.getDefault();
+        SunshineDateUtils.refreshDefaultTimeZone();
+        SunshineDateUtils.sFriendlyDateCache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(mTimeZone);
+        SunshineDateUtils.refreshDefaultTimeZone();
+        Locale.setDefault(mLocale);
+        SunshineDateUtils.sFriendlyDateCache.clear();
+    }
+
+    @Test
+    public void testCachedDatesMatchFormatting() {
+        /* Twice, so that the second round is answered from the cache */
+        for (int round = 0; round < 2; round++) {
+            assertSameAsFormatting(FIRST_DAY, BENCHMARK_DAYS);
+        }
+        assertSameAsFormatting(-1, FORECAST_DAYS);
+    }
+
+    @Test
+    public void testRepeatedDatesHitTheCache() {
+        FriendlyDateCache cache = SunshineDateUtils.sFriendlyDateCache;
+        long misses = cache.getMissCount();
+        long hits = cache.getHitCount();
+
+        for (int round = 0; round < 3; round++) {
+            getFriendlyDates(FORECAST_DAYS);
+        }
+
+        assertEquals(2 * FORECAST_DAYS, cache.getMissCount() - misses);
+        assertEquals(2 * 2 * FORECAST_DAYS, cache.getHitCount() - hits);
+    }
+
+    @Test
+    public void testTimeZoneChangeInvalidatesTheCache() {
+        /* Either side of the date line, so that every local date differs */
+        String[] timeZones = {"Pacific/Kiritimati", "Pacific/Pago_Pago", "America/New_York",
+                "Europe/London", "Australia/Lord_Howe"};
+        for (String timeZone : timeZones) {
+            TimeZone.setDefault(TimeZone.getTimeZone(timeZone));
+            SunshineDateUtils.refreshDefaultTimeZone();
+            assertSameAsFormatting(-1, FORECAST_DAYS);
+        }
+    }
+
+    @Test
+    public void testDefaultTimeZoneIsHeldUntilRefreshed() {
+        TimeZone timeZone = SunshineDateUtils.getDefaultTimeZone();
+        assertSame(timeZone, SunshineDateUtils.getDefaultTimeZone());
+
+        /* So the offsets are looked up once, rather than for every clone of the zone */
+        ZoneOffsetCache offsets = new ZoneOffsetCache();
+        offsets.getOffset(SunshineDateUtils.getDefaultTimeZone(), System.currentTimeMillis());
+        for (int i = 0; i < FORECAST_DAYS; i++) {
+            offsets.getOffset(SunshineDateUtils.getDefaultTimeZone(), System.currentTimeMillis());
+        }
+        assertEquals(1, offsets.getMissCount());
+
+        /* A change of time zone is only seen once it is announced */
+        TimeZone.setDefault(TimeZone.getTimeZone(
+                "Pacific/Kiritimati".equals(timeZone.getID()) ? "UTC" : "Pacific/Kiritimati"));
+        assertSame(timeZone, SunshineDateUtils.getDefaultTimeZone());
+
+        new TimeZoneChangedReceiver().onReceive(mContext,
+                new Intent(Intent.ACTION_TIMEZONE_CHANGED));
+        TimeZone changed = SunshineDateUtils.getDefaultTimeZone();
+        assertEquals(TimeZone.getDefault().getID(), changed.getID());
+        assertSame(changed, SunshineDateUtils.getDefaultTimeZone());
+        assertSameAsFormatting(-1, FORECAST_DAYS);
+    }
+
+    @Test
+    public void testLocaleChangeInvalidatesTheCache() {
+        Locale[] locales = {Locale.US, Locale.FRANCE, Locale.GERMANY, Locale.JAPAN};
+        for (Locale locale : locales) {
+            Locale.setDefault(locale);
+            assertSameAsFormatting(-1, FORECAST_DAYS);
+        }
+    }
+
+    /**
+     * Not a correctness test. Logs the average cost of a call when every date is new to the cache
+     * and when the cache already holds it.
+     */
+    @Test
+    public void testFriendlyDateCost() {
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+
+        long start = System.nanoTime();
+        for (int day = FIRST_DAY; day < FIRST_DAY + BENCHMARK_DAYS; day++) {
+            SunshineDateUtils.getFriendlyDateString(mContext,
+                    today + day * SunshineDateUtils.DAY_IN_MILLIS, false);
+        }
+        long coldNanos = System.nanoTime() - start;
+
+        getFriendlyDates(FORECAST_DAYS);
+        start = System.nanoTime();
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+            getFriendlyDates(FORECAST_DAYS);
+        }
+        long warmNanos = System.nanoTime() - start;
+
+        Log.i(TAG, "getFriendlyDateString: "
+                + coldNanos / BENCHMARK_DAYS / 1000f + "us with a cold cache, "
+                + warmNanos / (BENCHMARK_ROUNDS * 2L * FORECAST_DAYS) / 1000f
+                + "us with a warm cache");
+    }
+
+    @Test
+    public void testEpochDaysRoundTrip() {
+        Random random = new Random(SEED);
+        for (int i = 0; i < PROPERTY_SAMPLES; i++) {
+            /* Some five thousand years either side of the epoch */
+            long epochDay = random.nextInt(4000000) - 2000000;
+            long normalized = SunshineDateUtils.fromEpochDay(epochDay);
+            long timeOfDay = 1 + random.nextInt((int) SunshineDateUtils.DAY_IN_MILLIS - 1);
+
+            assertEquals(epochDay, SunshineDateUtils.toEpochDay(normalized));
+            assertEquals(epochDay, SunshineDateUtils.toEpochDay(normalized + timeOfDay));
+            assertEquals(epochDay - 1, SunshineDateUtils.toEpochDay(normalized - timeOfDay));
+
+            assertTrue(SunshineDateUtils.isDateNormalized(normalized));
+            assertFalse(SunshineDateUtils.isDateNormalized(normalized + timeOfDay));
+
+            assertEquals(normalized, SunshineDateUtils.normalizeDate(normalized));
+            assertEquals(normalized, SunshineDateUtils.normalizeDate(normalized + timeOfDay));
+        }
+    }
+
+    /**
+     * Checks the cached offsets against the time zone itself at random instants, and right
+     * around every transition, for zones with and without daylight saving time.
+     */
+    @Test
+    public void testCachedOffsetsMatchTimeZone() {
+        Random random = new Random(SEED);
+        for (String id : TIME_ZONES) {
+            TimeZone zone = TimeZone.getTimeZone(id);
+            ZoneOffsetCache offsets = new ZoneOffsetCache();
+
+            /* Walking forwards through the years, as the dates of a forecast do */
+            for (long millis = FIRST_PROPERTY_MILLIS; millis < LAST_PROPERTY_MILLIS;
+                 millis += random.nextInt((int) SunshineDateUtils.DAY_IN_MILLIS)) {
+                assertOffset(zone, offsets, millis);
+            }
+
+            /* Jumping around */
+            for (int i = 0; i < PROPERTY_SAMPLES; i++) {
+                long millis = FIRST_PROPERTY_MILLIS + (long) (random.nextDouble()
+                        * (LAST_PROPERTY_MILLIS - FIRST_PROPERTY_MILLIS));
+                assertOffset(zone, offsets, millis);
+            }
+
+            /* Either side of every transition, found an hour at a time */
+            long hour = TimeUnit.HOURS.toMillis(1);
+            for (long millis = FIRST_PROPERTY_MILLIS; millis < LAST_PROPERTY_MILLIS;
+                 millis += hour) {
+                int offset = zone.getOffset(millis);
+                if (offset != zone.getOffset(millis + hour)) {
+                    long before = millis;
+                    long transition = millis + hour;
+                    while (transition - before > 1) {
+                        long middle = before + (transition - before) / 2;
+                        if (zone.getOffset(middle) == offset) {
+                            before = middle;
+                        } else {
+                            transition = middle;
+                        }
+                    }
+                    for (long around = transition - 2; around <= transition + 2; around++) {
+                        assertOffset(zone, offsets, around);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testEpochDayForTodayMatchesCalendar() {
+        for (String id : TIME_ZONES) {
+            TimeZone.setDefault(TimeZone.getTimeZone(id));
+            SunshineDateUtils.refreshDefaultTimeZone();
+
+            Calendar local = Calendar.getInstance();
+            Calendar utc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+            utc.clear();
+            utc.set(local.get(Calendar.YEAR), local.get(Calendar.MONTH),
+                    local.get(Calendar.DAY_OF_MONTH));
+            long expected = SunshineDateUtils.toEpochDay(utc.getTimeInMillis());
+
+            assertEquals(id, expected, SunshineDateUtils.getEpochDayForToday());
+            assertEquals(id, SunshineDateUtils.fromEpochDay(expected),
+                    SunshineDateUtils.getNormalizedUtcDateForToday());
+        }
+    }
+
+    /**
+     * Not a correctness test. Logs the average cost of working out today's date, and of the
+     * local midnight of a forecast day, asking the time zone every time as SunshineDateUtils used
+     * to and with the cached offsets.
+     */
+    @Test
+    public void testDateConversionCost() {
+        long start = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < BENCHMARK_CONVERSIONS; i++) {
+            long utcNowMillis = System.currentTimeMillis();
+            long offset = TimeZone.getDefault().getOffset(utcNowMillis);
+            sum += TimeUnit.MILLISECONDS.toDays(utcNowMillis + offset);
+        }
+        long uncachedTodayNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_CONVERSIONS; i++) {
+            sum += SunshineDateUtils.getEpochDayForToday();
+        }
+        long cachedTodayNanos = System.nanoTime() - start;
+
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        ZoneOffsetCache offsets = new ZoneOffsetCache();
+        TimeZone timeZone = SunshineDateUtils.getDefaultTimeZone();
+        start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_CONVERSIONS; i++) {
+            long date = today + (i % FORECAST_DAYS) * SunshineDateUtils.DAY_IN_MILLIS;
+            sum += date - TimeZone.getDefault().getOffset(date);
+        }
+        long uncachedMidnightNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_CONVERSIONS; i++) {
+            long date = today + (i % FORECAST_DAYS) * SunshineDateUtils.DAY_IN_MILLIS;
+            sum += date - offsets.getOffset(timeZone, date);
+        }
+        long cachedMidnightNanos = System.nanoTime() - start;
+
+        Log.i(TAG, "Today: " + uncachedTodayNanos / BENCHMARK_CONVERSIONS + "ns asking the "
+                + "time zone, " + cachedTodayNanos / BENCHMARK_CONVERSIONS + "ns cached");
+        Log.i(TAG, "Local midnight: " + uncachedMidnightNanos / BENCHMARK_CONVERSIONS
+                + "ns asking the time zone, " + cachedMidnightNanos / BENCHMARK_CONVERSIONS
+                + "ns cached (" + sum + ")");
+    }
+
+    private static void assertOffset(TimeZone zone, ZoneOffsetCache offsets, long millis) {
+        assertEquals(zone.getID() + " at " + millis,
+                zone.getOffset(millis), offsets.getOffset(zone, millis));
+    }
+
+    private void getFriendlyDates(int days) {
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        for (int day = 0; day < days; day++) {
+            long date = today + day * SunshineDateUtils.DAY_IN_MILLIS;
+            SunshineDateUtils.getFriendlyDateString(mContext, date, false);
+            SunshineDateUtils.getFriendlyDateString(mContext, date, true);
+        }
+    }
+
+    private void assertSameAsFormatting(int firstDay, int days) {
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        for (int day = firstDay; day < firstDay + days; day++) {
+            long date = today + day * SunshineDateUtils.DAY_IN_MILLIS;
+            for (boolean showFullDate : new boolean[]{false, true}) {
+                String expected = SunshineDateUtils.formatFriendlyDateString(mContext, date,
+                        showFullDate);
+                String actual = SunshineDateUtils.getFriendlyDateString(mContext, date,
+                        showFullDate);
+                assertTrue("Empty friendly date", expected.length() > 0);
+                assertEquals(TimeZone.getDefault().getID() + " " + Locale.getDefault()
+                        + " day " + day + " " + showFullDate, expected, actual);
+            }
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A minimal HTTP/1.1 server bound to the loopback interface, used to test the networking code
+ * without talking to the real weather server. Every connection is answered by the
+ * {@link Dispatcher} and then closed.
+ */
+public class StubHttpServer {
+
+    /**
+     * Decides how the server answers a request. Called on the connection's own thread, so it
+     * may block to simulate a slow server.
+     */
+    public interface Dispatcher {
+        Response dispatch(Request request) throws InterruptedException;
+    }
+
+    /** A request as received by the server. Header names are lower case. */
+    public static final class Request {
+        public final String method;
+        public final String path;
+        public final Map<String, String> headers;
+
+        Request(String method, String path, Map<String, String> headers) {
+            this.method = method;
+            this.path = path;
+            this.headers = Collections.unmodifiableMap(headers);
+        }
+
+        public String getHeader(String name) {
+            return headers.get(name.toLowerCase(Locale.US));
+        }
+    }
+
+    /** A scripted response. */
+    public static final class Response {
+        final int mCode;
+        final Map<String, String> mHeaders = new LinkedHashMap<>();
+        byte[] mBody = new byte[0];
+        int mChunkSize;
+        long mChunkDelayMillis;
+        boolean mHang;
+
+        public Response(int code) {
+            mCode = code;
+        }
+
+        public Response setHeader(String name, String value) {
+            mHeaders.put(name, value);
+            return this;
+        }
+
+        public Response setBody(byte[] body) {
+            mBody = body;
+            return this;
+        }
+
+        public Response setBody(String body) {
+            try {
+                return setBody(body.getBytes("UTF-8"));
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        /** Compresses the body and marks it with a gzip Content-Encoding. */
+        public Response gzipBody() {
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                GZIPOutputStream gzip = new GZIPOutputStream(out);
+                gzip.write(mBody);
+                gzip.close();
+                mBody = out.toByteArray();
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            return setHeader("Content-Encoding", "gzip");
+        }
+
+        /** Sends the body chunkSize bytes at a time, waiting delayMillis before each chunk. */
+        public Response throttleBody(int chunkSize, long delayMillis) {
+            mChunkSize = chunkSize;
+            mChunkDelayMillis = delayMillis;
+            return this;
+        }
+
+        /** Accepts the request but never answers it, until the server is shut down. */
+        public Response hang() {
+            mHang = true;
+            return this;
+        }
+    }
+
+    private final Dispatcher mDispatcher;
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mBytesSent = new AtomicInteger();
+    private volatile Request mLastRequest;
+
+    private ServerSocket mServerSocket;
+    private volatile boolean mShutdown;
+
+    public StubHttpServer(Dispatcher dispatcher) {
+        mDispatcher = dispatcher;
+    }
+
+    /**
+     * A server that answers every request with a copy of the same response.
+     */
+    public static StubHttpServer serving(final int code, final byte[] body) {
+        return new StubHttpServer(new Dispatcher() {
+            @Override
+            public Response dispatch(Request request) {
+                return new Response(code).setBody(body);
+            }
+        });
+    }
+
+    public void start() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        }, "StubHttpServer");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    public URL getUrl(String path) throws IOException {
+        return new URL("http://127.0.0.1:" + mServerSocket.getLocalPort() + path);
+    }
+
+    /** @return The number of requests received so far */
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /** @return The number of body bytes written to clients so far */
+    public int getBytesSent() {
+        return mBytesSent.get();
+    }
+
+    public Request getLastRequest() {
+        return mLastRequest;
+    }
+
+    public void shutdown() throws IOException {
+        mShutdown = true;
+        mServerSocket.close();
+    }
+
+    private void acceptConnections() {
+        while (!mShutdown) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                /* The server socket was closed by shutdown() */
+                return;
+            }
+
+            Thread connectionThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        serve(socket);
+                    } catch (IOException | InterruptedException e) {
+                        /* The client went away or the server was shut down */
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException ignored) {
+                        }
+                    }
+                }
+            }, "StubHttpServer-connection");
+            connectionThread.setDaemon(true);
+            connectionThread.start();
+        }
+    }
+
+    private void serve(Socket socket) throws IOException, InterruptedException {
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+
+        String requestLine = readLine(in);
+        if (requestLine == null || requestLine.isEmpty()) return;
+        String[] requestParts = requestLine.split(" ");
+
+        Map<String, String> headers = new HashMap<>();
+        String headerLine;
+        while ((headerLine = readLine(in)) != null && !headerLine.isEmpty()) {
+            int colon = headerLine.indexOf(':');
+            if (colon > 0) {
+                headers.put(headerLine.substring(0, colon).trim().toLowerCase(Locale.US),
+                        headerLine.substring(colon + 1).trim());
+            }
+        }
+
+        Request request = new Request(requestParts[0], requestParts[1], headers);
+        mLastRequest = request;
+        mRequestCount.incrementAndGet();
+
+        Response response = mDispatcher.dispatch(request);
+
+        if (response.mHang) {
+            while (!mShutdown) {
+                Thread.sleep(50);
+            }
+            return;
+        }
+
+        OutputStream out = socket.getOutputStream();
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(response.mCode).append(" Stub\r\n");
+        for (Map.Entry<String, String> header : response.mHeaders.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        head.append("Content-Length: ").append(response.mBody.length).append("\r\n");
+        head.append("Connection: close\r\n\r\n");
+        out.write(head.toString().getBytes("ISO-8859-1"));
+
+        int chunkSize = response.mChunkSize > 0 ? response.mChunkSize : response.mBody.length;
+        for (int offset = 0; offset < response.mBody.length; offset += chunkSize) {
+            if (response.mChunkDelayMillis > 0) {
+                Thread.sleep(response.mChunkDelayMillis);
+            }
+            int count = Math.min(chunkSize, response.mBody.length - offset);
+            out.write(response.mBody, offset, count);
+            out.flush();
+            mBytesSent.addAndGet(count);
+        }
+        out.flush();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') break;
+            if (c != '\r') line.append((char) c);
+        }
+        if (c == -1 && line.length() == 0) return null;
+        return line.toString();
+    }
+}
@@ -16,8 +16,10 @@
 package com.example.android.sunshine;
 
 import android.content.Context;
-import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -25,18 +27,27 @@ import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 
-import com.example.android.sunshine.utilities.SunshineDateUtils;
-import com.example.android.sunshine.utilities.SunshineWeatherUtils;
+import com.example.android.sunshine.utilities.BackgroundExecutor;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
- * {@link ForecastAdapter} exposes a list of weather forecasts
- * from a {@link android.database.Cursor} to a {@link android.support.v7.widget.RecyclerView}.
+ * {@link ForecastAdapter} exposes a list of weather forecasts, as {@link ForecastRow}s loaded by
+ * {@link ForecastLoader}, to a {@link android.support.v7.widget.RecyclerView}.
  */
 class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder> {
 
     private static final int VIEW_TYPE_TODAY = 0;
     private static final int VIEW_TYPE_FUTURE_DAY = 1;
 
+    /*
+     * Rows are compared on the app's background thread rather than on the main thread. One
+     * thread is plenty for a two week forecast.
+     */
+    private static final Executor sDiffExecutor = BackgroundExecutor.getInstance();
+
     /* The context we use to utility methods, app resources and layout inflaters */
     private final Context mContext;
 
@@ -63,7 +74,13 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      */
     private boolean mUseTodayLayout;
 
-    private Cursor mCursor;
+    /* The days shown, in order. Never null. */
+    private List<ForecastRow> mRows = Collections.emptyList();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /* Incremented by every swap, so that the result of an outdated comparison is dropped */
+    private int mSwapGeneration;
 
     /**
      * Creates a ForecastAdapter.
@@ -129,12 +146,15 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      */
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
+        /*
+         * Every string and icon was worked out by ForecastLoader on a background thread, so all
+         * that's left to do while the list scrolls is to set them.
+         */
+        ForecastRow row = getRow(position);
 
         /****************
          * Weather Icon *
          ****************/
-        int weatherId = mCursor.getInt(MainActivity.INDEX_WEATHER_CONDITION_ID);
         int weatherImageId;
 
         int viewType = getItemViewType(position);
@@ -142,13 +162,11 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
         switch (viewType) {
 
             case VIEW_TYPE_TODAY:
-                weatherImageId = SunshineWeatherUtils
-                        .getLargeArtResourceIdForWeatherCondition(weatherId);
+                weatherImageId = row.largeIconResourceId;
                 break;
 
             case VIEW_TYPE_FUTURE_DAY:
-                weatherImageId = SunshineWeatherUtils
-                        .getSmallArtResourceIdForWeatherCondition(weatherId);
+                weatherImageId = row.smallIconResourceId;
                 break;
 
             default:
@@ -160,59 +178,26 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
         /****************
          * Weather Date *
          ****************/
-         /* Read date from the cursor */
-        long dateInMillis = mCursor.getLong(MainActivity.INDEX_WEATHER_DATE);
-         /* Get human readable string using our utility method */
-        String dateString = SunshineDateUtils.getFriendlyDateString(mContext, dateInMillis, false);
-
-         /* Display friendly date string */
-        forecastAdapterViewHolder.dateView.setText(dateString);
+        forecastAdapterViewHolder.dateView.setText(row.dateText);
 
         /***********************
          * Weather Description *
          ***********************/
-        String description = SunshineWeatherUtils.getStringForWeatherCondition(mContext, weatherId);
-         /* Create the accessibility (a11y) String from the weather description */
-        String descriptionA11y = mContext.getString(R.string.a11y_forecast, description);
-
          /* Set the text and content description (for accessibility purposes) */
-        forecastAdapterViewHolder.descriptionView.setText(description);
-        forecastAdapterViewHolder.descriptionView.setContentDescription(descriptionA11y);
+        forecastAdapterViewHolder.descriptionView.setText(row.description);
+        forecastAdapterViewHolder.descriptionView.setContentDescription(row.descriptionA11y);
 
         /**************************
          * High (max) temperature *
          **************************/
-         /* Read high temperature from the cursor (in degrees celsius) */
-        double highInCelsius = mCursor.getDouble(MainActivity.INDEX_WEATHER_MAX_TEMP);
-         /*
-          * If the user's preference for weather is fahrenheit, formatTemperature will convert
-          * the temperature. This method will also append either °C or °F to the temperature
-          * String.
-          */
-        String highString = SunshineWeatherUtils.formatTemperature(mContext, highInCelsius);
-         /* Create the accessibility (a11y) String from the weather description */
-        String highA11y = mContext.getString(R.string.a11y_high_temp, highString);
-
-         /* Set the text and content description (for accessibility purposes) */
-        forecastAdapterViewHolder.highTempView.setText(highString);
-        forecastAdapterViewHolder.highTempView.setContentDescription(highA11y);
+        forecastAdapterViewHolder.highTempView.setText(row.highText);
+        forecastAdapterViewHolder.highTempView.setContentDescription(row.highA11y);
 
         /*************************
          * Low (min) temperature *
          *************************/
-         /* Read low temperature from the cursor (in degrees celsius) */
-        double lowInCelsius = mCursor.getDouble(MainActivity.INDEX_WEATHER_MIN_TEMP);
-         /*
-          * If the user's preference for weather is fahrenheit, formatTemperature will convert
-          * the temperature. This method will also append either °C or °F to the temperature
-          * String.
-          */
-        String lowString = SunshineWeatherUtils.formatTemperature(mContext, lowInCelsius);
-        String lowA11y = mContext.getString(R.string.a11y_low_temp, lowString);
-
-         /* Set the text and content description (for accessibility purposes) */
-        forecastAdapterViewHolder.lowTempView.setText(lowString);
-        forecastAdapterViewHolder.lowTempView.setContentDescription(lowA11y);
+        forecastAdapterViewHolder.lowTempView.setText(row.lowText);
+        forecastAdapterViewHolder.lowTempView.setContentDescription(row.lowA11y);
     }
 
     /**
@@ -223,8 +208,7 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      */
     @Override
     public int getItemCount() {
-        if (null == mCursor) return 0;
-        return mCursor.getCount();
+        return mRows.size();
     }
 
     /**
@@ -234,7 +218,7 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      * different layout for the "today" layout. The "today" layout is only shown in portrait mode
      * with the first item in the list.
      *
-     * @param position index within our RecyclerView and Cursor
+     * @param position index within our RecyclerView and list of rows
      * @return the view type (today or future day)
      */
     @Override
@@ -247,16 +231,119 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
     }
 
     /**
-     * Swaps the cursor used by the ForecastAdapter for its weather data. This method is called by
-     * MainActivity after a load has finished, as well as when the Loader responsible for loading
-     * the weather data is reset. When this method is called, we assume we have a completely new
-     * set of data, so we call notifyDataSetChanged to tell the RecyclerView to update.
+     * @param position index within our RecyclerView and list of rows
+     * @return the row shown at position
+     */
+    ForecastRow getRow(int position) {
+        return mRows.get(position);
+    }
+
+    /**
+     * Swaps the rows shown by the ForecastAdapter. This method is called by MainActivity after a
+     * load has finished, as well as when the Loader responsible for loading the weather data is
+     * reset.
+     *
+     * @param newRows the new rows to show, or null to show nothing
+     * @see #swapRows(List, Runnable)
+     */
+    void swapRows(List<ForecastRow> newRows) {
+        swapRows(newRows, null);
+    }
+
+    /**
+     * Swaps the rows shown by the ForecastAdapter.
+     * <p>
+     * Rather than calling notifyDataSetChanged, which rebinds every visible row, the new rows are
+     * compared with the old ones day by day, and only the days that were added, removed or now
+     * show something different are updated. The comparison runs on a background thread, and the
+     * rows are only swapped once it is done. If this method is called again before then, the
+     * earlier rows are never shown.
+     * <p>
+     * Must be called on the main thread.
      *
-     * @param newCursor the new cursor to use as ForecastAdapter's data source
+     * @param newRows   the new rows to show, or null to show nothing
+     * @param onSwapped run on the main thread once newRows are shown, may be null
+     */
+    void swapRows(List<ForecastRow> newRows, final Runnable onSwapped) {
+        final List<ForecastRow> oldRows = mRows;
+        final List<ForecastRow> rows = newRows != null
+                ? newRows
+                : Collections.<ForecastRow>emptyList();
+        final int generation = ++mSwapGeneration;
+
+        /* Nothing to compare, so every row is either inserted or removed */
+        if (oldRows.isEmpty() || rows.isEmpty()) {
+            mRows = rows;
+            if (!oldRows.isEmpty()) {
+                notifyItemRangeRemoved(0, oldRows.size());
+            }
+            if (!rows.isEmpty()) {
+                notifyItemRangeInserted(0, rows.size());
+            }
+            if (onSwapped != null) {
+                onSwapped.run();
+            }
+            return;
+        }
+
+        sDiffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                /* Rows stay sorted by date, so no day ever moves */
+                final DiffUtil.DiffResult diff =
+                        DiffUtil.calculateDiff(new RowDiffCallback(oldRows, rows), false);
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        /* A later swap has replaced these rows, and was compared to oldRows too */
+                        if (generation != mSwapGeneration) {
+                            return;
+                        }
+
+                        mRows = rows;
+                        diff.dispatchUpdatesTo(ForecastAdapter.this);
+                        if (onSwapped != null) {
+                            onSwapped.run();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Matches rows by their date, and rebinds a day only if anything it shows has changed.
      */
-    void swapCursor(Cursor newCursor) {
-        mCursor = newCursor;
-        notifyDataSetChanged();
+    private static class RowDiffCallback extends DiffUtil.Callback {
+
+        private final List<ForecastRow> mOldRows;
+        private final List<ForecastRow> mNewRows;
+
+        RowDiffCallback(List<ForecastRow> oldRows, List<ForecastRow> newRows) {
+            mOldRows = oldRows;
+            mNewRows = newRows;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldRows.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewRows.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldRows.get(oldItemPosition).date == mNewRows.get(newItemPosition).date;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldRows.get(oldItemPosition).equals(mNewRows.get(newItemPosition));
+        }
     }
 
     /**
@@ -294,8 +381,10 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            long dateInMillis = mCursor.getLong(MainActivity.INDEX_WEATHER_DATE);
+            if (adapterPosition == RecyclerView.NO_POSITION) {
+                return;
+            }
+            long dateInMillis = getRow(adapterPosition).date;
             mClickHandler.onClick(dateInMillis);
         }
     }
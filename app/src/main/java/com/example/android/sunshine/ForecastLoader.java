@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.v4.content.AsyncTaskLoader;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Loads the forecast from today onwards and formats it into {@link ForecastRow}s, both on the
+ * loader's background thread. Like CursorLoader, it reloads whenever the weather data changes,
+ * which includes the user changing their preferred units (see SettingsFragment).
+ * <p>
+ * The rows hold formatted strings, so unlike a cursor they have to be reloaded if the locale
+ * changes while the loader is retained across the configuration change.
+ */
+class ForecastLoader extends AsyncTaskLoader<List<ForecastRow>> {
+
+    /* Sort order: Ascending by date */
+    private static final String SORT_ORDER = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+    private boolean mObserving;
+
+    private List<ForecastRow> mRows;
+
+    /* The locale mRows were formatted in */
+    private Locale mLocale;
+
+    ForecastLoader(Context context) {
+        super(context);
+    }
+
+    @Override
+    public List<ForecastRow> loadInBackground() {
+        Context context = getContext();
+        /*
+         * A SELECTION in SQL declares which rows you'd like to return. In our case, we want all
+         * weather data from today onwards that is stored in our weather table.
+         */
+        Cursor cursor = context.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                MainActivity.MAIN_FORECAST_PROJECTION,
+                WeatherEntry.getSqlSelectForTodayOnwards(),
+                null,
+                SORT_ORDER);
+        if (cursor == null) {
+            return Collections.emptyList();
+        }
+
+        try {
+            return ForecastRow.fromCursor(context, cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void deliverResult(List<ForecastRow> rows) {
+        if (isReset()) {
+            return;
+        }
+
+        mRows = rows;
+        if (isStarted()) {
+            super.deliverResult(rows);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserving) {
+            /* Every URI WeatherProvider notifies is WeatherEntry.CONTENT_URI or a descendant */
+            getContext().getContentResolver()
+                    .registerContentObserver(WeatherEntry.CONTENT_URI, true, mObserver);
+            mObserving = true;
+        }
+
+        Locale locale = getContext().getResources().getConfiguration().locale;
+        boolean localeChanged = !locale.equals(mLocale);
+
+        if (mRows != null && !localeChanged) {
+            deliverResult(mRows);
+        }
+        if (takeContentChanged() || mRows == null || localeChanged) {
+            mLocale = locale;
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+
+        mRows = null;
+        mLocale = null;
+        if (mObserving) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserving = false;
+        }
+    }
+}
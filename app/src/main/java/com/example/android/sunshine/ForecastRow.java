@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+import com.example.android.sunshine.utilities.SunshineWeatherUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One day of the forecast list, with every string and icon ForecastAdapter shows for it already
+ * worked out. Rows are created by {@link ForecastLoader} on a background thread, so that binding a
+ * row while the list scrolls only has to set views.
+ * <p>
+ * Rows are immutable. Two rows are equal if they show exactly the same thing, which is what
+ * ForecastAdapter's diff uses to decide whether a day has to be rebound.
+ */
+final class ForecastRow {
+
+    /* Normalized UTC date of the day, see WeatherContract.WeatherEntry#COLUMN_DATE */
+    final long date;
+
+    /* The art for the list item that represents today, and for every other day */
+    final int largeIconResourceId;
+    final int smallIconResourceId;
+
+    final String dateText;
+    final String description;
+    final String descriptionA11y;
+    final String highText;
+    final String highA11y;
+    final String lowText;
+    final String lowA11y;
+
+    private ForecastRow(long date, int largeIconResourceId, int smallIconResourceId,
+                        String dateText, String description, String descriptionA11y,
+                        String highText, String highA11y, String lowText, String lowA11y) {
+        this.date = date;
+        this.largeIconResourceId = largeIconResourceId;
+        this.smallIconResourceId = smallIconResourceId;
+        this.dateText = dateText;
+        this.description = description;
+        this.descriptionA11y = descriptionA11y;
+        this.highText = highText;
+        this.highA11y = highA11y;
+        this.lowText = lowText;
+        this.lowA11y = lowA11y;
+    }
+
+    /**
+     * Formats one day of the forecast the way the list shows it.
+     *
+     * @param context       Used for the app's strings and the user's preferred units
+     * @param date          Normalized UTC date of the day
+     * @param weatherId     The OpenWeatherMap condition id
+     * @param highInCelsius The day's high temperature, in degrees celsius
+     * @param lowInCelsius  The day's low temperature, in degrees celsius
+     * @return The row to show for the day
+     */
+    static ForecastRow create(Context context, long date, int weatherId, double highInCelsius,
+                              double lowInCelsius) {
+        String description = SunshineWeatherUtils.getStringForWeatherCondition(context, weatherId);
+        String highText = SunshineWeatherUtils.formatTemperature(context, highInCelsius);
+        String lowText = SunshineWeatherUtils.formatTemperature(context, lowInCelsius);
+
+        return new ForecastRow(date,
+                SunshineWeatherUtils.getLargeArtResourceIdForWeatherCondition(weatherId),
+                SunshineWeatherUtils.getSmallArtResourceIdForWeatherCondition(weatherId),
+                SunshineDateUtils.getFriendlyDateString(context, date, false),
+                description,
+                context.getString(R.string.a11y_forecast, description),
+                highText,
+                context.getString(R.string.a11y_high_temp, highText),
+                lowText,
+                context.getString(R.string.a11y_low_temp, lowText));
+    }
+
+    /**
+     * Formats every row of a cursor queried with MainActivity.MAIN_FORECAST_PROJECTION. The
+     * cursor is read from its first row and left open.
+     *
+     * @return The rows, in the order of the cursor. The list can't be modified.
+     */
+    static List<ForecastRow> fromCursor(Context context, Cursor cursor) {
+        List<ForecastRow> rows = new ArrayList<>(cursor.getCount());
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            rows.add(create(context,
+                    cursor.getLong(MainActivity.INDEX_WEATHER_DATE),
+                    cursor.getInt(MainActivity.INDEX_WEATHER_CONDITION_ID),
+                    cursor.getDouble(MainActivity.INDEX_WEATHER_MAX_TEMP),
+                    cursor.getDouble(MainActivity.INDEX_WEATHER_MIN_TEMP)));
+        }
+        return Collections.unmodifiableList(rows);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ForecastRow)) {
+            return false;
+        }
+
+        ForecastRow other = (ForecastRow) o;
+        return date == other.date
+                && largeIconResourceId == other.largeIconResourceId
+                && smallIconResourceId == other.smallIconResourceId
+                && dateText.equals(other.dateText)
+                && description.equals(other.description)
+                && descriptionA11y.equals(other.descriptionA11y)
+                && highText.equals(other.highText)
+                && highA11y.equals(other.highA11y)
+                && lowText.equals(other.lowText)
+                && lowA11y.equals(other.lowA11y);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (date ^ (date >>> 32));
+        result = 31 * result + largeIconResourceId;
+        result = 31 * result + smallIconResourceId;
+        result = 31 * result + dateText.hashCode();
+        result = 31 * result + description.hashCode();
+        result = 31 * result + highText.hashCode();
+        result = 31 * result + lowText.hashCode();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return dateText + " - " + description + " - " + highText + " / " + lowText;
+    }
+}
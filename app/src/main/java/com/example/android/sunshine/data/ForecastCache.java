@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps a {@link ForecastSnapshot} of the weather table in memory so that WeatherProvider can
+ * answer the queries Sunshine makes all the time (the forecast list, a single day for the
+ * detail screen or the notification) without going to SQLite.
+ * <p>
+ * WeatherProvider calls {@link #invalidate()} after every write, which bumps an in-memory
+ * version, and a snapshot is only used while its version is current. A query answered from a
+ * snapshot doesn't touch SQLite at all. Anything that writes to the table without going through
+ * the provider, as some tests do, has to invalidate the cache itself.
+ */
+class ForecastCache {
+
+    /*
+     * The forecast is 14 days. If the table grows far beyond that, it isn't worth holding in
+     * memory and queries go to SQLite.
+     */
+    private static final int MAX_SNAPSHOT_ROWS = 100;
+
+    /* Matches the selection built by WeatherEntry#getSqlSelectForTodayOnwards */
+    private static final Pattern DATE_ONWARDS_SELECTION = Pattern.compile(
+            "\\s*" + WeatherEntry.COLUMN_DATE + "\\s*>=\\s*(-?\\d+)\\s*");
+
+    /* Matches the sort orders that return rows by ascending date, as a snapshot does */
+    private static final Pattern DATE_ASCENDING_SORT_ORDER = Pattern.compile(
+            "\\s*" + WeatherEntry.COLUMN_DATE + "(\\s+ASC)?\\s*", Pattern.CASE_INSENSITIVE);
+
+    private final Object mLock = new Object();
+
+    /* Guarded by mLock. Incremented by every invalidation. */
+    private long mVersion;
+
+    /* Guarded by mLock for writes. Null until loaded and after every invalidation. */
+    private volatile ForecastSnapshot mSnapshot;
+
+    private volatile boolean mEnabled = true;
+
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+
+    /**
+     * Answers a query of every row whose date lies between fromDate and toDate, inclusive,
+     * sorted by date.
+     *
+     * @param db         The database to load the snapshot from on a miss
+     * @param projection The columns to return, or null for every column
+     * @param fromDate   The earliest date to return
+     * @param toDate     The latest date to return
+     * @return A cursor, or null if the query has to be answered by SQLite instead
+     */
+    Cursor query(SQLiteDatabase db, String[] projection, long fromDate, long toDate) {
+        if (!mEnabled) {
+            return null;
+        }
+
+        int[] columns = ForecastSnapshot.resolveProjection(projection);
+        if (columns == null) {
+            return null;
+        }
+
+        ForecastSnapshot snapshot = getSnapshot(db);
+        if (snapshot == null) {
+            return null;
+        }
+
+        return snapshot.query(projection, columns, fromDate, toDate);
+    }
+
+    /**
+     * Answers a query of the whole weather table with an optional selection and sort order, as
+     * made to the CODE_WEATHER URI.
+     *
+     * @return A cursor, or null if the selection or sort order can't be answered from memory
+     */
+    Cursor query(SQLiteDatabase db, String[] projection, String selection,
+                 String[] selectionArgs, String sortOrder) {
+        if (selectionArgs != null && selectionArgs.length > 0) {
+            return null;
+        }
+
+        if (sortOrder != null && !DATE_ASCENDING_SORT_ORDER.matcher(sortOrder).matches()) {
+            return null;
+        }
+
+        long fromDate = Long.MIN_VALUE;
+        if (selection != null) {
+            Matcher matcher = DATE_ONWARDS_SELECTION.matcher(selection);
+            if (!matcher.matches()) {
+                return null;
+            }
+            try {
+                fromDate = Long.parseLong(matcher.group(1));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        return query(db, projection, fromDate, Long.MAX_VALUE);
+    }
+
+    /**
+     * Discards the current snapshot. Called after every write to the weather table, once the
+     * write has been committed. A snapshot that was being loaded while this was called is
+     * discarded too, as it may have been read before the write.
+     */
+    void invalidate() {
+        synchronized (mLock) {
+            mVersion++;
+            mSnapshot = null;
+        }
+    }
+
+    /**
+     * Turns the cache on or off. Only turned off to measure what it gains us.
+     */
+    void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+        invalidate();
+    }
+
+    /** @return The number of queries answered by a snapshot that was already loaded */
+    long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /** @return The number of queries for which the snapshot had to be loaded first */
+    long getMissCount() {
+        return mMissCount.get();
+    }
+
+    private ForecastSnapshot getSnapshot(SQLiteDatabase db) {
+        long version;
+        synchronized (mLock) {
+            version = mVersion;
+        }
+
+        ForecastSnapshot snapshot = mSnapshot;
+        if (snapshot != null && snapshot.version == version) {
+            mHitCount.incrementAndGet();
+            return snapshot;
+        }
+
+        mMissCount.incrementAndGet();
+
+        /*
+         * The version was read before the rows, so the rows are never older than the version
+         * says. A write in between bumps the version, and the snapshot isn't kept below.
+         */
+        snapshot = ForecastSnapshot.load(db, version, MAX_SNAPSHOT_ROWS);
+        if (snapshot == null) {
+            return null;
+        }
+
+        synchronized (mLock) {
+            if (mVersion == version) {
+                mSnapshot = snapshot;
+            }
+        }
+        return snapshot;
+    }
+}
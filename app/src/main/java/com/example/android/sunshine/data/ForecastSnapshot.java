@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+
+/**
+ * An immutable copy of every row of the weather table, held column by column in primitive arrays
+ * and sorted by date. Snapshots are created by {@link ForecastCache} and never change, so any
+ * number of cursors on any number of threads can read the same snapshot.
+ */
+final class ForecastSnapshot {
+
+    /*
+     * The columns of the weather table, in the order SQLite returns them for a null projection.
+     * The first COLUMN_COUNT_INTEGER of them are INTEGER columns, the rest are REAL.
+     */
+    static final String[] COLUMNS = {
+            WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+    };
+
+    private static final int COLUMN_COUNT_INTEGER = 3;
+
+    /* The index of the date in COLUMNS */
+    private static final int COLUMN_DATE = 1;
+
+    /* The ForecastCache version this snapshot was loaded at */
+    final long version;
+
+    /* mIntegerColumns[c][row] holds INTEGER column c, sorted by date */
+    private final long[][] mIntegerColumns;
+
+    /* mRealColumns[c - COLUMN_COUNT_INTEGER][row] holds REAL column c, sorted by date */
+    private final double[][] mRealColumns;
+
+    private final int mRowCount;
+
+    private ForecastSnapshot(long version, int rowCount) {
+        this.version = version;
+        mRowCount = rowCount;
+        mIntegerColumns = new long[COLUMN_COUNT_INTEGER][rowCount];
+        mRealColumns = new double[COLUMNS.length - COLUMN_COUNT_INTEGER][rowCount];
+    }
+
+    /**
+     * Reads the whole weather table into a snapshot.
+     *
+     * @param db      The database to read
+     * @param version The cache version, read before calling this method
+     * @param maxRows The largest table worth keeping in memory
+     * @return The snapshot, or null if the table has more than maxRows rows
+     */
+    static ForecastSnapshot load(SQLiteDatabase db, long version, int maxRows) {
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME,
+                COLUMNS,
+                null,
+                null,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            if (cursor.getCount() > maxRows) {
+                return null;
+            }
+
+            ForecastSnapshot snapshot = new ForecastSnapshot(version, cursor.getCount());
+            for (int row = 0; cursor.moveToNext(); row++) {
+                for (int column = 0; column < COLUMN_COUNT_INTEGER; column++) {
+                    snapshot.mIntegerColumns[column][row] = cursor.getLong(column);
+                }
+                for (int column = COLUMN_COUNT_INTEGER; column < COLUMNS.length; column++) {
+                    snapshot.mRealColumns[column - COLUMN_COUNT_INTEGER][row] =
+                            cursor.getDouble(column);
+                }
+            }
+            return snapshot;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Maps a projection to indices into COLUMNS.
+     *
+     * @param projection The columns asked for, or null for every column
+     * @return The index of each column, or null if a column isn't part of the snapshot
+     */
+    static int[] resolveProjection(String[] projection) {
+        if (projection == null) {
+            int[] columns = new int[COLUMNS.length];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = i;
+            }
+            return columns;
+        }
+
+        int[] columns = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            columns[i] = -1;
+            for (int column = 0; column < COLUMNS.length; column++) {
+                if (COLUMNS[column].equals(projection[i])) {
+                    columns[i] = column;
+                    break;
+                }
+            }
+            if (columns[i] == -1) {
+                return null;
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Creates a cursor over the rows whose date lies between fromDate and toDate, inclusive.
+     *
+     * @param projection The column names of the cursor
+     * @param columns    The projection, resolved with {@link #resolveProjection(String[])}
+     */
+    Cursor query(String[] projection, int[] columns, long fromDate, long toDate) {
+        long[] dates = mIntegerColumns[COLUMN_DATE];
+        int firstRow = firstRowOnOrAfter(dates, fromDate);
+        int lastRow = toDate == Long.MAX_VALUE
+                ? mRowCount
+                : firstRowOnOrAfter(dates, toDate + 1);
+
+        String[] columnNames = projection != null ? projection : COLUMNS;
+        return new ForecastSnapshotCursor(this, columnNames, columns, firstRow, lastRow);
+    }
+
+    static boolean isIntegerColumn(int column) {
+        return column < COLUMN_COUNT_INTEGER;
+    }
+
+    long getLong(int column, int row) {
+        return mIntegerColumns[column][row];
+    }
+
+    double getDouble(int column, int row) {
+        return mRealColumns[column - COLUMN_COUNT_INTEGER][row];
+    }
+
+    int getRowCount() {
+        return mRowCount;
+    }
+
+    /**
+     * @return The first row whose date is on or after date, or the row count if there is none
+     */
+    private int firstRowOnOrAfter(long[] dates, long date) {
+        int row = Arrays.binarySearch(dates, 0, mRowCount, date);
+        /* Dates are unique, so an exact match is the first one */
+        return row >= 0 ? row : -(row + 1);
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.AbstractCursor;
+
+import java.util.Locale;
+
+/**
+ * A read only cursor over a range of rows of a {@link ForecastSnapshot}. Like MatrixCursor, but
+ * reading straight from the snapshot's primitive arrays rather than boxing every value.
+ * <p>
+ * Values are converted between types the way a cursor returned by SQLite converts them, so
+ * callers can't tell the two apart.
+ */
+class ForecastSnapshotCursor extends AbstractCursor {
+
+    private final ForecastSnapshot mSnapshot;
+    private final String[] mColumnNames;
+    private final int[] mColumns;
+    private final int mFirstRow;
+    private final int mCount;
+
+    /**
+     * @param snapshot    The snapshot to read
+     * @param columnNames The names of the cursor's columns
+     * @param columns     For each of the cursor's columns, its index in ForecastSnapshot.COLUMNS
+     * @param firstRow    The first row of the snapshot in the cursor
+     * @param endRow      The row of the snapshot after the last one in the cursor
+     */
+    ForecastSnapshotCursor(ForecastSnapshot snapshot, String[] columnNames, int[] columns,
+                           int firstRow, int endRow) {
+        mSnapshot = snapshot;
+        mColumnNames = columnNames;
+        mColumns = columns;
+        mFirstRow = firstRow;
+        mCount = Math.max(0, endRow - firstRow);
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public int getType(int column) {
+        return ForecastSnapshot.isIntegerColumn(mColumns[column])
+                ? FIELD_TYPE_INTEGER
+                : FIELD_TYPE_FLOAT;
+    }
+
+    @Override
+    public String getString(int column) {
+        int snapshotColumn = mColumns[column];
+        if (ForecastSnapshot.isIntegerColumn(snapshotColumn)) {
+            return Long.toString(mSnapshot.getLong(snapshotColumn, getSnapshotRow()));
+        }
+        return formatReal(mSnapshot.getDouble(snapshotColumn, getSnapshotRow()));
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        int snapshotColumn = mColumns[column];
+        if (ForecastSnapshot.isIntegerColumn(snapshotColumn)) {
+            return mSnapshot.getLong(snapshotColumn, getSnapshotRow());
+        }
+        return (long) mSnapshot.getDouble(snapshotColumn, getSnapshotRow());
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        int snapshotColumn = mColumns[column];
+        if (ForecastSnapshot.isIntegerColumn(snapshotColumn)) {
+            return mSnapshot.getLong(snapshotColumn, getSnapshotRow());
+        }
+        return mSnapshot.getDouble(snapshotColumn, getSnapshotRow());
+    }
+
+    /* Every column of the weather table is NOT NULL */
+    @Override
+    public boolean isNull(int column) {
+        return false;
+    }
+
+    private int getSnapshotRow() {
+        checkPosition();
+        return mFirstRow + getPosition();
+    }
+
+    /**
+     * Formats a REAL the way CursorWindow#getString does, which uses C's "%g": six significant
+     * digits, without trailing zeros.
+     */
+    static String formatReal(double value) {
+        String formatted = String.format(Locale.US, "%g", value);
+
+        int exponent = formatted.indexOf('e');
+        String mantissa = exponent == -1 ? formatted : formatted.substring(0, exponent);
+        if (mantissa.indexOf('.') != -1) {
+            int end = mantissa.length();
+            while (mantissa.charAt(end - 1) == '0') {
+                end--;
+            }
+            if (mantissa.charAt(end - 1) == '.') {
+                end--;
+            }
+            mantissa = mantissa.substring(0, end);
+        }
+
+        return exponent == -1 ? mantissa : mantissa + formatted.substring(exponent);
+    }
+}
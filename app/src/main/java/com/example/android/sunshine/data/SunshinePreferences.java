@@ -31,6 +31,37 @@ public final class SunshinePreferences {
     public static final String PREF_COORD_LAT = "coord_lat";
     public static final String PREF_COORD_LONG = "coord_long";
 
+    /*
+     * To avoid downloading a forecast we already have, we remember the cache validators the
+     * weather server sent along with the last forecast we stored, as well as the URL that
+     * forecast was requested from. The validators are only valid for that URL.
+     */
+    public static final String PREF_FORECAST_URL = "forecast_url";
+    public static final String PREF_FORECAST_ETAG = "forecast_etag";
+    public static final String PREF_FORECAST_LAST_MODIFIED = "forecast_last_modified";
+    public static final String PREF_FORECAST_EXPIRES = "forecast_expires";
+
+    /* When the server last gave us, or confirmed, the forecast stored for PREF_FORECAST_URL */
+    public static final String PREF_FORECAST_SYNCED_AT = "forecast_synced_at";
+
+    /*
+     * The interval the periodic sync should run at, which adapts to the weather, and the one it
+     * is actually scheduled with. They differ from the moment a sync changes the interval until
+     * the sync's job has finished and the sync is scheduled again.
+     */
+    public static final String PREF_SYNC_INTERVAL_SECONDS = "sync_interval_seconds";
+    public static final String PREF_SCHEDULED_SYNC_INTERVAL_SECONDS =
+            "scheduled_sync_interval_seconds";
+
+    /*
+     * The state of the circuit breaker in front of the weather server, see CircuitBreaker. It is
+     * kept here so that restarting the app doesn't start calling a failing server again, and is
+     * only valid for the server at PREF_CIRCUIT_ENDPOINT.
+     */
+    public static final String PREF_CIRCUIT_ENDPOINT = "circuit_endpoint";
+    public static final String PREF_CIRCUIT_FAILURES = "circuit_failures";
+    public static final String PREF_CIRCUIT_OPEN_UNTIL = "circuit_open_until";
+
     /**
      * Helper method to handle setting location details in Preferences (city name, latitude,
      * longitude)
@@ -242,4 +273,223 @@ public final class SunshinePreferences {
         editor.putLong(lastNotificationKey, timeOfNotification);
         editor.apply();
     }
-}
\ No newline at end of file
+
+    /**
+     * Saves the cache validators of the forecast that is currently stored in the database, and
+     * remembers that the forecast was synced just now.
+     *
+     * @param context      Used to access SharedPreferences
+     * @param url          The URL the forecast was requested from
+     * @param eTag         The ETag header of the response, or null if there wasn't one
+     * @param lastModified The Last-Modified header of the response, or null if there wasn't one
+     * @param expiresAt    Time (in UNIX time) until which the forecast can be used without asking
+     *                     the server again
+     */
+    public static void saveForecastValidators(Context context, String url, String eTag,
+                                              String lastModified, long expiresAt) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = sp.edit();
+
+        editor.putString(PREF_FORECAST_URL, url);
+        editor.putString(PREF_FORECAST_ETAG, eTag);
+        editor.putString(PREF_FORECAST_LAST_MODIFIED, lastModified);
+        editor.putLong(PREF_FORECAST_EXPIRES, expiresAt);
+        editor.putLong(PREF_FORECAST_SYNCED_AT, System.currentTimeMillis());
+        editor.apply();
+    }
+
+    /**
+     * Returns the ETag of the stored forecast if it was requested from the given URL.
+     *
+     * @param context Used to access SharedPreferences
+     * @param url     The URL that is about to be requested
+     * @return The ETag, or null if there is none for this URL
+     */
+    public static String getForecastETag(Context context, String url) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        if (!url.equals(sp.getString(PREF_FORECAST_URL, null))) return null;
+        return sp.getString(PREF_FORECAST_ETAG, null);
+    }
+
+    /**
+     * Returns the Last-Modified date of the stored forecast if it was requested from the given
+     * URL.
+     *
+     * @param context Used to access SharedPreferences
+     * @param url     The URL that is about to be requested
+     * @return The Last-Modified date as sent by the server, or null if there is none for this URL
+     */
+    public static String getForecastLastModified(Context context, String url) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        if (!url.equals(sp.getString(PREF_FORECAST_URL, null))) return null;
+        return sp.getString(PREF_FORECAST_LAST_MODIFIED, null);
+    }
+
+    /**
+     * Returns the time until which the stored forecast is fresh according to the max-age the
+     * server sent with it.
+     *
+     * @param context Used to access SharedPreferences
+     * @param url     The URL that is about to be requested
+     * @return Expiry time (in UNIX time), or 0 if there is none for this URL
+     */
+    public static long getForecastExpiresAt(Context context, String url) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        if (!url.equals(sp.getString(PREF_FORECAST_URL, null))) return 0;
+        return sp.getLong(PREF_FORECAST_EXPIRES, 0);
+    }
+
+    /**
+     * Returns when the stored forecast was last downloaded or confirmed to be current by the
+     * server.
+     *
+     * @param context Used to access SharedPreferences
+     * @param url     The URL that is about to be requested
+     * @return Time of the sync (in UNIX time), or 0 if the forecast wasn't synced from this URL
+     */
+    public static long getForecastSyncedAt(Context context, String url) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        if (!url.equals(sp.getString(PREF_FORECAST_URL, null))) return 0;
+        return sp.getLong(PREF_FORECAST_SYNCED_AT, 0);
+    }
+
+    /**
+     * Forgets the cache validators, so that the next sync downloads the forecast again. This
+     * needs to be done whenever the database no longer holds the forecast they describe.
+     *
+     * @param context Used to access SharedPreferences
+     */
+    public static void resetForecastValidators(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = sp.edit();
+
+        editor.remove(PREF_FORECAST_URL);
+        editor.remove(PREF_FORECAST_ETAG);
+        editor.remove(PREF_FORECAST_LAST_MODIFIED);
+        editor.remove(PREF_FORECAST_EXPIRES);
+        editor.remove(PREF_FORECAST_SYNCED_AT);
+        editor.apply();
+    }
+
+    /**
+     * Returns the interval the periodic sync should run at.
+     *
+     * @param context Used to access SharedPreferences
+     * @return The interval in seconds, or 0 if no sync has decided on one yet
+     */
+    public static long getSyncIntervalSeconds(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        return sp.getLong(PREF_SYNC_INTERVAL_SECONDS, 0);
+    }
+
+    /**
+     * Saves the interval the periodic sync should run at, so that it is scheduled with it once
+     * the running sync is over, and after the app restarts.
+     *
+     * @param context         Used to access SharedPreferences
+     * @param intervalSeconds The interval in seconds
+     */
+    public static void saveSyncIntervalSeconds(Context context, long intervalSeconds) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = sp.edit();
+        editor.putLong(PREF_SYNC_INTERVAL_SECONDS, intervalSeconds);
+        editor.apply();
+    }
+
+    /**
+     * Returns the interval the periodic sync was last scheduled with.
+     *
+     * @param context Used to access SharedPreferences
+     * @return The interval in seconds, or 0 if the sync hasn't been scheduled with one yet
+     */
+    public static long getScheduledSyncIntervalSeconds(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        return sp.getLong(PREF_SCHEDULED_SYNC_INTERVAL_SECONDS, 0);
+    }
+
+    /**
+     * Saves the interval the periodic sync has just been scheduled with.
+     *
+     * @param context         Used to access SharedPreferences
+     * @param intervalSeconds The interval in seconds
+     */
+    public static void saveScheduledSyncIntervalSeconds(Context context, long intervalSeconds) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = sp.edit();
+        editor.putLong(PREF_SCHEDULED_SYNC_INTERVAL_SECONDS, intervalSeconds);
+        editor.apply();
+    }
+
+    /**
+     * Forgets both sync intervals, so the sync goes back to the default interval the next time
+     * it is scheduled.
+     *
+     * @param context Used to access SharedPreferences
+     */
+    public static void resetSyncInterval(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = sp.edit();
+        editor.remove(PREF_SYNC_INTERVAL_SECONDS);
+        editor.remove(PREF_SCHEDULED_SYNC_INTERVAL_SECONDS);
+        editor.apply();
+    }
+
+    /**
+     * Returns how many requests in a row to the given server have failed.
+     *
+     * @param context  Used to access SharedPreferences
+     * @param endpoint The server, as the authority of its URL
+     * @return The number of failures, or 0 if the failures are for another server
+     */
+    public static int getCircuitFailureCount(Context context, String endpoint) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        if (!endpoint.equals(sp.getString(PREF_CIRCUIT_ENDPOINT, null))) return 0;
+        return sp.getInt(PREF_CIRCUIT_FAILURES, 0);
+    }
+
+    /**
+     * Returns until when no requests should be made to the given server.
+     *
+     * @param context  Used to access SharedPreferences
+     * @param endpoint The server, as the authority of its URL
+     * @return Time (in UNIX time), or 0 if requests to the server aren't held off
+     */
+    public static long getCircuitOpenUntil(Context context, String endpoint) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        if (!endpoint.equals(sp.getString(PREF_CIRCUIT_ENDPOINT, null))) return 0;
+        return sp.getLong(PREF_CIRCUIT_OPEN_UNTIL, 0);
+    }
+
+    /**
+     * Saves the state of the circuit breaker for the given server, replacing the state saved
+     * for any other server.
+     *
+     * @param context      Used to access SharedPreferences
+     * @param endpoint     The server, as the authority of its URL
+     * @param failureCount How many requests in a row to the server have failed
+     * @param openUntil    Until when (in UNIX time) no requests should be made, or 0
+     */
+    public static void saveCircuitState(Context context, String endpoint, int failureCount,
+                                        long openUntil) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = sp.edit();
+        editor.putString(PREF_CIRCUIT_ENDPOINT, endpoint);
+        editor.putInt(PREF_CIRCUIT_FAILURES, failureCount);
+        editor.putLong(PREF_CIRCUIT_OPEN_UNTIL, openUntil);
+        editor.apply();
+    }
+
+    /**
+     * Forgets the state of the circuit breaker, so that requests are made to any server again.
+     *
+     * @param context Used to access SharedPreferences
+     */
+    public static void resetCircuitState(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = sp.edit();
+        editor.remove(PREF_CIRCUIT_ENDPOINT);
+        editor.remove(PREF_CIRCUIT_FAILURES);
+        editor.remove(PREF_CIRCUIT_OPEN_UNTIL);
+        editor.apply();
+    }
+}
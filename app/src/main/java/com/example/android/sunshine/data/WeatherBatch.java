@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.os.Bundle;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+/**
+ * A batch of weather rows stored column by column in primitive arrays, rather than as one
+ * ContentValues map per row. Row i of the batch is made up of element i of every array.
+ * <p>
+ * Batches can be inserted into {@link WeatherProvider} with
+ * {@link android.content.ContentResolver#call} and
+ * {@link WeatherContract#METHOD_BULK_INSERT_BATCH}, which avoids boxing every value.
+ */
+public final class WeatherBatch {
+
+    /* Keys used to put the columns of a batch in a Bundle */
+    private static final String KEY_DATES = "dates";
+    private static final String KEY_WEATHER_IDS = "weather_ids";
+    private static final String KEY_MIN_TEMPS = "min_temps";
+    private static final String KEY_MAX_TEMPS = "max_temps";
+    private static final String KEY_HUMIDITIES = "humidities";
+    private static final String KEY_PRESSURES = "pressures";
+    private static final String KEY_WIND_SPEEDS = "wind_speeds";
+    private static final String KEY_DEGREES = "degrees";
+
+    public final long[] dates;
+    public final int[] weatherIds;
+    public final double[] minTemps;
+    public final double[] maxTemps;
+    public final double[] humidities;
+    public final double[] pressures;
+    public final double[] windSpeeds;
+    public final double[] degrees;
+
+    /**
+     * Creates an empty batch of the given size. Fill it in with {@link #set}.
+     *
+     * @param size The number of rows in the batch
+     */
+    public WeatherBatch(int size) {
+        this(new long[size], new int[size], new double[size], new double[size],
+                new double[size], new double[size], new double[size], new double[size]);
+    }
+
+    private WeatherBatch(long[] dates, int[] weatherIds, double[] minTemps, double[] maxTemps,
+                         double[] humidities, double[] pressures, double[] windSpeeds,
+                         double[] degrees) {
+        int size = dates.length;
+        if (weatherIds.length != size || minTemps.length != size || maxTemps.length != size
+                || humidities.length != size || pressures.length != size
+                || windSpeeds.length != size || degrees.length != size) {
+            throw new IllegalArgumentException("All columns of a batch must have the same size");
+        }
+
+        this.dates = dates;
+        this.weatherIds = weatherIds;
+        this.minTemps = minTemps;
+        this.maxTemps = maxTemps;
+        this.humidities = humidities;
+        this.pressures = pressures;
+        this.windSpeeds = windSpeeds;
+        this.degrees = degrees;
+    }
+
+    /**
+     * @return The number of rows in the batch
+     */
+    public int size() {
+        return dates.length;
+    }
+
+    /**
+     * Sets every column of a single row.
+     */
+    public void set(int index, long date, int weatherId, double minTemp, double maxTemp,
+                    double humidity, double pressure, double windSpeed, double degree) {
+        dates[index] = date;
+        weatherIds[index] = weatherId;
+        minTemps[index] = minTemp;
+        maxTemps[index] = maxTemp;
+        humidities[index] = humidity;
+        pressures[index] = pressure;
+        windSpeeds[index] = windSpeed;
+        degrees[index] = degree;
+    }
+
+    /**
+     * Converts rows in the ContentValues form used by bulkInsert into a batch.
+     *
+     * @param values Weather rows, each of which must contain every column
+     * @return A batch holding the same rows
+     */
+    public static WeatherBatch fromContentValues(ContentValues[] values) {
+        WeatherBatch batch = new WeatherBatch(values.length);
+        for (int i = 0; i < values.length; i++) {
+            ContentValues value = values[i];
+            batch.set(i,
+                    getRequiredLong(value, WeatherEntry.COLUMN_DATE),
+                    (int) getRequiredLong(value, WeatherEntry.COLUMN_WEATHER_ID),
+                    getRequiredDouble(value, WeatherEntry.COLUMN_MIN_TEMP),
+                    getRequiredDouble(value, WeatherEntry.COLUMN_MAX_TEMP),
+                    getRequiredDouble(value, WeatherEntry.COLUMN_HUMIDITY),
+                    getRequiredDouble(value, WeatherEntry.COLUMN_PRESSURE),
+                    getRequiredDouble(value, WeatherEntry.COLUMN_WIND_SPEED),
+                    getRequiredDouble(value, WeatherEntry.COLUMN_DEGREES));
+        }
+        return batch;
+    }
+
+    /**
+     * Puts the batch in a Bundle, so it can be passed to
+     * {@link android.content.ContentResolver#call}.
+     */
+    public Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        bundle.putLongArray(KEY_DATES, dates);
+        bundle.putIntArray(KEY_WEATHER_IDS, weatherIds);
+        bundle.putDoubleArray(KEY_MIN_TEMPS, minTemps);
+        bundle.putDoubleArray(KEY_MAX_TEMPS, maxTemps);
+        bundle.putDoubleArray(KEY_HUMIDITIES, humidities);
+        bundle.putDoubleArray(KEY_PRESSURES, pressures);
+        bundle.putDoubleArray(KEY_WIND_SPEEDS, windSpeeds);
+        bundle.putDoubleArray(KEY_DEGREES, degrees);
+        return bundle;
+    }
+
+    /**
+     * Reads a batch back from a Bundle created by {@link #toBundle()}.
+     *
+     * @throws IllegalArgumentException If the Bundle does not contain a complete batch
+     */
+    public static WeatherBatch fromBundle(Bundle bundle) {
+        long[] dates = bundle.getLongArray(KEY_DATES);
+        int[] weatherIds = bundle.getIntArray(KEY_WEATHER_IDS);
+        double[] minTemps = bundle.getDoubleArray(KEY_MIN_TEMPS);
+        double[] maxTemps = bundle.getDoubleArray(KEY_MAX_TEMPS);
+        double[] humidities = bundle.getDoubleArray(KEY_HUMIDITIES);
+        double[] pressures = bundle.getDoubleArray(KEY_PRESSURES);
+        double[] windSpeeds = bundle.getDoubleArray(KEY_WIND_SPEEDS);
+        double[] degrees = bundle.getDoubleArray(KEY_DEGREES);
+
+        if (dates == null || weatherIds == null || minTemps == null || maxTemps == null
+                || humidities == null || pressures == null || windSpeeds == null
+                || degrees == null) {
+            throw new IllegalArgumentException("Bundle does not contain a weather batch");
+        }
+
+        return new WeatherBatch(dates, weatherIds, minTemps, maxTemps,
+                humidities, pressures, windSpeeds, degrees);
+    }
+
+    private static long getRequiredLong(ContentValues value, String column) {
+        Long columnValue = value.getAsLong(column);
+        if (columnValue == null) {
+            throw new IllegalArgumentException("Missing " + column);
+        }
+        return columnValue;
+    }
+
+    private static double getRequiredDouble(ContentValues value, String column) {
+        Double columnValue = value.getAsDouble(column);
+        if (columnValue == null) {
+            throw new IllegalArgumentException("Missing " + column);
+        }
+        return columnValue;
+    }
+}
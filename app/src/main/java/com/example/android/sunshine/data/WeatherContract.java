@@ -56,6 +56,38 @@ public class WeatherContract {
      */
     public static final String PATH_WEATHER = "weather";
 
+    /*
+     * Appended to the weather path to bulkInsert a complete forecast that replaces whatever is
+     * stored, writing only the days that actually changed.
+     *
+     *     content://com.example.android.sunshine/weather/reconcile
+     */
+    public static final String PATH_RECONCILE = "reconcile";
+
+    /*
+     * Appended to the weather path to ask whether any weather matches a selection, without
+     * reading the weather itself.
+     *
+     *     content://com.example.android.sunshine/weather/exists
+     */
+    public static final String PATH_EXISTS = "exists";
+
+    /*
+     * Where the timings of recent syncs can be read, for debugging where sync latency goes on a
+     * device. The provider isn't exported, so this is only reachable from within Sunshine.
+     *
+     *     content://com.example.android.sunshine/sync_metrics
+     */
+    public static final String PATH_SYNC_METRICS = "sync_metrics";
+
+    /*
+     * Method name for ContentResolver#call that inserts a WeatherBatch, passed as the extras
+     * Bundle (see WeatherBatch#toBundle). The number of rows inserted is returned in the result
+     * Bundle under KEY_ROWS_INSERTED.
+     */
+    public static final String METHOD_BULK_INSERT_BATCH = "bulk_insert_batch";
+    public static final String KEY_ROWS_INSERTED = "rows_inserted";
+
     /* Inner class that defines the table contents of the weather table */
     public static final class WeatherEntry implements BaseColumns {
 
@@ -64,6 +96,26 @@ public class WeatherContract {
                 .appendPath(PATH_WEATHER)
                 .build();
 
+        /*
+         * bulkInsert a complete forecast at this URI to reconcile the weather table with it.
+         * See WeatherProvider#reconcileWeather for details.
+         */
+        public static final Uri RECONCILE_URI = CONTENT_URI.buildUpon()
+                .appendPath(PATH_RECONCILE)
+                .build();
+
+        /*
+         * Query this URI with a selection to find out whether any weather matches it. The
+         * cursor always has exactly one row, with a single COLUMN_EXISTS column that is 1 if
+         * some weather matches and 0 if none does. The projection and sort order are ignored.
+         */
+        public static final Uri EXISTS_URI = CONTENT_URI.buildUpon()
+                .appendPath(PATH_EXISTS)
+                .build();
+
+        /* The only column of a query of EXISTS_URI */
+        public static final String COLUMN_EXISTS = "weather_exists";
+
         /* Used internally as the name of our weather table. */
         public static final String TABLE_NAME = "weather";
 
@@ -131,8 +183,64 @@ public class WeatherContract {
          * @return The selection part of the weather query for today onwards
          */
         public static String getSqlSelectForTodayOnwards() {
-            long normalizedUtcNow = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
-            return WeatherContract.WeatherEntry.COLUMN_DATE + " >= " + normalizedUtcNow;
+            /* Today in the local time zone, which is the day the forecast is stored from */
+            long normalizedUtcToday =
+                    SunshineDateUtils.fromEpochDay(SunshineDateUtils.getEpochDayForToday());
+            return WeatherContract.WeatherEntry.COLUMN_DATE + " >= " + normalizedUtcToday;
         }
     }
-}
\ No newline at end of file
+
+    /*
+     * Inner class that defines the table contents of the sync metrics table. Every sync adds one
+     * row, and only the most recent rows are kept, see WeatherProvider#insertSyncMetrics.
+     */
+    public static final class SyncMetricsEntry implements BaseColumns {
+
+        /* The base CONTENT_URI used to query the sync metrics table from the content provider */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_SYNC_METRICS)
+                .build();
+
+        /* Used internally as the name of our sync metrics table. */
+        public static final String TABLE_NAME = "sync_metrics";
+
+        /* When the sync started, in milliseconds since the epoch */
+        public static final String COLUMN_STARTED_AT = "started_at";
+
+        /* How the sync ended, one of the OUTCOME_ values below */
+        public static final String COLUMN_OUTCOME = "outcome";
+
+        /*
+         * The name of the stage that threw, or that was running when the sync was canceled, and
+         * what it threw. Null unless the sync failed or was canceled.
+         */
+        public static final String COLUMN_FAILED_STAGE = "failed_stage";
+        public static final String COLUMN_ERROR = "error";
+
+        /*
+         * How long each stage of the sync took, in microseconds. A stage that wasn't reached is
+         * null. Timed with System.nanoTime, so changes to the wall clock don't skew them.
+         */
+        public static final String COLUMN_FETCH_MICROS = "fetch_us";
+        public static final String COLUMN_PARSE_MICROS = "parse_us";
+        public static final String COLUMN_WEARABLE_MICROS = "wearable_us";
+        public static final String COLUMN_STORE_MICROS = "store_us";
+        public static final String COLUMN_NOTIFY_MICROS = "notify_us";
+        public static final String COLUMN_TOTAL_MICROS = "total_us";
+
+        /* The size of the response body, and how many days of weather were parsed from it */
+        public static final String COLUMN_BYTES_FETCHED = "bytes_fetched";
+        public static final String COLUMN_DAYS_PARSED = "days_parsed";
+
+        /* The forecast was downloaded and stored */
+        public static final String OUTCOME_SUCCESS = "success";
+        /* The forecast we already had was still current, so nothing was downloaded */
+        public static final String OUTCOME_NOT_MODIFIED = "not_modified";
+        /* The server answered, but without any weather in its response */
+        public static final String OUTCOME_NO_DATA = "no_data";
+        /* One of the stages threw */
+        public static final String OUTCOME_FAILED = "failed";
+        /* The sync was canceled, see SyncJobRunner. Nothing was stored. */
+        public static final String OUTCOME_CANCELED = "canceled";
+    }
+}
@@ -16,16 +16,27 @@
 package com.example.android.sunshine.data;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.text.TextUtils;
+import android.util.Log;
 
+import com.example.android.sunshine.data.WeatherContract.SyncMetricsEntry;
 import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Manages a local database for weather data.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
+    private static final String TAG = WeatherDbHelper.class.getSimpleName();
+
     /*
      * This is the name of our database. Database names should be descriptive and end with the
      * .db extension.
@@ -42,11 +53,216 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      * versions of Sunshine could cause everything to break. Although that is certainly a rare
      * use-case, we wanted to watch out for it and warn you what could happen if you mistakenly
      * version your databases.
+     *
+     * Every time this is incremented, add a Migration for the new version to MIGRATIONS.
+     */
+    static final int DATABASE_VERSION = 5;
+
+    /*
+     * The name of the covering index added in version 4 of the database. See
+     * SQL_CREATE_FORECAST_INDEX.
+     */
+    static final String FORECAST_INDEX_NAME = "weather_forecast_index";
+
+    /*
+     * The date is the only column we ever select or sort on, but the implicit index created for
+     * UNIQUE(date) only holds the date. Every row found through it costs another lookup in the
+     * table to read the columns being projected. This index starts with the date too, and also
+     * holds every column of MainActivity's list (the _ID is part of every index), so the list is
+     * read from the index alone. Lookups of a single date, like the notification's, are always
+     * answered through the UNIQUE index, which costs just one lookup in the table.
+     */
+    private static final String SQL_CREATE_FORECAST_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + FORECAST_INDEX_NAME
+                    + " ON " + WeatherEntry.TABLE_NAME + " ("
+                    + WeatherEntry.COLUMN_DATE + ", "
+                    + WeatherEntry.COLUMN_WEATHER_ID + ", "
+                    + WeatherEntry.COLUMN_MIN_TEMP + ", "
+                    + WeatherEntry.COLUMN_MAX_TEMP + ");";
+
+    /*
+     * This String will contain a simple SQL statement that will create a table that will cache
+     * our weather data. The table has looked like this since version 3 of the database.
+     */
+    private static final String SQL_CREATE_WEATHER_TABLE =
+
+            "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+
+            /*
+             * WeatherEntry did not explicitly declare a column called "_ID". However,
+             * WeatherEntry implements the interface, "BaseColumns", which does have a field
+             * named "_ID". We use that here to designate our table's primary key.
+             */
+            WeatherEntry._ID               + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+
+            WeatherEntry.COLUMN_DATE       + " INTEGER NOT NULL, "                 +
+
+            WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL,"                  +
+
+            WeatherEntry.COLUMN_MIN_TEMP   + " REAL NOT NULL, "                    +
+            WeatherEntry.COLUMN_MAX_TEMP   + " REAL NOT NULL, "                    +
+
+            WeatherEntry.COLUMN_HUMIDITY   + " REAL NOT NULL, "                    +
+            WeatherEntry.COLUMN_PRESSURE   + " REAL NOT NULL, "                    +
+
+            WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, "                    +
+            WeatherEntry.COLUMN_DEGREES    + " REAL NOT NULL, "                    +
+
+            /*
+             * To ensure this table can only contain one weather entry per date, we declare
+             * the date column to be unique. We also specify "ON CONFLICT REPLACE". This tells
+             * SQLite that if we have a weather entry for a certain date and we attempt to
+             * insert another weather entry with that date, we replace the old weather entry.
+             */
+            " UNIQUE (" + WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
+    /*
+     * The timings of the most recent syncs, see SunshineSyncTask and SyncMetrics. Added in
+     * version 5 of the database. The AUTOINCREMENT _ID only ever grows, which is what lets
+     * WeatherProvider drop the oldest rows by _ID.
+     */
+    private static final String SQL_CREATE_SYNC_METRICS_TABLE =
+            "CREATE TABLE IF NOT EXISTS " + SyncMetricsEntry.TABLE_NAME + " ("
+                    + SyncMetricsEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + SyncMetricsEntry.COLUMN_STARTED_AT + " INTEGER NOT NULL, "
+                    + SyncMetricsEntry.COLUMN_OUTCOME + " TEXT NOT NULL, "
+                    + SyncMetricsEntry.COLUMN_FAILED_STAGE + " TEXT, "
+                    + SyncMetricsEntry.COLUMN_ERROR + " TEXT, "
+                    + SyncMetricsEntry.COLUMN_FETCH_MICROS + " INTEGER, "
+                    + SyncMetricsEntry.COLUMN_PARSE_MICROS + " INTEGER, "
+                    + SyncMetricsEntry.COLUMN_WEARABLE_MICROS + " INTEGER, "
+                    + SyncMetricsEntry.COLUMN_STORE_MICROS + " INTEGER, "
+                    + SyncMetricsEntry.COLUMN_NOTIFY_MICROS + " INTEGER, "
+                    + SyncMetricsEntry.COLUMN_TOTAL_MICROS + " INTEGER NOT NULL, "
+                    + SyncMetricsEntry.COLUMN_BYTES_FETCHED + " INTEGER NOT NULL, "
+                    + SyncMetricsEntry.COLUMN_DAYS_PARSED + " INTEGER NOT NULL);";
+
+    /* The columns of the weather table, apart from its _ID, that every forecast row has */
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+    };
+
+    /*
+     * Older versions of Sunshine stored weather per location, in a table next to the weather
+     * table. It is dropped when upgrading from those versions.
+     */
+    private static final String LEGACY_LOCATION_TABLE_NAME = "location";
+
+    /* The name the weather table is given while it is being rebuilt */
+    private static final String LEGACY_WEATHER_TABLE_NAME = WeatherEntry.TABLE_NAME + "_legacy";
+
+    /**
+     * A single step of the upgrade from one version of the database to the next.
+     */
+    abstract static class Migration {
+
+        /* The version of the database after this migration has run */
+        final int toVersion;
+
+        /* What the migration does, for the log */
+        final String description;
+
+        Migration(int toVersion, String description) {
+            this.toVersion = toVersion;
+            this.description = description;
+        }
+
+        abstract void migrate(SQLiteDatabase sqLiteDatabase);
+    }
+
+    /*
+     * Every migration, ordered by the version they upgrade to. Upgrading runs each migration whose
+     * toVersion is above the old version, in turn, so a database of any version is brought up to
+     * date one step at a time without losing the stored forecast.
      */
-    private static final int DATABASE_VERSION = 3;
+    static final Migration[] MIGRATIONS = {
+
+            /*
+             * Versions 1 and 2 were the schema of older versions of Sunshine, which differed from
+             * one another. Both are rebuilt into the current weather table, keeping whichever
+             * forecast rows can be carried over.
+             */
+            new Migration(3, "Rebuild the legacy weather table") {
+                @Override
+                void migrate(SQLiteDatabase sqLiteDatabase) {
+                    rebuildLegacyWeatherTable(sqLiteDatabase);
+                }
+            },
+
+            new Migration(4, "Add the covering forecast index") {
+                @Override
+                void migrate(SQLiteDatabase sqLiteDatabase) {
+                    sqLiteDatabase.execSQL(SQL_CREATE_FORECAST_INDEX);
+                }
+            },
+
+            new Migration(5, "Add the sync metrics table") {
+                @Override
+                void migrate(SQLiteDatabase sqLiteDatabase) {
+                    sqLiteDatabase.execSQL(SQL_CREATE_SYNC_METRICS_TABLE);
+                }
+            },
+    };
+
+    /* Whether the database is opened with write-ahead logging, see isConcurrentReadEnabled */
+    private final boolean mWriteAheadLogging;
 
     public WeatherDbHelper(Context context) {
+        this(context, true);
+    }
+
+    /**
+     * @param context           Used to open or create the database
+     * @param writeAheadLogging Whether to open the database with write-ahead logging. Only
+     *                          turned off to measure what it gains us.
+     */
+    WeatherDbHelper(Context context, boolean writeAheadLogging) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mWriteAheadLogging = writeAheadLogging;
+
+        /*
+         * With write-ahead logging, a sync writing the forecast no longer blocks the list's
+         * queries. Each thread that reads is given its own connection from the database's
+         * connection pool, whose size the framework picks for the device, and sees the forecast
+         * as it was before the sync's transaction started.
+         */
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(writeAheadLogging);
+        }
+    }
+
+    /**
+     * @return true if reads can run while a write transaction is in progress, rather than
+     * waiting for it to finish
+     */
+    public boolean isConcurrentReadEnabled() {
+        return mWriteAheadLogging
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+    }
+
+    /**
+     * Called when the database has been opened. Before Jelly Bean, write-ahead logging can only
+     * be turned on once the database is open.
+     *
+     * @param sqLiteDatabase The database.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase sqLiteDatabase) {
+        super.onOpen(sqLiteDatabase);
+
+        if (mWriteAheadLogging
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN
+                && !sqLiteDatabase.isReadOnly()) {
+            sqLiteDatabase.enableWriteAheadLogging();
+        }
     }
 
     /**
@@ -59,63 +275,103 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
 
         /*
-         * This String will contain a simple SQL statement that will create a table that will
-         * cache our weather data.
+         * After we've spelled out our SQLite table creation statement in SQL_CREATE_WEATHER_TABLE,
+         * we actually execute that SQL with the execSQL method of our SQLite database object.
          */
-        final String SQL_CREATE_WEATHER_TABLE =
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_FORECAST_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_SYNC_METRICS_TABLE);
+    }
 
-                "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+    /**
+     * Upgrades the database by running every Migration in MIGRATIONS between the old and the new
+     * version, keeping the forecast that is already stored so the first launch after an update
+     * doesn't have to wait for a sync. Note that this only fires if you change the version
+     * number for your database (in our case, DATABASE_VERSION). It does NOT depend on the version
+     * number for your application found in your app/build.gradle file.
+     * <p>
+     * SQLiteOpenHelper calls this method inside a transaction, so either every migration is
+     * applied or, if one of them throws, none of them are.
+     *
+     * @param sqLiteDatabase Database that is being upgraded
+     * @param oldVersion     The old database version
+     * @param newVersion     The new database version
+     */
+    @Override
+    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        long upgradeStart = System.nanoTime();
 
-                /*
-                 * WeatherEntry did not explicitly declare a column called "_ID". However,
-                 * WeatherEntry implements the interface, "BaseColumns", which does have a field
-                 * named "_ID". We use that here to designate our table's primary key.
-                 */
-                WeatherEntry._ID               + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+        for (Migration migration : MIGRATIONS) {
+            if (migration.toVersion <= oldVersion || migration.toVersion > newVersion) {
+                continue;
+            }
 
-                WeatherEntry.COLUMN_DATE       + " INTEGER NOT NULL, "                 +
+            long migrationStart = System.nanoTime();
+            migration.migrate(sqLiteDatabase);
+            Log.d(TAG, "Migration to version " + migration.toVersion + " ("
+                    + migration.description + ") took "
+                    + (System.nanoTime() - migrationStart) / 1000 + "us");
+        }
 
-                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL,"                  +
+        Log.d(TAG, "Upgrade from version " + oldVersion + " to " + newVersion + " took "
+                + (System.nanoTime() - upgradeStart) / 1000 + "us");
+    }
 
-                WeatherEntry.COLUMN_MIN_TEMP   + " REAL NOT NULL, "                    +
-                WeatherEntry.COLUMN_MAX_TEMP   + " REAL NOT NULL, "                    +
+    /**
+     * Replaces a weather table of an older version of Sunshine with the version 3 weather table.
+     * Rows are carried over when the old table has every forecast column and a normalized date;
+     * anything else is dropped, as it will be downloaded again by the next sync.
+     *
+     * @param sqLiteDatabase Database that is being upgraded
+     */
+    private static void rebuildLegacyWeatherTable(SQLiteDatabase sqLiteDatabase) {
+        Set<String> legacyColumns = getColumnNames(sqLiteDatabase, WeatherEntry.TABLE_NAME);
 
-                WeatherEntry.COLUMN_HUMIDITY   + " REAL NOT NULL, "                    +
-                WeatherEntry.COLUMN_PRESSURE   + " REAL NOT NULL, "                    +
+        if (legacyColumns.isEmpty()) {
+            sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        } else {
+            sqLiteDatabase.execSQL("ALTER TABLE " + WeatherEntry.TABLE_NAME
+                    + " RENAME TO " + LEGACY_WEATHER_TABLE_NAME);
+            sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
 
-                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, "                    +
-                WeatherEntry.COLUMN_DEGREES    + " REAL NOT NULL, "                    +
+            boolean hasForecastColumns = true;
+            for (String column : FORECAST_COLUMNS) {
+                hasForecastColumns &= legacyColumns.contains(column);
+            }
 
-                /*
-                 * To ensure this table can only contain one weather entry per date, we declare
-                 * the date column to be unique. We also specify "ON CONFLICT REPLACE". This tells
-                 * SQLite that if we have a weather entry for a certain date and we attempt to
-                 * insert another weather entry with that date, we replace the old weather entry.
-                 */
-                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+            /*
+             * Older versions stored one row per date and location. The weather table's
+             * ON CONFLICT REPLACE keeps one of them for each date.
+             */
+            if (hasForecastColumns) {
+                String columns = TextUtils.join(", ", FORECAST_COLUMNS);
+                sqLiteDatabase.execSQL("INSERT INTO " + WeatherEntry.TABLE_NAME
+                        + " (" + columns + ") SELECT " + columns
+                        + " FROM " + LEGACY_WEATHER_TABLE_NAME
+                        + " WHERE " + WeatherEntry.COLUMN_DATE
+                        + " % " + SunshineDateUtils.DAY_IN_MILLIS + " = 0");
+            }
 
-        /*
-         * After we've spelled out our SQLite table creation statement above, we actually execute
-         * that SQL with the execSQL method of our SQLite database object.
-         */
-        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+            sqLiteDatabase.execSQL("DROP TABLE " + LEGACY_WEATHER_TABLE_NAME);
+        }
+
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LEGACY_LOCATION_TABLE_NAME);
     }
 
     /**
-     * This database is only a cache for online data, so its upgrade policy is simply to discard
-     * the data and call through to onCreate to recreate the table. Note that this only fires if
-     * you change the version number for your database (in our case, DATABASE_VERSION). It does NOT
-     * depend on the version number for your application found in your app/build.gradle file. If
-     * you want to update the schema without wiping data, commenting out the current body of this
-     * method should be your top priority before modifying this method.
-     *
-     * @param sqLiteDatabase Database that is being upgraded
-     * @param oldVersion     The old database version
-     * @param newVersion     The new database version
+     * @return The names of the columns of a table, or an empty set if there is no such table
      */
-    @Override
-    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+    private static Set<String> getColumnNames(SQLiteDatabase sqLiteDatabase, String tableName) {
+        Set<String> columnNames = new HashSet<>();
+        Cursor cursor = sqLiteDatabase.rawQuery("PRAGMA table_info(" + tableName + ")", null);
+        try {
+            int nameIndex = cursor.getColumnIndexOrThrow("name");
+            while (cursor.moveToNext()) {
+                columnNames.add(cursor.getString(nameIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+        return columnNames;
     }
-}
\ No newline at end of file
+}
@@ -17,15 +17,28 @@ package com.example.android.sunshine.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
 import android.support.annotation.NonNull;
+import android.support.v4.os.OperationCanceledException;
+import android.text.TextUtils;
+import android.util.Log;
 
 import com.example.android.sunshine.utilities.SunshineDateUtils;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * This class serves as the ContentProvider for all of Sunshine's data. This class allows us to
  * bulkInsert data, query data, and delete data.
@@ -38,6 +51,8 @@ import com.example.android.sunshine.utilities.SunshineDateUtils;
  */
 public class WeatherProvider extends ContentProvider {
 
+    private static final String TAG = WeatherProvider.class.getSimpleName();
+
     /*
      * These constant will be used to match URIs with the data they are looking for. We will take
      * advantage of the UriMatcher class to make that matching MUCH easier than doing something
@@ -45,6 +60,44 @@ public class WeatherProvider extends ContentProvider {
      */
     public static final int CODE_WEATHER = 100;
     public static final int CODE_WEATHER_WITH_DATE = 101;
+    public static final int CODE_WEATHER_RECONCILE = 102;
+    public static final int CODE_WEATHER_EXISTS = 103;
+    public static final int CODE_SYNC_METRICS = 200;
+
+    /*
+     * How many syncs the sync metrics table remembers. Inserting the metrics of another sync
+     * drops the oldest, so the table is a ring of the most recent syncs. At one sync every few
+     * hours, this covers a couple of weeks.
+     */
+    static final int MAX_SYNC_METRICS_ROWS = 100;
+
+    /*
+     * Every column of a weather row, apart from its _ID. These are the columns bound by the
+     * precompiled insert statement, and the columns compared when reconciling the weather table
+     * with a new forecast. The date must stay first, as it is the key we match rows on.
+     */
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES,
+    };
+
+    /*
+     * Binding values by index to one compiled statement is much cheaper than having
+     * SQLiteDatabase#insert build and compile the SQL from every ContentValues. Inserting
+     * without a conflict clause uses the table's, so rows for an existing date are replaced
+     * just as with SQLiteDatabase#insert.
+     */
+    private static final String SQL_INSERT_WEATHER =
+            "INSERT INTO " + WeatherContract.WeatherEntry.TABLE_NAME
+                    + " (" + TextUtils.join(", ", FORECAST_COLUMNS) + ") VALUES ("
+                    + TextUtils.join(", ", Collections.nCopies(FORECAST_COLUMNS.length, "?"))
+                    + ")";
 
     /*
      * The URI Matcher used by this content provider. The leading "s" in this variable name
@@ -54,6 +107,9 @@ public class WeatherProvider extends ContentProvider {
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
 
+    /* Answers the common queries from memory, see ForecastCache */
+    private final ForecastCache mForecastCache = new ForecastCache();
+
     /**
      * Creates the UriMatcher that will match each URI to the CODE_WEATHER and
      * CODE_WEATHER_WITH_DATE constants defined above.
@@ -96,6 +152,19 @@ public class WeatherProvider extends ContentProvider {
          */
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/#", CODE_WEATHER_WITH_DATE);
 
+        /* This URI is content://com.example.android.sunshine/weather/reconcile */
+        matcher.addURI(authority,
+                WeatherContract.PATH_WEATHER + "/" + WeatherContract.PATH_RECONCILE,
+                CODE_WEATHER_RECONCILE);
+
+        /* This URI is content://com.example.android.sunshine/weather/exists */
+        matcher.addURI(authority,
+                WeatherContract.PATH_WEATHER + "/" + WeatherContract.PATH_EXISTS,
+                CODE_WEATHER_EXISTS);
+
+        /* This URI is content://com.example.android.sunshine/sync_metrics */
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_METRICS, CODE_SYNC_METRICS);
+
         return matcher;
     }
 
@@ -145,8 +214,10 @@ public class WeatherProvider extends ContentProvider {
         switch (sUriMatcher.match(uri)) {
 
             case CODE_WEATHER:
-                db.beginTransaction();
+                beginWriteTransaction(db);
                 int rowsInserted = 0;
+                /* One statement is compiled per transaction and reused for every row */
+                SQLiteStatement insertStatement = db.compileStatement(SQL_INSERT_WEATHER);
                 try {
                     for (ContentValues value : values) {
                         long weatherDate =
@@ -155,27 +226,287 @@ public class WeatherProvider extends ContentProvider {
                             throw new IllegalArgumentException("Date must be normalized to insert");
                         }
 
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
+                        if (insertWeather(db, insertStatement, value)) {
                             rowsInserted++;
                         }
                     }
                     db.setTransactionSuccessful();
                 } finally {
+                    insertStatement.close();
                     db.endTransaction();
                 }
 
+                mForecastCache.invalidate();
+
                 if (rowsInserted > 0) {
                     getContext().getContentResolver().notifyChange(uri, null);
                 }
 
                 return rowsInserted;
 
+            case CODE_WEATHER_RECONCILE:
+                int rowsChanged = reconcileWeather(db, values);
+                mForecastCache.invalidate();
+
+                /*
+                 * Observers are registered on the weather URI rather than the reconcile URI, so
+                 * that is the one we notify. Descendants such as a single day's URI are notified
+                 * as well.
+                 */
+                if (rowsChanged > 0) {
+                    getContext().getContentResolver()
+                            .notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+                }
+
+                return rowsChanged;
+
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Makes the weather table match the given forecast while writing as little as possible.
+     * Rows are matched by date: days that are new are inserted, days whose values differ are
+     * updated, days that are identical are left alone and days that are no longer part of the
+     * forecast are deleted. Everything happens in a single transaction.
+     * <p>
+     * Note that an empty forecast deletes every row in the table.
+     * <p>
+     * If the calling thread is interrupted, which is how a sync that is being canceled is
+     * stopped, the transaction is rolled back and the stored forecast is left as it was.
+     *
+     * @param db     The database to write to
+     * @param values The complete forecast, one set of values per day
+     * @return The number of rows that were inserted, updated or deleted
+     * @throws OperationCanceledException If the calling thread was interrupted
+     */
+    private int reconcileWeather(SQLiteDatabase db, ContentValues[] values) {
+        int rowsChanged = 0;
+
+        beginWriteTransaction(db);
+        SQLiteStatement insertStatement = db.compileStatement(SQL_INSERT_WEATHER);
+        try {
+            /* Load what is stored now, keyed by date */
+            Map<Long, double[]> storedWeather = new HashMap<>();
+            Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                    FORECAST_COLUMNS, null, null, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    double[] storedValues = new double[FORECAST_COLUMNS.length - 1];
+                    for (int i = 0; i < storedValues.length; i++) {
+                        storedValues[i] = cursor.getDouble(i + 1);
+                    }
+                    storedWeather.put(cursor.getLong(0), storedValues);
+                }
+            } finally {
+                cursor.close();
+            }
+
+            for (ContentValues value : values) {
+                throwIfInterrupted();
+
+                long weatherDate = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
+                    throw new IllegalArgumentException("Date must be normalized to insert");
+                }
+
+                double[] storedValues = storedWeather.remove(weatherDate);
+
+                if (storedValues == null) {
+                    if (insertWeather(db, insertStatement, value)) {
+                        rowsChanged++;
+                    }
+                } else if (!Arrays.equals(storedValues, getReconcileValues(value))) {
+                    rowsChanged += db.update(WeatherContract.WeatherEntry.TABLE_NAME,
+                            value,
+                            WeatherContract.WeatherEntry.COLUMN_DATE + " = ?",
+                            new String[]{Long.toString(weatherDate)});
+                }
+            }
+
+            /* Whatever is left over is a day that isn't in the forecast anymore */
+            for (Long staleDate : storedWeather.keySet()) {
+                rowsChanged += db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                        WeatherContract.WeatherEntry.COLUMN_DATE + " = ?",
+                        new String[]{Long.toString(staleDate)});
+            }
+
+            throwIfInterrupted();
+            db.setTransactionSuccessful();
+        } finally {
+            insertStatement.close();
+            db.endTransaction();
+        }
+
+        return rowsChanged;
+    }
+
+    /**
+     * Stops a write that the calling thread has been asked to give up on.
+     *
+     * @throws OperationCanceledException If the calling thread was interrupted
+     */
+    private static void throwIfInterrupted() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new OperationCanceledException("Interrupted while reconciling the weather");
+        }
+    }
+
+    /**
+     * Begins a transaction to write the weather table. With write-ahead logging, readers never
+     * wait for a writer, so an immediate transaction, which only keeps other writers out, is all
+     * we need rather than the exclusive one started by {@link SQLiteDatabase#beginTransaction()}.
+     *
+     * @param db The database to write
+     */
+    private static void beginWriteTransaction(SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            db.beginTransactionNonExclusive();
+        } else {
+            db.beginTransaction();
+        }
+    }
+
+    /**
+     * Inserts a single row using the precompiled insert statement. Rows that contain columns
+     * the statement doesn't know about fall back to {@link SQLiteDatabase#insert}. Like that
+     * method, a row that violates a constraint is logged and skipped rather than thrown.
+     *
+     * @param db              The database, used for the fallback
+     * @param insertStatement SQL_INSERT_WEATHER, compiled against db
+     * @param value           The row to insert
+     * @return true if the row was inserted
+     */
+    private static boolean insertWeather(SQLiteDatabase db, SQLiteStatement insertStatement,
+                                         ContentValues value) {
+        int boundColumns = 0;
+        for (int i = 0; i < FORECAST_COLUMNS.length; i++) {
+            String column = FORECAST_COLUMNS[i];
+            /* Statement arguments are numbered from 1 */
+            int index = i + 1;
+
+            if (!value.containsKey(column)) {
+                insertStatement.bindNull(index);
+                continue;
+            }
+            boundColumns++;
+
+            Object columnValue = value.get(column);
+            if (columnValue == null) {
+                insertStatement.bindNull(index);
+            } else if (columnValue instanceof Double || columnValue instanceof Float) {
+                insertStatement.bindDouble(index, ((Number) columnValue).doubleValue());
+            } else if (columnValue instanceof Number) {
+                insertStatement.bindLong(index, ((Number) columnValue).longValue());
+            } else {
+                insertStatement.bindString(index, columnValue.toString());
+            }
+        }
+
+        if (boundColumns != value.size()) {
+            return db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value) != -1;
+        }
+
+        try {
+            return insertStatement.executeInsert() != -1;
+        } catch (SQLException e) {
+            Log.e(TAG, "Error inserting " + value, e);
+            return false;
+        }
+    }
+
+    /**
+     * Inserts every row of a {@link WeatherBatch}, binding the primitive columns straight to the
+     * precompiled insert statement.
+     *
+     * @param db    The database to insert into
+     * @param batch The rows to insert
+     * @return The number of rows that were inserted
+     */
+    private static int insertWeatherBatch(SQLiteDatabase db, WeatherBatch batch) {
+        int rowsInserted = 0;
+
+        beginWriteTransaction(db);
+        SQLiteStatement insertStatement = db.compileStatement(SQL_INSERT_WEATHER);
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                if (!SunshineDateUtils.isDateNormalized(batch.dates[i])) {
+                    throw new IllegalArgumentException("Date must be normalized to insert");
+                }
+
+                /* Bound in the order of FORECAST_COLUMNS */
+                insertStatement.bindLong(1, batch.dates[i]);
+                insertStatement.bindLong(2, batch.weatherIds[i]);
+                insertStatement.bindDouble(3, batch.minTemps[i]);
+                insertStatement.bindDouble(4, batch.maxTemps[i]);
+                insertStatement.bindDouble(5, batch.humidities[i]);
+                insertStatement.bindDouble(6, batch.pressures[i]);
+                insertStatement.bindDouble(7, batch.windSpeeds[i]);
+                insertStatement.bindDouble(8, batch.degrees[i]);
+
+                if (insertStatement.executeInsert() != -1) {
+                    rowsInserted++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            insertStatement.close();
+            db.endTransaction();
+        }
+
+        return rowsInserted;
+    }
+
+    /**
+     * Handles provider specific methods called through ContentResolver#call. Sunshine only
+     * supports {@link WeatherContract#METHOD_BULK_INSERT_BATCH}, a columnar alternative to
+     * {@link #bulkInsert(Uri, ContentValues[])}.
+     *
+     * @param method The method to call
+     * @param arg    Unused
+     * @param extras For METHOD_BULK_INSERT_BATCH, the batch created with WeatherBatch#toBundle
+     * @return For METHOD_BULK_INSERT_BATCH, a Bundle with the number of rows inserted
+     */
+    @Override
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public Bundle call(@NonNull String method, String arg, Bundle extras) {
+        if (!WeatherContract.METHOD_BULK_INSERT_BATCH.equals(method)) {
+            return super.call(method, arg, extras);
+        }
+
+        if (extras == null) {
+            throw new IllegalArgumentException("A weather batch is required");
+        }
+
+        int rowsInserted = insertWeatherBatch(mOpenHelper.getWritableDatabase(),
+                WeatherBatch.fromBundle(extras));
+        mForecastCache.invalidate();
+
+        if (rowsInserted > 0) {
+            getContext().getContentResolver()
+                    .notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.KEY_ROWS_INSERTED, rowsInserted);
+        return result;
+    }
+
+    /**
+     * Extracts the values of the non-date FORECAST_COLUMNS in the same order as they are loaded
+     * from the database. A missing value is represented by NaN, which never equals a stored
+     * value, so the row gets written and the database enforces its constraints.
+     */
+    private static double[] getReconcileValues(ContentValues value) {
+        double[] reconcileValues = new double[FORECAST_COLUMNS.length - 1];
+        for (int i = 0; i < reconcileValues.length; i++) {
+            Double columnValue = value.getAsDouble(FORECAST_COLUMNS[i + 1]);
+            reconcileValues[i] = columnValue == null ? Double.NaN : columnValue;
+        }
+        return reconcileValues;
+    }
+
     /**
      * Handles query requests from clients. We will use this method in Sunshine to query for all
      * of our weather data as well as to query for the weather on a particular day.
@@ -225,6 +556,15 @@ public class WeatherProvider extends ContentProvider {
                  */
                 String normalizedUtcDateString = uri.getLastPathSegment();
 
+                /*
+                 * A single day is what the detail screen and the notification ask for, and is
+                 * usually answered from the snapshot of the forecast kept in memory.
+                 */
+                cursor = queryForecastCacheForDate(projection, normalizedUtcDateString);
+                if (cursor != null) {
+                    break;
+                }
+
                 /*
                  * The query method accepts a string array of arguments, as there may be more
                  * than one "?" in the selection statement. Even though in our case, we only have
@@ -273,6 +613,16 @@ public class WeatherProvider extends ContentProvider {
              * in our weather table.
              */
             case CODE_WEATHER: {
+                /* The forecast list's query is usually answered from memory, see ForecastCache */
+                cursor = mForecastCache.query(mOpenHelper.getReadableDatabase(),
+                        projection,
+                        selection,
+                        selectionArgs,
+                        sortOrder);
+                if (cursor != null) {
+                    break;
+                }
+
                 cursor = mOpenHelper.getReadableDatabase().query(
                         WeatherContract.WeatherEntry.TABLE_NAME,
                         projection,
@@ -285,6 +635,32 @@ public class WeatherProvider extends ContentProvider {
                 break;
             }
 
+            /*
+             * Whether any weather matches the selection. This is how Sunshine checks whether it
+             * has a forecast to show at all, which shouldn't read every row just to count them.
+             */
+            case CODE_WEATHER_EXISTS: {
+                cursor = mOpenHelper.getReadableDatabase().rawQuery(
+                        buildExistsQuery(selection),
+                        selectionArgs);
+
+                break;
+            }
+
+            /* The metrics of the most recent syncs, for debugging */
+            case CODE_SYNC_METRICS: {
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.SyncMetricsEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder);
+
+                break;
+            }
+
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -293,6 +669,44 @@ public class WeatherProvider extends ContentProvider {
         return cursor;
     }
 
+    /**
+     * Builds the query behind WeatherEntry#EXISTS_URI. SQLite stops looking at the first row
+     * that matches, which it finds through the date index for a selection on the date, so the
+     * query costs about the same whether the table holds no forecast or years of them.
+     *
+     * @param selection The rows to look for, or null for any row
+     * @return A query whose only row and column is 1 if any row matches and 0 otherwise
+     */
+    static String buildExistsQuery(String selection) {
+        return "SELECT EXISTS (SELECT 1 FROM " + WeatherContract.WeatherEntry.TABLE_NAME
+                + (TextUtils.isEmpty(selection) ? "" : " WHERE " + selection)
+                + " LIMIT 1) AS " + WeatherContract.WeatherEntry.COLUMN_EXISTS;
+    }
+
+    /**
+     * Looks up a single day in the forecast cache.
+     *
+     * @param projection The columns to return, or null for every column
+     * @param dateString The normalized date, as found at the end of the URI
+     * @return A cursor, or null if the query has to be answered by SQLite instead
+     */
+    private Cursor queryForecastCacheForDate(String[] projection, String dateString) {
+        long date;
+        try {
+            date = Long.parseLong(dateString);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return mForecastCache.query(mOpenHelper.getReadableDatabase(), projection, date, date);
+    }
+
+    /**
+     * @return The cache that answers common queries from memory, for tests to inspect
+     */
+    ForecastCache getForecastCache() {
+        return mForecastCache;
+    }
+
     /**
      * Deletes data at a given URI with optional arguments for more fine tuned deletions.
      *
@@ -323,6 +737,15 @@ public class WeatherProvider extends ContentProvider {
                         WeatherContract.WeatherEntry.TABLE_NAME,
                         selection,
                         selectionArgs);
+                mForecastCache.invalidate();
+
+                break;
+
+            case CODE_SYNC_METRICS:
+                numRowsDeleted = mOpenHelper.getWritableDatabase().delete(
+                        WeatherContract.SyncMetricsEntry.TABLE_NAME,
+                        selection,
+                        selectionArgs);
 
                 break;
 
@@ -354,20 +777,51 @@ public class WeatherProvider extends ContentProvider {
     }
 
     /**
-     * In Sunshine, we aren't going to do anything with this method. However, we are required to
-     * override it as WeatherProvider extends ContentProvider and insert is an abstract method in
-     * ContentProvider. Rather than the single insert method, we are only going to implement
-     * {@link WeatherProvider#bulkInsert}.
+     * Weather is only ever inserted a whole forecast at a time, see
+     * {@link WeatherProvider#bulkInsert}. The only single rows that are inserted are the metrics
+     * of a sync, one per sync.
      *
      * @param uri    The URI of the insertion request. This must not be null.
      * @param values A set of column_name/value pairs to add to the database.
      *               This must not be null
-     * @return nothing in Sunshine, but normally the URI for the newly inserted item.
+     * @return The URI of the newly inserted row
      */
     @Override
     public Uri insert(@NonNull Uri uri, ContentValues values) {
-        throw new RuntimeException(
-                "We are not implementing insert in Sunshine. Use bulkInsert instead");
+        switch (sUriMatcher.match(uri)) {
+
+            case CODE_SYNC_METRICS:
+                Uri rowUri = insertSyncMetrics(values);
+                getContext().getContentResolver().notifyChange(uri, null);
+                return rowUri;
+
+            default:
+                throw new RuntimeException(
+                        "We are not implementing insert in Sunshine. Use bulkInsert instead");
+        }
+    }
+
+    /**
+     * Adds the metrics of a sync, and drops the oldest rows so that no more than
+     * MAX_SYNC_METRICS_ROWS are kept. Both happen in one transaction, so a reader never sees
+     * more rows than that.
+     *
+     * @param values The metrics of one sync, see SyncMetricsEntry
+     * @return The URI of the new row
+     */
+    private Uri insertSyncMetrics(ContentValues values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        beginWriteTransaction(db);
+        try {
+            long id = db.insertOrThrow(WeatherContract.SyncMetricsEntry.TABLE_NAME, null, values);
+            db.delete(WeatherContract.SyncMetricsEntry.TABLE_NAME,
+                    WeatherContract.SyncMetricsEntry._ID + " <= ?",
+                    new String[]{Long.toString(id - MAX_SYNC_METRICS_ROWS)});
+            db.setTransactionSuccessful();
+            return ContentUris.withAppendedId(WeatherContract.SyncMetricsEntry.CONTENT_URI, id);
+        } finally {
+            db.endTransaction();
+        }
     }
 
     @Override
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link WearableDataClient} backed by one GoogleApiClient that stays connected for as long as
+ * the process lives, rather than one client per sync.
+ */
+class GoogleApiWearableDataClient implements WearableDataClient {
+
+    private static final String TAG = GoogleApiWearableDataClient.class.getSimpleName();
+
+    private static final long PUT_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final GoogleApiClient mGoogleApiClient;
+
+    GoogleApiWearableDataClient(Context context) {
+        mGoogleApiClient = new GoogleApiClient.Builder(context.getApplicationContext())
+                .addApiIfAvailable(Wearable.API)
+                .build();
+    }
+
+    @Override
+    public boolean connect(long timeoutMillis) {
+        if (!mGoogleApiClient.isConnected()) {
+            ConnectionResult result =
+                    mGoogleApiClient.blockingConnect(timeoutMillis, TimeUnit.MILLISECONDS);
+            if (!result.isSuccess()) {
+                Log.w(TAG, "Couldn't connect to the Data Layer: " + result);
+                return false;
+            }
+        }
+
+        /* Wearable.API was only added if the device has it */
+        return mGoogleApiClient.hasConnectedApi(Wearable.API);
+    }
+
+    @Override
+    public boolean putDataItem(String path, byte[] data) {
+        /*
+         * Urgent, so the watch shows the new forecast right away. SyncWithWearableTask only puts
+         * a forecast that changed, and at most once per coalescing window.
+         */
+        PutDataRequest request = PutDataRequest.create(path)
+                .setData(data)
+                .setUrgent();
+
+        DataApi.DataItemResult result = Wearable.DataApi.putDataItem(mGoogleApiClient, request)
+                .await(PUT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        if (!result.getStatus().isSuccess()) {
+            Log.w(TAG, "Couldn't put " + path + ": " + result.getStatus());
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts durations in buckets whose bounds double from one bucket to the next: up to 1ms, up to
+ * 2ms, up to 4ms and so on, up to 16s, with one last bucket for anything longer. That is coarse,
+ * but fixed in size no matter how many durations are recorded, and still tells a sync that takes
+ * 50ms from one that takes 5s.
+ * <p>
+ * Not thread safe, see SyncMetrics.
+ */
+final class LatencyHistogram {
+
+    /* The upper bound of bucket i is 2^i milliseconds, apart from the last bucket's */
+    static final int BUCKET_COUNT = 16;
+
+    private final long[] mCounts = new long[BUCKET_COUNT];
+    private long mCount;
+    private long mMaxNanos;
+
+    /**
+     * @param nanos A duration measured with System.nanoTime
+     */
+    void record(long nanos) {
+        mCounts[getBucket(nanos)]++;
+        mCount++;
+        mMaxNanos = Math.max(mMaxNanos, nanos);
+    }
+
+    /**
+     * Adds every duration recorded by another histogram to this one.
+     */
+    void add(LatencyHistogram other) {
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            mCounts[bucket] += other.mCounts[bucket];
+        }
+        mCount += other.mCount;
+        mMaxNanos = Math.max(mMaxNanos, other.mMaxNanos);
+    }
+
+    /** @return How many durations were recorded */
+    long getCount() {
+        return mCount;
+    }
+
+    /** @return How many of the durations fell in the given bucket */
+    long getCount(int bucket) {
+        return mCounts[bucket];
+    }
+
+    /** @return The longest duration recorded, in nanoseconds */
+    long getMaxNanos() {
+        return mMaxNanos;
+    }
+
+    /**
+     * @return The upper bound of the bucket that holds the given fraction of the durations, in
+     * milliseconds. For instance, 0.9 gives a bound that at least 90% of the durations are
+     * within. Long.MAX_VALUE if that is the last bucket, and 0 if nothing was recorded.
+     */
+    long getPercentileUpperBoundMillis(double fraction) {
+        if (mCount == 0) return 0;
+
+        long needed = (long) Math.ceil(fraction * mCount);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += mCounts[bucket];
+            if (seen >= needed) {
+                return getUpperBoundMillis(bucket);
+            }
+        }
+        return getUpperBoundMillis(BUCKET_COUNT - 1);
+    }
+
+    /** @return The upper bound of a bucket in milliseconds, Long.MAX_VALUE for the last one */
+    static long getUpperBoundMillis(int bucket) {
+        return bucket == BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    /** @return The bucket a duration falls in */
+    static int getBucket(long nanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(Math.max(0, nanos));
+        /* Any part of a millisecond rounds up, so 1.5ms goes into the up to 2ms bucket */
+        if (TimeUnit.MILLISECONDS.toNanos(millis) < nanos) {
+            millis++;
+        }
+        if (millis <= 1) return 0;
+
+        /* The smallest power of two that is at least millis */
+        int bucket = 64 - Long.numberOfLeadingZeros(millis - 1);
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + mCount
+                + " p50<=" + formatBound(getPercentileUpperBoundMillis(0.5))
+                + " p90<=" + formatBound(getPercentileUpperBoundMillis(0.9))
+                + " max=" + TimeUnit.NANOSECONDS.toMillis(mMaxNanos) + "ms";
+    }
+
+    private static String formatBound(long millis) {
+        return millis == Long.MAX_VALUE ? "inf" : millis + "ms";
+    }
+}
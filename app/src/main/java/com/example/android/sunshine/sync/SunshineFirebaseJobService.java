@@ -16,7 +16,7 @@
 package com.example.android.sunshine.sync;
 
 import android.content.Context;
-import android.os.AsyncTask;
+import android.support.v4.os.CancellationSignal;
 
 import com.firebase.jobdispatcher.Job;
 import com.firebase.jobdispatcher.JobParameters;
@@ -26,7 +26,8 @@ import com.firebase.jobdispatcher.RetryStrategy;
 
 public class SunshineFirebaseJobService extends JobService {
 
-    private AsyncTask<Void, Void, Void> mFetchWeatherTask;
+    /* Only used on the main thread, where onStartJob and onStopJob are called */
+    private SyncJobRunner.Job mSyncJob;
 
     /**
      * The entry point to your Job. Implementations should offload work to another thread of
@@ -34,35 +35,43 @@ public class SunshineFirebaseJobService extends JobService {
      *
      * This is called by the Job Dispatcher to tell us we should start our job. Keep in mind this
      * method is run on the application's main thread, so we need to offload work to a background
-     * thread.
+     * thread. The sync runs on SyncJobRunner's worker, which tells the Job Dispatcher once it is
+     * done.
      *
      * @return whether there is more work remaining.
      */
     @Override
     public boolean onStartJob(final JobParameters jobParameters) {
+        final Context context = getApplicationContext();
 
-        mFetchWeatherTask = new AsyncTask<Void, Void, Void>(){
-            @Override
-            protected Void doInBackground(Void... voids) {
-                Context context = getApplicationContext();
-                SunshineSyncTask.syncWeather(context);
-                jobFinished(jobParameters, false);
-                return null;
-            }
+        mSyncJob = SyncJobRunner.getInstance(context).start(jobParameters.getTag(),
+                new SyncJobRunner.Work() {
+                    @Override
+                    public boolean run(CancellationSignal signal) {
+                        SunshineSyncTask.syncWeather(context, signal);
+                        return false;
+                    }
+                },
+                new SyncJobRunner.Callback() {
+                    @Override
+                    public void onJobFinished(boolean needsReschedule) {
+                        jobFinished(jobParameters, needsReschedule);
+                        /*
+                         * Only now that this run of the job is over can it be replaced with one
+                         * on the interval the sync decided on, if that changed.
+                         */
+                        SunshineSyncUtils.applySyncInterval(context);
+                    }
+                });
 
-            @Override
-            protected void onPostExecute(Void aVoid) {
-                jobFinished(jobParameters, false);
-            }
-        };
-
-        mFetchWeatherTask.execute();
         return true;
     }
 
     /**
      * Called when the scheduling engine has decided to interrupt the execution of a running job,
      * most likely because the runtime constraints associated with the job are no longer satisfied.
+     * Canceling the sync stops its download or its write to the database, and leaves the stored
+     * forecast as it was.
      *
      * @return whether the job should be retried
      * @see Job.Builder#setRetryStrategy(RetryStrategy)
@@ -70,9 +79,7 @@ public class SunshineFirebaseJobService extends JobService {
      */
     @Override
     public boolean onStopJob(JobParameters jobParameters) {
-        if (mFetchWeatherTask != null) {
-            mFetchWeatherTask.cancel(true);
-        }
-        return true;
+        /* If the sync has already finished, jobFinished was called and there is nothing to retry */
+        return mSyncJob != null && mSyncJob.cancel();
     }
-}
\ No newline at end of file
+}
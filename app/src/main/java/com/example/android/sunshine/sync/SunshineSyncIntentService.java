@@ -31,5 +31,13 @@ public class SunshineSyncIntentService extends IntentService {
     @Override
     protected void onHandleIntent(Intent intent) {
         SunshineSyncTask.syncWeather(this);
+        /*
+         * This isn't the periodic job, so a new interval can be applied right away. Unless the
+         * job is running too, as this sync may have waited for the job's, in which case the job
+         * applies it once it has reported back.
+         */
+        if (!SyncJobRunner.getInstance(this).hasPendingJobs()) {
+            SunshineSyncUtils.applySyncInterval(this);
+        }
     }
 }
\ No newline at end of file
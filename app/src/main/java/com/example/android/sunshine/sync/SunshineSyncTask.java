@@ -18,10 +18,17 @@ package com.example.android.sunshine.sync;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.os.Build;
+import android.support.v4.os.CancellationSignal;
+import android.support.v4.os.OperationCanceledException;
 import android.text.format.DateUtils;
+import android.util.Log;
 
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.data.WeatherContract.SyncMetricsEntry;
 import com.example.android.sunshine.utilities.NetworkUtils;
 import com.example.android.sunshine.utilities.NotificationUtils;
 import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
@@ -30,89 +37,228 @@ import java.net.URL;
 
 public class SunshineSyncTask {
 
+    private static final String TAG = SunshineSyncTask.class.getSimpleName();
+
     /**
      * Performs the network request for updated weather, parses the JSON from that request, and
      * inserts the new weather information into our ContentProvider. Will notify the user that new
      * weather has been loaded if the user hasn't been notified of the weather within the last day
      * AND they haven't disabled notifications in the preferences screen.
+     * <p>
+     * Syncs go through {@link SyncCoordinator}, so if one is already running this waits for it
+     * rather than downloading the forecast again, and a forecast that was synced recently isn't
+     * synced at all. How long each stage of the sync takes, and which one failed if the sync did,
+     * is recorded with {@link SyncMetrics}.
      *
      * @param context Used to access utility methods and the ContentResolver
      */
-    synchronized public static void syncWeather(Context context) {
+    public static void syncWeather(Context context) {
+        syncWeather(context, null);
+    }
 
+    /**
+     * Cancellable version of {@link #syncWeather(Context)}. Canceling the signal stops the
+     * download if it is still running, and otherwise the sync before its next stage. If the
+     * forecast is being stored, the calling thread must also be interrupted for that to stop,
+     * which rolls the store back. Either way, the stored forecast is left as it was.
+     *
+     * @param context Used to access utility methods and the ContentResolver
+     * @param signal  Cancels the sync, may be null
+     */
+    public static void syncWeather(Context context, CancellationSignal signal) {
+        /*
+         * The getUrl method will return the URL that we need to get the forecast JSON for the
+         * weather. It will decide whether to create a URL based off of the latitude and
+         * longitude or off of a simple location as a String.
+         */
+        SyncCoordinator.getInstance().sync(context, NetworkUtils.getUrl(context),
+                SyncWithWearableTask.getInstance(context), signal);
+    }
+
+    /**
+     * Syncs the weather from the given URL, and pushes it through the given wearable task. Stops
+     * early if the signal is canceled, see {@link #syncWeather(Context, CancellationSignal)}. Only
+     * SyncCoordinator, which makes sure two syncs never run at once, and tests call this.
+     *
+     * @return What happened during the sync, as recorded with SyncMetrics
+     */
+    static SyncRecord syncWeather(Context context, URL weatherRequestUrl,
+                                  SyncWithWearableTask wearableTask, CancellationSignal signal) {
+        SyncRecord record = new SyncRecord();
         try {
-            /*
-             * The getUrl method will return the URL that we need to get the forecast JSON for the
-             * weather. It will decide whether to create a URL based off of the latitude and
-             * longitude or off of a simple location as a String.
-             */
-            URL weatherRequestUrl = NetworkUtils.getUrl(context);
+            record.finish(performSync(context, weatherRequestUrl, wearableTask, signal, record));
+        } catch (Exception e) {
+            if (signal != null && signal.isCanceled()) {
+                /* Whatever the stage threw, it was because it was stopped */
+                Log.d(TAG, "Sync canceled");
+                record.cancel(e);
+            } else {
+                /* Server probably invalid */
+                Log.e(TAG, "Sync failed", e);
+                record.fail(e);
+            }
+        }
 
-            /* Use the URL to retrieve the JSON */
-            String jsonWeatherResponse = NetworkUtils.getResponseFromHttpUrl(weatherRequestUrl);
+        /* Sync more or less often from now on, depending on how much the forecast changed */
+        SunshineSyncUtils.adaptSyncInterval(context, record);
 
-            /* Parse the JSON into a list of weather values */
-            ContentValues[] weatherValues = OpenWeatherJsonUtils
-                    .getWeatherContentValuesFromJson(context, jsonWeatherResponse);
+        SyncMetrics.getInstance(context).record(record);
+        return record;
+    }
 
+    /**
+     * Runs every stage of the sync, timing each of them in the given record.
+     *
+     * @return How the sync ended, one of the OUTCOME_ constants of SyncMetricsEntry
+     */
+    private static String performSync(Context context, URL weatherRequestUrl,
+                                      SyncWithWearableTask wearableTask,
+                                      CancellationSignal signal, SyncRecord record)
+            throws Exception {
+        /*
+         * Use the URL to retrieve the JSON. If the server tells us the forecast we already
+         * have is still current, there is nothing to parse, store or push to the wearable.
+         */
+        beginStage(record, SyncMetrics.STAGE_FETCH, signal);
+        if (NetworkUtils.isForecastFresh(context, weatherRequestUrl)) {
             /*
-             * In cases where our JSON contained an error code, getWeatherContentValuesFromJson
-             * would have returned null. We need to check for those cases here to prevent any
-             * NullPointerExceptions being thrown. We also have no reason to insert fresh data if
-             * there isn't any to insert.
+             * The server's max-age hasn't run out, so it isn't asked at all. That says nothing
+             * about how often the forecast changes, so the change is left unknown, which keeps
+             * the sync interval as it is.
              */
-            if (weatherValues != null && weatherValues.length != 0) {
-                /*Sync data with wearable */
-                (new SyncWithWearableTask(weatherValues,context)).synchWithWearable();
-                /* Get a handle on the ContentResolver to delete and insert data */
-                ContentResolver sunshineContentResolver = context.getContentResolver();
-
-                /* Delete old weather data because we don't need to keep multiple days' data */
-                sunshineContentResolver.delete(
-                        WeatherContract.WeatherEntry.CONTENT_URI,
-                        null,
-                        null);
-
-                /* Insert our new weather data into Sunshine's ContentProvider */
-                sunshineContentResolver.bulkInsert(
-                        WeatherContract.WeatherEntry.CONTENT_URI,
-                        weatherValues);
-
-                /*
-                 * Finally, after we insert data into the ContentProvider, determine whether or not
-                 * we should notify the user that the weather has been refreshed.
-                 */
-                boolean notificationsEnabled = SunshinePreferences.areNotificationsEnabled(context);
-
-                /*
-                 * If the last notification was shown was more than 1 day ago, we want to send
-                 * another notification to the user that the weather has been updated. Remember,
-                 * it's important that you shouldn't spam your users with notifications.
-                 */
-                long timeSinceLastNotification = SunshinePreferences
-                        .getEllapsedTimeSinceLastNotification(context);
-
-                boolean oneDayPassedSinceLastNotification = false;
-
-                if (timeSinceLastNotification >= DateUtils.DAY_IN_MILLIS) {
-                    oneDayPassedSinceLastNotification = true;
-                }
-
-                /*
-                 * We only want to show the notification if the user wants them shown and we
-                 * haven't shown a notification in the past day.
-                 */
-                if (notificationsEnabled && oneDayPassedSinceLastNotification) {
-                    NotificationUtils.notifyUserOfNewWeather(context);
-                }
-
-            /* If the code reaches this point, we have successfully performed our sync */
+            return SyncMetricsEntry.OUTCOME_NOT_MODIFIED;
+        }
+        NetworkUtils.ResponseBody weatherResponse =
+                NetworkUtils.getResponseBodyIfModified(context, weatherRequestUrl, signal);
+        if (weatherResponse == null) {
+            /* The server answered 304 Not Modified, so the forecast really hasn't changed */
+            record.forecastChange = SyncIntervalPolicy.CHANGE_NONE;
+            return SyncMetricsEntry.OUTCOME_NOT_MODIFIED;
+        }
+        record.bytesFetched = weatherResponse.getLength();
 
+        /* Parse the JSON into a list of weather values */
+        beginStage(record, SyncMetrics.STAGE_PARSE, signal);
+        ContentValues[] weatherValues;
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                /* JsonReader is available, so parse the bytes without a String in between */
+                weatherValues = OpenWeatherJsonUtils.getWeatherContentValuesFromStream(
+                        context, weatherResponse.openStream());
+            } else {
+                weatherValues = OpenWeatherJsonUtils.getWeatherContentValuesFromJson(
+                        context, weatherResponse.asString());
             }
+        } finally {
+            weatherResponse.release();
+        }
 
-        } catch (Exception e) {
-            /* Server probably invalid */
-            e.printStackTrace();
+        /*
+         * In cases where our JSON contained an error code, getWeatherContentValuesFromJson
+         * would have returned null. We need to check for those cases here to prevent any
+         * NullPointerExceptions being thrown. We also have no reason to insert fresh data if
+         * there isn't any to insert.
+         */
+        if (weatherValues == null || weatherValues.length == 0) {
+            return SyncMetricsEntry.OUTCOME_NO_DATA;
+        }
+        record.daysParsed = weatherValues.length;
+
+        /* Get a handle on the ContentResolver to store the data */
+        beginStage(record, SyncMetrics.STAGE_STORE, signal);
+        ContentResolver sunshineContentResolver = context.getContentResolver();
+
+        /* Keep the forecast we had, to tell how much the new one changed once it is stored */
+        ContentValues[] storedValues = readStoredForecast(sunshineContentResolver);
+
+        /*
+         * Replace the stored forecast with the new one. Reconciling only writes the days
+         * that changed and removes days we don't need anymore, so the forecast list is
+         * reloaded once, and only if something actually changed.
+         */
+        sunshineContentResolver.bulkInsert(
+                WeatherContract.WeatherEntry.RECONCILE_URI,
+                weatherValues);
+
+        /* Now that the forecast is stored, later syncs can ask if it has changed */
+        NetworkUtils.saveResponseValidators(context, weatherResponse);
+        record.forecastChange = SyncIntervalPolicy.classifyChange(storedValues, weatherValues);
+
+        /*
+         * Hand the forecast to the wearable channel, which pushes it in the background. Only a
+         * stored forecast is handed over, so the wearable never shows one the phone doesn't have.
+         * Like the notification, this is done even if the sync was canceled in the meantime.
+         */
+        record.beginStage(SyncMetrics.STAGE_WEARABLE);
+        wearableTask.synchWithWearable(weatherValues);
+
+        /*
+         * Finally, after we insert data into the ContentProvider, determine whether or not
+         * we should notify the user that the weather has been refreshed. The forecast is
+         * stored by now, so this is done even if the sync was canceled in the meantime.
+         */
+        record.beginStage(SyncMetrics.STAGE_NOTIFY);
+        boolean notificationsEnabled = SunshinePreferences.areNotificationsEnabled(context);
+
+        /*
+         * If the last notification was shown was more than 1 day ago, we want to send
+         * another notification to the user that the weather has been updated. Remember,
+         * it's important that you shouldn't spam your users with notifications.
+         */
+        long timeSinceLastNotification = SunshinePreferences
+                .getEllapsedTimeSinceLastNotification(context);
+
+        boolean oneDayPassedSinceLastNotification = false;
+
+        if (timeSinceLastNotification >= DateUtils.DAY_IN_MILLIS) {
+            oneDayPassedSinceLastNotification = true;
+        }
+
+        /*
+         * We only want to show the notification if the user wants them shown and we
+         * haven't shown a notification in the past day.
+         */
+        if (notificationsEnabled && oneDayPassedSinceLastNotification) {
+            NotificationUtils.notifyUserOfNewWeather(context);
+        }
+
+        /* If the code reaches this point, we have successfully performed our sync */
+        return SyncMetricsEntry.OUTCOME_SUCCESS;
+    }
+
+    /**
+     * Starts timing the next stage, unless the sync has been canceled.
+     *
+     * @throws OperationCanceledException If the signal was canceled
+     */
+    private static void beginStage(SyncRecord record, int stage, CancellationSignal signal) {
+        record.beginStage(stage);
+        if (signal != null) {
+            signal.throwIfCanceled();
+        }
+    }
+
+    /**
+     * @return Every day of the stored forecast from today onwards, or null if it can't be read
+     */
+    private static ContentValues[] readStoredForecast(ContentResolver contentResolver) {
+        Cursor cursor = contentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                null,
+                WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards(),
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) return null;
+
+        try {
+            ContentValues[] storedValues = new ContentValues[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                storedValues[i] = new ContentValues();
+                DatabaseUtils.cursorRowToContentValues(cursor, storedValues[i]);
+            }
+            return storedValues;
+        } finally {
+            cursor.close();
         }
     }
-}
\ No newline at end of file
+}
@@ -18,10 +18,12 @@ package com.example.android.sunshine.sync;
 import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
-import android.net.Uri;
 import android.support.annotation.NonNull;
+import android.util.Log;
 
+import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.BackgroundExecutor;
 import com.firebase.jobdispatcher.Constraint;
 import com.firebase.jobdispatcher.Driver;
 import com.firebase.jobdispatcher.FirebaseJobDispatcher;
@@ -30,31 +32,37 @@ import com.firebase.jobdispatcher.Job;
 import com.firebase.jobdispatcher.Lifetime;
 import com.firebase.jobdispatcher.Trigger;
 
-import java.util.concurrent.TimeUnit;
-
 public class SunshineSyncUtils {
 
+    private static final String TAG = SunshineSyncUtils.class.getSimpleName();
+
     /*
-     * Interval at which to sync with the weather. Use TimeUnit for convenience, rather than
-     * writing out a bunch of multiplication ourselves and risk making a silly mistake.
+     * The interval at which to sync with the weather isn't fixed. It starts at 3 hours and then
+     * adapts to how often the forecast changes, see SyncIntervalPolicy. Each sync may run up to
+     * a third of the interval late, which gives the system room to batch it with other work.
      */
-    private static final int SYNC_INTERVAL_HOURS = 3;
-    private static final int SYNC_INTERVAL_SECONDS = (int) TimeUnit.HOURS.toSeconds(SYNC_INTERVAL_HOURS);
-    private static final int SYNC_FLEXTIME_SECONDS = SYNC_INTERVAL_SECONDS / 3;
+    private static final int SYNC_FLEXTIME_DIVISOR = 3;
 
     private static boolean sInitialized;
 
+    /* Schedules the sync with FirebaseJobDispatcher. Null for Google Play, see setDriver. */
+    private static Driver sDriver;
+
     private static final String SUNSHINE_SYNC_TAG = "sunshine-sync";
 
     /**
-     * Schedules a repeating sync of Sunshine's weather data using FirebaseJobDispatcher.
+     * Schedules a repeating sync of Sunshine's weather data using FirebaseJobDispatcher. This
+     * replaces the job if it is already scheduled, and stops it if it is running, so it must
+     * not be called from inside the job, see {@link #applySyncInterval(Context)}.
      * @param context Context used to create the GooglePlayDriver that powers the
      *                FirebaseJobDispatcher
      */
     static void scheduleFirebaseJobDispatcherSync(@NonNull final Context context) {
 
-        Driver driver = new GooglePlayDriver(context);
-        FirebaseJobDispatcher dispatcher = new FirebaseJobDispatcher(driver);
+        int syncIntervalSeconds = (int) getSyncIntervalSeconds(context);
+        int syncFlextimeSeconds = syncIntervalSeconds / SYNC_FLEXTIME_DIVISOR;
+
+        FirebaseJobDispatcher dispatcher = new FirebaseJobDispatcher(getDriver(context));
 
         /* Create the Job to periodically sync Sunshine */
         Job syncSunshineJob = dispatcher.newJobBuilder()
@@ -79,15 +87,16 @@ public class SunshineSyncUtils {
                  */
                 .setRecurring(true)
                 /*
-                 * We want the weather data to be synced every 3 to 4 hours. The first argument for
+                 * We want the weather data to be synced once every interval, or up to the
+                 * flextime later (every 3 to 4 hours to begin with). The first argument for
                  * Trigger's static executionWindow method is the start of the time frame when the
                  * sync should be performed. The second argument is the latest point in time at
                  * which the data should be synced. Please note that this end time is not
                  * guaranteed, but is more of a guideline for FirebaseJobDispatcher to go off of.
                  */
                 .setTrigger(Trigger.executionWindow(
-                        SYNC_INTERVAL_SECONDS,
-                        SYNC_INTERVAL_SECONDS + SYNC_FLEXTIME_SECONDS))
+                        syncIntervalSeconds,
+                        syncIntervalSeconds + syncFlextimeSeconds))
                 /*
                  * If a Job with the tag with provided already exists, this new job will replace
                  * the old one.
@@ -97,8 +106,86 @@ public class SunshineSyncUtils {
                 .build();
 
         /* Schedule the Job with the dispatcher */
-        dispatcher.schedule(syncSunshineJob);
+        int result = dispatcher.schedule(syncSunshineJob);
+        if (result == FirebaseJobDispatcher.SCHEDULE_RESULT_SUCCESS) {
+            SunshinePreferences.saveScheduledSyncIntervalSeconds(context, syncIntervalSeconds);
+        } else {
+            Log.w(TAG, "Couldn't schedule the sync, result " + result);
+        }
+    }
+
+    /**
+     * Works out the interval of the periodic sync from how much the forecast changed in a sync
+     * that just ran, and saves it if it changed. The decision is stored in the record, so it is
+     * recorded with the rest of the sync's metrics.
+     * <p>
+     * The sync isn't rescheduled here. This runs inside the sync's job, and replacing the job
+     * would stop it, losing what it reports when it finishes. The new interval is applied by
+     * {@link #applySyncInterval(Context)} once the job has finished instead.
+     *
+     * @param context Context used to store the interval
+     * @param record  The sync that just ran
+     */
+    static void adaptSyncInterval(@NonNull Context context, @NonNull SyncRecord record) {
+        long intervalSeconds = getSyncIntervalSeconds(context);
+        long nextIntervalSeconds = SyncIntervalPolicy.getNextIntervalSeconds(intervalSeconds,
+                record.forecastChange);
+        record.previousSyncIntervalSeconds = intervalSeconds;
+        record.syncIntervalSeconds = nextIntervalSeconds;
+
+        if (nextIntervalSeconds == intervalSeconds) return;
+
+        Log.i(TAG, "Sync interval changed from " + intervalSeconds + "s to "
+                + nextIntervalSeconds + "s after a "
+                + SyncIntervalPolicy.getChangeName(record.forecastChange) + " forecast change");
+        SunshinePreferences.saveSyncIntervalSeconds(context, nextIntervalSeconds);
+    }
+
+    /**
+     * Reschedules the periodic sync if a sync has changed its interval since it was last
+     * scheduled. Called once a sync is over: by the job service after the job has reported back,
+     * so nothing the job reported is lost, and by the immediate sync service, which doesn't run
+     * inside the job. The window of the new interval starts from the end of the sync.
+     *
+     * @param context Context used to reschedule the sync
+     */
+    static void applySyncInterval(@NonNull Context context) {
+        if (isSyncRescheduleNeeded(context)) {
+            scheduleFirebaseJobDispatcherSync(context);
+        }
     }
+
+    /**
+     * Replaces the Google Play driver the sync is scheduled with. Only used by tests, which
+     * shouldn't schedule a real job, and may run where Google Play services aren't available.
+     *
+     * @param driver The driver to schedule with, or null to go back to Google Play
+     */
+    synchronized static void setDriver(Driver driver) {
+        sDriver = driver;
+    }
+
+    private synchronized static Driver getDriver(Context context) {
+        return sDriver != null ? sDriver : new GooglePlayDriver(context);
+    }
+
+    /**
+     * @return true if the periodic sync isn't scheduled with the interval it should run at
+     */
+    static boolean isSyncRescheduleNeeded(@NonNull Context context) {
+        return SunshinePreferences.getScheduledSyncIntervalSeconds(context)
+                != getSyncIntervalSeconds(context);
+    }
+
+    /**
+     * @return The interval the periodic sync is scheduled with, in seconds
+     */
+    private static long getSyncIntervalSeconds(Context context) {
+        long intervalSeconds = SunshinePreferences.getSyncIntervalSeconds(context);
+        return intervalSeconds == 0 ? SyncIntervalPolicy.DEFAULT_INTERVAL_SECONDS
+                : intervalSeconds;
+    }
+
     /**
      * Creates periodic sync tasks and checks to see if an immediate sync is required. If an
      * immediate sync is required, this method will take care of making sure that sync occurs.
@@ -125,58 +212,70 @@ public class SunshineSyncUtils {
         /*
          * We need to check to see if our ContentProvider has data to display in our forecast
          * list. However, performing a query on the main thread is a bad idea as this may
-         * cause our UI to lag. Therefore, we create a thread in which we will run the query
-         * to check the contents of our ContentProvider.
+         * cause our UI to lag. Therefore, we run the query on the app's background thread,
+         * which is shared with other short tasks rather than started just for this.
          */
-        Thread checkForEmpty = new Thread(new Runnable() {
+        BackgroundExecutor.getInstance().execute(new Runnable() {
             @Override
             public void run() {
-
-                /* URI for every row of weather data in our weather table*/
-                Uri forecastQueryUri = WeatherContract.WeatherEntry.CONTENT_URI;
-
-                /*
-                 * Since this query is going to be used only as a check to see if we have any
-                 * data (rather than to display data), we just need to PROJECT the ID of each
-                 * row. In our queries where we display data, we need to PROJECT more columns
-                 * to determine what weather details need to be displayed.
-                 */
-                String[] projectionColumns = {WeatherContract.WeatherEntry._ID};
-                String selectionStatement = WeatherContract.WeatherEntry
-                        .getSqlSelectForTodayOnwards();
-
-                /* Here, we perform the query to check to see if we have any weather data */
-                Cursor cursor = context.getContentResolver().query(
-                        forecastQueryUri,
-                        projectionColumns,
-                        selectionStatement,
-                        null,
-                        null);
-                /*
-                 * A Cursor object can be null for various different reasons. A few are
-                 * listed below.
-                 *
-                 *   1) Invalid URI
-                 *   2) A certain ContentProvider's query method returns null
-                 *   3) A RemoteException was thrown.
-                 *
-                 * Bottom line, it is generally a good idea to check if a Cursor returned
-                 * from a ContentResolver is null.
-                 *
-                 * If the Cursor was null OR if it was empty, we need to sync immediately to
-                 * be able to display data to the user.
-                 */
-                if (null == cursor || cursor.getCount() == 0) {
+                if (!isForecastStored(context)) {
+                    /*
+                     * Whatever forecast the saved cache validators describe is gone, so make
+                     * sure the server sends us a full forecast rather than a 304.
+                     */
+                    SunshinePreferences.resetForecastValidators(context);
                     startImmediateSync(context);
                 }
-
-                /* Make sure to close the Cursor to avoid memory leaks! */
-                cursor.close();
             }
         });
+    }
+
+    /**
+     * Lets {@link #initialize(Context)} run again, as it would in a new process. Only used by
+     * tests that measure how long the app takes to start.
+     */
+    synchronized static void resetInitialized() {
+        sInitialized = false;
+    }
+
+    /**
+     * Checks whether there is any weather from today onwards to show in the forecast list. This
+     * asks the ContentProvider whether such weather exists, rather than reading and counting it,
+     * so SQLite stops at the first row it finds. Don't call this on the main thread.
+     *
+     * @param context Context used to access the ContentResolver
+     * @return true if there is weather to show, false if there isn't or it can't be told
+     */
+    static boolean isForecastStored(@NonNull Context context) {
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.WeatherEntry.EXISTS_URI,
+                null,
+                WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards(),
+                null,
+                null);
+
+        /*
+         * A Cursor object can be null for various different reasons. A few are
+         * listed below.
+         *
+         *   1) Invalid URI
+         *   2) A certain ContentProvider's query method returns null
+         *   3) A RemoteException was thrown.
+         *
+         * Bottom line, it is generally a good idea to check if a Cursor returned
+         * from a ContentResolver is null. If it is, we treat the forecast as missing, and
+         * sync immediately to be able to display data to the user.
+         */
+        if (cursor == null) {
+            return false;
+        }
 
-        /* Finally, once the thread is prepared, fire it off to perform our checks. */
-        checkForEmpty.start();
+        /* Make sure to close the Cursor to avoid memory leaks! */
+        try {
+            return cursor.moveToFirst() && cursor.getInt(0) != 0;
+        } finally {
+            cursor.close();
+        }
     }
 
     /**
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.support.v4.os.CancellationSignal;
+import android.util.Log;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+
+import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Makes sure a forecast is only downloaded once, however many syncs are asked for at the same
+ * time. Opening the app, the periodic job and the check for an empty database can all ask for a
+ * sync within moments of each other.
+ * <p>
+ * A sync that is asked for while another one is running for the same URL doesn't download the
+ * forecast again, but waits for the running one and shares its result. A sync for another URL,
+ * such as after the user changed their location, waits for the running one and then downloads
+ * its own forecast. Once a forecast has been synced, further syncs for the same URL are skipped
+ * until it is older than the minimum sync interval.
+ * <p>
+ * Only whoever started a sync can cancel it, and if they do, everyone waiting for it is told it
+ * was canceled. Anyone else waiting can stop waiting by interrupting their thread.
+ */
+final class SyncCoordinator {
+
+    private static final String TAG = SyncCoordinator.class.getSimpleName();
+
+    /*
+     * A forecast synced less than this long ago is considered current, whatever the server said
+     * about its freshness. The forecast is only given per day, so nothing is lost by waiting.
+     */
+    private static final long MIN_SYNC_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(15);
+
+    private static final Object sLock = new Object();
+    private static SyncCoordinator sInstance;
+
+    private final long mMinSyncIntervalMillis;
+
+    private final Object mLock = new Object();
+
+    /* Guarded by mLock. The running sync and the URL it downloads from, or null. */
+    private FutureTask<SyncRecord> mInFlight;
+    private String mInFlightUrl;
+
+    /* Guarded by mLock. How many syncs were asked for, and what became of them. */
+    private long mStartedCount;
+    private long mJoinedCount;
+    private long mSkippedCount;
+
+    /**
+     * @return The instance every sync of this process goes through
+     */
+    static SyncCoordinator getInstance() {
+        synchronized (sLock) {
+            if (sInstance == null) {
+                sInstance = new SyncCoordinator(MIN_SYNC_INTERVAL_MILLIS);
+            }
+            return sInstance;
+        }
+    }
+
+    SyncCoordinator(long minSyncIntervalMillis) {
+        mMinSyncIntervalMillis = minSyncIntervalMillis;
+    }
+
+    /**
+     * Syncs the forecast from the given URL on the calling thread, unless a sync for that URL is
+     * already running, in which case this waits for it, or the forecast we have from that URL
+     * was synced within the minimum sync interval.
+     *
+     * @param context      Used to access SharedPreferences and the ContentResolver
+     * @param url          The URL to download the forecast from
+     * @param wearableTask Pushes the forecast to the wearable
+     * @param signal       Cancels the sync, if this call is the one that starts it. May be null.
+     * @return What happened during the sync this call started or joined, or null if no sync
+     * was needed or the thread was interrupted while waiting
+     */
+    SyncRecord sync(final Context context, final URL url,
+                    final SyncWithWearableTask wearableTask, final CancellationSignal signal) {
+        /* URL#equals resolves host names, so URLs are compared as Strings */
+        String urlString = String.valueOf(url);
+
+        FutureTask<SyncRecord> task;
+        boolean started = false;
+        try {
+            while (true) {
+                FutureTask<SyncRecord> other;
+                synchronized (mLock) {
+                    if (mInFlight == null) {
+                        if (isFresh(context, urlString)) {
+                            mSkippedCount++;
+                            Log.d(TAG, "Forecast was synced recently, not syncing " + urlString);
+                            return null;
+                        }
+
+                        task = new FutureTask<>(new Callable<SyncRecord>() {
+                            @Override
+                            public SyncRecord call() {
+                                return SunshineSyncTask.syncWeather(context, url, wearableTask,
+                                        signal);
+                            }
+                        });
+                        mInFlight = task;
+                        mInFlightUrl = urlString;
+                        mStartedCount++;
+                        started = true;
+                        break;
+                    }
+
+                    if (mInFlightUrl.equals(urlString)) {
+                        task = mInFlight;
+                        mJoinedCount++;
+                        break;
+                    }
+
+                    other = mInFlight;
+                }
+
+                /* Another location is being synced. Let it finish, then sync this one. */
+                awaitQuietly(other);
+            }
+
+            if (started) {
+                try {
+                    task.run();
+                } finally {
+                    synchronized (mLock) {
+                        mInFlight = null;
+                        mInFlightUrl = null;
+                    }
+                }
+            }
+
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            /* SunshineSyncTask catches whatever a sync throws, so this is a bug */
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /** @return How many syncs this coordinator actually ran */
+    long getStartedCount() {
+        synchronized (mLock) {
+            return mStartedCount;
+        }
+    }
+
+    /** @return How many syncs shared the result of one that was already running */
+    long getJoinedCount() {
+        synchronized (mLock) {
+            return mJoinedCount;
+        }
+    }
+
+    /** @return How many syncs were skipped as the forecast was synced recently */
+    long getSkippedCount() {
+        synchronized (mLock) {
+            return mSkippedCount;
+        }
+    }
+
+    /**
+     * @return true if the forecast from the given URL was synced within the minimum sync
+     * interval. A sync time in the future means the clock was turned back, and isn't trusted.
+     */
+    private boolean isFresh(Context context, String url) {
+        long syncedAt = SunshinePreferences.getForecastSyncedAt(context, url);
+        long sinceSync = System.currentTimeMillis() - syncedAt;
+        return syncedAt != 0 && sinceSync >= 0 && sinceSync < mMinSyncIntervalMillis;
+    }
+
+    private static void awaitQuietly(FutureTask<SyncRecord> task) throws InterruptedException {
+        try {
+            task.get();
+        } catch (ExecutionException e) {
+            /* Whoever started it deals with that */
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.ContentValues;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how long to wait before the next periodic sync, from how much the forecast changed in
+ * the last one. A forecast that comes back unchanged time after time is synced less and less
+ * often, up to MAX_INTERVAL_SECONDS apart. One whose next couple of days keep moving is synced
+ * more often, down to MIN_INTERVAL_SECONDS apart. Anything in between leaves the interval as it
+ * is, and so does a sync that didn't get a forecast, since that says nothing about the weather.
+ * <p>
+ * The policy only does arithmetic, so that it can be replayed against recorded forecasts. See
+ * SunshineSyncUtils for where its decisions are applied and stored.
+ */
+final class SyncIntervalPolicy {
+
+    /* The interval Sunshine used to sync at, and starts at before any sync has been made */
+    static final long DEFAULT_INTERVAL_SECONDS = TimeUnit.HOURS.toSeconds(3);
+
+    /* The interval never goes below or above these */
+    static final long MIN_INTERVAL_SECONDS = TimeUnit.HOURS.toSeconds(1);
+    static final long MAX_INTERVAL_SECONDS = TimeUnit.HOURS.toSeconds(12);
+
+    /* The sync didn't get a forecast, because it failed, was canceled or had no data */
+    static final int CHANGE_UNKNOWN = -1;
+    /* The server sent back the same forecast, or told us it hadn't changed */
+    static final int CHANGE_NONE = 0;
+    /* Some days changed, but not enough to matter in the next NEAR_TERM_DAYS */
+    static final int CHANGE_MINOR = 1;
+    /* The weather, or the temperatures, of the next NEAR_TERM_DAYS changed noticeably */
+    static final int CHANGE_VOLATILE = 2;
+
+    private static final String[] CHANGE_NAMES = {
+            "none",
+            "minor",
+            "volatile",
+    };
+
+    /* Today and tomorrow, the days people look at the most */
+    static final int NEAR_TERM_DAYS = 2;
+
+    /* A near-term high or low that moves by this much, in degrees Celsius, is volatile */
+    static final double VOLATILE_TEMPERATURE_DELTA = 2.0;
+
+    /* The columns compared to tell if a day changed at all */
+    private static final String[] COMPARED_COLUMNS = {
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+    };
+
+    private SyncIntervalPolicy() {
+    }
+
+    /**
+     * @param currentSeconds The interval the last sync was scheduled with
+     * @param change         How much the forecast changed in the sync, one of the CHANGE_
+     *                       constants
+     * @return The interval to schedule the next sync with, in seconds
+     */
+    static long getNextIntervalSeconds(long currentSeconds, int change) {
+        long nextSeconds;
+        switch (change) {
+            case CHANGE_NONE:
+                /* Widen by half each time, so it takes a few quiet syncs to reach the maximum */
+                nextSeconds = currentSeconds + currentSeconds / 2;
+                break;
+
+            case CHANGE_VOLATILE:
+                nextSeconds = currentSeconds / 2;
+                break;
+
+            default:
+                nextSeconds = currentSeconds;
+                break;
+        }
+        return Math.max(MIN_INTERVAL_SECONDS, Math.min(MAX_INTERVAL_SECONDS, nextSeconds));
+    }
+
+    /**
+     * Compares a forecast with the one it replaces, matching their days by date. Days that only
+     * one of them has, such as yesterday or the last day of the new forecast, don't count.
+     *
+     * @param previous The forecast that was stored, may be null or empty if there wasn't one
+     * @param next     The new forecast, in order of date as the server sends it
+     * @return One of the CHANGE_ constants. CHANGE_MINOR if there was nothing to compare with.
+     */
+    static int classifyChange(ContentValues[] previous, ContentValues[] next) {
+        if (previous == null || previous.length == 0 || next == null || next.length == 0) {
+            return CHANGE_MINOR;
+        }
+
+        HashMap<Long, ContentValues> previousByDate = new HashMap<>();
+        for (ContentValues day : previous) {
+            previousByDate.put(day.getAsLong(WeatherEntry.COLUMN_DATE), day);
+        }
+
+        boolean changed = false;
+        for (int i = 0; i < next.length; i++) {
+            ContentValues nextDay = next[i];
+            ContentValues previousDay = previousByDate.get(
+                    nextDay.getAsLong(WeatherEntry.COLUMN_DATE));
+            if (previousDay == null) continue;
+
+            if (i < NEAR_TERM_DAYS && isVolatile(previousDay, nextDay)) {
+                return CHANGE_VOLATILE;
+            }
+            changed = changed || !isSame(previousDay, nextDay);
+        }
+        return changed ? CHANGE_MINOR : CHANGE_NONE;
+    }
+
+    /** @return The name of a CHANGE_ constant, for logs */
+    static String getChangeName(int change) {
+        return change == CHANGE_UNKNOWN ? "unknown" : CHANGE_NAMES[change];
+    }
+
+    private static boolean isVolatile(ContentValues previousDay, ContentValues nextDay) {
+        return !equal(previousDay, nextDay, WeatherEntry.COLUMN_WEATHER_ID)
+                || getDelta(previousDay, nextDay, WeatherEntry.COLUMN_MAX_TEMP)
+                        >= VOLATILE_TEMPERATURE_DELTA
+                || getDelta(previousDay, nextDay, WeatherEntry.COLUMN_MIN_TEMP)
+                        >= VOLATILE_TEMPERATURE_DELTA;
+    }
+
+    private static boolean isSame(ContentValues previousDay, ContentValues nextDay) {
+        for (String column : COMPARED_COLUMNS) {
+            if (!equal(previousDay, nextDay, column)) return false;
+        }
+        return true;
+    }
+
+    /*
+     * Values are compared as doubles, since a forecast read back from the database doesn't have
+     * the same types as one that was just parsed.
+     */
+    private static boolean equal(ContentValues previousDay, ContentValues nextDay,
+                                 String column) {
+        Double previousValue = previousDay.getAsDouble(column);
+        Double nextValue = nextDay.getAsDouble(column);
+        return previousValue == null ? nextValue == null : previousValue.equals(nextValue);
+    }
+
+    private static double getDelta(ContentValues previousDay, ContentValues nextDay,
+                                   String column) {
+        Double previousValue = previousDay.getAsDouble(column);
+        Double nextValue = nextDay.getAsDouble(column);
+        if (previousValue == null || nextValue == null) {
+            return previousValue == nextValue ? 0 : Double.POSITIVE_INFINITY;
+        }
+        return Math.abs(nextValue - previousValue);
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.os.Process;
+import android.support.v4.os.CancellationSignal;
+import android.util.Log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the work of scheduled sync jobs on a worker thread of its own, rather than on AsyncTask's
+ * executor that the rest of the app shares. Only a few jobs can wait for the worker at a time;
+ * a job that doesn't fit is finished straight away and asks to be rescheduled.
+ * <p>
+ * A job can be canceled whether it is waiting or running. Its work is given a
+ * {@link CancellationSignal} that is canceled, and its thread is interrupted, so the work can
+ * stop wherever it is blocked. Either way, the job reports that it finished exactly once: when
+ * its work ends, or never if it was canceled first.
+ */
+final class SyncJobRunner {
+
+    private static final String TAG = SyncJobRunner.class.getSimpleName();
+
+    /* Syncs download and store one forecast at a time, so more workers wouldn't be any faster */
+    private static final int WORKER_COUNT = 1;
+
+    /* Jobs that can wait for the worker. The periodic sync rarely overlaps with anything. */
+    private static final int QUEUE_CAPACITY = 4;
+
+    /**
+     * The work of a job, run on the worker thread.
+     */
+    interface Work {
+        /**
+         * @param signal Canceled if the job is, in which case the work should stop as soon as
+         *               it can. The thread is interrupted as well.
+         * @return true if the work didn't get done and the job should be tried again later
+         */
+        boolean run(CancellationSignal signal) throws Exception;
+    }
+
+    /**
+     * Told when a job finishes, on the worker thread. Never called for a canceled job.
+     */
+    interface Callback {
+        void onJobFinished(boolean needsReschedule);
+    }
+
+    private static final Object sLock = new Object();
+    private static SyncJobRunner sInstance;
+
+    private final ThreadPoolExecutor mExecutor;
+
+    /* Where the time jobs spend waiting and running is recorded */
+    private final SyncMetrics mMetrics;
+
+    /* How many jobs have been started and haven't finished or been canceled yet */
+    private final AtomicInteger mPendingJobCount = new AtomicInteger();
+
+    /**
+     * @return The runner every sync job of this process runs on
+     */
+    static SyncJobRunner getInstance(Context context) {
+        synchronized (sLock) {
+            if (sInstance == null) {
+                sInstance = new SyncJobRunner(SyncMetrics.getInstance(context),
+                        WORKER_COUNT, QUEUE_CAPACITY);
+            }
+            return sInstance;
+        }
+    }
+
+    SyncJobRunner(SyncMetrics metrics, int workerCount, int queueCapacity) {
+        mMetrics = metrics;
+        mExecutor = new ThreadPoolExecutor(workerCount, workerCount,
+                0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, TAG);
+                    }
+                });
+    }
+
+    /**
+     * Queues a job to run on the worker.
+     *
+     * @param name     Used to tell jobs apart in the log
+     * @param work     What the job does
+     * @param callback Told when the job finishes. If there is no room for the job, it is called
+     *                 right away, on the calling thread, asking for the job to be rescheduled.
+     * @return The job, which can be canceled
+     */
+    Job start(String name, Work work, Callback callback) {
+        Job job = new Job(name, work, callback, mMetrics, mPendingJobCount);
+        mPendingJobCount.incrementAndGet();
+        try {
+            job.mFuture = mExecutor.submit(job.mRunnable);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "No room for job " + name + ", asking for it to be rescheduled");
+            job.finish(true);
+        }
+        return job;
+    }
+
+    /**
+     * @return true if a job is waiting for the worker or running, and hasn't reported back yet
+     */
+    boolean hasPendingJobs() {
+        return mPendingJobCount.get() > 0;
+    }
+
+    /**
+     * Stops the worker. Only used by tests, which create their own runners.
+     */
+    void shutdownNow() {
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * A job that was started on the runner.
+     */
+    static final class Job {
+
+        private final String mName;
+        private final Work mWork;
+        private final Callback mCallback;
+        private final SyncMetrics mMetrics;
+        private final AtomicInteger mPendingJobCount;
+        private final CancellationSignal mSignal = new CancellationSignal();
+
+        /* Set once the job has reported that it finished, or has been canceled */
+        private final AtomicBoolean mDone = new AtomicBoolean();
+
+        /* System.nanoTime when the job was queued, started to run and ended */
+        private final long mQueuedNanos = System.nanoTime();
+        private volatile long mStartedNanos;
+        private volatile long mEndedNanos;
+
+        private volatile Future<?> mFuture;
+
+        private final Runnable mRunnable = new Runnable() {
+            @Override
+            public void run() {
+                runWork();
+            }
+        };
+
+        private Job(String name, Work work, Callback callback, SyncMetrics metrics,
+                    AtomicInteger pendingJobCount) {
+            mName = name;
+            mWork = work;
+            mCallback = callback;
+            mMetrics = metrics;
+            mPendingJobCount = pendingJobCount;
+        }
+
+        /**
+         * Cancels the job. If it is waiting for the worker, it won't run. If it is running, its
+         * work is signaled and interrupted. Either way, its callback won't be called.
+         *
+         * @return true if the job was stopped before it finished, false if it had already
+         * finished
+         */
+        boolean cancel() {
+            if (!mDone.compareAndSet(false, true)) {
+                return false;
+            }
+
+            Log.d(TAG, "Canceling job " + mName);
+            mPendingJobCount.decrementAndGet();
+            mSignal.cancel();
+            Future<?> future = mFuture;
+            if (future != null) {
+                future.cancel(true);
+            }
+            return true;
+        }
+
+        /** @return true if the job is done, because it finished or was canceled */
+        boolean isDone() {
+            return mDone.get();
+        }
+
+        /** @return How long the job waited for the worker in nanoseconds, -1 if it didn't run */
+        long getQueueWaitNanos() {
+            long started = mStartedNanos;
+            return started == 0 ? -1 : started - mQueuedNanos;
+        }
+
+        /** @return How long the job's work ran for, in nanoseconds, or -1 if it hasn't ended */
+        long getRunNanos() {
+            long started = mStartedNanos;
+            long ended = mEndedNanos;
+            return started == 0 || ended == 0 ? -1 : ended - started;
+        }
+
+        private void runWork() {
+            mStartedNanos = System.nanoTime();
+            boolean needsReschedule;
+            try {
+                needsReschedule = mWork.run(mSignal);
+            } catch (Exception e) {
+                if (!mSignal.isCanceled()) {
+                    Log.e(TAG, "Job " + mName + " failed", e);
+                }
+                needsReschedule = true;
+            } finally {
+                mEndedNanos = System.nanoTime();
+            }
+
+            long queueWaitNanos = getQueueWaitNanos();
+            long runNanos = getRunNanos();
+            Log.d(TAG, "Job " + mName + (mSignal.isCanceled() ? " canceled" : " finished")
+                    + " after waiting " + TimeUnit.NANOSECONDS.toMillis(queueWaitNanos)
+                    + "ms and running " + TimeUnit.NANOSECONDS.toMillis(runNanos) + "ms");
+            mMetrics.recordJob(queueWaitNanos, runNanos);
+
+            finish(needsReschedule);
+        }
+
+        /**
+         * Reports that the job finished, unless it already has or has been canceled.
+         */
+        private void finish(boolean needsReschedule) {
+            if (mDone.compareAndSet(false, true)) {
+                mPendingJobCount.decrementAndGet();
+                mCallback.onJobFinished(needsReschedule);
+            }
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract.SyncMetricsEntry;
+
+/**
+ * Keeps track of where the time of every sync goes. There is one instance per process, which
+ * every sync hands its {@link SyncRecord} to once it is done.
+ * <p>
+ * The counts and histograms kept in memory cover the syncs of this process. Each record is also
+ * written to the sync metrics table, which keeps the most recent syncs across restarts and can be
+ * read from {@link SyncMetricsEntry#CONTENT_URI} for debugging.
+ */
+final class SyncMetrics {
+
+    private static final String TAG = SyncMetrics.class.getSimpleName();
+
+    /* The stages of a sync, in the order SunshineSyncTask runs them */
+    static final int STAGE_FETCH = 0;
+    static final int STAGE_PARSE = 1;
+    /* Reconciling the weather table, which deletes and inserts in one bulkInsert */
+    static final int STAGE_STORE = 2;
+    static final int STAGE_WEARABLE = 3;
+    static final int STAGE_NOTIFY = 4;
+    static final int STAGE_COUNT = 5;
+
+    /* Not a stage, used where there is no stage to refer to */
+    static final int NO_STAGE = -1;
+
+    private static final String[] STAGE_NAMES = {
+            "fetch",
+            "parse",
+            "store",
+            "wearable",
+            "notify",
+    };
+
+    private static final Object sLock = new Object();
+    private static SyncMetrics sInstance;
+
+    private final Context mContext;
+
+    /* Guarded by this */
+    private final LatencyHistogram[] mStageHistograms = new LatencyHistogram[STAGE_COUNT];
+    private final LatencyHistogram mTotalHistogram = new LatencyHistogram();
+    private final long[] mStageFailureCounts = new long[STAGE_COUNT];
+    private long mSyncCount;
+    private long mNotModifiedCount;
+    private long mCanceledCount;
+
+    /* Guarded by this. How often a sync made SyncIntervalPolicy widen or narrow the interval. */
+    private long mIntervalWidenedCount;
+    private long mIntervalNarrowedCount;
+
+    /* Guarded by this. How long sync jobs waited for a worker, and then ran, see SyncJobRunner. */
+    private final LatencyHistogram mJobQueueHistogram = new LatencyHistogram();
+    private final LatencyHistogram mJobRunHistogram = new LatencyHistogram();
+
+    /**
+     * @return The instance every sync of this process records its metrics with
+     */
+    static SyncMetrics getInstance(Context context) {
+        synchronized (sLock) {
+            if (sInstance == null) {
+                sInstance = new SyncMetrics(context.getApplicationContext());
+            }
+            return sInstance;
+        }
+    }
+
+    private SyncMetrics(Context context) {
+        mContext = context;
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            mStageHistograms[stage] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * @return The name of a stage, as stored in the sync metrics table
+     */
+    static String getStageName(int stage) {
+        return stage == NO_STAGE ? "none" : STAGE_NAMES[stage];
+    }
+
+    /**
+     * Adds a finished sync to the counts and histograms, and writes it to the sync metrics
+     * table. Failing to write it is logged, but never fails the sync.
+     *
+     * @param record The sync, which must have finished
+     */
+    void record(SyncRecord record) {
+        synchronized (this) {
+            mSyncCount++;
+            for (int stage = 0; stage < STAGE_COUNT; stage++) {
+                long nanos = record.getStageNanos(stage);
+                if (nanos != SyncRecord.NOT_TIMED) {
+                    mStageHistograms[stage].record(nanos);
+                }
+            }
+            mTotalHistogram.record(record.getTotalNanos());
+
+            String outcome = record.getOutcome();
+            if (SyncMetricsEntry.OUTCOME_FAILED.equals(outcome)
+                    && record.getFailedStage() != NO_STAGE) {
+                mStageFailureCounts[record.getFailedStage()]++;
+            } else if (SyncMetricsEntry.OUTCOME_CANCELED.equals(outcome)) {
+                mCanceledCount++;
+            } else if (SyncMetricsEntry.OUTCOME_NOT_MODIFIED.equals(outcome)) {
+                mNotModifiedCount++;
+            }
+
+            if (record.syncIntervalSeconds > record.previousSyncIntervalSeconds) {
+                mIntervalWidenedCount++;
+            } else if (record.syncIntervalSeconds < record.previousSyncIntervalSeconds) {
+                mIntervalNarrowedCount++;
+            }
+        }
+
+        Log.d(TAG, "Sync " + record);
+
+        try {
+            mContext.getContentResolver()
+                    .insert(SyncMetricsEntry.CONTENT_URI, record.toContentValues());
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Couldn't store the metrics of the sync", e);
+        }
+    }
+
+    /**
+     * Adds a sync job that ran to the job histograms.
+     *
+     * @param queueNanos How long the job waited for a worker
+     * @param runNanos   How long the job then ran for
+     */
+    synchronized void recordJob(long queueNanos, long runNanos) {
+        mJobQueueHistogram.record(queueNanos);
+        mJobRunHistogram.record(runNanos);
+    }
+
+    /** @return How many syncs this process has recorded */
+    synchronized long getSyncCount() {
+        return mSyncCount;
+    }
+
+    /** @return How many syncs this process has recorded that failed in the given stage */
+    synchronized long getFailureCount(int stage) {
+        return mStageFailureCounts[stage];
+    }
+
+    /** @return How many syncs were canceled before they finished */
+    synchronized long getCanceledCount() {
+        return mCanceledCount;
+    }
+
+    /** @return How many syncs found the forecast we had was still current */
+    synchronized long getNotModifiedCount() {
+        return mNotModifiedCount;
+    }
+
+    /** @return How many syncs made the sync interval longer */
+    synchronized long getIntervalWidenedCount() {
+        return mIntervalWidenedCount;
+    }
+
+    /** @return How many syncs made the sync interval shorter */
+    synchronized long getIntervalNarrowedCount() {
+        return mIntervalNarrowedCount;
+    }
+
+    /**
+     * @return How long the given stage took, over every sync of this process that reached it.
+     * A stage that failed is counted with the time it took to fail.
+     */
+    synchronized LatencyHistogram getStageHistogram(int stage) {
+        return copy(mStageHistograms[stage]);
+    }
+
+    /** @return How long whole syncs took, over every sync of this process */
+    synchronized LatencyHistogram getTotalHistogram() {
+        return copy(mTotalHistogram);
+    }
+
+    /** @return How long sync jobs waited for a worker before they ran */
+    synchronized LatencyHistogram getJobQueueHistogram() {
+        return copy(mJobQueueHistogram);
+    }
+
+    /** @return How long sync jobs ran once they had a worker */
+    synchronized LatencyHistogram getJobRunHistogram() {
+        return copy(mJobRunHistogram);
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("syncs=").append(mSyncCount)
+                .append(" notModified=").append(mNotModifiedCount)
+                .append(" canceled=").append(mCanceledCount)
+                .append(" intervalWidened=").append(mIntervalWidenedCount)
+                .append(" intervalNarrowed=").append(mIntervalNarrowedCount)
+                .append(" total[").append(mTotalHistogram).append(']');
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            builder.append(' ').append(STAGE_NAMES[stage])
+                    .append("[").append(mStageHistograms[stage])
+                    .append(" failures=").append(mStageFailureCounts[stage]).append(']');
+        }
+        builder.append(" jobQueue[").append(mJobQueueHistogram).append(']')
+                .append(" jobRun[").append(mJobRunHistogram).append(']');
+        return builder.toString();
+    }
+
+    private static LatencyHistogram copy(LatencyHistogram histogram) {
+        LatencyHistogram copy = new LatencyHistogram();
+        copy.add(histogram);
+        return copy;
+    }
+}
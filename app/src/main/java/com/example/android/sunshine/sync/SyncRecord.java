@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.ContentValues;
+
+import com.example.android.sunshine.data.WeatherContract.SyncMetricsEntry;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What happened during one sync: how long each of its stages took, how it ended, and how much
+ * weather it brought in. A sync fills one in as it goes, on its own thread, and hands it to
+ * {@link SyncMetrics} once it is done.
+ * <p>
+ * Durations are measured with System.nanoTime, which keeps counting at the same pace whatever
+ * happens to the wall clock.
+ */
+final class SyncRecord {
+
+    /* Stored in place of a duration for a stage that wasn't reached */
+    static final long NOT_TIMED = -1;
+
+    /* When the sync started, by the wall clock and by System.nanoTime */
+    final long startedAtMillis;
+    private final long mStartNanos;
+
+    private final long[] mStageNanos = new long[SyncMetrics.STAGE_COUNT];
+
+    /* The stage that is being timed and when it began, or NO_STAGE */
+    private int mCurrentStage = SyncMetrics.NO_STAGE;
+    private long mCurrentStageStartNanos;
+
+    private String mOutcome;
+    private int mFailedStage = SyncMetrics.NO_STAGE;
+    private String mError;
+    private long mTotalNanos = NOT_TIMED;
+
+    int bytesFetched;
+    int daysParsed;
+
+    /* How much the forecast changed, one of the CHANGE_ constants of SyncIntervalPolicy */
+    int forecastChange = SyncIntervalPolicy.CHANGE_UNKNOWN;
+
+    /* The sync interval before and after this sync, or 0 if it wasn't decided on */
+    long previousSyncIntervalSeconds;
+    long syncIntervalSeconds;
+
+    SyncRecord() {
+        startedAtMillis = System.currentTimeMillis();
+        mStartNanos = System.nanoTime();
+        Arrays.fill(mStageNanos, NOT_TIMED);
+    }
+
+    /**
+     * Starts timing a stage, ending the stage before it if that is still being timed.
+     *
+     * @param stage One of the STAGE_ constants of SyncMetrics
+     */
+    void beginStage(int stage) {
+        endStage();
+        mCurrentStage = stage;
+        mCurrentStageStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Stops timing the current stage, if there is one.
+     */
+    void endStage() {
+        if (mCurrentStage == SyncMetrics.NO_STAGE) return;
+
+        mStageNanos[mCurrentStage] = System.nanoTime() - mCurrentStageStartNanos;
+        mCurrentStage = SyncMetrics.NO_STAGE;
+    }
+
+    /**
+     * Ends the sync.
+     *
+     * @param outcome One of the OUTCOME_ constants of SyncMetricsEntry
+     */
+    void finish(String outcome) {
+        endStage();
+        mOutcome = outcome;
+        mTotalNanos = System.nanoTime() - mStartNanos;
+    }
+
+    /**
+     * Ends the sync because the current stage threw. The time the stage took up to then is kept.
+     *
+     * @param error What the stage threw
+     */
+    void fail(Throwable error) {
+        mFailedStage = mCurrentStage;
+        mError = error.toString();
+        finish(SyncMetricsEntry.OUTCOME_FAILED);
+    }
+
+    /**
+     * Ends the sync because it was canceled while running the current stage.
+     *
+     * @param error What the stage threw when it was stopped
+     */
+    void cancel(Throwable error) {
+        mFailedStage = mCurrentStage;
+        mError = error.toString();
+        finish(SyncMetricsEntry.OUTCOME_CANCELED);
+    }
+
+    /** @return How long the stage took in nanoseconds, or NOT_TIMED if it wasn't reached */
+    long getStageNanos(int stage) {
+        return mStageNanos[stage];
+    }
+
+    /** @return How long the whole sync took in nanoseconds, or NOT_TIMED if it hasn't ended */
+    long getTotalNanos() {
+        return mTotalNanos;
+    }
+
+    /** @return How the sync ended, or null if it hasn't */
+    String getOutcome() {
+        return mOutcome;
+    }
+
+    /** @return The stage that threw or was canceled, or SyncMetrics.NO_STAGE */
+    int getFailedStage() {
+        return mFailedStage;
+    }
+
+    /** @return What the failed stage threw, or null */
+    String getError() {
+        return mError;
+    }
+
+    /**
+     * @return The row of the sync metrics table for this sync
+     */
+    ContentValues toContentValues() {
+        ContentValues values = new ContentValues();
+        values.put(SyncMetricsEntry.COLUMN_STARTED_AT, startedAtMillis);
+        values.put(SyncMetricsEntry.COLUMN_OUTCOME, mOutcome);
+        values.put(SyncMetricsEntry.COLUMN_FAILED_STAGE, mFailedStage == SyncMetrics.NO_STAGE
+                ? null : SyncMetrics.getStageName(mFailedStage));
+        values.put(SyncMetricsEntry.COLUMN_ERROR, mError);
+        putMicros(values, SyncMetricsEntry.COLUMN_FETCH_MICROS, SyncMetrics.STAGE_FETCH);
+        putMicros(values, SyncMetricsEntry.COLUMN_PARSE_MICROS, SyncMetrics.STAGE_PARSE);
+        putMicros(values, SyncMetricsEntry.COLUMN_WEARABLE_MICROS, SyncMetrics.STAGE_WEARABLE);
+        putMicros(values, SyncMetricsEntry.COLUMN_STORE_MICROS, SyncMetrics.STAGE_STORE);
+        putMicros(values, SyncMetricsEntry.COLUMN_NOTIFY_MICROS, SyncMetrics.STAGE_NOTIFY);
+        values.put(SyncMetricsEntry.COLUMN_TOTAL_MICROS,
+                TimeUnit.NANOSECONDS.toMicros(mTotalNanos));
+        values.put(SyncMetricsEntry.COLUMN_BYTES_FETCHED, bytesFetched);
+        values.put(SyncMetricsEntry.COLUMN_DAYS_PARSED, daysParsed);
+        return values;
+    }
+
+    private void putMicros(ContentValues values, String column, int stage) {
+        long nanos = mStageNanos[stage];
+        if (nanos == NOT_TIMED) {
+            values.putNull(column);
+        } else {
+            values.put(column, TimeUnit.NANOSECONDS.toMicros(nanos));
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(mOutcome == null ? "running" : mOutcome);
+        for (int stage = 0; stage < SyncMetrics.STAGE_COUNT; stage++) {
+            if (mStageNanos[stage] != NOT_TIMED) {
+                builder.append(' ').append(SyncMetrics.getStageName(stage)).append('=')
+                        .append(TimeUnit.NANOSECONDS.toMicros(mStageNanos[stage])).append("us");
+            }
+        }
+        if (mTotalNanos != NOT_TIMED) {
+            builder.append(" total=").append(TimeUnit.NANOSECONDS.toMicros(mTotalNanos))
+                    .append("us");
+        }
+        if (syncIntervalSeconds != 0) {
+            builder.append(" change=").append(SyncIntervalPolicy.getChangeName(forecastChange))
+                    .append(" interval=").append(previousSyncIntervalSeconds).append("s->")
+                    .append(syncIntervalSeconds).append('s');
+        }
+        if (mError != null) {
+            builder.append(" in ").append(SyncMetrics.getStageName(mFailedStage))
+                    .append(": ").append(mError);
+        }
+        return builder.toString();
+    }
+}
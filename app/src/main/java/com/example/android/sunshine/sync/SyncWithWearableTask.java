@@ -2,84 +2,158 @@ package com.example.android.sunshine.sync;
 
 import android.content.ContentValues;
 import android.content.Context;
-import android.os.Bundle;
-import android.provider.Settings;
-import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.util.Log;
 
 import com.example.android.sunshine.data.WeatherContract;
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.PendingResult;
-import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.wearable.DataApi;
-import com.google.android.gms.wearable.PutDataMapRequest;
-import com.google.android.gms.wearable.PutDataRequest;
-import com.google.android.gms.wearable.Wearable;
+import com.example.android.sunshine.shared.ForecastPayload;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Created by zeitgeist on 13.1.2017.
+ * Pushes the forecast to the wearable. There is one instance per process, with one connection to
+ * the Data Layer and one background thread, that every sync hands its forecast to.
+ * <p>
+ * A forecast isn't pushed right away. Syncs that follow each other within the coalescing window
+ * only push the last forecast, and a forecast that is the same as the one pushed last isn't
+ * pushed at all. Every day of the forecast goes into one data item, see {@link ForecastPayload}.
  */
-
-public class SyncWithWearableTask implements GoogleApiClient.ConnectionCallbacks,GoogleApiClient.OnConnectionFailedListener {
+public class SyncWithWearableTask {
 
     private final static String TAG = SyncWithWearableTask.class.getSimpleName();
-    private final static String MAX_TEMP = "max_temp";
-    private final static String MIN_TEMP = "min_temp";
-    private final static String WEATHER_ID ="weather_id";
-    private GoogleApiClient mGoogleApiClient;
-    private ContentValues[] mContentValues;
-    public SyncWithWearableTask(ContentValues[] contentValues, Context context){
-        mContentValues = contentValues;
-        mGoogleApiClient = new GoogleApiClient.Builder(context)
-                .addConnectionCallbacks(this)
-                .addOnConnectionFailedListener(this)
-                .addApiIfAvailable(Wearable.API)
-                .build();
-        mGoogleApiClient.connect();
-    }
 
+    private static final long COALESCE_WINDOW_MILLIS = TimeUnit.SECONDS.toMillis(2);
+
+    private static final long CONNECT_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final Object sLock = new Object();
+    private static SyncWithWearableTask sInstance;
+
+    private final WearableDataClient mDataClient;
+    private final long mCoalesceWindowMillis;
+    private final Handler mHandler;
+
+    private final Object mLock = new Object();
+
+    /* Guarded by mLock. The forecast waiting for the coalescing window to end, or null. */
+    private byte[] mPendingPayload;
 
+    /* Only used on mHandler's thread. The last forecast the Data Layer accepted. */
+    private byte[] mLastPushedPayload;
 
-    public void synchWithWearable(){
-        double maxTemp = mContentValues[0].getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
-        double minTemp = mContentValues[0].getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
-        int weatherId = mContentValues[0].getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
-        PutDataMapRequest putDataMapRequest = PutDataMapRequest.create("/weather");
-        putDataMapRequest.getDataMap().putDouble(MAX_TEMP,maxTemp);
-        putDataMapRequest.getDataMap().putDouble(MIN_TEMP,minTemp);
-        putDataMapRequest.getDataMap().putInt(WEATHER_ID,weatherId);
-        putDataMapRequest.getDataMap().putLong("time", System.currentTimeMillis());
-        PutDataRequest putDataRequest = putDataMapRequest.asPutDataRequest().setUrgent();
-        Wearable.DataApi.putDataItem(mGoogleApiClient,putDataRequest)
-                .setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
-                    @Override
-                    public void onResult(@NonNull DataApi.DataItemResult dataItemResult) {
-                        if(dataItemResult.getStatus().isSuccess()){
-                            Log.d(TAG,"Succesfully send the data ");
-                        }
-                        else {
-                            Log.d(TAG,"Failed to send the data");
-                        }
-                    }
-                });
+    private final Runnable mPushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            pushPendingPayload();
+        }
+    };
+
+    /**
+     * @return The instance every sync of this process pushes its forecast through
+     */
+    public static SyncWithWearableTask getInstance(Context context) {
+        synchronized (sLock) {
+            if (sInstance == null) {
+                sInstance = new SyncWithWearableTask(
+                        new GoogleApiWearableDataClient(context), COALESCE_WINDOW_MILLIS);
+            }
+            return sInstance;
+        }
     }
 
-    @Override
-    public void onConnected(@Nullable Bundle bundle) {
-        Log.d(TAG,"App side connected");
+    SyncWithWearableTask(WearableDataClient dataClient, long coalesceWindowMillis) {
+        mDataClient = dataClient;
+        mCoalesceWindowMillis = coalesceWindowMillis;
+
+        HandlerThread thread =
+                new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
     }
 
-    @Override
-    public void onConnectionSuspended(int i) {
+    /**
+     * Schedules the forecast to be pushed to the wearable once the coalescing window ends. Returns
+     * right away. If another forecast is handed over before then, only that one is pushed. A
+     * forecast that can't be packed into a {@link ForecastPayload} is left out, the phone's
+     * forecast doesn't depend on it.
+     *
+     * @param weatherValues Every day of the forecast, ordered by date
+     */
+    public void synchWithWearable(ContentValues[] weatherValues) {
+        byte[] payload;
+        try {
+            payload = createPayload(weatherValues);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Can't pack the forecast for the wearable, not pushing it", e);
+            return;
+        }
+
+        synchronized (mLock) {
+            boolean pushScheduled = mPendingPayload != null;
+            mPendingPayload = payload;
+            if (!pushScheduled) {
+                mHandler.postDelayed(mPushRunnable, mCoalesceWindowMillis);
+            }
+        }
+    }
 
+    /**
+     * Stops the background thread. Only used by tests, which create their own instances.
+     */
+    void quit() {
+        mHandler.getLooper().quit();
     }
 
-    @Override
-    public void onConnectionFailed(@NonNull ConnectionResult connectionResult) {
+    private void pushPendingPayload() {
+        byte[] payload;
+        synchronized (mLock) {
+            payload = mPendingPayload;
+            mPendingPayload = null;
+        }
 
+        if (payload == null || Arrays.equals(payload, mLastPushedPayload)) {
+            Log.d(TAG, "Forecast unchanged, not pushing it");
+            return;
+        }
+
+        /*
+         * If we can't connect or the put fails, the forecast isn't remembered as pushed, so the
+         * next sync pushes it again.
+         */
+        if (!mDataClient.connect(CONNECT_TIMEOUT_MILLIS)) {
+            Log.d(TAG, "No Data Layer connection, not pushing the forecast");
+            return;
+        }
+
+        if (mDataClient.putDataItem(ForecastPayload.PATH, payload)) {
+            mLastPushedPayload = payload;
+            Log.d(TAG, "Pushed the forecast, " + payload.length + " bytes");
+        }
     }
 
+    /**
+     * Packs every day of the forecast into one {@link ForecastPayload}.
+     *
+     * @return The encoded payload
+     */
+    static byte[] createPayload(ContentValues[] weatherValues) {
+        int days = weatherValues.length;
+        long[] dates = new long[days];
+        int[] weatherIds = new int[days];
+        float[] maxTemps = new float[days];
+        float[] minTemps = new float[days];
 
+        for (int day = 0; day < days; day++) {
+            ContentValues values = weatherValues[day];
+            dates[day] = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+            weatherIds[day] = values.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+            maxTemps[day] = values.getAsFloat(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+            minTemps[day] = values.getAsFloat(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
+        }
+
+        return new ForecastPayload(dates, weatherIds, maxTemps, minTemps).toByteArray();
+    }
 }
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+/**
+ * The part of the Wearable Data Layer that {@link SyncWithWearableTask} uses. Both methods block,
+ * and are only ever called on SyncWithWearableTask's own background thread.
+ */
+interface WearableDataClient {
+
+    /**
+     * Connects to the Data Layer, unless already connected.
+     *
+     * @param timeoutMillis How long to wait for the connection
+     * @return True if connected and the Data Layer is available on this device
+     */
+    boolean connect(long timeoutMillis);
+
+    /**
+     * Creates or replaces the data item at path.
+     *
+     * @param path The path of the data item, such as "/forecast"
+     * @param data The whole contents of the data item
+     * @return True if the Data Layer accepted the item
+     */
+    boolean putDataItem(String path, byte[] data);
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.os.Process;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A single background thread that Sunshine's short one-off tasks share, such as the check for a
+ * stored forecast when the app starts and comparing the forecast list's rows. Tasks run one at a
+ * time in the order they were given, so none of them should block for long.
+ * <p>
+ * Syncs run on SyncJobRunner or SunshineSyncIntentService instead, as they wait on the network.
+ */
+public final class BackgroundExecutor {
+
+    private static final String THREAD_NAME = BackgroundExecutor.class.getSimpleName();
+
+    /* The thread is only started once the first task is given */
+    private static final Executor sExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, THREAD_NAME);
+                }
+            });
+
+    private BackgroundExecutor() {
+    }
+
+    /**
+     * @return The executor every short background task of the app shares
+     */
+    public static Executor getInstance() {
+        return sExecutor;
+    }
+}
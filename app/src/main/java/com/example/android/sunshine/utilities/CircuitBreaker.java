@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops NetworkUtils from calling a weather server that keeps failing. Once FAILURE_THRESHOLD
+ * requests in a row have failed, even after their retries, the breaker "opens": requests fail
+ * straight away with an {@link OpenException} until a cooldown has passed. After that the next
+ * request goes through. If it succeeds the breaker closes again, and if it fails the breaker
+ * opens for another cooldown right away.
+ * <p>
+ * A server that answers with a Retry-After longer than a request is willing to wait opens the
+ * breaker until then, however few requests have failed.
+ * <p>
+ * The state is kept in SunshinePreferences rather than in memory, so a restart of the app, or
+ * every immediate sync the user asks for, doesn't start calling a failing server again.
+ */
+public final class CircuitBreaker {
+
+    private static final String TAG = CircuitBreaker.class.getSimpleName();
+
+    /* How many requests in a row have to fail for the breaker to open */
+    static final int FAILURE_THRESHOLD = 3;
+
+    /* How long the breaker stays open after the last failure */
+    static final long COOLDOWN_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    /*
+     * The longest a server can hold off requests with Retry-After. This also limits how long a
+     * wall clock that was set back can keep the breaker open.
+     */
+    static final long MAX_OPEN_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Thrown instead of making a request while the breaker is open.
+     */
+    public static final class OpenException extends IOException {
+
+        private final long mOpenUntilMillis;
+
+        OpenException(String endpoint, long openUntilMillis) {
+            super("Not calling " + endpoint + " for another "
+                    + (openUntilMillis - System.currentTimeMillis()) + "ms");
+            mOpenUntilMillis = openUntilMillis;
+        }
+
+        /** @return When requests will be made again (in UNIX time) */
+        public long getOpenUntilMillis() {
+            return mOpenUntilMillis;
+        }
+    }
+
+    private static final Object sLock = new Object();
+    private static CircuitBreaker sInstance;
+
+    private final Context mContext;
+    private final int mFailureThreshold;
+    private final long mCooldownMillis;
+
+    /**
+     * @return The breaker every forecast request of this process goes through
+     */
+    public static CircuitBreaker getInstance(Context context) {
+        synchronized (sLock) {
+            if (sInstance == null) {
+                sInstance = new CircuitBreaker(context.getApplicationContext(),
+                        FAILURE_THRESHOLD, COOLDOWN_MILLIS);
+            }
+            return sInstance;
+        }
+    }
+
+    /**
+     * Creates a breaker with its own threshold and cooldown. It shares its state with every
+     * other breaker, through SunshinePreferences.
+     */
+    public CircuitBreaker(Context context, int failureThreshold, long cooldownMillis) {
+        mContext = context;
+        mFailureThreshold = failureThreshold;
+        mCooldownMillis = cooldownMillis;
+    }
+
+    /**
+     * @param url The URL that is about to be requested
+     * @throws OpenException If requests to the URL's server are being held off
+     */
+    public void throwIfOpen(URL url) throws OpenException {
+        String endpoint = url.getAuthority();
+        long openUntil = SunshinePreferences.getCircuitOpenUntil(mContext, endpoint);
+        long now = System.currentTimeMillis();
+        /* Further off than the breaker ever opens for means the clock was set back */
+        if (now < openUntil && openUntil - now <= MAX_OPEN_MILLIS) {
+            throw new OpenException(endpoint, openUntil);
+        }
+    }
+
+    /**
+     * Closes the breaker, as the URL's server answered.
+     */
+    public synchronized void recordSuccess(URL url) {
+        String endpoint = url.getAuthority();
+        if (SunshinePreferences.getCircuitFailureCount(mContext, endpoint) == 0
+                && SunshinePreferences.getCircuitOpenUntil(mContext, endpoint) == 0) {
+            return;
+        }
+
+        Log.i(TAG, "Closing the circuit to " + endpoint);
+        SunshinePreferences.saveCircuitState(mContext, endpoint, 0, 0);
+    }
+
+    /**
+     * Counts a request to the URL's server that failed, opening the breaker if enough have.
+     *
+     * @param retryAfterMillis How long the server asked us to wait, or 0 if it didn't
+     */
+    public synchronized void recordFailure(URL url, long retryAfterMillis) {
+        String endpoint = url.getAuthority();
+        int failureCount = SunshinePreferences.getCircuitFailureCount(mContext, endpoint) + 1;
+        long openUntil = SunshinePreferences.getCircuitOpenUntil(mContext, endpoint);
+
+        long now = System.currentTimeMillis();
+        if (failureCount >= mFailureThreshold) {
+            openUntil = Math.max(openUntil, now + mCooldownMillis);
+        }
+        if (retryAfterMillis > 0) {
+            openUntil = Math.max(openUntil, now + Math.min(retryAfterMillis, MAX_OPEN_MILLIS));
+        }
+        openUntil = Math.min(openUntil, now + MAX_OPEN_MILLIS);
+
+        if (openUntil > now) {
+            Log.w(TAG, "Opening the circuit to " + endpoint + " for " + (openUntil - now)
+                    + "ms after " + failureCount + " failures");
+        }
+        SunshinePreferences.saveCircuitState(mContext, endpoint, failureCount, openUntil);
+    }
+
+    /** @return How many requests in a row to the URL's server have failed */
+    public int getFailureCount(URL url) {
+        return SunshinePreferences.getCircuitFailureCount(mContext, url.getAuthority());
+    }
+
+    /** @return Until when (in UNIX time) requests to the URL's server are held off, or 0 */
+    public long getOpenUntilMillis(URL url) {
+        return SunshinePreferences.getCircuitOpenUntil(mContext, url.getAuthority());
+    }
+}
@@ -7,7 +7,6 @@ import com.example.android.sunshine.data.WeatherContract;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry;
 
@@ -40,11 +39,12 @@ public class FakeDataUtils {
      */
     public static void insertFakeData(Context context) {
         //Get today's normalized date
-        long today = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
+        long today = SunshineDateUtils.getEpochDayForToday();
         List<ContentValues> fakeValues = new ArrayList<ContentValues>();
         //loop over 7 days starting today onwards
         for(int i=0; i<7; i++) {
-            fakeValues.add(FakeDataUtils.createTestWeatherContentValues(today + TimeUnit.DAYS.toMillis(i)));
+            fakeValues.add(FakeDataUtils.createTestWeatherContentValues(
+                    SunshineDateUtils.fromEpochDay(today + i)));
         }
         // Bulk Insert our new weather data into Sunshine's Database
         context.getContentResolver().bulkInsert(
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Remembers the strings SunshineDateUtils#getFriendlyDateString has built, so that each day is
+ * only formatted once rather than every time a list row, the detail screen or a notification
+ * shows it.
+ * <p>
+ * A friendly date depends on more than the date itself: on which day is today ("Today",
+ * "Tomorrow", a day name within the week), on the time zone, and on the locale. Every lookup
+ * checks those first, and everything remembered is forgotten as soon as one of them changes.
+ */
+final class FriendlyDateCache {
+
+    /*
+     * A forecast is 14 days, shown with and without the full date. A list scrolled over a
+     * much longer range of dates is simply forgotten and starts over.
+     */
+    private static final int MAX_ENTRIES = 128;
+
+    private final HashMap<Long, String> mShortDates = new HashMap<>();
+    private final HashMap<Long, String> mFullDates = new HashMap<>();
+
+    /* What the remembered strings were built for. Null until the first lookup. */
+    private TimeZone mTimeZone;
+    private Locale mDefaultLocale;
+    private Locale mConfigurationLocale;
+
+    /* The local date, as an epoch day, that the strings were built on */
+    private long mEpochDayForToday;
+
+    private long mHitCount;
+    private long mMissCount;
+
+    /**
+     * @return The friendly date string for the given day, built with
+     * SunshineDateUtils#formatFriendlyDateString if it hasn't been already
+     */
+    synchronized String get(Context context, long normalizedUtcMidnight, boolean showFullDate) {
+        invalidateIfOutdated(context);
+
+        HashMap<Long, String> dates = showFullDate ? mFullDates : mShortDates;
+        Long key = normalizedUtcMidnight;
+        String friendlyDate = dates.get(key);
+        if (friendlyDate != null) {
+            mHitCount++;
+            return friendlyDate;
+        }
+
+        mMissCount++;
+        friendlyDate = SunshineDateUtils.formatFriendlyDateString(context, normalizedUtcMidnight,
+                showFullDate);
+        if (dates.size() >= MAX_ENTRIES) {
+            dates.clear();
+        }
+        dates.put(key, friendlyDate);
+        return friendlyDate;
+    }
+
+    /**
+     * Forgets every string. Called when the time zone, locale or day changes, and by tests.
+     */
+    synchronized void clear() {
+        mShortDates.clear();
+        mFullDates.clear();
+        mTimeZone = null;
+        mDefaultLocale = null;
+        mConfigurationLocale = null;
+    }
+
+    synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    private void invalidateIfOutdated(Context context) {
+        long epochDayForToday = SunshineDateUtils.getEpochDayForToday();
+        /* The same instance for as long as the time zone stays the same */
+        TimeZone timeZone = SunshineDateUtils.getDefaultTimeZone();
+        Locale defaultLocale = Locale.getDefault();
+        Locale configurationLocale = context.getResources().getConfiguration().locale;
+
+        if (epochDayForToday == mEpochDayForToday
+                && timeZone == mTimeZone
+                && defaultLocale.equals(mDefaultLocale)
+                && configurationLocale.equals(mConfigurationLocale)) {
+            return;
+        }
+
+        clear();
+        mTimeZone = timeZone;
+        mDefaultLocale = defaultLocale;
+        mConfigurationLocale = configurationLocale;
+        mEpochDayForToday = epochDayForToday;
+    }
+}
@@ -17,16 +17,25 @@ package com.example.android.sunshine.utilities;
 
 import android.content.Context;
 import android.net.Uri;
+import android.support.v4.os.CancellationSignal;
 import android.util.Log;
 
 import com.example.android.sunshine.data.SunshinePreferences;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.Locale;
 import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 /**
  * These utilities will be used to communicate with the weather servers.
@@ -83,6 +92,48 @@ public final class NetworkUtils {
     /* The days parameter allows us to designate how many days of weather data we want */
     private static final String DAYS_PARAM = "cnt";
 
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String ENCODING_GZIP = "gzip";
+
+    /* Headers used to ask the server whether the forecast we have is still current */
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    private static final String HEADER_RETRY_AFTER = "Retry-After";
+
+    /* Not one of HttpURLConnection's constants */
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private static final String CACHE_CONTROL_MAX_AGE = "max-age=";
+    private static final String CACHE_CONTROL_NO_CACHE = "no-cache";
+    private static final String CACHE_CONTROL_NO_STORE = "no-store";
+
+    /*
+     * The longest a response's max-age may keep us from asking the server again. This matches
+     * SyncIntervalPolicy.MIN_INTERVAL_SECONDS, so a server can't make a sync skip its request for
+     * longer than one sync interval. It also limits how long a wall clock that was set back can
+     * keep the forecast fresh.
+     */
+    static final long MAX_FRESH_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /* Used when the server doesn't send a Content-Length. A 14 day forecast is about 6KB. */
+    private static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+
+    /* JSON compresses well, so expect a gzipped body to inflate to about this many times its size */
+    private static final int GZIP_EXPANSION_ESTIMATE = 4;
+
+    /* Buffers larger than this are left to the garbage collector rather than kept around */
+    private static final int MAX_POOLED_BUFFER_SIZE = 256 * 1024;
+
+    /*
+     * A response buffer that is not in use and can be handed out to the next request. Syncs
+     * happen one at a time, so keeping a single buffer is enough to avoid allocating a new one
+     * for every response.
+     */
+    private static byte[] sPooledBuffer;
+
     /**
      * Retrieves the proper URL to query for the weather data. The reason for both this method as
      * well as {@link #buildUrlWithLocationQuery(String)} is two fold.
@@ -187,4 +238,560 @@ public final class NetworkUtils {
             urlConnection.disconnect();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Byte oriented alternative to {@link #getResponseFromHttpUrl(URL)}. The body is read
+     * straight into a pooled buffer that is sized from the Content-Length of the response, so
+     * there is no regex scanning and no String is created. Responses sent with gzip
+     * Content-Encoding are inflated while they are read.
+     * <p>
+     * The returned {@link ResponseBody} holds on to the pooled buffer, so callers must call
+     * {@link ResponseBody#release()} once they are done with it.
+     *
+     * @param url The URL to fetch the HTTP response from.
+     * @return The body of the HTTP response, which is empty if the server didn't send one
+     * @throws IOException Related to network and stream reading
+     */
+    public static ResponseBody getResponseBodyFromHttpUrl(URL url) throws IOException {
+        return fetchResponseBody(url, null, null, null, RetryPolicy.DEFAULT.getTimeoutMillis());
+    }
+
+    /**
+     * Conditional version of {@link #getResponseBodyFromHttpUrl(URL)}. If the forecast we stored
+     * from this URL is still fresh according to the max-age the server sent, no request is made
+     * at all. Otherwise, the ETag and Last-Modified date of that forecast are sent along with the
+     * request, and the server can answer with 304 Not Modified instead of the whole forecast.
+     * <p>
+     * The validators of a new forecast are not saved by this method. Once the forecast has been
+     * stored, call {@link #saveResponseValidators(Context, ResponseBody)} so that later requests
+     * can be made conditional on it.
+     *
+     * @param context Used to access the validators saved in SharedPreferences
+     * @param url     The URL to fetch the HTTP response from.
+     * @return The body of the HTTP response, or null if the forecast we have is still current
+     * @throws IOException Related to network and stream reading
+     */
+    public static ResponseBody getResponseBodyIfModified(Context context, URL url)
+            throws IOException {
+        return getResponseBodyIfModified(context, url, null);
+    }
+
+    /**
+     * Cancellable version of {@link #getResponseBodyIfModified(Context, URL)}. Canceling the
+     * signal disconnects the request, so a download that is stuck waiting on the server ends
+     * right away rather than when the read times out.
+     * <p>
+     * A request that fails is retried as {@link RetryPolicy#DEFAULT} says, and requests aren't
+     * made at all while the server's {@link CircuitBreaker} is open.
+     *
+     * @param context Used to access the validators saved in SharedPreferences
+     * @param url     The URL to fetch the HTTP response from.
+     * @param signal  Cancels the request, may be null
+     * @return The body of the HTTP response, or null if the forecast we have is still current
+     * @throws IOException                If the request fails, or is canceled while it is made
+     * @throws OperationCanceledException If the signal was canceled before the request was made
+     */
+    public static ResponseBody getResponseBodyIfModified(Context context, URL url,
+                                                         CancellationSignal signal)
+            throws IOException {
+        return getResponseBodyIfModified(context, url, signal, RetryPolicy.DEFAULT,
+                CircuitBreaker.getInstance(context));
+    }
+
+    /**
+     * Version of {@link #getResponseBodyIfModified(Context, URL, CancellationSignal)} that
+     * retries with the given policy and goes through the given breaker.
+     * <p>
+     * Failures to connect or read, timeouts, and answers such as 503 Service Unavailable that say
+     * the server may do better later, are retried. Other error statuses, such as 404 Not Found,
+     * aren't, and neither is a request that was canceled. A request that still fails after its
+     * retries counts as one failure for the breaker.
+     *
+     * @param context     Used to access the validators saved in SharedPreferences
+     * @param url         The URL to fetch the HTTP response from.
+     * @param signal      Cancels the request and its retries, may be null
+     * @param retryPolicy How to retry the request if it fails
+     * @param breaker     Holds off requests to a server that keeps failing
+     * @return The body of the HTTP response, or null if the forecast we have is still current
+     * @throws IOException                If the request fails, or is canceled while it is made.
+     *                                    A CircuitBreaker.OpenException if it wasn't made.
+     * @throws OperationCanceledException If the signal was canceled before the request was made
+     */
+    public static ResponseBody getResponseBodyIfModified(Context context, URL url,
+                                                         CancellationSignal signal,
+                                                         RetryPolicy retryPolicy,
+                                                         CircuitBreaker breaker)
+            throws IOException {
+        String urlString = url.toString();
+
+        if (isForecastFresh(context, url)) {
+            Log.v(TAG, "Forecast is still fresh, not requesting " + url);
+            return null;
+        }
+
+        breaker.throwIfOpen(url);
+
+        String eTag = SunshinePreferences.getForecastETag(context, urlString);
+        String lastModified = SunshinePreferences.getForecastLastModified(context, urlString);
+
+        ResponseBody body;
+        try {
+            body = fetchResponseBodyWithRetries(url, eTag, lastModified, signal, retryPolicy);
+        } catch (IOException e) {
+            if (!isCanceled(signal) && isRetryable(e)) {
+                breaker.recordFailure(url, getRetryAfterMillis(e));
+            }
+            throw e;
+        }
+        breaker.recordSuccess(url);
+
+        if (!body.isNotModified()) {
+            return body;
+        }
+
+        /*
+         * The server may send a new max-age along with the 304, and may leave out validators
+         * that haven't changed. Keep the ones we already have in that case.
+         */
+        if (body.mETag == null) body.mETag = eTag;
+        if (body.mLastModified == null) body.mLastModified = lastModified;
+        saveResponseValidators(context, body);
+
+        return null;
+    }
+
+    /**
+     * Tells whether the server's max-age for the forecast stored from the given URL hasn't run
+     * out yet. For as long as it hasn't, {@link #getResponseBodyIfModified} returns null without
+     * asking the server, so callers that need to tell that apart from a 304 Not Modified check
+     * this first.
+     *
+     * @param context Used to access the validators saved in SharedPreferences
+     * @param url     The URL the forecast is requested from
+     * @return true if the forecast may be used without asking the server
+     */
+    public static boolean isForecastFresh(Context context, URL url) {
+        long now = System.currentTimeMillis();
+        long expiresAt = SunshinePreferences.getForecastExpiresAt(context, url.toString());
+        return now < expiresAt && expiresAt - now <= MAX_FRESH_MILLIS;
+    }
+
+    /**
+     * Remembers the validators of a response, so that the next request to the same URL can be
+     * made conditional. This should only be called once the forecast in the response has been
+     * stored, or we could end up being told that a forecast we never saved hasn't changed.
+     *
+     * @param context Used to access SharedPreferences
+     * @param body    The response whose forecast has been stored
+     */
+    public static void saveResponseValidators(Context context, ResponseBody body) {
+        SunshinePreferences.saveForecastValidators(context,
+                body.mUrl,
+                body.mETag,
+                body.mLastModified,
+                System.currentTimeMillis() + body.mMaxAgeMillis);
+    }
+
+    /**
+     * Performs the request, and retries it as the policy says for as long as it fails in a way
+     * that may go away.
+     *
+     * @return The body of the response, which is marked as not modified on a 304
+     * @throws IOException What the last try failed with
+     */
+    private static ResponseBody fetchResponseBodyWithRetries(URL url, String eTag,
+                                                             String lastModified,
+                                                             CancellationSignal signal,
+                                                             RetryPolicy retryPolicy)
+            throws IOException {
+        long delayMillis = retryPolicy.getBaseDelayMillis();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return fetchResponseBody(url, eTag, lastModified, signal,
+                        retryPolicy.getTimeoutMillis());
+            } catch (IOException e) {
+                if (isCanceled(signal) || !isRetryable(e)
+                        || attempt >= retryPolicy.getMaxAttempts()) {
+                    throw e;
+                }
+
+                /* Waiting for as long as the server asks would hold up the sync for too long */
+                long retryAfterMillis = getRetryAfterMillis(e);
+                if (retryAfterMillis > retryPolicy.getMaxDelayMillis()) {
+                    throw e;
+                }
+
+                delayMillis = retryPolicy.getNextDelayMillis(delayMillis);
+                long waitMillis = Math.max(delayMillis, retryAfterMillis);
+                Log.w(TAG, "Request " + attempt + " for " + url + " failed, retrying in "
+                        + waitMillis + "ms: " + e);
+                waitBeforeRetry(waitMillis, signal);
+            }
+        }
+    }
+
+    /**
+     * Waits before a retry, unless the signal is canceled in the meantime.
+     *
+     * @throws InterruptedIOException If the thread was interrupted
+     */
+    private static void waitBeforeRetry(long waitMillis, CancellationSignal signal)
+            throws InterruptedIOException {
+        final CountDownLatch canceled = new CountDownLatch(1);
+        if (signal != null) {
+            signal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    canceled.countDown();
+                }
+            });
+        }
+        try {
+            canceled.await(waitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        } finally {
+            if (signal != null) {
+                signal.setOnCancelListener(null);
+            }
+        }
+        throwIfCanceled(signal);
+    }
+
+    /**
+     * @return true for failures that may go away if the request is made again: anything that
+     * went wrong with the connection, and statuses that say the server may do better later
+     */
+    private static boolean isRetryable(IOException e) {
+        if (e instanceof CircuitBreaker.OpenException) {
+            return false;
+        }
+        if (!(e instanceof HttpStatusException)) {
+            return true;
+        }
+        int statusCode = ((HttpStatusException) e).getStatusCode();
+        return statusCode >= HttpURLConnection.HTTP_INTERNAL_ERROR
+                || statusCode == HttpURLConnection.HTTP_CLIENT_TIMEOUT
+                || statusCode == HTTP_TOO_MANY_REQUESTS;
+    }
+
+    /** @return How long the server asked us to wait before trying again, or 0 */
+    private static long getRetryAfterMillis(IOException e) {
+        return e instanceof HttpStatusException
+                ? ((HttpStatusException) e).getRetryAfterMillis() : 0;
+    }
+
+    private static boolean isCanceled(CancellationSignal signal) {
+        return signal != null && signal.isCanceled();
+    }
+
+    /**
+     * Performs the request, adding the conditional headers if validators are given.
+     *
+     * @return The body of the response, which is marked as not modified on a 304
+     */
+    private static ResponseBody fetchResponseBody(URL url, String eTag, String lastModified,
+                                                  CancellationSignal signal, int timeoutMillis)
+            throws IOException {
+        final HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setConnectTimeout(timeoutMillis);
+        urlConnection.setReadTimeout(timeoutMillis);
+        if (signal != null) {
+            /*
+             * A blocking read can't be interrupted, but it does end with an IOException once the
+             * connection is closed from another thread. If the signal has already been canceled,
+             * this disconnects right away.
+             */
+            signal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    urlConnection.disconnect();
+                }
+            });
+        }
+        /*
+         * Asking for gzip ourselves turns off HttpURLConnection's transparent decompression, but
+         * lets us know the compressed length up front and size the buffer from it.
+         */
+        urlConnection.setRequestProperty(HEADER_ACCEPT_ENCODING, ENCODING_GZIP);
+        if (eTag != null) {
+            urlConnection.setRequestProperty(HEADER_IF_NONE_MATCH, eTag);
+        }
+        if (lastModified != null) {
+            urlConnection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, lastModified);
+        }
+
+        try {
+            ResponseBody body;
+
+            /* Disconnecting before connecting doesn't stop getResponseCode from connecting */
+            throwIfCanceled(signal);
+
+            int responseCode = urlConnection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                body = new ResponseBody(null, 0);
+                body.mNotModified = true;
+            } else if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                throw new HttpStatusException(url, responseCode,
+                        parseRetryAfterMillis(urlConnection));
+            } else {
+                InputStream in = urlConnection.getInputStream();
+
+                int contentLength = urlConnection.getContentLength();
+                int expectedLength = contentLength;
+                if (ENCODING_GZIP.equalsIgnoreCase(urlConnection.getContentEncoding())) {
+                    in = new GZIPInputStream(in);
+                    if (contentLength > 0) {
+                        /* Capped first, so a large Content-Length can't overflow the estimate */
+                        expectedLength = Math.min(contentLength,
+                                MAX_POOLED_BUFFER_SIZE / GZIP_EXPANSION_ESTIMATE)
+                                * GZIP_EXPANSION_ESTIMATE;
+                    }
+                }
+
+                /* In case the signal was canceled while connecting */
+                throwIfCanceled(signal);
+                body = readFully(in, expectedLength);
+            }
+
+            body.mUrl = url.toString();
+            body.mETag = urlConnection.getHeaderField(HEADER_ETAG);
+            body.mLastModified = urlConnection.getHeaderField(HEADER_LAST_MODIFIED);
+            body.mMaxAgeMillis =
+                    parseMaxAgeMillis(urlConnection.getHeaderField(HEADER_CACHE_CONTROL));
+
+            return body;
+        } finally {
+            if (signal != null) {
+                signal.setOnCancelListener(null);
+            }
+            urlConnection.disconnect();
+        }
+    }
+
+    private static void throwIfCanceled(CancellationSignal signal) {
+        if (signal != null) {
+            signal.throwIfCanceled();
+        }
+    }
+
+    /**
+     * Finds out for how long a response may be used without asking the server again.
+     *
+     * @param cacheControl The Cache-Control header of the response, may be null
+     * @return The max-age in milliseconds, no longer than {@link #MAX_FRESH_MILLIS}, or 0 if the
+     * response must always be revalidated
+     */
+    private static long parseMaxAgeMillis(String cacheControl) {
+        if (cacheControl == null) return 0;
+
+        long maxAgeMillis = 0;
+        for (String directive : cacheControl.split(",")) {
+            directive = directive.trim().toLowerCase(Locale.US);
+
+            if (directive.equals(CACHE_CONTROL_NO_CACHE)
+                    || directive.equals(CACHE_CONTROL_NO_STORE)) {
+                return 0;
+            } else if (directive.startsWith(CACHE_CONTROL_MAX_AGE)) {
+                try {
+                    long maxAgeSeconds = Long.parseLong(
+                            directive.substring(CACHE_CONTROL_MAX_AGE.length()));
+                    maxAgeMillis = Math.min(
+                            TimeUnit.SECONDS.toMillis(Math.max(0, maxAgeSeconds)),
+                            MAX_FRESH_MILLIS);
+                } catch (NumberFormatException e) {
+                    Log.w(TAG, "Ignoring malformed Cache-Control: " + cacheControl);
+                }
+            }
+        }
+        return maxAgeMillis;
+    }
+
+    /**
+     * Finds out how long the server asked us to wait before making another request.
+     *
+     * @return The wait in milliseconds, or 0 if the server didn't ask for one
+     */
+    private static long parseRetryAfterMillis(HttpURLConnection urlConnection) {
+        String retryAfter = urlConnection.getHeaderField(HEADER_RETRY_AFTER);
+        if (retryAfter == null) return 0;
+
+        /* Either a number of seconds, or the date to wait until */
+        try {
+            return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim())));
+        } catch (NumberFormatException e) {
+            long retryAt = urlConnection.getHeaderFieldDate(HEADER_RETRY_AFTER, 0);
+            return Math.max(0, retryAt - System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Reads everything from the stream into a pooled buffer, growing it if the stream turns out
+     * to be longer than expected. The first buffer is never larger than MAX_POOLED_BUFFER_SIZE,
+     * whatever the server claims, so only a body that is really that long grows it further.
+     *
+     * @param in             The stream to read
+     * @param expectedLength How many bytes the stream is expected to contain, or -1 if unknown
+     * @return The bytes that were read
+     * @throws IOException If the stream cannot be read
+     */
+    static ResponseBody readFully(InputStream in, int expectedLength) throws IOException {
+        byte[] buffer = obtainBuffer(expectedLength > 0
+                ? Math.min(expectedLength, MAX_POOLED_BUFFER_SIZE)
+                : DEFAULT_BUFFER_SIZE);
+        int length = 0;
+
+        try {
+            while (true) {
+                if (length == buffer.length) {
+                    /*
+                     * The buffer is exactly full, which is expected when the Content-Length was
+                     * right. Check for the end of the stream before growing the buffer.
+                     */
+                    int next = in.read();
+                    if (next == -1) break;
+
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    buffer[length++] = (byte) next;
+                }
+
+                int read = in.read(buffer, length, buffer.length - length);
+                if (read == -1) break;
+                length += read;
+            }
+        } catch (IOException e) {
+            recycleBuffer(buffer);
+            throw e;
+        }
+
+        return new ResponseBody(buffer, length);
+    }
+
+    /**
+     * Hands out the pooled buffer if it is large enough, otherwise allocates a new one.
+     */
+    private static synchronized byte[] obtainBuffer(int minimumSize) {
+        byte[] buffer = sPooledBuffer;
+        if (buffer != null && buffer.length >= minimumSize) {
+            sPooledBuffer = null;
+            return buffer;
+        }
+        return new byte[minimumSize];
+    }
+
+    /**
+     * Returns a buffer to the pool, keeping whichever of the pooled and returned buffers is
+     * larger.
+     */
+    private static synchronized void recycleBuffer(byte[] buffer) {
+        if (buffer.length > MAX_POOLED_BUFFER_SIZE) return;
+
+        if (sPooledBuffer == null || sPooledBuffer.length < buffer.length) {
+            sPooledBuffer = buffer;
+        }
+    }
+
+    /**
+     * Thrown when the server answers with an error status, such as 404 Not Found or 503 Service
+     * Unavailable, rather than with a forecast.
+     */
+    public static final class HttpStatusException extends IOException {
+
+        private final int mStatusCode;
+        private final long mRetryAfterMillis;
+
+        HttpStatusException(URL url, int statusCode, long retryAfterMillis) {
+            super("Server returned HTTP response code: " + statusCode + " for URL: " + url);
+            mStatusCode = statusCode;
+            mRetryAfterMillis = retryAfterMillis;
+        }
+
+        public int getStatusCode() {
+            return mStatusCode;
+        }
+
+        /** @return How long the server asked us to wait with Retry-After, or 0 */
+        public long getRetryAfterMillis() {
+            return mRetryAfterMillis;
+        }
+    }
+
+    /**
+     * The body of an HTTP response, backed by a buffer that is shared between requests. Once
+     * {@link #release()} has been called, the bytes may be overwritten by the next request and
+     * the body can no longer be read.
+     */
+    public static final class ResponseBody {
+
+        private byte[] mBuffer;
+        private final int mLength;
+
+        /* Cache validators sent by the server, see getResponseBodyIfModified */
+        private boolean mNotModified;
+        private String mUrl;
+        private String mETag;
+        private String mLastModified;
+        private long mMaxAgeMillis;
+
+        private ResponseBody(byte[] buffer, int length) {
+            mBuffer = buffer;
+            mLength = length;
+        }
+
+        /**
+         * @return The number of bytes in the body
+         */
+        public int getLength() {
+            return mLength;
+        }
+
+        /**
+         * @return true if the server answered with 304 Not Modified, and there is no body
+         */
+        public boolean isNotModified() {
+            return mNotModified;
+        }
+
+        /**
+         * Returns a stream over the body without copying it.
+         *
+         * @return A stream over the bytes of the body
+         */
+        public InputStream openStream() {
+            return new ByteArrayInputStream(checkNotReleased(), 0, mLength);
+        }
+
+        /**
+         * Decodes the body as UTF-8. Only needed by callers that can't work with a stream.
+         *
+         * @return The body as a String
+         */
+        public String asString() {
+            try {
+                return new String(checkNotReleased(), 0, mLength, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                /* Every Java platform is required to support UTF-8 */
+                throw new AssertionError(e);
+            }
+        }
+
+        /**
+         * Gives the buffer back so it can be reused for the next response. Calling this more
+         * than once has no effect.
+         */
+        public void release() {
+            if (mBuffer != null) {
+                recycleBuffer(mBuffer);
+                mBuffer = null;
+            }
+        }
+
+        private byte[] checkNotReleased() {
+            if (mBuffer == null) {
+                throw new IllegalStateException("ResponseBody has already been released");
+            }
+            return mBuffer;
+        }
+    }
+}
@@ -55,7 +55,7 @@ public class NotificationUtils {
 
         /* Build the URI for today's weather in order to show up to date data in notification */
         Uri todaysWeatherUri = WeatherContract.WeatherEntry
-                .buildWeatherUriWithDate(SunshineDateUtils.normalizeDate(System.currentTimeMillis()));
+                .buildWeatherUriWithDate(SunshineDateUtils.getNormalizedUtcDateForToday());
 
         /*
          * The MAIN_FORECAST_PROJECTION array passed in as the second parameter is defined in our WeatherContract
@@ -15,8 +15,12 @@
  */
 package com.example.android.sunshine.utilities;
 
+import android.annotation.TargetApi;
 import android.content.ContentValues;
 import android.content.Context;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.JsonToken;
 
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
@@ -25,7 +29,11 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
+import java.util.ArrayList;
 
 /**
  * Utility functions to handle OpenWeatherMap JSON data.
@@ -60,6 +68,22 @@ public final class OpenWeatherJsonUtils {
 
     private static final String OWM_MESSAGE_CODE = "cod";
 
+    /*
+     * Bits used by the streaming parser to remember which of the required fields of a day's
+     * forecast it has seen. A day is only valid once every bit in DAY_FIELDS_ALL is set.
+     */
+    private static final int DAY_FIELD_PRESSURE = 1;
+    private static final int DAY_FIELD_HUMIDITY = 1 << 1;
+    private static final int DAY_FIELD_WINDSPEED = 1 << 2;
+    private static final int DAY_FIELD_WIND_DIRECTION = 1 << 3;
+    private static final int DAY_FIELD_MAX = 1 << 4;
+    private static final int DAY_FIELD_MIN = 1 << 5;
+    private static final int DAY_FIELD_WEATHER_ID = 1 << 6;
+    private static final int DAY_FIELDS_ALL = (1 << 7) - 1;
+
+    /* OWM sends one element per day, and we ask for 14 days. Sized to avoid regrowing the list. */
+    private static final int EXPECTED_DAY_COUNT = 14;
+
     /**
      * This method parses JSON from a web response and returns an array of Strings
      * describing the weather over various days from the forecast.
@@ -116,7 +140,7 @@ public final class OpenWeatherJsonUtils {
 //        long now = System.currentTimeMillis();
 //        long normalizedUtcStartDay = SunshineDateUtils.normalizeDate(now);
 
-        long normalizedUtcStartDay = SunshineDateUtils.getNormalizedUtcDateForToday();
+        long startEpochDay = SunshineDateUtils.getEpochDayForToday();
 
         for (int i = 0; i < jsonWeatherArray.length(); i++) {
 
@@ -138,7 +162,7 @@ public final class OpenWeatherJsonUtils {
              * We ignore all the datetime values embedded in the JSON and assume that
              * the values are returned in-order by day (which is not guaranteed to be correct).
              */
-            dateTimeMillis = normalizedUtcStartDay + SunshineDateUtils.DAY_IN_MILLIS * i;
+            dateTimeMillis = SunshineDateUtils.fromEpochDay(startEpochDay + i);
 
             pressure = dayForecast.getDouble(OWM_PRESSURE);
             humidity = dayForecast.getInt(OWM_HUMIDITY);
@@ -181,4 +205,198 @@ public final class OpenWeatherJsonUtils {
 
         return weatherContentValues;
     }
-}
\ No newline at end of file
+
+    /**
+     * Streaming counterpart of {@link #getWeatherContentValuesFromJson(Context, String)}. Rather
+     * than building the whole response as a JSONObject tree, this method pulls tokens straight
+     * from the given stream and only creates one ContentValues per day of the "list" array. The
+     * values produced are identical to the ones produced from the String version.
+     * <p>
+     * The stream is read with UTF-8, which is what the weather server sends. Closing the stream
+     * is left up to the caller, who owns the connection it came from.
+     *
+     * @param context Used to save the location details of the forecast in SharedPreferences
+     * @param in      Stream of the JSON response from the server
+     *
+     * @return Array of ContentValues for each day of the forecast, null if the server reported
+     * an error
+     *
+     * @throws IOException If the stream cannot be read or does not contain the forecast we expect
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public static ContentValues[] getWeatherContentValuesFromStream(Context context, InputStream in)
+            throws IOException {
+
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+
+        ArrayList<ContentValues> weatherContentValues = null;
+        boolean hasCoordinates = false;
+        double[] cityCoordinates = new double[2];
+
+        long startEpochDay = SunshineDateUtils.getEpochDayForToday();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                /* Same handling as the JSONObject path: anything but HTTP_OK is an error */
+                if ((int) reader.nextDouble() != HttpURLConnection.HTTP_OK) {
+                    return null;
+                }
+            } else if (OWM_CITY.equals(name)) {
+                hasCoordinates = readCityCoordinates(reader, cityCoordinates);
+            } else if (OWM_LIST.equals(name)) {
+                weatherContentValues = new ArrayList<>(EXPECTED_DAY_COUNT);
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    long dateTimeMillis = SunshineDateUtils.fromEpochDay(
+                            startEpochDay + weatherContentValues.size());
+                    weatherContentValues.add(readDayForecast(reader, dateTimeMillis));
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (weatherContentValues == null) {
+            throw new IOException("Forecast is missing \"" + OWM_LIST + "\"");
+        }
+        if (!hasCoordinates) {
+            throw new IOException("Forecast is missing the city coordinates");
+        }
+
+        SunshinePreferences.setLocationDetails(context, cityCoordinates[0], cityCoordinates[1]);
+
+        return weatherContentValues.toArray(new ContentValues[weatherContentValues.size()]);
+    }
+
+    /**
+     * Reads the "city" object of the response, storing latitude and longitude in coordinates.
+     *
+     * @return true if both latitude and longitude were found
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static boolean readCityCoordinates(JsonReader reader, double[] coordinates)
+            throws IOException {
+        boolean hasLatitude = false;
+        boolean hasLongitude = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (OWM_COORD.equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (OWM_LATITUDE.equals(name)) {
+                        coordinates[0] = reader.nextDouble();
+                        hasLatitude = true;
+                    } else if (OWM_LONGITUDE.equals(name)) {
+                        coordinates[1] = reader.nextDouble();
+                        hasLongitude = true;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return hasLatitude && hasLongitude;
+    }
+
+    /**
+     * Reads a single element of the "list" array into ContentValues for the given date.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static ContentValues readDayForecast(JsonReader reader, long dateTimeMillis)
+            throws IOException {
+        double pressure = 0;
+        int humidity = 0;
+        double windSpeed = 0;
+        double windDirection = 0;
+        double high = 0;
+        double low = 0;
+        int weatherId = 0;
+
+        int seenFields = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+
+            if (OWM_PRESSURE.equals(name)) {
+                pressure = reader.nextDouble();
+                seenFields |= DAY_FIELD_PRESSURE;
+            } else if (OWM_HUMIDITY.equals(name)) {
+                /* JSONObject#getInt truncates fractional values, so we do the same */
+                humidity = (int) reader.nextDouble();
+                seenFields |= DAY_FIELD_HUMIDITY;
+            } else if (OWM_WINDSPEED.equals(name)) {
+                windSpeed = reader.nextDouble();
+                seenFields |= DAY_FIELD_WINDSPEED;
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                windDirection = reader.nextDouble();
+                seenFields |= DAY_FIELD_WIND_DIRECTION;
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String temperatureName = reader.nextName();
+                    if (OWM_MAX.equals(temperatureName)) {
+                        high = reader.nextDouble();
+                        seenFields |= DAY_FIELD_MAX;
+                    } else if (OWM_MIN.equals(temperatureName)) {
+                        low = reader.nextDouble();
+                        seenFields |= DAY_FIELD_MIN;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                /* Like the JSONObject path, only the first element of "weather" is used */
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (OWM_WEATHER_ID.equals(reader.nextName())) {
+                            weatherId = (int) reader.nextDouble();
+                            seenFields |= DAY_FIELD_WEATHER_ID;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (seenFields != DAY_FIELDS_ALL) {
+            throw new IOException("Incomplete forecast for day " + dateTimeMillis);
+        }
+
+        ContentValues weatherValues = new ContentValues();
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTimeMillis);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+
+        return weatherValues;
+    }
+}
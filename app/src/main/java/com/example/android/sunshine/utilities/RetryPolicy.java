@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How NetworkUtils retries a request for the forecast that failed: how many times it tries in
+ * all, how long it waits in between, and how long each try may take.
+ * <p>
+ * The waits use "decorrelated jitter": each one is picked at random between the base delay and
+ * three times the wait before it, up to the maximum delay. The waits grow about as quickly as
+ * when doubling them, but two devices that failed at the same moment don't keep retrying at the
+ * same moments too, which would hit a server that is struggling to recover all at once.
+ */
+public final class RetryPolicy {
+
+    /*
+     * What syncs use. A sync runs in the background, but a retry that comes too late is no
+     * better than the next sync, so the retries are over within seconds.
+     */
+    public static final RetryPolicy DEFAULT = new RetryPolicy(3,
+            500,
+            TimeUnit.SECONDS.toMillis(10),
+            (int) TimeUnit.SECONDS.toMillis(15));
+
+    private final int mMaxAttempts;
+    private final long mBaseDelayMillis;
+    private final long mMaxDelayMillis;
+    private final int mTimeoutMillis;
+    private final Random mRandom;
+
+    /**
+     * @param maxAttempts     How many times to try a request in all, at least 1
+     * @param baseDelayMillis The shortest wait before a retry
+     * @param maxDelayMillis  The longest wait before a retry. A server that asks us to wait
+     *                        longer than this with Retry-After isn't retried.
+     * @param timeoutMillis   How long connecting, and then each read, may take
+     */
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis,
+                       int timeoutMillis) {
+        this(maxAttempts, baseDelayMillis, maxDelayMillis, timeoutMillis, new Random());
+    }
+
+    /* Tests pass a seeded Random to get the same waits every time */
+    RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, int timeoutMillis,
+                Random random) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1: " + maxAttempts);
+        }
+        mMaxAttempts = maxAttempts;
+        mBaseDelayMillis = baseDelayMillis;
+        mMaxDelayMillis = Math.max(baseDelayMillis, maxDelayMillis);
+        mTimeoutMillis = timeoutMillis;
+        mRandom = random;
+    }
+
+    public int getMaxAttempts() {
+        return mMaxAttempts;
+    }
+
+    public long getBaseDelayMillis() {
+        return mBaseDelayMillis;
+    }
+
+    public long getMaxDelayMillis() {
+        return mMaxDelayMillis;
+    }
+
+    public int getTimeoutMillis() {
+        return mTimeoutMillis;
+    }
+
+    /**
+     * @param previousDelayMillis The wait before the previous retry, or the base delay if this
+     *                            is the first retry
+     * @return How long to wait before the next retry
+     */
+    public long getNextDelayMillis(long previousDelayMillis) {
+        long upperBound = Math.min(mMaxDelayMillis,
+                Math.max(mBaseDelayMillis, previousDelayMillis * 3));
+        return mBaseDelayMillis + (long) (mRandom.nextDouble() * (upperBound - mBaseDelayMillis));
+    }
+}
@@ -32,6 +32,27 @@ public final class SunshineDateUtils {
     /* Milliseconds in a day */
     public static final long DAY_IN_MILLIS = TimeUnit.DAYS.toMillis(1);
 
+    /*
+     * The local time zone's offset around now, and around the forecast dates we've looked at.
+     * They are kept apart because a cache only holds one span: near a daylight saving change,
+     * now and the forecast can fall on either side of it, and would keep replacing each other.
+     */
+    private static final ZoneOffsetCache sNowOffsets = new ZoneOffsetCache();
+    private static final ZoneOffsetCache sForecastOffsets = new ZoneOffsetCache();
+
+    /* The strings getFriendlyDateString has already built */
+    static final FriendlyDateCache sFriendlyDateCache = new FriendlyDateCache();
+
+    /*
+     * The default time zone. TimeZone.getDefault() returns a new clone on every call, so the
+     * zone is held here instead, and the caches above can tell it is the same by identity. Null
+     * until first used, and after the time zone changes.
+     */
+    private static volatile TimeZone sDefaultTimeZone;
+
+    /* When (in UTC) the local day sDefaultTimeZone was looked up on ends */
+    private static volatile long sDefaultTimeZoneExpiresAt;
+
     /**
      * This method returns the number of milliseconds (UTC time) for today's date at midnight in
      * the local time zone. For example, if you live in California and the day is September 20th,
@@ -56,7 +77,22 @@ public final class SunshineDateUtils {
      * time zone
      */
     public static long getNormalizedUtcDateForToday() {
+        return fromEpochDay(getEpochDayForToday());
+    }
 
+    /**
+     * This method returns today's date in the local time zone as an epoch day, the number of days
+     * from January 1st, 1970 to today. This is the same day getNormalizedUtcDateForToday returns
+     * the UTC midnight of.
+     * <p>
+     * The time zone's offset from UTC changes only a couple of times a year, so rather than
+     * asking the time zone for it on every call, the offset is remembered along with the span of
+     * time it holds for (see {@link ZoneOffsetCache}). The default time zone is held as well,
+     * see {@link #getDefaultTimeZone()}.
+     *
+     * @return The number of days from the epoch to today's date in the local time zone
+     */
+    public static long getEpochDayForToday() {
         /*
          * This number represents the number of milliseconds that have elapsed since January
          * 1st, 1970 at midnight in the GMT time zone.
@@ -64,49 +100,82 @@ public final class SunshineDateUtils {
         long utcNowMillis = System.currentTimeMillis();
 
         /*
-         * This TimeZone represents the device's current time zone. It provides us with a means
-         * of acquiring the offset for local time from a UTC time stamp.
+         * The offset is the number of milliseconds to add to UTC time to get the elapsed time
+         * since the epoch for our current time zone, including daylight savings time.
          */
-        TimeZone currentTimeZone = TimeZone.getDefault();
+        long gmtOffsetMillis = sNowOffsets.getOffset(getDefaultTimeZone(utcNowMillis),
+                utcNowMillis);
 
-        /*
-         * The getOffset method returns the number of milliseconds to add to UTC time to get the
-         * elapsed time since the epoch for our current time zone. We pass the current UTC time
-         * into this method so it can determine changes to account for daylight savings time.
-         */
-        long gmtOffsetMillis = currentTimeZone.getOffset(utcNowMillis);
+        return toEpochDay(utcNowMillis + gmtOffsetMillis);
+    }
 
-        /*
-         * UTC time is measured in milliseconds from January 1, 1970 at midnight from the GMT
-         * time zone. Depending on your time zone, the time since January 1, 1970 at midnight (GMT)
-         * will be greater or smaller. This variable represents the number of milliseconds since
-         * January 1, 1970 (GMT) time.
-         */
-        long timeSinceEpochLocalTimeMillis = utcNowMillis + gmtOffsetMillis;
+    /**
+     * Returns the default time zone without cloning it on every call, as TimeZone.getDefault()
+     * does. The zone is looked up again after {@link #refreshDefaultTimeZone()}, which
+     * TimeZoneChangedReceiver calls when the user changes the time zone, and once a day in case
+     * the default changed some other way. The same zone is returned until then, so it can be
+     * compared by identity.
+     *
+     * @return The default time zone, which must not be modified
+     */
+    static TimeZone getDefaultTimeZone() {
+        return getDefaultTimeZone(System.currentTimeMillis());
+    }
 
-        /* This method simply converts milliseconds to days, disregarding any fractional days */
-        long daysSinceEpochLocal = TimeUnit.MILLISECONDS.toDays(timeSinceEpochLocalTimeMillis);
+    private static TimeZone getDefaultTimeZone(long utcNowMillis) {
+        TimeZone timeZone = sDefaultTimeZone;
+        if (timeZone != null && utcNowMillis < sDefaultTimeZoneExpiresAt) {
+            return timeZone;
+        }
 
-        /*
-         * Finally, we convert back to milliseconds. This time stamp represents today's date at
-         * midnight in GMT time. We will need to account for local time zone offsets when
-         * extracting this information from the database.
-         */
-        long normalizedUtcMidnightMillis = TimeUnit.DAYS.toMillis(daysSinceEpochLocal);
+        synchronized (SunshineDateUtils.class) {
+            /* Another thread may have looked it up while this one waited */
+            timeZone = sDefaultTimeZone;
+            if (timeZone != null && utcNowMillis < sDefaultTimeZoneExpiresAt) {
+                return timeZone;
+            }
 
-        return normalizedUtcMidnightMillis;
+            timeZone = TimeZone.getDefault();
+            long gmtOffsetMillis = timeZone.getOffset(utcNowMillis);
+            long tomorrow = toEpochDay(utcNowMillis + gmtOffsetMillis) + 1;
+            sDefaultTimeZoneExpiresAt = fromEpochDay(tomorrow) - gmtOffsetMillis;
+            sDefaultTimeZone = timeZone;
+            return timeZone;
+        }
     }
 
     /**
-     * This method returns the number of days since the epoch (January 01, 1970, 12:00 Midnight UTC)
-     * in UTC time from the current date.
+     * Makes {@link #getDefaultTimeZone()} look the default time zone up again. Called when the
+     * time zone changes, and by tests that change it themselves.
+     */
+    public static void refreshDefaultTimeZone() {
+        sDefaultTimeZone = null;
+    }
+
+    /**
+     * Converts a time to the epoch day it falls on, counting days from January 1st, 1970 in UTC.
+     * Times before the epoch fall on negative days.
      *
-     * @param utcDate A date in milliseconds in UTC time.
+     * @param utcMillis Milliseconds since January 1st, 1970 at midnight UTC
+     * @return The number of whole days from the epoch to utcMillis, rounded down
+     */
+    public static long toEpochDay(long utcMillis) {
+        long epochDay = utcMillis / DAY_IN_MILLIS;
+        /* Division rounds towards zero, and days before the epoch have to round down */
+        if (utcMillis < 0 && epochDay * DAY_IN_MILLIS != utcMillis) {
+            epochDay--;
+        }
+        return epochDay;
+    }
+
+    /**
+     * Converts an epoch day to the normalized date stored in the database for it.
      *
-     * @return The number of days from the epoch to the date argument.
+     * @param epochDay The number of days since January 1st, 1970
+     * @return Milliseconds since the epoch at midnight UTC of that day
      */
-    private static long elapsedDaysSinceEpoch(long utcDate) {
-        return TimeUnit.MILLISECONDS.toDays(utcDate);
+    public static long fromEpochDay(long epochDay) {
+        return epochDay * DAY_IN_MILLIS;
     }
 
     /**
@@ -124,21 +193,15 @@ public final class SunshineDateUtils {
      *     Friday, 9/16/2016, 00:00:00 GMT (1473984000000)
      *
      * To make it easy to query for the exact date, we normalize all dates that go into
-     * the database to the start of the day in UTC time. In order to normalize the date, we take
-     * advantage of simple integer division, noting that any remainder is discarded when dividing
-     * two integers.
-     *
-     *     For example, dividing 7 / 3 (when using integer division) equals 2, not 2.333 repeating
-     *   as you may expect.
+     * the database to the start of the day in UTC time. In order to normalize the date, we
+     * convert it to the epoch day it falls on, and back.
      *
      * @param date The date (in milliseconds) to normalize
      *
      * @return The UTC date at 12 midnight of the date
      */
     public static long normalizeDate(long date) {
-        long daysSinceEpoch = elapsedDaysSinceEpoch(date);
-        long millisFromEpochToTodayAtMidnightUtc = daysSinceEpoch * DAY_IN_MILLIS;
-        return millisFromEpochToTodayAtMidnightUtc;
+        return fromEpochDay(toEpochDay(date));
     }
 
     /**
@@ -151,12 +214,7 @@ public final class SunshineDateUtils {
      * @return true if the date represents the beginning of a day in Unix time, false otherwise
      */
     public static boolean isDateNormalized(long millisSinceEpoch) {
-        boolean isDateNormalized = false;
-        if (millisSinceEpoch % DAY_IN_MILLIS == 0) {
-            isDateNormalized = true;
-        }
-
-        return isDateNormalized;
+        return fromEpochDay(toEpochDay(millisSinceEpoch)) == millisSinceEpoch;
     }
 
     /**
@@ -169,12 +227,12 @@ public final class SunshineDateUtils {
      */
     private static long getLocalMidnightFromNormalizedUtcDate(long normalizedUtcDate) {
         /* The timeZone object will provide us the current user's time zone offset */
-        TimeZone timeZone = TimeZone.getDefault();
+        TimeZone timeZone = getDefaultTimeZone();
         /*
          * This offset, in milliseconds, when added to a UTC date time, will produce the local
          * time.
          */
-        long gmtOffset = timeZone.getOffset(normalizedUtcDate);
+        long gmtOffset = sForecastOffsets.getOffset(timeZone, normalizedUtcDate);
         long localMidnightMillis = normalizedUtcDate - gmtOffset;
         return localMidnightMillis;
     }
@@ -199,6 +257,20 @@ public final class SunshineDateUtils {
      * or "Friday"
      */
     public static String getFriendlyDateString(Context context, long normalizedUtcMidnight, boolean showFullDate) {
+        /*
+         * Formatting a date takes far longer than looking it up, and the same few days are shown
+         * over and over by the forecast list, the detail screen and notifications.
+         */
+        return sFriendlyDateCache.get(context, normalizedUtcMidnight, showFullDate);
+    }
+
+    /**
+     * Builds the string getFriendlyDateString returns, without looking in the cache first.
+     *
+     * @see #getFriendlyDateString(Context, long, boolean)
+     */
+    static String formatFriendlyDateString(Context context, long normalizedUtcMidnight,
+                                           boolean showFullDate) {
 
         /*
          * NOTE: localDate should be localDateMidnightMillis and should be straight from the
@@ -211,26 +283,27 @@ public final class SunshineDateUtils {
         long localDate = getLocalMidnightFromNormalizedUtcDate(normalizedUtcMidnight);
 
         /*
-         * In order to determine which day of the week we are creating a date string for, we need
-         * to compare the number of days that have passed since the epoch (January 1, 1970 at
-         * 00:00 GMT)
+         * In order to determine which day of the week we are creating a date string for, we
+         * compare epoch days, the number of days that have passed since the epoch (January 1,
+         * 1970). The normalized date already is the local date's epoch day at midnight UTC.
          */
-        long daysFromEpochToProvidedDate = elapsedDaysSinceEpoch(localDate);
+        long daysFromEpochToProvidedDate = toEpochDay(normalizedUtcMidnight);
 
         /*
          * As a basis for comparison, we use the number of days that have passed from the epoch
-         * until today.
+         * until today in the local time zone.
          */
-        long daysFromEpochToToday = elapsedDaysSinceEpoch(System.currentTimeMillis());
+        long daysFromEpochToToday = getEpochDayForToday();
+        int daysAfterToday = (int) (daysFromEpochToProvidedDate - daysFromEpochToToday);
 
-        if (daysFromEpochToProvidedDate == daysFromEpochToToday || showFullDate) {
+        if (daysAfterToday == 0 || showFullDate) {
             /*
              * If the date we're building the String for is today's date, the format
              * is "Today, June 24"
              */
-            String dayName = getDayName(context, localDate);
+            String dayName = getDayName(context, localDate, daysAfterToday);
             String readableDate = getReadableDateString(context, localDate);
-            if (daysFromEpochToProvidedDate - daysFromEpochToToday < 2) {
+            if (daysAfterToday < 2) {
                 /*
                  * Since there is no localized format that returns "Today" or "Tomorrow" in the API
                  * levels we have to support, we take the name of the day (from SimpleDateFormat)
@@ -246,9 +319,9 @@ public final class SunshineDateUtils {
             } else {
                 return readableDate;
             }
-        } else if (daysFromEpochToProvidedDate < daysFromEpochToToday + 7) {
+        } else if (daysAfterToday < 7) {
             /* If the input date is less than a week in the future, just return the day name. */
-            return getDayName(context, localDate);
+            return getDayName(context, localDate, daysAfterToday);
         } else {
             int flags = DateUtils.FORMAT_SHOW_DATE
                     | DateUtils.FORMAT_NO_YEAR
@@ -280,21 +353,17 @@ public final class SunshineDateUtils {
      * Given a day, returns just the name to use for that day.
      *   E.g "today", "tomorrow", "Wednesday".
      *
-     * @param context      Context to use for resource localization
-     * @param dateInMillis The date in milliseconds (UTC time)
+     * @param context        Context to use for resource localization
+     * @param dateInMillis   The date in milliseconds (local time at midnight)
+     * @param daysAfterToday The number of days from today to the date
      *
      * @return the string day of the week
      */
-    private static String getDayName(Context context, long dateInMillis) {
+    private static String getDayName(Context context, long dateInMillis, int daysAfterToday) {
         /*
          * If the date is today, return the localized version of "Today" instead of the actual
          * day name.
          */
-        long daysFromEpochToProvidedDate = elapsedDaysSinceEpoch(dateInMillis);
-        long daysFromEpochToToday = elapsedDaysSinceEpoch(System.currentTimeMillis());
-
-        int daysAfterToday = (int) (daysFromEpochToProvidedDate - daysFromEpochToToday);
-
         switch (daysAfterToday) {
             case 0:
                 return context.getString(R.string.today);
@@ -306,4 +375,4 @@ public final class SunshineDateUtils {
                 return dayFormat.format(dateInMillis);
         }
     }
-}
\ No newline at end of file
+}
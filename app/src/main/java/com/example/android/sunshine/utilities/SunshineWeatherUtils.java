@@ -20,6 +20,9 @@ import android.util.Log;
 
 import com.example.android.sunshine.R;
 import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.shared.WeatherConditions;
+
+import java.util.Arrays;
 
 /**
  * Contains useful utilities for a weather app, such as conversion between Celsius and Fahrenheit,
@@ -30,6 +33,94 @@ public final class SunshineWeatherUtils {
 
     private static final String LOG_TAG = SunshineWeatherUtils.class.getSimpleName();
 
+    /*
+     * The drawables for each of WeatherConditions' ART_ constants, in the same order, for the
+     * list items of future days and for today and the detail screen respectively.
+     */
+    private static final int[] SMALL_ART = {
+            R.drawable.ic_storm,
+            R.drawable.ic_light_rain,
+            R.drawable.ic_rain,
+            R.drawable.ic_snow,
+            R.drawable.ic_fog,
+            R.drawable.ic_clear,
+            R.drawable.ic_light_clouds,
+            R.drawable.ic_cloudy,
+    };
+
+    private static final int[] LARGE_ART = {
+            R.drawable.art_storm,
+            R.drawable.art_light_rain,
+            R.drawable.art_rain,
+            R.drawable.art_snow,
+            R.drawable.art_fog,
+            R.drawable.art_clear,
+            R.drawable.art_light_clouds,
+            R.drawable.art_clouds,
+    };
+
+    /* The string of each condition that has one of its own. 2xx and 3xx share one per group. */
+    private static final int[][] CONDITION_STRING_IDS = {
+            {500, R.string.condition_500},
+            {501, R.string.condition_501},
+            {502, R.string.condition_502},
+            {503, R.string.condition_503},
+            {504, R.string.condition_504},
+            {511, R.string.condition_511},
+            {520, R.string.condition_520},
+            {531, R.string.condition_531},
+            {600, R.string.condition_600},
+            {601, R.string.condition_601},
+            {602, R.string.condition_602},
+            {611, R.string.condition_611},
+            {612, R.string.condition_612},
+            {615, R.string.condition_615},
+            {616, R.string.condition_616},
+            {620, R.string.condition_620},
+            {621, R.string.condition_621},
+            {622, R.string.condition_622},
+            {701, R.string.condition_701},
+            {711, R.string.condition_711},
+            {721, R.string.condition_721},
+            {731, R.string.condition_731},
+            {741, R.string.condition_741},
+            {751, R.string.condition_751},
+            {761, R.string.condition_761},
+            {762, R.string.condition_762},
+            {771, R.string.condition_771},
+            {781, R.string.condition_781},
+            {800, R.string.condition_800},
+            {801, R.string.condition_801},
+            {802, R.string.condition_802},
+            {803, R.string.condition_803},
+            {804, R.string.condition_804},
+            {900, R.string.condition_900},
+            {901, R.string.condition_901},
+            {902, R.string.condition_902},
+            {903, R.string.condition_903},
+            {904, R.string.condition_904},
+            {905, R.string.condition_905},
+            {906, R.string.condition_906},
+            {951, R.string.condition_951},
+            {952, R.string.condition_952},
+            {953, R.string.condition_953},
+            {954, R.string.condition_954},
+            {955, R.string.condition_955},
+            {956, R.string.condition_956},
+            {957, R.string.condition_957},
+            {958, R.string.condition_958},
+            {959, R.string.condition_959},
+            {960, R.string.condition_960},
+            {961, R.string.condition_961},
+            {962, R.string.condition_962},
+    };
+
+    /*
+     * The string of every condition id from 0 to WeatherConditions.MAX_ID, or 0 if there is
+     * none, so that looking it up on every bind is one array read.
+     */
+    private static final int[] CONDITION_STRINGS = createConditionStringTable();
+
     /**
      * This method will convert a temperature from Celsius to Fahrenheit.
      *
@@ -142,175 +233,26 @@ public final class SunshineWeatherUtils {
      * @return String for the weather condition, null if no relation is found.
      */
     public static String getStringForWeatherCondition(Context context, int weatherId) {
-        int stringId;
-        if (weatherId >= 200 && weatherId <= 232) {
-            stringId = R.string.condition_2xx;
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            stringId = R.string.condition_3xx;
-        } else switch (weatherId) {
-            case 500:
-                stringId = R.string.condition_500;
-                break;
-            case 501:
-                stringId = R.string.condition_501;
-                break;
-            case 502:
-                stringId = R.string.condition_502;
-                break;
-            case 503:
-                stringId = R.string.condition_503;
-                break;
-            case 504:
-                stringId = R.string.condition_504;
-                break;
-            case 511:
-                stringId = R.string.condition_511;
-                break;
-            case 520:
-                stringId = R.string.condition_520;
-                break;
-            case 531:
-                stringId = R.string.condition_531;
-                break;
-            case 600:
-                stringId = R.string.condition_600;
-                break;
-            case 601:
-                stringId = R.string.condition_601;
-                break;
-            case 602:
-                stringId = R.string.condition_602;
-                break;
-            case 611:
-                stringId = R.string.condition_611;
-                break;
-            case 612:
-                stringId = R.string.condition_612;
-                break;
-            case 615:
-                stringId = R.string.condition_615;
-                break;
-            case 616:
-                stringId = R.string.condition_616;
-                break;
-            case 620:
-                stringId = R.string.condition_620;
-                break;
-            case 621:
-                stringId = R.string.condition_621;
-                break;
-            case 622:
-                stringId = R.string.condition_622;
-                break;
-            case 701:
-                stringId = R.string.condition_701;
-                break;
-            case 711:
-                stringId = R.string.condition_711;
-                break;
-            case 721:
-                stringId = R.string.condition_721;
-                break;
-            case 731:
-                stringId = R.string.condition_731;
-                break;
-            case 741:
-                stringId = R.string.condition_741;
-                break;
-            case 751:
-                stringId = R.string.condition_751;
-                break;
-            case 761:
-                stringId = R.string.condition_761;
-                break;
-            case 762:
-                stringId = R.string.condition_762;
-                break;
-            case 771:
-                stringId = R.string.condition_771;
-                break;
-            case 781:
-                stringId = R.string.condition_781;
-                break;
-            case 800:
-                stringId = R.string.condition_800;
-                break;
-            case 801:
-                stringId = R.string.condition_801;
-                break;
-            case 802:
-                stringId = R.string.condition_802;
-                break;
-            case 803:
-                stringId = R.string.condition_803;
-                break;
-            case 804:
-                stringId = R.string.condition_804;
-                break;
-            case 900:
-                stringId = R.string.condition_900;
-                break;
-            case 901:
-                stringId = R.string.condition_901;
-                break;
-            case 902:
-                stringId = R.string.condition_902;
-                break;
-            case 903:
-                stringId = R.string.condition_903;
-                break;
-            case 904:
-                stringId = R.string.condition_904;
-                break;
-            case 905:
-                stringId = R.string.condition_905;
-                break;
-            case 906:
-                stringId = R.string.condition_906;
-                break;
-            case 951:
-                stringId = R.string.condition_951;
-                break;
-            case 952:
-                stringId = R.string.condition_952;
-                break;
-            case 953:
-                stringId = R.string.condition_953;
-                break;
-            case 954:
-                stringId = R.string.condition_954;
-                break;
-            case 955:
-                stringId = R.string.condition_955;
-                break;
-            case 956:
-                stringId = R.string.condition_956;
-                break;
-            case 957:
-                stringId = R.string.condition_957;
-                break;
-            case 958:
-                stringId = R.string.condition_958;
-                break;
-            case 959:
-                stringId = R.string.condition_959;
-                break;
-            case 960:
-                stringId = R.string.condition_960;
-                break;
-            case 961:
-                stringId = R.string.condition_961;
-                break;
-            case 962:
-                stringId = R.string.condition_962;
-                break;
-            default:
-                return context.getString(R.string.condition_unknown, weatherId);
+        int stringId = weatherId >= 0 && weatherId <= WeatherConditions.MAX_ID
+                ? CONDITION_STRINGS[weatherId]
+                : 0;
+        if (stringId == 0) {
+            return context.getString(R.string.condition_unknown, weatherId);
         }
 
         return context.getString(stringId);
     }
 
+    private static int[] createConditionStringTable() {
+        int[] table = new int[WeatherConditions.MAX_ID + 1];
+        Arrays.fill(table, 200, 232 + 1, R.string.condition_2xx);
+        Arrays.fill(table, 300, 321 + 1, R.string.condition_3xx);
+        for (int[] condition : CONDITION_STRING_IDS) {
+            table[condition[0]] = condition[1];
+        }
+        return table;
+    }
+
     /**
      * Helper method to provide the icon resource id according to the weather condition id returned
      * by the OpenWeatherMap call. This method is very similar to
@@ -326,42 +268,7 @@ public final class SunshineWeatherUtils {
      * @return resource id for the corresponding icon. -1 if no relation is found.
      */
     public static int getSmallArtResourceIdForWeatherCondition(int weatherId) {
-
-        /*
-         * Based on weather code data for Open Weather Map.
-         */
-        if (weatherId >= 200 && weatherId <= 232) {
-            return R.drawable.ic_storm;
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return R.drawable.ic_light_rain;
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return R.drawable.ic_rain;
-        } else if (weatherId == 511) {
-            return R.drawable.ic_snow;
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return R.drawable.ic_rain;
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return R.drawable.ic_snow;
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return R.drawable.ic_fog;
-        } else if (weatherId == 761 || weatherId == 771 || weatherId == 781) {
-            return R.drawable.ic_storm;
-        } else if (weatherId == 800) {
-            return R.drawable.ic_clear;
-        } else if (weatherId == 801) {
-            return R.drawable.ic_light_clouds;
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return R.drawable.ic_cloudy;
-        } else if (weatherId >= 900 && weatherId <= 906) {
-            return R.drawable.ic_storm;
-        } else if (weatherId >= 958 && weatherId <= 962) {
-            return R.drawable.ic_storm;
-        } else if (weatherId >= 951 && weatherId <= 957) {
-            return R.drawable.ic_clear;
-        }
-
-        Log.e(LOG_TAG, "Unknown Weather: " + weatherId);
-        return R.drawable.ic_storm;
+        return SMALL_ART[getArt(weatherId)];
     }
 
     /**
@@ -379,41 +286,19 @@ public final class SunshineWeatherUtils {
      * @return resource ID for the corresponding icon. -1 if no relation is found.
      */
     public static int getLargeArtResourceIdForWeatherCondition(int weatherId) {
+        return LARGE_ART[getArt(weatherId)];
+    }
 
-        /*
-         * Based on weather code data for Open Weather Map.
-         */
-        if (weatherId >= 200 && weatherId <= 232) {
-            return R.drawable.art_storm;
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return R.drawable.art_light_rain;
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return R.drawable.art_rain;
-        } else if (weatherId == 511) {
-            return R.drawable.art_snow;
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return R.drawable.art_rain;
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return R.drawable.art_snow;
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return R.drawable.art_fog;
-        } else if (weatherId == 761 || weatherId == 771 || weatherId == 781) {
-            return R.drawable.art_storm;
-        } else if (weatherId == 800) {
-            return R.drawable.art_clear;
-        } else if (weatherId == 801) {
-            return R.drawable.art_light_clouds;
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return R.drawable.art_clouds;
-        } else if (weatherId >= 900 && weatherId <= 906) {
-            return R.drawable.art_storm;
-        } else if (weatherId >= 958 && weatherId <= 962) {
-            return R.drawable.art_storm;
-        } else if (weatherId >= 951 && weatherId <= 957) {
-            return R.drawable.art_clear;
+    /**
+     * @return The art to show for the condition, as an index into SMALL_ART and LARGE_ART.
+     * Storm for an unknown condition.
+     */
+    private static int getArt(int weatherId) {
+        int art = WeatherConditions.getArt(weatherId);
+        if (art == WeatherConditions.UNKNOWN) {
+            Log.e(LOG_TAG, "Unknown Weather: " + weatherId);
+            return WeatherConditions.ART_STORM;
         }
-
-        Log.e(LOG_TAG, "Unknown Weather: " + weatherId);
-        return R.drawable.art_storm;
+        return art;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.util.TimeZone;
+
+/**
+ * Remembers a time zone's offset from UTC together with the span of time over which it holds,
+ * from one offset transition (such as the start of daylight saving time) to the next. Sunshine's
+ * dates are all within a couple of weeks of today, so nearly every lookup falls in that span and
+ * is answered without asking the time zone.
+ * <p>
+ * Only one span is remembered at a time, and only for one time zone. A lookup for another zone,
+ * or an instant outside the span, finds the span around that instant instead, so instants that
+ * are looked up in turn from either side of a transition need a cache each. Zones are told
+ * apart by identity, so callers pass the same TimeZone instance for as long as the zone is the
+ * same, see SunshineDateUtils#getDefaultTimeZone.
+ */
+final class ZoneOffsetCache {
+
+    private static final long DAY_IN_MILLIS = SunshineDateUtils.DAY_IN_MILLIS;
+
+    /*
+     * How far on either side of an instant to look for a transition. A span can't be longer
+     * than twice this, even if the offset never changes.
+     */
+    private static final long MAX_SEARCH_MILLIS = 15 * DAY_IN_MILLIS;
+
+    /* The zone the span belongs to, null until the first lookup */
+    private TimeZone mZone;
+
+    /* mOffset holds from mValidFromMillis up to, but not including, mValidUntilMillis */
+    private int mOffset;
+    private long mValidFromMillis;
+    private long mValidUntilMillis;
+
+    private long mMissCount;
+
+    /**
+     * @param zone      The time zone
+     * @param utcMillis An instant, in milliseconds since the epoch
+     * @return The same as zone.getOffset(utcMillis)
+     */
+    synchronized int getOffset(TimeZone zone, long utcMillis) {
+        if (zone != mZone || utcMillis < mValidFromMillis || utcMillis >= mValidUntilMillis) {
+            findSpan(zone, utcMillis);
+        }
+        return mOffset;
+    }
+
+    /** @return How many lookups had to ask the time zone, for tests */
+    synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /*
+     * Finds the span around utcMillis one day at a time, and then the transition that ends it to
+     * the millisecond. This assumes that a zone's offset never changes twice in one day, which
+     * holds for every zone there is.
+     */
+    private void findSpan(TimeZone zone, long utcMillis) {
+        mMissCount++;
+
+        int offset = zone.getOffset(utcMillis);
+
+        /* until and from move away from utcMillis for as long as the offset stays the same */
+        long until = utcMillis;
+        long untilLimit = saturatedAdd(utcMillis, MAX_SEARCH_MILLIS);
+        long validUntil = untilLimit;
+        while (until < untilLimit) {
+            long next = Math.min(saturatedAdd(until, DAY_IN_MILLIS), untilLimit);
+            if (zone.getOffset(next) != offset) {
+                validUntil = firstDifferentOffset(zone, offset, until, next);
+                break;
+            }
+            until = next;
+        }
+
+        long from = utcMillis;
+        long fromLimit = saturatedAdd(utcMillis, -MAX_SEARCH_MILLIS);
+        long validFrom = fromLimit;
+        while (from > fromLimit) {
+            long previous = Math.max(saturatedAdd(from, -DAY_IN_MILLIS), fromLimit);
+            if (zone.getOffset(previous) != offset) {
+                validFrom = lastDifferentOffset(zone, offset, previous, from) + 1;
+                break;
+            }
+            from = previous;
+        }
+
+        mZone = zone;
+        mOffset = offset;
+        mValidFromMillis = validFrom;
+        mValidUntilMillis = validUntil;
+    }
+
+    /**
+     * @return The first instant after same, up to and including different, at which zone's
+     * offset isn't offset. The offset is offset at same and something else at different.
+     */
+    private static long firstDifferentOffset(TimeZone zone, int offset, long same,
+                                             long different) {
+        while (different - same > 1) {
+            long middle = same + (different - same) / 2;
+            if (zone.getOffset(middle) == offset) {
+                same = middle;
+            } else {
+                different = middle;
+            }
+        }
+        return different;
+    }
+
+    /**
+     * @return The last instant before same, down to and including different, at which zone's
+     * offset isn't offset. The offset is something else at different and offset at same.
+     */
+    private static long lastDifferentOffset(TimeZone zone, int offset, long different,
+                                            long same) {
+        while (same - different > 1) {
+            long middle = different + (same - different) / 2;
+            if (zone.getOffset(middle) == offset) {
+                same = middle;
+            } else {
+                different = middle;
+            }
+        }
+        return different;
+    }
+
+    private static long saturatedAdd(long millis, long delta) {
+        long sum = millis + delta;
+        /* Overflow only happens if both have the same sign and the sum has the other one */
+        if (((millis ^ sum) & (delta ^ sum)) < 0) {
+            return delta > 0 ? Long.MAX_VALUE : Long.MIN_VALUE;
+        }
+        return sum;
+    }
+}
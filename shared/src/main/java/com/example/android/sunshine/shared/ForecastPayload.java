@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.shared;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * The forecast the phone pushes to the watch, and its binary encoding.
+ * <p>
+ * The encoding has a fixed layout, big endian:
+ * <pre>
+ *   byte    version, currently 1
+ *   byte    number of days, n
+ *   int     first date, in days since the epoch
+ *   n times:
+ *     byte  date, in days after the first date
+ *     byte  condition, as an index into {@link WeatherConditions}, or 0xFF if unknown
+ *     short max temperature, in tenths of a degree
+ *     short min temperature, in tenths of a degree
+ * </pre>
+ * The same forecast always encodes to the same bytes, so the Data Layer can tell when a push
+ * hasn't changed anything.
+ */
+public final class ForecastPayload {
+
+    /* The path of the data item the payload is put at */
+    public static final String PATH = "/forecast";
+
+    public static final int VERSION = 1;
+
+    private static final int HEADER_BYTES = 6;
+    private static final int DAY_BYTES = 6;
+
+    private static final int MAX_DAYS = 0xFF;
+    private static final int MAX_DAY_OFFSET = 0xFF;
+    private static final int UNKNOWN_CONDITION = 0xFF;
+
+    private static final float TEMPERATURE_SCALE = 10f;
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private final long[] mDates;
+    private final int[] mWeatherIds;
+    private final float[] mMaxTemps;
+    private final float[] mMinTemps;
+
+    /**
+     * @param dates      The date of each day, as midnight UTC in milliseconds, ascending
+     * @param weatherIds The Open Weather Map condition id of each day
+     * @param maxTemps   The max temperature of each day
+     * @param minTemps   The min temperature of each day
+     */
+    public ForecastPayload(long[] dates, int[] weatherIds, float[] maxTemps, float[] minTemps) {
+        int days = dates.length;
+        if (weatherIds.length != days || maxTemps.length != days || minTemps.length != days) {
+            throw new IllegalArgumentException("Every array needs one value per day");
+        }
+        mDates = dates;
+        mWeatherIds = weatherIds;
+        mMaxTemps = maxTemps;
+        mMinTemps = minTemps;
+    }
+
+    public int getDayCount() {
+        return mDates.length;
+    }
+
+    /** @return The date of the day, as midnight UTC in milliseconds */
+    public long getDate(int day) {
+        return mDates[day];
+    }
+
+    /** @return The condition id of the day, or {@link WeatherConditions#UNKNOWN} */
+    public int getWeatherId(int day) {
+        return mWeatherIds[day];
+    }
+
+    public float getMaxTemp(int day) {
+        return mMaxTemps[day];
+    }
+
+    public float getMinTemp(int day) {
+        return mMinTemps[day];
+    }
+
+    /**
+     * Encodes the forecast. Temperatures are rounded to a tenth of a degree, and condition ids
+     * that aren't in {@link WeatherConditions} are sent as unknown.
+     *
+     * @throws IllegalArgumentException If the forecast doesn't fit the format: dates that aren't
+     *                                  midnight UTC or ascending, or too many days
+     */
+    public byte[] toByteArray() {
+        int days = mDates.length;
+        if (days > MAX_DAYS) {
+            throw new IllegalArgumentException("Too many days: " + days);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + days * DAY_BYTES);
+        long firstDay = days > 0 ? toEpochDay(mDates[0]) : 0;
+        buffer.put((byte) VERSION);
+        buffer.put((byte) days);
+        buffer.putInt((int) firstDay);
+
+        long previousDay = firstDay - 1;
+        for (int day = 0; day < days; day++) {
+            long epochDay = toEpochDay(mDates[day]);
+            if (epochDay <= previousDay || epochDay - firstDay > MAX_DAY_OFFSET) {
+                throw new IllegalArgumentException("Dates must be ascending and span at most "
+                        + MAX_DAY_OFFSET + " days: " + mDates[day]);
+            }
+            previousDay = epochDay;
+
+            int condition = WeatherConditions.indexOf(mWeatherIds[day]);
+            buffer.put((byte) (epochDay - firstDay));
+            buffer.put((byte) (condition == WeatherConditions.UNKNOWN
+                    ? UNKNOWN_CONDITION
+                    : condition));
+            buffer.putShort(toScaledTemperature(mMaxTemps[day]));
+            buffer.putShort(toScaledTemperature(mMinTemps[day]));
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Decodes a forecast encoded by {@link #toByteArray()}.
+     *
+     * @throws IllegalArgumentException If the data isn't a forecast of this version
+     */
+    public static ForecastPayload fromByteArray(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        try {
+            int version = buffer.get() & 0xFF;
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported forecast version " + version);
+            }
+
+            int days = buffer.get() & 0xFF;
+            if (data.length != HEADER_BYTES + days * DAY_BYTES) {
+                throw new IllegalArgumentException("Forecast of " + days + " days can't be "
+                        + data.length + " bytes");
+            }
+            long firstDay = buffer.getInt();
+
+            long[] dates = new long[days];
+            int[] weatherIds = new int[days];
+            float[] maxTemps = new float[days];
+            float[] minTemps = new float[days];
+            for (int day = 0; day < days; day++) {
+                dates[day] = (firstDay + (buffer.get() & 0xFF)) * DAY_IN_MILLIS;
+                weatherIds[day] = WeatherConditions.idAt(buffer.get() & 0xFF);
+                maxTemps[day] = buffer.getShort() / TEMPERATURE_SCALE;
+                minTemps[day] = buffer.getShort() / TEMPERATURE_SCALE;
+            }
+            return new ForecastPayload(dates, weatherIds, maxTemps, minTemps);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Forecast is truncated", e);
+        }
+    }
+
+    private static long toEpochDay(long date) {
+        if (date % DAY_IN_MILLIS != 0) {
+            throw new IllegalArgumentException("Date isn't midnight UTC: " + date);
+        }
+        return date / DAY_IN_MILLIS;
+    }
+
+    private static short toScaledTemperature(float temperature) {
+        int scaled = Math.round(temperature * TEMPERATURE_SCALE);
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, scaled));
+    }
+}
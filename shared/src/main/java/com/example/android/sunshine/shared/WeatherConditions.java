@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.shared;
+
+import java.util.Arrays;
+
+/**
+ * The weather condition ids Open Weather Map uses, see
+ * http://openweathermap.org/weather-conditions. Lets a condition be sent as its small index in
+ * this table instead of its id, and tells the app and the watch face which art to show for it.
+ */
+public final class WeatherConditions {
+
+    /* Returned for an id that isn't in the table, or an index that isn't */
+    public static final int UNKNOWN = -1;
+
+    /*
+     * The art a condition is shown with. Each module maps these to its own drawables, such as
+     * R.drawable.ic_storm and R.drawable.art_storm for ART_STORM.
+     */
+    public static final int ART_STORM = 0;
+    public static final int ART_LIGHT_RAIN = 1;
+    public static final int ART_RAIN = 2;
+    public static final int ART_SNOW = 3;
+    public static final int ART_FOG = 4;
+    public static final int ART_CLEAR = 5;
+    public static final int ART_LIGHT_CLOUDS = 6;
+    public static final int ART_CLOUDS = 7;
+    public static final int ART_COUNT = 8;
+
+    /* Condition ids are three digits */
+    public static final int MAX_ID = 999;
+
+    /*
+     * Every condition id, sorted. The index of each id is part of ForecastPayload's format, so
+     * changing this table takes a new ForecastPayload version.
+     */
+    private static final int[] CONDITION_IDS = {
+            /* Thunderstorm */
+            200, 201, 202, 210, 211, 212, 221, 230, 231, 232,
+            /* Drizzle */
+            300, 301, 302, 310, 311, 312, 313, 314, 321,
+            /* Rain */
+            500, 501, 502, 503, 504, 511, 520, 521, 522, 531,
+            /* Snow */
+            600, 601, 602, 611, 612, 615, 616, 620, 621, 622,
+            /* Atmosphere */
+            701, 711, 721, 731, 741, 751, 761, 762, 771, 781,
+            /* Clear and clouds */
+            800, 801, 802, 803, 804,
+            /* Extreme */
+            900, 901, 902, 903, 904, 905, 906,
+            /* Additional */
+            951, 952, 953, 954, 955, 956, 957, 958, 959, 960, 961, 962,
+    };
+
+    /*
+     * The art of every id from 0 to MAX_ID, or UNKNOWN, so that looking it up is one array read.
+     * Each row is {first id, last id, art}. Where rows overlap the first one wins, as it did in
+     * the if/else chains this table replaces: 761 is fog, not storm.
+     */
+    private static final int[][] ART_RANGES = {
+            {200, 232, ART_STORM},
+            {300, 321, ART_LIGHT_RAIN},
+            {500, 504, ART_RAIN},
+            {511, 511, ART_SNOW},
+            {520, 531, ART_RAIN},
+            {600, 622, ART_SNOW},
+            {701, 761, ART_FOG},
+            {761, 761, ART_STORM},
+            {771, 771, ART_STORM},
+            {781, 781, ART_STORM},
+            {800, 800, ART_CLEAR},
+            {801, 801, ART_LIGHT_CLOUDS},
+            {802, 804, ART_CLOUDS},
+            {900, 906, ART_STORM},
+            {958, 962, ART_STORM},
+            {951, 957, ART_CLEAR},
+    };
+
+    private static final byte[] ART_BY_ID = createArtTable();
+
+    private WeatherConditions() {
+    }
+
+    private static byte[] createArtTable() {
+        byte[] table = new byte[MAX_ID + 1];
+        Arrays.fill(table, (byte) UNKNOWN);
+        for (int[] range : ART_RANGES) {
+            for (int id = range[0]; id <= range[1]; id++) {
+                if (table[id] == UNKNOWN) {
+                    table[id] = (byte) range[2];
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * @param weatherId An Open Weather Map condition id
+     * @return The art to show for the condition, one of the ART_ constants, or {@link #UNKNOWN}
+     */
+    public static int getArt(int weatherId) {
+        return weatherId >= 0 && weatherId <= MAX_ID ? ART_BY_ID[weatherId] : UNKNOWN;
+    }
+
+    /** @return The number of conditions in the table */
+    public static int size() {
+        return CONDITION_IDS.length;
+    }
+
+    /**
+     * @param weatherId An Open Weather Map condition id
+     * @return The index of the condition, or {@link #UNKNOWN}
+     */
+    public static int indexOf(int weatherId) {
+        int index = Arrays.binarySearch(CONDITION_IDS, weatherId);
+        return index >= 0 ? index : UNKNOWN;
+    }
+
+    /**
+     * @param index The index of a condition, as returned by {@link #indexOf(int)}
+     * @return The Open Weather Map condition id, or {@link #UNKNOWN}
+     */
+    public static int idAt(int index) {
+        return index >= 0 && index < CONDITION_IDS.length ? CONDITION_IDS[index] : UNKNOWN;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.wearable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A thread safe cache that holds values up to a total size, evicting the least recently used
+ * values first. The same idea as android.util.LruCache, but plain Java, so that it works in the
+ * JVM tests.
+ */
+abstract class BoundedLruCache<K, V> {
+
+    private final int mMaxSize;
+
+    /* Guarded by this. In access order, so the first entry is the least recently used. */
+    private final LinkedHashMap<K, V> mValues = new LinkedHashMap<>(16, 0.75f, true);
+
+    /* Guarded by this. The sum of sizeOf of every value. */
+    private int mSize;
+
+    /**
+     * @param maxSize The most the sizes of all values may add up to
+     */
+    BoundedLruCache(int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * @return The size of the value, in the same unit as the cache's max size
+     */
+    abstract int sizeOf(V value);
+
+    /**
+     * @return The value, or null if it isn't cached
+     */
+    synchronized V get(K key) {
+        return mValues.get(key);
+    }
+
+    /**
+     * Caches the value, replacing any value cached for the key, and evicts the least recently
+     * used values until the cache fits its max size again. A value larger than the max size
+     * isn't cached at all.
+     */
+    synchronized void put(K key, V value) {
+        V previous = mValues.put(key, value);
+        if (previous != null) {
+            mSize -= sizeOf(previous);
+        }
+        mSize += sizeOf(value);
+        trimToSize(mMaxSize);
+    }
+
+    /**
+     * Empties the cache.
+     */
+    synchronized void evictAll() {
+        trimToSize(-1);
+    }
+
+    /** @return The sum of the sizes of every cached value */
+    synchronized int size() {
+        return mSize;
+    }
+
+    /** @return The number of cached values */
+    synchronized int count() {
+        return mValues.size();
+    }
+
+    private void trimToSize(int maxSize) {
+        Iterator<Map.Entry<K, V>> entries = mValues.entrySet().iterator();
+        while (mSize > maxSize && entries.hasNext()) {
+            mSize -= sizeOf(entries.next().getValue());
+            entries.remove();
+        }
+    }
+}
@@ -22,18 +22,12 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.EmbossMaskFilter;
-import android.graphics.MaskFilter;
+import android.graphics.ColorMatrix;
+import android.graphics.ColorMatrixColorFilter;
 import android.graphics.Paint;
-import android.graphics.RadialGradient;
 import android.graphics.Rect;
-import android.graphics.RectF;
-import android.graphics.Shader;
-import android.graphics.Typeface;
-import android.graphics.drawable.BitmapDrawable;
-import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
@@ -47,20 +41,20 @@ import android.view.WindowInsets;
 import android.view.WindowManager;
 
 
+import com.example.android.sunshine.shared.ForecastPayload;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.DataEvent;
 import com.google.android.gms.wearable.DataEventBuffer;
 import com.google.android.gms.wearable.DataItem;
-import com.google.android.gms.wearable.DataMap;
-import com.google.android.gms.wearable.DataMapItem;
 import com.google.android.gms.wearable.Wearable;
 
 import java.lang.ref.WeakReference;
-import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.TimeUnit;
 
@@ -71,8 +65,6 @@ import java.util.concurrent.TimeUnit;
 public class MyWatchFace extends CanvasWatchFaceService{
 
     private final static String TAG = MyWatchFace.class.getSimpleName();
-    private static final Typeface NORMAL_TYPEFACE =
-            Typeface.create(Typeface.SANS_SERIF, Typeface.NORMAL);
     /**
      * Update rate in milliseconds for interactive mode. We update once a second since seconds are
      * displayed in interactive mode.
@@ -84,6 +76,12 @@ public class MyWatchFace extends CanvasWatchFaceService{
      */
     private static final int MSG_UPDATE_TIME = 0;
 
+    /* The size weather icons are drawn at */
+    private static final int ICON_SIZE_PX = 30;
+
+    /* Not a weather id, so that the icon is looked up again */
+    private static final int NO_WEATHER_ID = Integer.MIN_VALUE;
+
     @Override
     public Engine onCreateEngine() {
         return new Engine();
@@ -112,10 +110,6 @@ public class MyWatchFace extends CanvasWatchFaceService{
     private class Engine extends CanvasWatchFaceService.Engine implements DataApi.DataListener,
     GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener{
 
-        private final static String MAX_TEMP = "max_temp";
-        private final static String MIN_TEMP = "min_temp";
-        private final static String WEATHER_ID ="weather_id";
-
         GoogleApiClient mGoogleApiClient = new GoogleApiClient.Builder(MyWatchFace.this)
                 .addConnectionCallbacks(this)
                 .addOnConnectionFailedListener(this)
@@ -126,12 +120,12 @@ public class MyWatchFace extends CanvasWatchFaceService{
         private double mMin=-1.0;
         private int mWeatherId;
 
+        /* The last forecast pushed by the phone. Null until the first one arrives. */
+        private ForecastPayload mForecast;
+
 
         final Handler mUpdateTimeHandler = new EngineHandler(this);
         boolean mRegisteredTimeZoneReceiver = false;
-        boolean mIsRound = true;
-        Paint mBackgroundPaint;
-        Paint mTextPaint;
         boolean mAmbient;
         Calendar mCalendar;
         final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
@@ -141,31 +135,42 @@ public class MyWatchFace extends CanvasWatchFaceService{
                 invalidate();
             }
         };
-        float mXOffset;
-        float mYOffset;
-        float mTextSize;
-        float mClockTextSize;
-
-
 
         /**
          * Whether the display supports fewer bits for each color in ambient mode. When true, we
          * disable anti-aliasing in ambient mode.
          */
         boolean mLowBitAmbient;
-        private Paint mMinutePaint;
-        private Paint mHourPaint;
-        private Paint mHourLinePaint;
-        private Paint mMinuteLinePaint;
-        private Paint mMinuteArcPaint;
-        private Paint mMiniCirclePaint;
-        private Paint mHiLoTextPaint;
-        private int mGradientStartColor;
-        private int mGradientEndColor;
-        private Paint mGradiantPaint;
-        private Paint mDayTextPaint;
-        private Paint mSecondsBGPaint;
-        private Paint mSecondsPaint;
+
+        private WatchFaceRenderer mRenderer;
+
+        /*
+         * Icons are decoded and scaled on mIconExecutor, and kept in mIconCache. mWeatherIcon is
+         * the icon of mIconWeatherId, or null while it is being loaded.
+         */
+        private final WeatherIconCache mIconCache =
+                new WeatherIconCache(WeatherIconCache.DEFAULT_MAX_BYTES);
+        private final ExecutorService mIconExecutor = Executors.newSingleThreadExecutor();
+        private int mIconWeatherId = NO_WEATHER_ID;
+        private Bitmap mWeatherIcon;
+
+        private final WeatherIconCache.Loader mIconLoader = new WeatherIconCache.Loader() {
+            @Override
+            public Bitmap load(int resourceId, int sizePx, boolean ambient) {
+                return loadWeatherIcon(resourceId, sizePx, ambient);
+            }
+        };
+
+        /* Run on the UI thread once an icon has been loaded */
+        private final Runnable mOnIconLoaded = new Runnable() {
+            @Override
+            public void run() {
+                /* Look the icon up again, it may be the one we are waiting for */
+                mIconWeatherId = NO_WEATHER_ID;
+                updateWeather();
+                invalidate();
+            }
+        };
 
         @Override
         public void onCreate(SurfaceHolder holder) {
@@ -176,123 +181,24 @@ public class MyWatchFace extends CanvasWatchFaceService{
                     .setBackgroundVisibility(WatchFaceStyle.BACKGROUND_VISIBILITY_INTERRUPTIVE)
                     .setShowSystemUiTime(false)
                     .build());
-            Resources resources = MyWatchFace.this.getResources();
-            mYOffset = resources.getDimension(R.dimen.digital_y_offset);
-            mTextSize = resources.getDimension(R.dimen.digital_text_size);
-            mClockTextSize = resources.getDimension(R.dimen.clock_text_size);
-            mBackgroundPaint = new Paint();
-            mBackgroundPaint.setColor(resources.getColor(R.color.background));
-
-            mTextPaint = new Paint();
-            float[] direction2 = new float[]{0f, -1.0f, 0.5f};
-            MaskFilter filter2 = new EmbossMaskFilter(direction2, 0.8f, 15f, 1f);
-            mTextPaint.setMaskFilter(filter2);
-            mTextPaint.setTextAlign(Paint.Align.CENTER);
-            mTextPaint = createTextPaint(resources.getColor(R.color.digital_text));
-
-            mDayTextPaint = new Paint();
-            mDayTextPaint.setAntiAlias(true);
-            mDayTextPaint.setTextAlign(Paint.Align.CENTER);
-            mDayTextPaint.setTypeface(NORMAL_TYPEFACE);
-            mDayTextPaint.setColor(resources.getColor(R.color.day_text));
-            mDayTextPaint.setTextSize(20f);
-
-
             mCalendar = Calendar.getInstance();
-
-            /*Analog Clock Paints*/
-            mHourPaint = new Paint();
-            mHourPaint.setColor(resources.getColor(R.color.hour_hand_paint));
-            mHourPaint.setStrokeWidth(5f);
-            mHourPaint.setStrokeCap(Paint.Cap.SQUARE);
-            mHourPaint.setAntiAlias(true);
-
-            mMinutePaint = new Paint();
-            mMinutePaint.setColor(resources.getColor(R.color.minute_hand_paint));
-            mMinutePaint.setStrokeWidth(3f);
-            mMinutePaint.setStrokeCap(Paint.Cap.SQUARE);
-            mMinutePaint.setAntiAlias(true);
-
-            mHourLinePaint = new Paint();
-            mHourLinePaint.setColor(resources.getColor(R.color.hour_line_color));
-            mHourLinePaint.setStrokeWidth(3f);
-            mHourLinePaint.setAntiAlias(true);
-            mHourLinePaint.setShadowLayer(2f,0,0,resources.getColor(R.color.analag_hands_shadow));
-
-            mMinuteLinePaint = new Paint();
-            mMinuteLinePaint.setColor(resources.getColor(R.color.hour_line_color));
-            mMinuteLinePaint.setStrokeWidth(1f);
-            mMinuteLinePaint.setAntiAlias(true);
-            mMinuteLinePaint.setShadowLayer(1f,0,0,resources.getColor(R.color.analag_hands_shadow));
-
-            mMinuteArcPaint = new Paint();
-            mMinuteArcPaint.setColor(resources.getColor(R.color.minute_arc_color));
-            mMinuteArcPaint.setStrokeWidth(2f);
-            mMinuteArcPaint.setAntiAlias(true);
-            mMinuteArcPaint.setShadowLayer(1f,0,0,resources.getColor(R.color.analag_hands_shadow));
-
-            /*Circle Paints*/
-            mMiniCirclePaint = new Paint();
-            mMiniCirclePaint.setColor(resources.getColor(R.color.hi_circle));
-            //mMiniCirclePaint.setStrokeWidth(10f);
-            //mMiniCirclePaint.setStyle(Paint.Style.STROKE);
-            mMiniCirclePaint.setAntiAlias(true);
-            float[] direction = new float[]{0f, -1f, .4f};
-            MaskFilter filter = new EmbossMaskFilter(direction, .6f, 20f, 1f);
-            mMiniCirclePaint.setMaskFilter(filter);
-
-            mHiLoTextPaint = new Paint();
-            mHiLoTextPaint.setTextAlign(Paint.Align.CENTER);
-            mHiLoTextPaint.setAntiAlias(true);
-            mHiLoTextPaint.setTextSize(resources.getDimension(R.dimen.hi_lo_text_size));
-            mHiLoTextPaint.setColor(resources.getColor(R.color.hi_lo_text));
-
-            /*Gradient bg */
-            mGradientStartColor = resources.getColor(R.color.gradient_start);
-            mGradientEndColor = resources.getColor(R.color.gradient_end);
-            mGradiantPaint = new Paint();
-            mGradiantPaint.setDither(true);
-
-            //Seconds
-            mSecondsPaint = new Paint();
-            mSecondsPaint.setAntiAlias(true);
-            mSecondsPaint.setStyle(Paint.Style.STROKE);
-            mSecondsPaint.setColor(resources.getColor(R.color.second));
-            mSecondsPaint.setStrokeWidth(3f);
-            mSecondsPaint.setStrokeCap(Paint.Cap.SQUARE);
-
-            //Seconds Bg
-            mSecondsBGPaint = new Paint();
-            mSecondsBGPaint.setAntiAlias(true);
-            mSecondsBGPaint.setStyle(Paint.Style.STROKE);
-            mSecondsBGPaint.setColor(resources.getColor(R.color.second_bg));
-            mSecondsBGPaint.setStrokeWidth(4f);
-            mSecondsBGPaint.setStrokeCap(Paint.Cap.SQUARE);
-
+            mRenderer = new WatchFaceRenderer(MyWatchFace.this.getResources());
+            updateWeather();
         }
 
         @Override
         public void onDestroy() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            mUpdateTimeHandler.removeCallbacks(mOnIconLoaded);
+            mIconExecutor.shutdownNow();
+            mIconCache.evictAll();
+            mRenderer.release();
             super.onDestroy();
         }
 
-        private Paint createTextPaint(int textColor) {
-            Paint paint = new Paint();
-            paint.setColor(textColor);
-            paint.setTypeface(NORMAL_TYPEFACE);
-            paint.setAntiAlias(true);
-            return paint;
-        }
-
         @Override
         public void onSurfaceChanged(SurfaceHolder holder, int format, int width, int height) {
-            RadialGradient gradient = new RadialGradient(width/2,
-                    height/2,
-                    width/2,
-                    mGradientStartColor,
-                    mGradientEndColor, Shader.TileMode.CLAMP);
-            mGradiantPaint.setShader(gradient);
+            mRenderer.setSize(width, height);
             super.onSurfaceChanged(holder,format,width,height);
         }
 
@@ -344,12 +250,10 @@ public class MyWatchFace extends CanvasWatchFaceService{
             // Load resources that have alternate values for round watches.
             Resources resources = MyWatchFace.this.getResources();
             boolean isRound = insets.isRound();
-            mXOffset = resources.getDimension(isRound
-                    ? R.dimen.digital_x_offset_round : R.dimen.digital_x_offset);
             float textSize = resources.getDimension(isRound
                     ? R.dimen.digital_text_size_round : R.dimen.digital_text_size);
-            mTextPaint.setTextSize(textSize);
-            mIsRound = isRound;
+            mRenderer.setClockTextSize(textSize);
+            mRenderer.setRound(isRound);
         }
 
         @Override
@@ -369,9 +273,7 @@ public class MyWatchFace extends CanvasWatchFaceService{
             super.onAmbientModeChanged(inAmbientMode);
             if (mAmbient != inAmbientMode) {
                 mAmbient = inAmbientMode;
-                if (mLowBitAmbient) {
-                    mTextPaint.setAntiAlias(!inAmbientMode);
-                }
+                mRenderer.setAmbient(inAmbientMode, mLowBitAmbient);
                 invalidate();
             }
 
@@ -382,164 +284,10 @@ public class MyWatchFace extends CanvasWatchFaceService{
 
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
-            // Draw the background.
-            if (isInAmbientMode()) {
-                canvas.drawColor(Color.BLACK);
-            } else {
-               // canvas.drawRect(0, 0, bounds.width(), bounds.height(), mBackgroundPaint);
-                drawGradientBg(canvas,bounds);
-            }
-
-            // Draw H:MM in ambient mode or H:MM:SS in interactive mode.
             long now = System.currentTimeMillis();
             mCalendar.setTimeInMillis(now);
-            drawDigitalClock(canvas,bounds);
-
-            if(!mAmbient){
-                drawHi(canvas,bounds,Integer.toString((int)mMax));
-                drawLow(canvas,bounds,Integer.toString((int)mMin));
-                drawWeather(canvas,bounds);
-                drawAnalogClock(canvas,bounds,mCalendar);
-                drawSecond(canvas,bounds);
-            }
-        }
-
-        /*Analog Clock Draw Helper method*/
-        private void drawAnalogClock(Canvas canvas,Rect bounds,Calendar calendar){
-
-            final float TWO_PI = (float)Math.PI *2f;
-
-            int width = bounds.width();
-            int height = bounds.height();
-
-            float cX = width/2f;
-            float cY = height/2f;
-
-           /*Draw Hour &Minute HAnd*/
-            float seconds = calendar.get(Calendar.SECOND) + calendar.get(Calendar.MILLISECOND)/1000f;
-
-            float minutes = mCalendar.get(Calendar.MINUTE) + seconds/60f;
-            float minRotation= minutes/60f * TWO_PI;
-
-            float hours = mCalendar.get(Calendar.HOUR) + minutes/60f;
-            float hoursRotation = hours * (TWO_PI/12f);
-
-            float minLength = cX -40;
-            float hourLength = cX -80;
-
-
-
-            float minX = (float) (minLength * Math.sin(minRotation));
-            float minY = (float)(minLength *-Math.cos(minRotation));
-            canvas.drawLine(cX,cY,cX + minX, cY + minY, mMinutePaint);
-
-            float hourX = (float) (hourLength * Math.sin(hoursRotation));
-            float hourY =(float)(hourLength * -Math.cos(hoursRotation));
-            canvas.drawLine(cX,cY,cX + hourX, cY + hourY,mHourPaint);
-
-            /*Draw Hour and minute indicators*/
-
-            float hourLineHeight = cX - 12;
-            float minuteLineHeight= cX -5;
-            for (int i = 0; i < 60; i++) {
-                float tickRot = i * TWO_PI / 60;
-                Paint paint = (i%5)==0 ? mHourLinePaint: mMinuteLinePaint;
-                float h = (i%5)==0 ? hourLineHeight: minuteLineHeight;
-                float innerX = (float) Math.sin(tickRot) * h;
-                float innerY = (float) -Math.cos(tickRot) * h;
-                float outerX = (float) Math.sin(tickRot) * cX;
-                float outerY = (float) -Math.cos(tickRot) * cX;
-                canvas.drawLine(cX + innerX, cY + innerY,
-                        cX + outerX, cY + outerY, paint);
-            }
-            /*Draw center circle*/
-            canvas.drawCircle(cX,cY,8f,mTextPaint);
-
-        }
-
-        private void drawDigitalClock(Canvas canvas,Rect bounds){
-            String text = mAmbient
-                    ? String.format("%d:%02d", mCalendar.get(Calendar.HOUR),
-                    mCalendar.get(Calendar.MINUTE))
-                    : String.format("%02d:%02d",
-                    mCalendar.get(Calendar.HOUR),
-                    mCalendar.get(Calendar.MINUTE));
-
-            Rect textBounds = new Rect();
-            mTextPaint.getTextBounds(text,0,text.length(),textBounds);
-            int xOffset = textBounds.width()/2;
-            int yOffset = textBounds.height()/2 + bounds.height()/20;
-            float margin = 5f;
-
-            canvas.drawText(text, bounds.width()/2 -xOffset, bounds.height()/2 -yOffset, mTextPaint);
-            if(!mAmbient){
-                SimpleDateFormat dF = new SimpleDateFormat("EE");
-                String day = dF.format(mCalendar.getTime()).toUpperCase();
-                Rect dayTextBounds = new Rect();
-                mDayTextPaint.getTextBounds(day,0,day.length(),dayTextBounds);
-                canvas.drawText(day,
-                        bounds.width()/2,
-                        bounds.height()/2 - textBounds.height() - bounds.height()/20 - dayTextBounds.height() -margin ,
-                        mDayTextPaint);
-            }
-
-        }
-
-        private void drawSecond(Canvas canvas,Rect bounds){
-            float padding = 15f;
-            float seconds = mCalendar.get(Calendar.SECOND) + mCalendar.get(Calendar.MILLISECOND)/1000f;
-            float secondsRot = seconds*6f;
-            RectF circleBounds = new RectF(bounds.left + padding,
-                    bounds.top + padding,
-                    bounds.right - padding,
-                    bounds.bottom - padding
-                    );
-            canvas.drawArc(circleBounds,-90,secondsRot,false,mSecondsPaint);
-
-        }
-
-        private void drawHi(Canvas canvas, Rect bounds,String hi){
-            float cX = bounds.width()/3;
-            float cY = bounds.height()*0.65f;
-            canvas.drawCircle(cX,cY,bounds.width()/12,mMiniCirclePaint);
-            Rect textBounds = new Rect();
-            mHiLoTextPaint.getTextBounds(hi,0,hi.length(),textBounds);
-            int yOffset= textBounds.height()/2;
-            String formatted = hi +(char) 0x00B0;
-            canvas.drawText(formatted,cX,cY+yOffset,mHiLoTextPaint);
-        }
-
-        private void drawLow(Canvas canvas, Rect bounds,String low){
-            float cX = 2*bounds.width()/3;
-            float cY = bounds.height()*0.65f;
-            canvas.drawCircle(cX,cY,bounds.width()/12,mMiniCirclePaint);
-            Rect textBounds = new Rect();
-            mHiLoTextPaint.getTextBounds(low,0,low.length(),textBounds);
-            int yOffset= textBounds.height()/2;
-            String formatted = low +(char) 0x00B0;
-            canvas.drawText(formatted,cX,cY+yOffset,mHiLoTextPaint);
-        }
-
-        private void drawGradientBg(Canvas canvas,Rect bounds){
-            if(mIsRound){
-                canvas.drawCircle(bounds.centerX(),bounds.centerY(),bounds.width(),mGradiantPaint);
-            }else{
-                canvas.drawRect(bounds,mGradiantPaint);
-            }
-        }
-
-
-        private void drawWeather(Canvas canvas,Rect bounds){
-            float cX = bounds.centerX();
-            float cY = bounds.height()*0.8f;
-            canvas.drawCircle(cX,cY,bounds.width()/12,mMiniCirclePaint);
-            Drawable icon = getResources().getDrawable(getSmallArtResourceIdForWeatherCondition(mWeatherId));
-            Bitmap iconBitmap = ((BitmapDrawable) icon).getBitmap();
-            Bitmap scaledBitmap = Bitmap.createScaledBitmap(iconBitmap,30,30,true);
-            canvas.drawBitmap(scaledBitmap,
-                    cX - scaledBitmap.getWidth()/2,
-                    cY- scaledBitmap.getHeight()/2
-                    ,null);
+            showForecastForDay(now);
+            mRenderer.draw(canvas, bounds, mCalendar);
         }
 
         /**
@@ -596,54 +344,118 @@ public class MyWatchFace extends CanvasWatchFaceService{
             for(DataEvent event :dataEventBuffer){
                 if(event.getType() == DataEvent.TYPE_CHANGED){
                     DataItem dataItem = event.getDataItem();
-                    if(dataItem.getUri().getPath().compareTo("/weather") == 0){
-                        DataMap dataMap = DataMapItem.fromDataItem(dataItem).getDataMap();
-                        mMax = dataMap.getDouble(MAX_TEMP);
-                        mMin = dataMap.getDouble(MIN_TEMP);
-                        mWeatherId = dataMap.getInt(WEATHER_ID);
+                    if(dataItem.getUri().getPath().compareTo(ForecastPayload.PATH) == 0){
+                        try {
+                            mForecast = ForecastPayload.fromByteArray(dataItem.getData());
+                        } catch (IllegalArgumentException e) {
+                            /* Probably pushed by a newer phone app, keep what we have */
+                            Log.w(TAG, "Can't read the forecast", e);
+                            continue;
+                        }
+                        /* Load every day's icon now, rather than when the day comes */
+                        for (int day = 0; day < mForecast.getDayCount(); day++) {
+                            requestWeatherIcon(mForecast.getWeatherId(day));
+                        }
+                        showForecastForDay(System.currentTimeMillis());
+                        invalidate();
                     }
                 }
             }
 
         }
 
-        public  int getSmallArtResourceIdForWeatherCondition(int weatherId) {
+        /**
+         * Shows the day of the forecast that the given time falls on, or the last day of the
+         * forecast if the forecast is older than that. As the whole forecast is kept, the watch
+         * moves on to the next day at midnight without waiting for the phone.
+         */
+        private void showForecastForDay(long timeMillis) {
+            if (mForecast == null || mForecast.getDayCount() == 0) {
+                return;
+            }
+
+            /* The forecast's dates are midnight UTC of the local date, as in SunshineDateUtils */
+            long localTime = timeMillis + mCalendar.getTimeZone().getOffset(timeMillis);
+            long today = localTime - localTime % TimeUnit.DAYS.toMillis(1);
 
-        /*
-         * Based on weather code data for Open Weather Map.
+            int day = 0;
+            while (day < mForecast.getDayCount() - 1 && mForecast.getDate(day) < today) {
+                day++;
+            }
+
+            mMax = mForecast.getMaxTemp(day);
+            mMin = mForecast.getMinTemp(day);
+            mWeatherId = mForecast.getWeatherId(day);
+            updateWeather();
+        }
+
+        private void updateWeather() {
+            mRenderer.setWeather(mMax, mMin, getWeatherIcon(mWeatherId));
+        }
+
+        /**
+         * @return The icon for the weather, or null if it is still being loaded. Only looks in
+         * the cache when the weather changes, as this is called every frame.
+         */
+        private Bitmap getWeatherIcon(int weatherId) {
+            if (mIconWeatherId != weatherId) {
+                mIconWeatherId = weatherId;
+                int resourceId = WeatherArt.getSmallArtResourceIdForWeatherCondition(weatherId);
+                mWeatherIcon = mIconCache.get(resourceId, ICON_SIZE_PX, false);
+                if (mWeatherIcon == null) {
+                    requestWeatherIcon(weatherId);
+                }
+            }
+            return mWeatherIcon;
+        }
+
+        /**
+         * Loads the icon for the weather into the cache, off the UI thread.
+         */
+        private void requestWeatherIcon(int weatherId) {
+            final int resourceId = WeatherArt.getSmallArtResourceIdForWeatherCondition(weatherId);
+            if (mIconCache.get(resourceId, ICON_SIZE_PX, false) != null) {
+                return;
+            }
+
+            mIconExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (mIconCache.getOrLoad(resourceId, ICON_SIZE_PX, false, mIconLoader)
+                            != null) {
+                        mUpdateTimeHandler.post(mOnIconLoaded);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Decodes an icon and scales it to sizePx. The ambient variant is in grays only.
          */
-            if (weatherId >= 200 && weatherId <= 232) {
-                return R.drawable.ic_storm;
-            } else if (weatherId >= 300 && weatherId <= 321) {
-                return R.drawable.ic_light_rain;
-            } else if (weatherId >= 500 && weatherId <= 504) {
-                return R.drawable.ic_rain;
-            } else if (weatherId == 511) {
-                return R.drawable.ic_snow;
-            } else if (weatherId >= 520 && weatherId <= 531) {
-                return R.drawable.ic_rain;
-            } else if (weatherId >= 600 && weatherId <= 622) {
-                return R.drawable.ic_snow;
-            } else if (weatherId >= 701 && weatherId <= 761) {
-                return R.drawable.ic_fog;
-            } else if (weatherId == 761 || weatherId == 771 || weatherId == 781) {
-                return R.drawable.ic_storm;
-            } else if (weatherId == 800) {
-                return R.drawable.ic_clear;
-            } else if (weatherId == 801) {
-                return R.drawable.ic_light_clouds;
-            } else if (weatherId >= 802 && weatherId <= 804) {
-                return R.drawable.ic_cloudy;
-            } else if (weatherId >= 900 && weatherId <= 906) {
-                return R.drawable.ic_storm;
-            } else if (weatherId >= 958 && weatherId <= 962) {
-                return R.drawable.ic_storm;
-            } else if (weatherId >= 951 && weatherId <= 957) {
-                return R.drawable.ic_clear;
+        private Bitmap loadWeatherIcon(int resourceId, int sizePx, boolean ambient) {
+            Bitmap source = BitmapFactory.decodeResource(getResources(), resourceId);
+            if (source == null) {
+                Log.e(TAG, "Can't decode weather icon " + resourceId);
+                return null;
+            }
+
+            Bitmap icon = Bitmap.createScaledBitmap(source, sizePx, sizePx, true);
+            if (icon != source) {
+                source.recycle();
             }
+            if (!ambient) {
+                return icon;
+            }
+
+            ColorMatrix grayscale = new ColorMatrix();
+            grayscale.setSaturation(0);
+            Paint paint = new Paint();
+            paint.setColorFilter(new ColorMatrixColorFilter(grayscale));
 
-            Log.e(TAG, "Unknown Weather: " + weatherId);
-            return R.drawable.ic_storm;
+            Bitmap grayIcon = Bitmap.createBitmap(sizePx, sizePx, Bitmap.Config.ARGB_8888);
+            new Canvas(grayIcon).drawBitmap(icon, 0, 0, paint);
+            icon.recycle();
+            return grayIcon;
         }
     }
 }
@@ -0,0 +1,455 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.wearable;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.EmbossMaskFilter;
+import android.graphics.MaskFilter;
+import android.graphics.Paint;
+import android.graphics.RadialGradient;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Shader;
+import android.graphics.Typeface;
+
+import java.text.DateFormatSymbols;
+import java.text.DecimalFormatSymbols;
+import java.util.Calendar;
+import java.util.Locale;
+
+/**
+ * Draws MyWatchFace in two layers.
+ * <p>
+ * The static layer is everything that only changes with the forecast or the size of the screen:
+ * the gradient background, the 60 tick marks, the circles with their high, low and weather icon.
+ * It is drawn once into a bitmap, and drawn again only after {@link #setWeather} or
+ * {@link #setRound} changed it or the screen changed size.
+ * <p>
+ * The dynamic layer is what changes with the time: the digital clock, the day, the hands and the
+ * seconds arc. Every interactive frame draws the static layer's bitmap and then the dynamic
+ * layer on top. In ambient mode only the digital clock is drawn, on black.
+ * <p>
+ * Drawing a frame allocates nothing: every object it needs is created up front, or once per
+ * locale.
+ */
+class WatchFaceRenderer {
+
+    private static final Typeface NORMAL_TYPEFACE =
+            Typeface.create(Typeface.SANS_SERIF, Typeface.NORMAL);
+
+    private static final float TWO_PI = (float) Math.PI * 2f;
+
+    private final Paint mTextPaint;
+    private final Paint mDayTextPaint;
+    private final Paint mHourPaint;
+    private final Paint mMinutePaint;
+    private final Paint mHourLinePaint;
+    private final Paint mMinuteLinePaint;
+    private final Paint mMiniCirclePaint;
+    private final Paint mHiLoTextPaint;
+    private final Paint mGradientPaint;
+    private final Paint mSecondsPaint;
+
+    private final int mGradientStartColor;
+    private final int mGradientEndColor;
+
+    private boolean mIsRound = true;
+    private boolean mAmbient;
+
+    private double mMax = 8.0;
+    private double mMin = -1.0;
+    private Bitmap mWeatherIcon;
+
+    /*
+     * The static layer, and the size it was created for. The bitmap is created once per size,
+     * and only drawn again when mStaticLayerValid is false.
+     */
+    private Bitmap mStaticLayer;
+    private int mStaticLayerWidth;
+    private int mStaticLayerHeight;
+    private boolean mStaticLayerValid;
+
+    /* Reused by every frame */
+    private final Rect mTextBounds = new Rect();
+    private final Rect mDayTextBounds = new Rect();
+    private final RectF mSecondsBounds = new RectF();
+
+    /* The digital clock, H:MM or HH:MM */
+    private final char[] mTimeText = new char[5];
+
+    /*
+     * What the digital clock and the day depend on the locale for, loaded for mLocale. The day
+     * names are indexed by Calendar.DAY_OF_WEEK.
+     */
+    private Locale mLocale;
+    private String[] mDayNames;
+    private char mZeroDigit;
+
+    WatchFaceRenderer(Resources resources) {
+        mTextPaint = new Paint();
+        mTextPaint.setColor(resources.getColor(R.color.digital_text));
+        mTextPaint.setTypeface(NORMAL_TYPEFACE);
+        mTextPaint.setAntiAlias(true);
+
+        mDayTextPaint = new Paint();
+        mDayTextPaint.setAntiAlias(true);
+        mDayTextPaint.setTextAlign(Paint.Align.CENTER);
+        mDayTextPaint.setTypeface(NORMAL_TYPEFACE);
+        mDayTextPaint.setColor(resources.getColor(R.color.day_text));
+        mDayTextPaint.setTextSize(20f);
+
+        /*Analog Clock Paints*/
+        mHourPaint = new Paint();
+        mHourPaint.setColor(resources.getColor(R.color.hour_hand_paint));
+        mHourPaint.setStrokeWidth(5f);
+        mHourPaint.setStrokeCap(Paint.Cap.SQUARE);
+        mHourPaint.setAntiAlias(true);
+
+        mMinutePaint = new Paint();
+        mMinutePaint.setColor(resources.getColor(R.color.minute_hand_paint));
+        mMinutePaint.setStrokeWidth(3f);
+        mMinutePaint.setStrokeCap(Paint.Cap.SQUARE);
+        mMinutePaint.setAntiAlias(true);
+
+        mHourLinePaint = new Paint();
+        mHourLinePaint.setColor(resources.getColor(R.color.hour_line_color));
+        mHourLinePaint.setStrokeWidth(3f);
+        mHourLinePaint.setAntiAlias(true);
+        mHourLinePaint.setShadowLayer(2f, 0, 0, resources.getColor(R.color.analag_hands_shadow));
+
+        mMinuteLinePaint = new Paint();
+        mMinuteLinePaint.setColor(resources.getColor(R.color.hour_line_color));
+        mMinuteLinePaint.setStrokeWidth(1f);
+        mMinuteLinePaint.setAntiAlias(true);
+        mMinuteLinePaint.setShadowLayer(1f, 0, 0, resources.getColor(R.color.analag_hands_shadow));
+
+        /*Circle Paints*/
+        mMiniCirclePaint = new Paint();
+        mMiniCirclePaint.setColor(resources.getColor(R.color.hi_circle));
+        mMiniCirclePaint.setAntiAlias(true);
+        float[] direction = new float[]{0f, -1f, .4f};
+        MaskFilter filter = new EmbossMaskFilter(direction, .6f, 20f, 1f);
+        mMiniCirclePaint.setMaskFilter(filter);
+
+        mHiLoTextPaint = new Paint();
+        mHiLoTextPaint.setTextAlign(Paint.Align.CENTER);
+        mHiLoTextPaint.setAntiAlias(true);
+        mHiLoTextPaint.setTextSize(resources.getDimension(R.dimen.hi_lo_text_size));
+        mHiLoTextPaint.setColor(resources.getColor(R.color.hi_lo_text));
+
+        /*Gradient bg */
+        mGradientStartColor = resources.getColor(R.color.gradient_start);
+        mGradientEndColor = resources.getColor(R.color.gradient_end);
+        mGradientPaint = new Paint();
+        mGradientPaint.setDither(true);
+
+        //Seconds
+        mSecondsPaint = new Paint();
+        mSecondsPaint.setAntiAlias(true);
+        mSecondsPaint.setStyle(Paint.Style.STROKE);
+        mSecondsPaint.setColor(resources.getColor(R.color.second));
+        mSecondsPaint.setStrokeWidth(3f);
+        mSecondsPaint.setStrokeCap(Paint.Cap.SQUARE);
+    }
+
+    /**
+     * Called when the surface changes size. Recreates the background gradient for the new size.
+     */
+    void setSize(int width, int height) {
+        RadialGradient gradient = new RadialGradient(width / 2,
+                height / 2,
+                width / 2,
+                mGradientStartColor,
+                mGradientEndColor, Shader.TileMode.CLAMP);
+        mGradientPaint.setShader(gradient);
+        mStaticLayerValid = false;
+    }
+
+    void setRound(boolean isRound) {
+        if (mIsRound != isRound) {
+            mIsRound = isRound;
+            mStaticLayerValid = false;
+        }
+    }
+
+    void setClockTextSize(float textSize) {
+        mTextPaint.setTextSize(textSize);
+    }
+
+    /**
+     * @param ambient       Whether the watch is in ambient mode
+     * @param lowBitAmbient Whether the screen has fewer bits per color in ambient mode, in which
+     *                      case text is drawn without anti-aliasing
+     */
+    void setAmbient(boolean ambient, boolean lowBitAmbient) {
+        mAmbient = ambient;
+        if (lowBitAmbient) {
+            mTextPaint.setAntiAlias(!ambient);
+        }
+    }
+
+    /**
+     * Sets the forecast shown. Redraws the static layer on the next frame if anything changed.
+     *
+     * @param icon The weather icon, already scaled to the size it is drawn at, or null for none
+     */
+    void setWeather(double max, double min, Bitmap icon) {
+        if (mMax != max || mMin != min || mWeatherIcon != icon) {
+            mMax = max;
+            mMin = min;
+            mWeatherIcon = icon;
+            mStaticLayerValid = false;
+        }
+    }
+
+    /**
+     * Draws a frame.
+     */
+    void draw(Canvas canvas, Rect bounds, Calendar calendar) {
+        if (mAmbient) {
+            canvas.drawColor(Color.BLACK);
+            drawDigitalClock(canvas, bounds, calendar);
+            return;
+        }
+
+        ensureStaticLayer(bounds);
+        canvas.drawBitmap(mStaticLayer, 0, 0, null);
+        drawDynamicLayer(canvas, bounds, calendar);
+    }
+
+    /**
+     * Frees the static layer. Called when the watch face is destroyed.
+     */
+    void release() {
+        if (mStaticLayer != null) {
+            mStaticLayer.recycle();
+            mStaticLayer = null;
+        }
+        mStaticLayerWidth = 0;
+        mStaticLayerHeight = 0;
+        mStaticLayerValid = false;
+    }
+
+    private void ensureStaticLayer(Rect bounds) {
+        int width = bounds.width();
+        int height = bounds.height();
+        if (mStaticLayerValid && mStaticLayerWidth == width && mStaticLayerHeight == height) {
+            return;
+        }
+
+        if (mStaticLayer == null || mStaticLayerWidth != width || mStaticLayerHeight != height) {
+            release();
+            mStaticLayer = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            mStaticLayerWidth = width;
+            mStaticLayerHeight = height;
+        } else {
+            mStaticLayer.eraseColor(Color.TRANSPARENT);
+        }
+
+        drawStaticLayer(new Canvas(mStaticLayer), bounds);
+        mStaticLayerValid = true;
+    }
+
+    /**
+     * Draws everything that doesn't change with the time. Package private so the benchmark can
+     * draw a frame without the cached layer.
+     */
+    void drawStaticLayer(Canvas canvas, Rect bounds) {
+        drawGradientBg(canvas, bounds);
+        drawTicks(canvas, bounds);
+        drawHi(canvas, bounds, Integer.toString((int) mMax));
+        drawLow(canvas, bounds, Integer.toString((int) mMin));
+        drawWeather(canvas, bounds);
+    }
+
+    /**
+     * Draws everything that changes with the time, in interactive mode.
+     */
+    void drawDynamicLayer(Canvas canvas, Rect bounds, Calendar calendar) {
+        drawDigitalClock(canvas, bounds, calendar);
+        drawHands(canvas, bounds, calendar);
+        drawSecond(canvas, bounds, calendar);
+    }
+
+    private void drawGradientBg(Canvas canvas, Rect bounds) {
+        if (mIsRound) {
+            canvas.drawCircle(bounds.centerX(), bounds.centerY(), bounds.width(), mGradientPaint);
+        } else {
+            canvas.drawRect(bounds, mGradientPaint);
+        }
+    }
+
+    /*Draw Hour and minute indicators*/
+    private void drawTicks(Canvas canvas, Rect bounds) {
+        float cX = bounds.width() / 2f;
+        float cY = bounds.height() / 2f;
+
+        float hourLineHeight = cX - 12;
+        float minuteLineHeight = cX - 5;
+        for (int i = 0; i < 60; i++) {
+            float tickRot = i * TWO_PI / 60;
+            Paint paint = (i % 5) == 0 ? mHourLinePaint : mMinuteLinePaint;
+            float h = (i % 5) == 0 ? hourLineHeight : minuteLineHeight;
+            float innerX = (float) Math.sin(tickRot) * h;
+            float innerY = (float) -Math.cos(tickRot) * h;
+            float outerX = (float) Math.sin(tickRot) * cX;
+            float outerY = (float) -Math.cos(tickRot) * cX;
+            canvas.drawLine(cX + innerX, cY + innerY,
+                    cX + outerX, cY + outerY, paint);
+        }
+    }
+
+    private void drawHi(Canvas canvas, Rect bounds, String hi) {
+        float cX = bounds.width() / 3;
+        float cY = bounds.height() * 0.65f;
+        canvas.drawCircle(cX, cY, bounds.width() / 12, mMiniCirclePaint);
+        Rect textBounds = new Rect();
+        mHiLoTextPaint.getTextBounds(hi, 0, hi.length(), textBounds);
+        int yOffset = textBounds.height() / 2;
+        String formatted = hi + (char) 0x00B0;
+        canvas.drawText(formatted, cX, cY + yOffset, mHiLoTextPaint);
+    }
+
+    private void drawLow(Canvas canvas, Rect bounds, String low) {
+        float cX = 2 * bounds.width() / 3;
+        float cY = bounds.height() * 0.65f;
+        canvas.drawCircle(cX, cY, bounds.width() / 12, mMiniCirclePaint);
+        Rect textBounds = new Rect();
+        mHiLoTextPaint.getTextBounds(low, 0, low.length(), textBounds);
+        int yOffset = textBounds.height() / 2;
+        String formatted = low + (char) 0x00B0;
+        canvas.drawText(formatted, cX, cY + yOffset, mHiLoTextPaint);
+    }
+
+    private void drawWeather(Canvas canvas, Rect bounds) {
+        float cX = bounds.centerX();
+        float cY = bounds.height() * 0.8f;
+        canvas.drawCircle(cX, cY, bounds.width() / 12, mMiniCirclePaint);
+        if (mWeatherIcon != null) {
+            canvas.drawBitmap(mWeatherIcon,
+                    cX - mWeatherIcon.getWidth() / 2,
+                    cY - mWeatherIcon.getHeight() / 2,
+                    null);
+        }
+    }
+
+    private void drawDigitalClock(Canvas canvas, Rect bounds, Calendar calendar) {
+        updateLocale();
+        int length = formatTime(calendar);
+
+        Rect textBounds = mTextBounds;
+        mTextPaint.getTextBounds(mTimeText, 0, length, textBounds);
+        int xOffset = textBounds.width() / 2;
+        int yOffset = textBounds.height() / 2 + bounds.height() / 20;
+        float margin = 5f;
+
+        canvas.drawText(mTimeText, 0, length, bounds.width() / 2 - xOffset,
+                bounds.height() / 2 - yOffset, mTextPaint);
+        if (!mAmbient) {
+            String day = mDayNames[calendar.get(Calendar.DAY_OF_WEEK)];
+            mDayTextPaint.getTextBounds(day, 0, day.length(), mDayTextBounds);
+            canvas.drawText(day,
+                    bounds.width() / 2,
+                    bounds.height() / 2 - textBounds.height() - bounds.height() / 20
+                            - mDayTextBounds.height() - margin,
+                    mDayTextPaint);
+        }
+    }
+
+    /**
+     * Writes the time into mTimeText: H:MM in ambient mode, HH:MM in interactive mode.
+     *
+     * @return The number of characters written
+     */
+    private int formatTime(Calendar calendar) {
+        int hour = calendar.get(Calendar.HOUR);
+        int minute = calendar.get(Calendar.MINUTE);
+
+        int length = 0;
+        if (!mAmbient || hour >= 10) {
+            mTimeText[length++] = (char) (mZeroDigit + hour / 10);
+        }
+        mTimeText[length++] = (char) (mZeroDigit + hour % 10);
+        mTimeText[length++] = ':';
+        mTimeText[length++] = (char) (mZeroDigit + minute / 10);
+        mTimeText[length++] = (char) (mZeroDigit + minute % 10);
+        return length;
+    }
+
+    /**
+     * Loads the day names and digits of the default locale, if it changed since the last frame.
+     */
+    private void updateLocale() {
+        Locale locale = Locale.getDefault();
+        if (locale == mLocale) {
+            return;
+        }
+
+        /* The same names SimpleDateFormat's "EE" pattern uses */
+        String[] dayNames = DateFormatSymbols.getInstance(locale).getShortWeekdays();
+        for (int i = 0; i < dayNames.length; i++) {
+            dayNames[i] = dayNames[i].toUpperCase(locale);
+        }
+
+        mDayNames = dayNames;
+        mZeroDigit = DecimalFormatSymbols.getInstance(locale).getZeroDigit();
+        mLocale = locale;
+    }
+
+    /*Draw Hour & Minute Hand*/
+    private void drawHands(Canvas canvas, Rect bounds, Calendar calendar) {
+        float cX = bounds.width() / 2f;
+        float cY = bounds.height() / 2f;
+
+        float seconds = calendar.get(Calendar.SECOND) + calendar.get(Calendar.MILLISECOND) / 1000f;
+
+        float minutes = calendar.get(Calendar.MINUTE) + seconds / 60f;
+        float minRotation = minutes / 60f * TWO_PI;
+
+        float hours = calendar.get(Calendar.HOUR) + minutes / 60f;
+        float hoursRotation = hours * (TWO_PI / 12f);
+
+        float minLength = cX - 40;
+        float hourLength = cX - 80;
+
+        float minX = (float) (minLength * Math.sin(minRotation));
+        float minY = (float) (minLength * -Math.cos(minRotation));
+        canvas.drawLine(cX, cY, cX + minX, cY + minY, mMinutePaint);
+
+        float hourX = (float) (hourLength * Math.sin(hoursRotation));
+        float hourY = (float) (hourLength * -Math.cos(hoursRotation));
+        canvas.drawLine(cX, cY, cX + hourX, cY + hourY, mHourPaint);
+
+        /*Draw center circle*/
+        canvas.drawCircle(cX, cY, 8f, mTextPaint);
+    }
+
+    private void drawSecond(Canvas canvas, Rect bounds, Calendar calendar) {
+        float padding = 15f;
+        float seconds = calendar.get(Calendar.SECOND) + calendar.get(Calendar.MILLISECOND) / 1000f;
+        float secondsRot = seconds * 6f;
+        mSecondsBounds.set(bounds.left + padding,
+                bounds.top + padding,
+                bounds.right - padding,
+                bounds.bottom - padding
+        );
+        canvas.drawArc(mSecondsBounds, -90, secondsRot, false, mSecondsPaint);
+    }
+}
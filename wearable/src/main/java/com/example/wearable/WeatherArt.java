@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.wearable;
+
+import android.util.Log;
+
+import com.example.android.sunshine.shared.WeatherConditions;
+
+/**
+ * The watch face's drawables for each weather condition. Which art a condition is shown with is
+ * decided by {@link WeatherConditions}, shared with the app, so the two always agree.
+ */
+final class WeatherArt {
+
+    private static final String TAG = WeatherArt.class.getSimpleName();
+
+    /* The drawable for each of WeatherConditions' ART_ constants, in the same order */
+    private static final int[] SMALL_ART = {
+            R.drawable.ic_storm,
+            R.drawable.ic_light_rain,
+            R.drawable.ic_rain,
+            R.drawable.ic_snow,
+            R.drawable.ic_fog,
+            R.drawable.ic_clear,
+            R.drawable.ic_light_clouds,
+            R.drawable.ic_cloudy,
+    };
+
+    private WeatherArt() {
+    }
+
+    /**
+     * @param weatherId An Open Weather Map condition id
+     * @return The icon for the condition, the storm icon if the condition is unknown
+     */
+    static int getSmallArtResourceIdForWeatherCondition(int weatherId) {
+        int art = WeatherConditions.getArt(weatherId);
+        if (art == WeatherConditions.UNKNOWN) {
+            Log.e(TAG, "Unknown Weather: " + weatherId);
+            return R.drawable.ic_storm;
+        }
+        return SMALL_ART[art];
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.wearable;
+
+import android.graphics.Bitmap;
+
+/**
+ * Weather icons, already decoded and scaled to the size they are drawn at, keyed by their
+ * resource, their size and whether they are the ambient or interactive variant. Bounded by the
+ * bytes of the bitmaps.
+ */
+class WeatherIconCache extends BoundedLruCache<WeatherIconCache.Key, Bitmap> {
+
+    /*
+     * Every small icon, in both variants, at the size the watch face draws them is well under
+     * this, so in practice nothing is evicted. The bound only stops a bug from filling memory.
+     */
+    static final int DEFAULT_MAX_BYTES = 256 * 1024;
+
+    /**
+     * Decodes an icon. Called off the UI thread.
+     */
+    interface Loader {
+        /**
+         * @return The icon, or null if it can't be loaded
+         */
+        Bitmap load(int resourceId, int sizePx, boolean ambient);
+    }
+
+    static final class Key {
+        final int resourceId;
+        final int sizePx;
+        final boolean ambient;
+
+        Key(int resourceId, int sizePx, boolean ambient) {
+            this.resourceId = resourceId;
+            this.sizePx = sizePx;
+            this.ambient = ambient;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return resourceId == key.resourceId && sizePx == key.sizePx && ambient == key.ambient;
+        }
+
+        @Override
+        public int hashCode() {
+            return (resourceId * 31 + sizePx) * 2 + (ambient ? 1 : 0);
+        }
+    }
+
+    WeatherIconCache(int maxBytes) {
+        super(maxBytes);
+    }
+
+    @Override
+    int sizeOf(Bitmap icon) {
+        return icon.getByteCount();
+    }
+
+    /** @return The memory taken by every cached icon */
+    int getByteCount() {
+        return size();
+    }
+
+    /**
+     * @return The cached icon, or null if it hasn't been loaded yet
+     */
+    Bitmap get(int resourceId, int sizePx, boolean ambient) {
+        return get(new Key(resourceId, sizePx, ambient));
+    }
+
+    /**
+     * Returns the icon, loading and caching it first if it isn't cached. Blocks while loading, so
+     * only call this off the UI thread.
+     *
+     * @return The icon, or null if it couldn't be loaded
+     */
+    Bitmap getOrLoad(int resourceId, int sizePx, boolean ambient, Loader loader) {
+        Key key = new Key(resourceId, sizePx, ambient);
+        Bitmap icon = get(key);
+        if (icon == null) {
+            icon = loader.load(resourceId, sizePx, ambient);
+            if (icon != null) {
+                put(key, icon);
+            }
+        }
+        return icon;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.wearable;
+
+import android.content.res.Resources;
+import android.graphics.Rect;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Calendar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Counts the draw calls, and times, an interactive frame of {@link WatchFaceRenderer} drawn with
+ * the cached static layer, against the same frame drawn the way it used to be: everything, every
+ * frame. Also checks that drawing a frame allocates nothing.
+ * <p>
+ * Runs on the JVM, where Android's drawing classes do nothing, so the times are only the cost of
+ * the renderer's own work, not of rasterizing.
+ */
+public class TestWatchFaceRenderer {
+
+    private static final int FRAMES = 10000;
+
+    private final Rect mBounds = new Rect(0, 0, 320, 320);
+    private final Calendar mCalendar = Calendar.getInstance();
+    private final RecordingCanvas mCanvas = new RecordingCanvas();
+
+    private WatchFaceRenderer mRenderer;
+
+    @Before
+    public void setUp() {
+        mRenderer = new WatchFaceRenderer(new Resources(null, null, null));
+        mRenderer.setSize(320, 320);
+        mRenderer.setWeather(21, 12, null);
+    }
+
+    @Test
+    public void testStaticLayerIsDrawnOnce() {
+        mRenderer.draw(mCanvas, mBounds, mCalendar);
+        int firstFrameCalls = mCanvas.getDrawCallCount();
+
+        mCanvas.reset();
+        mRenderer.draw(mCanvas, mBounds, mCalendar);
+        assertEquals("The frame should draw the same with the layer cached",
+                firstFrameCalls, mCanvas.getDrawCallCount());
+        assertEquals("A frame should be the static layer plus the dynamic layer",
+                1 + countDynamicCalls(), mCanvas.getDrawCallCount());
+    }
+
+    @Test
+    public void testDrawCallsPerFrame() {
+        long uncachedNanos = timeFrames(false);
+        int uncachedCalls = mCanvas.getDrawCallCount() / FRAMES;
+
+        long cachedNanos = timeFrames(true);
+        int cachedCalls = mCanvas.getDrawCallCount() / FRAMES;
+
+        System.out.println("Draw calls per frame: " + uncachedCalls + " without the static layer"
+                + ", " + cachedCalls + " with it");
+        System.out.println("Renderer time per frame: " + uncachedNanos / FRAMES / 1000f
+                + "us without the static layer, " + cachedNanos / FRAMES / 1000f + "us with it");
+        assertTrue(cachedCalls < uncachedCalls);
+    }
+
+    @Test
+    public void testFramesDoNotAllocate() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+
+        /*
+         * Creates the static layer and loads the locale. Calendar itself allocates while it is
+         * being compiled, so warm up twice.
+         */
+        drawInteractiveAndAmbientFrames();
+        drawInteractiveAndAmbientFrames();
+
+        /* Reading the allocated bytes may allocate itself */
+        long start = threads.getThreadAllocatedBytes(threadId);
+        long overhead = threads.getThreadAllocatedBytes(threadId) - start;
+
+        start = threads.getThreadAllocatedBytes(threadId);
+        drawInteractiveAndAmbientFrames();
+        long allocated = threads.getThreadAllocatedBytes(threadId) - start - overhead;
+
+        assertEquals("Drawing " + FRAMES + " frames allocated " + allocated + " bytes",
+                0, allocated);
+    }
+
+    private void drawInteractiveAndAmbientFrames() {
+        long time = mCalendar.getTimeInMillis();
+        for (int frame = 0; frame < FRAMES; frame++) {
+            /* A second apart, and ambient every other minute */
+            time += 1000;
+            mCalendar.setTimeInMillis(time);
+            mRenderer.setAmbient(frame / 60 % 2 == 1, true);
+            mRenderer.draw(mCanvas, mBounds, mCalendar);
+        }
+        mRenderer.setAmbient(false, true);
+    }
+
+    /**
+     * Draws FRAMES frames, a second apart, and leaves their draw calls counted in mCanvas.
+     *
+     * @param staticLayer Whether to draw with the cached static layer, or everything each frame
+     * @return How long drawing took
+     */
+    private long timeFrames(boolean staticLayer) {
+        mCanvas.reset();
+        long start = System.nanoTime();
+        for (int frame = 0; frame < FRAMES; frame++) {
+            mCalendar.add(Calendar.SECOND, 1);
+            if (staticLayer) {
+                mRenderer.draw(mCanvas, mBounds, mCalendar);
+            } else {
+                mRenderer.drawStaticLayer(mCanvas, mBounds);
+                mRenderer.drawDynamicLayer(mCanvas, mBounds, mCalendar);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private int countDynamicCalls() {
+        RecordingCanvas canvas = new RecordingCanvas();
+        mRenderer.drawDynamicLayer(canvas, mBounds, mCalendar);
+        return canvas.getDrawCallCount();
+    }
+}
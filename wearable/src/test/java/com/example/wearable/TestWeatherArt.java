@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.wearable;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that {@link WeatherArt} picks the same icon for every condition id as the if/else chain
+ * it replaced, and compares how long a lookup takes with each.
+ */
+public class TestWeatherArt {
+
+    /* Every id, and some on either side */
+    private static final int FIRST_ID = -100;
+    private static final int LAST_ID = 1100;
+
+    private static final int BENCHMARK_ROUNDS = 2000;
+
+    @Test
+    public void testEveryIdMatchesTheIfElseChain() {
+        for (int id = FIRST_ID; id <= LAST_ID; id++) {
+            assertEquals("Weather id " + id,
+                    ifElseSmallArt(id), WeatherArt.getSmallArtResourceIdForWeatherCondition(id));
+        }
+    }
+
+    /**
+     * Not a correctness test. Prints the average cost of a lookup, over the ids the forecast
+     * actually contains.
+     */
+    @Test
+    public void testLookupCost() {
+        int[] ids = {200, 300, 500, 511, 600, 701, 761, 800, 801, 803, 905, 955};
+
+        /* Summed and printed, so that the JIT can't drop the lookups */
+        long sum = 0;
+        for (int warmUp = 0; warmUp < 2; warmUp++) {
+            sum += timeLookups(ids, false)[1] + timeLookups(ids, true)[1];
+        }
+
+        long[] chain = timeLookups(ids, false);
+        long[] table = timeLookups(ids, true);
+        long lookups = (long) BENCHMARK_ROUNDS * ids.length;
+        System.out.println("Weather art lookup: " + chain[0] / (float) lookups
+                + "ns with the if/else chain, " + table[0] / (float) lookups
+                + "ns with the table (" + (sum + chain[1] + table[1]) + ")");
+    }
+
+    /**
+     * @return The time taken and the sum of the resource ids looked up
+     */
+    private static long[] timeLookups(int[] ids, boolean table) {
+        long sum = 0;
+        long start = System.nanoTime();
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+            for (int id : ids) {
+                sum += table
+                        ? WeatherArt.getSmallArtResourceIdForWeatherCondition(id)
+                        : ifElseSmallArt(id);
+            }
+        }
+        return new long[]{System.nanoTime() - start, sum};
+    }
+
+    /* The watch face's lookup before WeatherArt, without its logging */
+    private static int ifElseSmallArt(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return R.drawable.ic_storm;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return R.drawable.ic_light_rain;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return R.drawable.ic_rain;
+        } else if (weatherId == 511) {
+            return R.drawable.ic_snow;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return R.drawable.ic_rain;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return R.drawable.ic_snow;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return R.drawable.ic_fog;
+        } else if (weatherId == 761 || weatherId == 771 || weatherId == 781) {
+            return R.drawable.ic_storm;
+        } else if (weatherId == 800) {
+            return R.drawable.ic_clear;
+        } else if (weatherId == 801) {
+            return R.drawable.ic_light_clouds;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return R.drawable.ic_cloudy;
+        } else if (weatherId >= 900 && weatherId <= 906) {
+            return R.drawable.ic_storm;
+        } else if (weatherId >= 958 && weatherId <= 962) {
+            return R.drawable.ic_storm;
+        } else if (weatherId >= 951 && weatherId <= 957) {
+            return R.drawable.ic_clear;
+        }
+        return R.drawable.ic_storm;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.wearable;
+
+import android.graphics.Bitmap;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the eviction and byte accounting of {@link BoundedLruCache}, and the keys of
+ * {@link WeatherIconCache}. Bitmaps can't be created on the JVM, so the cache is tested with byte
+ * arrays standing in for them.
+ */
+public class TestWeatherIconCache {
+
+    /* Stands in for a 30x30 ARGB_8888 icon */
+    private static final int ICON_BYTES = 30 * 30 * 4;
+
+    private static class ByteArrayCache extends BoundedLruCache<String, byte[]> {
+        ByteArrayCache(int maxBytes) {
+            super(maxBytes);
+        }
+
+        @Override
+        int sizeOf(byte[] value) {
+            return value.length;
+        }
+    }
+
+    @Test
+    public void testBytesAreAccounted() {
+        ByteArrayCache cache = new ByteArrayCache(10 * ICON_BYTES);
+        cache.put("storm", new byte[ICON_BYTES]);
+        cache.put("rain", new byte[ICON_BYTES]);
+        assertEquals(2 * ICON_BYTES, cache.size());
+
+        /* Replacing a value only counts the new one */
+        cache.put("rain", new byte[ICON_BYTES / 2]);
+        assertEquals(ICON_BYTES + ICON_BYTES / 2, cache.size());
+        assertEquals(2, cache.count());
+
+        cache.evictAll();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.count());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvictedFirst() {
+        ByteArrayCache cache = new ByteArrayCache(3 * ICON_BYTES);
+        cache.put("storm", new byte[ICON_BYTES]);
+        cache.put("rain", new byte[ICON_BYTES]);
+        cache.put("snow", new byte[ICON_BYTES]);
+
+        /* Using storm makes rain the least recently used */
+        assertNotNull(cache.get("storm"));
+        cache.put("fog", new byte[ICON_BYTES]);
+
+        assertNull(cache.get("rain"));
+        assertNotNull(cache.get("storm"));
+        assertNotNull(cache.get("snow"));
+        assertNotNull(cache.get("fog"));
+        assertEquals(3 * ICON_BYTES, cache.size());
+    }
+
+    @Test
+    public void testValueLargerThanCacheIsNotKept() {
+        ByteArrayCache cache = new ByteArrayCache(ICON_BYTES);
+        cache.put("huge", new byte[2 * ICON_BYTES]);
+        assertNull(cache.get("huge"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testKeysTellSizesAndVariantsApart() {
+        WeatherIconCache.Key key = new WeatherIconCache.Key(R.drawable.ic_clear, 30, false);
+        assertTrue(key.equals(new WeatherIconCache.Key(R.drawable.ic_clear, 30, false)));
+        assertEquals(key.hashCode(),
+                new WeatherIconCache.Key(R.drawable.ic_clear, 30, false).hashCode());
+
+        assertFalse(key.equals(new WeatherIconCache.Key(R.drawable.ic_rain, 30, false)));
+        assertFalse(key.equals(new WeatherIconCache.Key(R.drawable.ic_clear, 48, false)));
+        assertFalse(key.equals(new WeatherIconCache.Key(R.drawable.ic_clear, 30, true)));
+    }
+
+    @Test
+    public void testFailedLoadIsNotCached() {
+        WeatherIconCache cache = new WeatherIconCache(WeatherIconCache.DEFAULT_MAX_BYTES);
+        final int[] loads = new int[1];
+        WeatherIconCache.Loader failingLoader = new WeatherIconCache.Loader() {
+            @Override
+            public Bitmap load(int resourceId, int sizePx, boolean ambient) {
+                loads[0]++;
+                return null;
+            }
+        };
+
+        assertNull(cache.getOrLoad(R.drawable.ic_clear, 30, false, failingLoader));
+        assertNull(cache.getOrLoad(R.drawable.ic_clear, 30, false, failingLoader));
+        assertEquals("A failed load should be tried again", 2, loads[0]);
+        assertEquals(0, cache.getByteCount());
+    }
+}